@@ -0,0 +1,67 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Copy loops used by the socket file transfer paths.
+ *
+ * {@link #transfer} hands the copy to {@link FileChannel#transferTo}, which lets
+ * the kernel move file pages straight to a socket channel (sendfile) without
+ * passing through the Java heap. {@link #copy} is the classic buffered stream
+ * path, kept for Base64 sources and as a fallback.
+ */
+public final class ChannelTransfer {
+
+    /** Upper bound per transferTo call so progress and cancellation stay responsive */
+    public static final int TRANSFER_CHUNK = 1024 * 1024;
+
+    public interface ProgressListener {
+        void onProgress(long bytesTransferred);
+
+        boolean isCancelled();
+    }
+
+    private ChannelTransfer() {
+    }
+
+    /**
+     * Sends {@code count} bytes of {@code src} starting at {@code position} to {@code dst}.
+     *
+     * @return number of bytes actually sent (less than count if cancelled or the source is shorter)
+     */
+    public static long transfer(FileChannel src, long position, long count, WritableByteChannel dst,
+            ProgressListener listener) throws IOException {
+        long sent = 0;
+        while (sent < count && (listener == null || !listener.isCancelled())) {
+            long n = src.transferTo(position + sent, Math.min(TRANSFER_CHUNK, count - sent), dst);
+            if (n <= 0) {
+                // transferTo returns 0 at end of file; a blocking target never reports 0 otherwise
+                if (position + sent >= src.size())
+                    break;
+                continue;
+            }
+            sent += n;
+            if (listener != null)
+                listener.onProgress(sent);
+        }
+        return sent;
+    }
+
+    /** Stream copy through a heap buffer, reporting progress after every chunk. */
+    public static long copy(InputStream in, OutputStream out, byte[] buffer, ProgressListener listener)
+            throws IOException {
+        long total = 0;
+        int bytesRead;
+        while ((listener == null || !listener.isCancelled()) && (bytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+            total += bytesRead;
+            if (listener != null)
+                listener.onProgress(total);
+        }
+        return total;
+    }
+}
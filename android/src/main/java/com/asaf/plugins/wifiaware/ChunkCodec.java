@@ -0,0 +1,33 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.IOException;
+
+/**
+ * Block compressor for a single DATA frame payload.
+ *
+ * Codecs are identified on the wire by {@link #id()}, so a custom codec must be
+ * registered under the same id on both peers (see {@link ChunkCodecs#register}).
+ * Implementations must be safe to call from several writer threads at once.
+ */
+public interface ChunkCodec {
+
+    /** Wire id, 1-255 */
+    int id();
+
+    /** Name used in sendFile options, e.g. "deflate" */
+    String name();
+
+    /**
+     * Compresses {@code src[off .. off+len)} into {@code dst}.
+     *
+     * @return compressed length, or -1 if the result does not fit in {@code dst}
+     */
+    int compress(byte[] src, int off, int len, byte[] dst);
+
+    /**
+     * Restores exactly {@code rawLength} bytes into {@code dst}.
+     *
+     * @throws IOException if the input is corrupt or does not expand to rawLength
+     */
+    void decompress(byte[] src, int off, int len, byte[] dst, int rawLength) throws IOException;
+}
@@ -0,0 +1,113 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Registry of {@link ChunkCodec}s by wire id and name.
+ *
+ * Deflate at {@link Deflater#BEST_SPEED} is always available; it typically gets most of
+ * the gain on text, logs and raw images at a fraction of the default level's CPU cost.
+ * Faster codecs (LZ4, zstd) can be plugged in with {@link #register}.
+ */
+public final class ChunkCodecs {
+
+    public static final String NONE = "none";
+    public static final ChunkCodec DEFLATE = new DeflateCodec(1, "deflate", Deflater.BEST_SPEED);
+
+    private static final Map<Integer, ChunkCodec> byId = new ConcurrentHashMap<>();
+    private static final Map<String, ChunkCodec> byName = new ConcurrentHashMap<>();
+
+    static {
+        register(DEFLATE);
+    }
+
+    private ChunkCodecs() {
+    }
+
+    public static void register(ChunkCodec codec) {
+        if (codec.id() < 1 || codec.id() > 255)
+            throw new IllegalArgumentException("Codec id must be 1-255");
+        ChunkCodec existing = byId.putIfAbsent(codec.id(), codec);
+        if (existing != null && existing != codec)
+            throw new IllegalArgumentException("Codec id " + codec.id() + " already used by " + existing.name());
+        byName.put(codec.name(), codec);
+    }
+
+    public static ChunkCodec get(int id) {
+        return byId.get(id);
+    }
+
+    /** @return the codec for a sendFile option, or null for {@link #NONE} */
+    public static ChunkCodec forName(String name) {
+        if (name == null || NONE.equals(name))
+            return null;
+        ChunkCodec codec = byName.get(name);
+        if (codec == null)
+            throw new IllegalArgumentException("Unknown compression: " + name);
+        return codec;
+    }
+
+    /** Deflate with one Deflater/Inflater per thread, since creating them allocates native state. */
+    static class DeflateCodec implements ChunkCodec {
+        private final int id;
+        private final String name;
+        private final ThreadLocal<Deflater> deflaters;
+        private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+        DeflateCodec(int id, String name, int level) {
+            this.id = id;
+            this.name = name;
+            this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+        }
+
+        @Override
+        public int id() {
+            return id;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public int compress(byte[] src, int off, int len, byte[] dst) {
+            Deflater d = deflaters.get();
+            d.reset();
+            d.setInput(src, off, len);
+            d.finish();
+            int n = 0;
+            while (!d.finished()) {
+                if (n == dst.length)
+                    return -1;
+                n += d.deflate(dst, n, dst.length - n);
+            }
+            return n;
+        }
+
+        @Override
+        public void decompress(byte[] src, int off, int len, byte[] dst, int rawLength) throws IOException {
+            Inflater inf = inflaters.get();
+            inf.reset();
+            inf.setInput(src, off, len);
+            try {
+                int n = 0;
+                while (n < rawLength) {
+                    int r = inf.inflate(dst, n, rawLength - n);
+                    if (r == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary()))
+                        break;
+                    n += r;
+                }
+                if (n != rawLength)
+                    throw new IOException("Chunk inflated to " + n + " bytes, expected " + rawLength);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt compressed chunk", e);
+            }
+        }
+    }
+}
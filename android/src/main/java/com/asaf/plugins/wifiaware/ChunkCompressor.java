@@ -0,0 +1,136 @@
+package com.asaf.plugins.wifiaware;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-stream policy deciding which DATA frames are worth compressing.
+ *
+ * Each chunk is first judged on a small sample; only if the sample shrinks enough is the
+ * whole chunk compressed, and the result is still dropped if the saving is marginal.
+ * Incompressible content (JPEG, MP4, archives) therefore costs one small sample per
+ * chunk, and after a run of rejected chunks sampling backs off exponentially, so an
+ * already-compressed file is sent at close to raw speed.
+ */
+public class ChunkCompressor {
+
+    static final int SAMPLE_SIZE = 4 * 1024;
+    // Sample must shrink to 85% and the chunk to 90% for compression to pay off
+    static final int SAMPLE_RATIO_PERCENT = 85;
+    static final int CHUNK_RATIO_PERCENT = 90;
+    static final int MAX_BACKOFF = 64;
+
+    /** Counters shared by all streams, surfaced through the plugin's stats. */
+    public static class Stats {
+        final LongAdder chunksCompressed = new LongAdder();
+        final LongAdder chunksRaw = new LongAdder();
+        final LongAdder samplesRejected = new LongAdder();
+        final LongAdder inputBytes = new LongAdder();
+        final LongAdder outputBytes = new LongAdder();
+        final LongAdder inflatedChunks = new LongAdder();
+        final LongAdder inflatedBytes = new LongAdder();
+        final LongAdder inflatedWireBytes = new LongAdder();
+
+        /** Receive side: one compressed frame of {@code wire} bytes expanded to {@code raw}. */
+        public void recordInflated(int wire, int raw) {
+            inflatedChunks.increment();
+            inflatedWireBytes.add(wire);
+            inflatedBytes.add(raw);
+        }
+
+        /** Zeroes every counter, as the plugin's resetStats does. */
+        public void reset() {
+            chunksCompressed.reset();
+            chunksRaw.reset();
+            samplesRejected.reset();
+            inputBytes.reset();
+            outputBytes.reset();
+            inflatedChunks.reset();
+            inflatedBytes.reset();
+            inflatedWireBytes.reset();
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new HashMap<>();
+            long in = inputBytes.sum();
+            long out = outputBytes.sum();
+            m.put("chunksCompressed", chunksCompressed.sum());
+            m.put("chunksRaw", chunksRaw.sum());
+            m.put("samplesRejected", samplesRejected.sum());
+            m.put("sentInputBytes", in);
+            m.put("sentWireBytes", out);
+            m.put("sentSavedBytes", in - out);
+            m.put("receivedCompressedChunks", inflatedChunks.sum());
+            m.put("receivedWireBytes", inflatedWireBytes.sum());
+            m.put("receivedInflatedBytes", inflatedBytes.sum());
+            return m;
+        }
+    }
+
+    private final ChunkCodec codec;
+    private final Stats stats;
+    private final byte[] sampleOut = new byte[SAMPLE_SIZE];
+    private final byte[] out = new byte[FrameCodec.MAX_PAYLOAD - FrameCodec.COMPRESSED_HEADER_SIZE];
+    private int backoff = 1;
+    private int skip;
+
+    public ChunkCompressor(ChunkCodec codec, Stats stats) {
+        this.codec = codec;
+        this.stats = stats;
+    }
+
+    /**
+     * Encodes {@code raw[0 .. len)} as a DATA payload.
+     *
+     * @return a compressed payload ({@code [u8 codec][u32 rawLength][bytes]}) ready to
+     *         write with {@link FrameCodec#FLAG_DATA_COMPRESSED}, or null to send the chunk raw
+     */
+    public ByteBuffer encode(byte[] raw, int len, ByteBuffer payload) {
+        stats.inputBytes.add(len);
+        int n = tryCompress(raw, len);
+        if (n < 0) {
+            stats.chunksRaw.increment();
+            stats.outputBytes.add(len);
+            return null;
+        }
+        stats.chunksCompressed.increment();
+        stats.outputBytes.add(FrameCodec.COMPRESSED_HEADER_SIZE + n);
+        payload.clear();
+        payload.put((byte) codec.id());
+        payload.putInt(len);
+        payload.put(out, 0, n);
+        payload.flip();
+        return payload;
+    }
+
+    private int tryCompress(byte[] raw, int len) {
+        if (skip > 0) {
+            skip--;
+            return -1;
+        }
+        if (len > SAMPLE_SIZE * 2) {
+            // The sample comes from the middle; file headers are often unrepresentative
+            int off = (len - SAMPLE_SIZE) / 2;
+            int s = codec.compress(raw, off, SAMPLE_SIZE, sampleOut);
+            if (s < 0 || s * 100L > SAMPLE_SIZE * (long) SAMPLE_RATIO_PERCENT) {
+                reject();
+                return -1;
+            }
+        }
+        int n = codec.compress(raw, 0, len, out);
+        if (n < 0 || n * 100L > len * (long) CHUNK_RATIO_PERCENT) {
+            reject();
+            return -1;
+        }
+        backoff = 1;
+        return n;
+    }
+
+    private void reject() {
+        stats.samplesRejected.increment();
+        skip = backoff;
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+    }
+}
@@ -0,0 +1,174 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded on-disk store of received chunks keyed by their SHA-256, evicted least recently used.
+ *
+ * One file per chunk, named by the hex hash. The LRU order lives in memory and is rebuilt
+ * from file modification times on startup; {@link #get} touches the file so the order
+ * survives restarts approximately. Callers verify chunk hashes before {@link #put}.
+ */
+public class ChunkStore {
+
+    private final File dir;
+    private volatile long maxBytes;
+    // hex hash -> size, in access order
+    private final LinkedHashMap<String, Integer> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+
+    private long hits;
+    private long misses;
+    private long puts;
+    private long evictions;
+    private long bytesReused;
+
+    public ChunkStore(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    /** @return the chunk, or null if it is not stored (or no longer readable) */
+    public byte[] get(byte[] hash) {
+        String key = hex(hash);
+        Integer size;
+        synchronized (this) {
+            load();
+            size = entries.get(key);
+            if (size == null) {
+                misses++;
+                return null;
+            }
+        }
+        File f = new File(dir, key);
+        byte[] data = new byte[size];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.readFully(data);
+        } catch (IOException e) {
+            synchronized (this) {
+                remove(key);
+                misses++;
+            }
+            return null;
+        }
+        f.setLastModified(System.currentTimeMillis());
+        synchronized (this) {
+            hits++;
+            bytesReused += size;
+        }
+        return data;
+    }
+
+    public void put(byte[] hash, byte[] data, int length) {
+        if (length > maxBytes)
+            return;
+        String key = hex(hash);
+        synchronized (this) {
+            load();
+            if (entries.containsKey(key))
+                return;
+        }
+        File tmp = new File(dir, key + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data, 0, length);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(new File(dir, key))) {
+            tmp.delete();
+            return;
+        }
+        synchronized (this) {
+            if (entries.put(key, length) == null)
+                totalBytes += length;
+            puts++;
+            evict();
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("chunks", entries.size());
+        m.put("bytes", totalBytes);
+        m.put("maxBytes", maxBytes);
+        m.put("hits", hits);
+        m.put("misses", misses);
+        m.put("puts", puts);
+        m.put("evictions", evictions);
+        m.put("bytesReused", bytesReused);
+        return m;
+    }
+
+    /** Zeroes the hit, miss, put and eviction counters; the stored chunks stay. */
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        puts = 0;
+        evictions = 0;
+        bytesReused = 0;
+    }
+
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!dir.exists())
+            dir.mkdirs();
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : files) {
+            if (f.getName().endsWith(".tmp")) {
+                f.delete();
+                continue;
+            }
+            entries.put(f.getName(), (int) f.length());
+            totalBytes += f.length();
+        }
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Integer>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Integer> e = it.next();
+            it.remove();
+            totalBytes -= e.getValue();
+            evictions++;
+            new File(dir, e.getKey()).delete();
+        }
+    }
+
+    private void remove(String key) {
+        Integer size = entries.remove(key);
+        if (size != null)
+            totalBytes -= size;
+        new File(dir, key).delete();
+    }
+
+    static String hex(byte[] hash) {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,231 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived send queue for one connection that coalesces small frames.
+ *
+ * Callers queue complete frames and return; a writer task takes everything queued (up to
+ * {@link Batching#maxBatchBytes}) and hands it to the socket in one gathering write, so a
+ * burst of small messages costs one syscall and leaves in as few TCP segments as possible.
+ * With a linger window configured the writer first waits that long for more frames, like
+ * Nagle's algorithm but under our control; a flush skips the window.
+ */
+public class CoalescingWriter implements Closeable {
+
+    /** Batching settings shared by all connections, adjustable at runtime. */
+    public static class Batching {
+        public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+
+        volatile long lingerNanos;
+        volatile int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+
+        /** How long the writer waits for more frames before a partial batch goes out; 0 sends at once. */
+        public void setLingerMicros(long micros) {
+            if (micros < 0)
+                throw new IllegalArgumentException("linger must be >= 0");
+            lingerNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+        }
+
+        public void setMaxBatchBytes(int bytes) {
+            if (bytes < 1024)
+                throw new IllegalArgumentException("batch size must be >= 1024");
+            maxBatchBytes = bytes;
+        }
+
+        public long lingerNanos() {
+            return lingerNanos;
+        }
+
+        public int maxBatchBytes() {
+            return maxBatchBytes;
+        }
+    }
+
+    private final WritableByteChannel out;
+    private final Object writeLock;
+    private final Executor executor;
+    private final Batching batching;
+    private final Object lock = new Object();
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private long queuedBytes;   // total ever queued
+    private long writtenBytes;  // total handed to the channel
+    private long flushUpTo;     // write without lingering until writtenBytes reaches this
+    private boolean writing;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * @param writeLock held while writing to {@code out}, so other writers of the same socket
+     *                  (a legacy file send) can keep their bytes contiguous
+     */
+    public CoalescingWriter(WritableByteChannel out, Object writeLock, Executor executor, Batching batching) {
+        this.out = out;
+        this.writeLock = writeLock;
+        this.executor = executor;
+        this.batching = batching;
+    }
+
+    /**
+     * Queues one frame made of {@code parts}.
+     *
+     * @param flush send without waiting for the linger window and return once the frame
+     *              (and everything queued before it) has been written
+     */
+    public void write(boolean flush, ByteBuffer... parts) throws IOException {
+        long end;
+        boolean start;
+        synchronized (lock) {
+            if (failure != null)
+                throw failure;
+            if (closed)
+                throw new ClosedChannelException();
+            for (ByteBuffer part : parts) {
+                queuedBytes += part.remaining();
+                queue.add(part);
+            }
+            end = queuedBytes;
+            if (flush)
+                flushUpTo = end;
+            lock.notifyAll();
+            start = !writing;
+            writing = true;
+        }
+        if (start) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                fail(new IOException("Writer stopped", e));
+            }
+        }
+        if (flush)
+            awaitWritten(end);
+    }
+
+    /** Sends everything queued so far without lingering and waits until it was written. */
+    public void flush() throws IOException {
+        long end;
+        synchronized (lock) {
+            end = queuedBytes;
+            flushUpTo = end;
+            lock.notifyAll();
+        }
+        awaitWritten(end);
+    }
+
+    private void awaitWritten(long end) throws IOException {
+        synchronized (lock) {
+            while (writtenBytes < end && failure == null && !closed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while flushing", e);
+                }
+            }
+            if (writtenBytes < end) {
+                if (failure != null)
+                    throw failure;
+                throw new ClosedChannelException();
+            }
+        }
+    }
+
+    private void drain() {
+        ByteBuffer[] batch = new ByteBuffer[16];
+        while (true) {
+            int count = 0;
+            long bytes = 0;
+            synchronized (lock) {
+                int max = batching.maxBatchBytes;
+                long linger = batching.lingerNanos;
+                if (linger > 0) {
+                    long deadline = System.nanoTime() + linger;
+                    // Linger for more frames unless flushed, full or nothing is waiting
+                    while (!closed && flushUpTo <= writtenBytes && queuedBytes - writtenBytes < max
+                            && !queue.isEmpty()) {
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0)
+                            break;
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(lock, wait);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+                if (closed || queue.isEmpty()) {
+                    writing = false;
+                    return;
+                }
+                while (!queue.isEmpty() && (count == 0 || bytes + queue.peek().remaining() <= max)) {
+                    if (count == batch.length)
+                        batch = Arrays.copyOf(batch, count * 2);
+                    ByteBuffer b = queue.poll();
+                    bytes += b.remaining();
+                    batch[count++] = b;
+                }
+            }
+            try {
+                synchronized (writeLock) {
+                    writeFully(batch, count);
+                }
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            Arrays.fill(batch, 0, count, null);
+            synchronized (lock) {
+                writtenBytes += bytes;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer[] batch, int count) throws IOException {
+        if (out instanceof GatheringByteChannel) {
+            GatheringByteChannel g = (GatheringByteChannel) out;
+            int first = 0;
+            while (first < count) {
+                g.write(batch, first, count - first);
+                while (first < count && !batch[first].hasRemaining())
+                    first++;
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            while (batch[i].hasRemaining())
+                out.write(batch[i]);
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (lock) {
+            if (failure == null)
+                failure = e;
+            queue.clear();
+            writing = false;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            queue.clear();
+            lock.notifyAll();
+        }
+    }
+}
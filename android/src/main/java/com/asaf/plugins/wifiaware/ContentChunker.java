@@ -0,0 +1,155 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Content-defined chunking with a gear rolling hash.
+ *
+ * Boundaries are placed where the rolling hash of the last bytes matches a mask, so an
+ * insertion or edit only moves the boundaries around it and the remaining chunks of a
+ * slightly modified file keep their hashes. Chunks are between {@link #MIN_CHUNK} and
+ * {@link #MAX_CHUNK} bytes (about 40 KiB on average) so each fits one DATA frame.
+ */
+public final class ContentChunker {
+
+    public static final int MIN_CHUNK = 8 * 1024;
+    public static final int MAX_CHUNK = FrameCodec.MAX_PAYLOAD;
+    // 15 bits: a boundary every ~32 KiB after the minimum
+    private static final long MASK = (1L << 15) - 1;
+    public static final int HASH_SIZE = 32;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed splitmix64 sequence so every device cuts identical content identically
+        long seed = 0x5741_4348_554e_4b31L;
+        for (int i = 0; i < GEAR.length; i++) {
+            long z = (seed += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** Chunk boundaries and SHA-256 hashes of one file. */
+    public static class Manifest {
+        public final long[] offsets;
+        public final int[] lengths;
+        public final byte[] hashes; // HASH_SIZE bytes per chunk
+
+        public Manifest(long[] offsets, int[] lengths, byte[] hashes) {
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.hashes = hashes;
+        }
+
+        public int count() {
+            return lengths.length;
+        }
+
+        public byte[] hash(int index) {
+            return Arrays.copyOfRange(hashes, index * HASH_SIZE, (index + 1) * HASH_SIZE);
+        }
+
+        public boolean matches(int index, byte[] digest) {
+            for (int i = 0; i < HASH_SIZE; i++) {
+                if (hashes[index * HASH_SIZE + i] != digest[i])
+                    return false;
+            }
+            return true;
+        }
+
+        /** Rebuilds offsets from decoded lengths; the receiver only gets lengths and hashes. */
+        public static Manifest fromLengths(int[] lengths, byte[] hashes) {
+            long[] offsets = new long[lengths.length];
+            long pos = 0;
+            for (int i = 0; i < lengths.length; i++) {
+                offsets[i] = pos;
+                pos += lengths[i];
+            }
+            return new Manifest(offsets, lengths, hashes);
+        }
+
+        public long totalLength() {
+            return lengths.length == 0 ? 0 : offsets[lengths.length - 1] + lengths[lengths.length - 1];
+        }
+    }
+
+    private ContentChunker() {
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Cuts {@code size} bytes of {@code src} into chunks in one sequential read pass. */
+    public static Manifest scan(FileChannel src, long size) throws IOException {
+        int capacity = (int) Math.min(Integer.MAX_VALUE / 2, size / (MIN_CHUNK * 4) + 16);
+        long[] offsets = new long[capacity];
+        int[] lengths = new int[capacity];
+        byte[] hashes = new byte[capacity * HASH_SIZE];
+        int count = 0;
+
+        MessageDigest digest = sha256();
+        ByteBuffer buf = ByteBuffer.allocate(1024 * 1024);
+        long position = 0;
+        long chunkStart = 0;
+        int chunkLength = 0;
+        long h = 0;
+        while (position < size) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), size - position));
+            int n = src.read(buf, position);
+            if (n <= 0)
+                throw new IOException("Source ended before announced size");
+            byte[] a = buf.array();
+            int runStart = 0;
+            for (int i = 0; i < n; i++) {
+                h = (h << 1) + GEAR[a[i] & 0xFF];
+                chunkLength++;
+                boolean cut = chunkLength >= MAX_CHUNK
+                        || (chunkLength >= MIN_CHUNK && (h & MASK) == 0);
+                if (!cut)
+                    continue;
+                digest.update(a, runStart, i + 1 - runStart);
+                runStart = i + 1;
+                if (count == lengths.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                    hashes = Arrays.copyOf(hashes, count * 2 * HASH_SIZE);
+                }
+                offsets[count] = chunkStart;
+                lengths[count] = chunkLength;
+                System.arraycopy(digest.digest(), 0, hashes, count * HASH_SIZE, HASH_SIZE);
+                count++;
+                chunkStart += chunkLength;
+                chunkLength = 0;
+                h = 0;
+            }
+            digest.update(a, runStart, n - runStart);
+            position += n;
+        }
+        if (chunkLength > 0) {
+            if (count == lengths.length) {
+                offsets = Arrays.copyOf(offsets, count + 1);
+                lengths = Arrays.copyOf(lengths, count + 1);
+                hashes = Arrays.copyOf(hashes, (count + 1) * HASH_SIZE);
+            }
+            offsets[count] = chunkStart;
+            lengths[count] = chunkLength;
+            System.arraycopy(digest.digest(), 0, hashes, count * HASH_SIZE, HASH_SIZE);
+            count++;
+        }
+        return new Manifest(Arrays.copyOf(offsets, count), Arrays.copyOf(lengths, count),
+                Arrays.copyOf(hashes, count * HASH_SIZE));
+    }
+}
@@ -0,0 +1,175 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Established data paths (NDPs), kept per key so that later sockets to the same peer skip
+ * the network request.
+ *
+ * Every socket using a path holds a reference to it. When the last one is released the
+ * path stays pooled for the idle timeout and is closed once it expires, unless a new
+ * socket acquired it first; with a timeout of 0 it is closed right away. At most one path
+ * is pooled per key: a path added while another is pooled under the same key (two
+ * requests racing) stays private to its socket and is closed on release.
+ *
+ * @param <P> data path type
+ */
+public class DataPathPool<P> {
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    public interface Closer<P> {
+        /** Tears the path down; called without the pool's lock held. */
+        void close(P path);
+    }
+
+    private static class Entry<P> {
+        final P path;
+        int refs = 1;
+        // Bumped on every acquire and release, so a stale idle timer can tell it lost
+        long generation;
+
+        Entry(P path) {
+            this.path = path;
+        }
+    }
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 10_000;
+
+    private final Map<String, Entry<P>> entries = new HashMap<>();
+    private final Scheduler scheduler;
+    private final Closer<P> closer;
+    private volatile long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+    public DataPathPool(Scheduler scheduler, Closer<P> closer) {
+        this.scheduler = scheduler;
+        this.closer = closer;
+    }
+
+    public void setIdleTimeoutMs(long ms) {
+        if (ms < 0)
+            throw new IllegalArgumentException("dataPathIdleMs must be >= 0");
+        idleTimeoutMs = ms;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    /** @return the pooled path for {@code key} with one more reference, or null on a miss */
+    public synchronized P acquire(String key) {
+        Entry<P> e = entries.get(key);
+        if (e == null)
+            return null;
+        e.refs++;
+        e.generation++;
+        return e.path;
+    }
+
+    /**
+     * Pools a newly established path, holding one reference for the socket that requested it.
+     *
+     * @return false if another path is already pooled under {@code key}
+     */
+    public synchronized boolean add(String key, P path) {
+        if (entries.containsKey(key))
+            return false;
+        entries.put(key, new Entry<>(path));
+        return true;
+    }
+
+    /** Drops one reference; paths that were never pooled are closed immediately. */
+    public void release(String key, P path) {
+        boolean closeNow;
+        synchronized (this) {
+            Entry<P> e = entries.get(key);
+            if (e == null || e.path != path) {
+                closeNow = true;
+            } else {
+                if (e.refs > 0)
+                    e.refs--;
+                if (e.refs > 0)
+                    return;
+                long generation = ++e.generation;
+                long timeout = idleTimeoutMs;
+                closeNow = timeout == 0;
+                if (closeNow)
+                    entries.remove(key);
+                else
+                    scheduler.schedule(() -> expire(key, e, generation), timeout);
+            }
+        }
+        if (closeNow)
+            closer.close(path);
+    }
+
+    private void expire(String key, Entry<P> e, long generation) {
+        synchronized (this) {
+            if (entries.get(key) != e || e.generation != generation || e.refs > 0)
+                return;
+            entries.remove(key);
+        }
+        closer.close(e.path);
+    }
+
+    /** Forgets a path without closing it, e.g. once its network was lost. */
+    public synchronized boolean remove(String key, P path) {
+        Entry<P> e = entries.get(key);
+        if (e == null || e.path != path)
+            return false;
+        entries.remove(key);
+        return true;
+    }
+
+    /** Closes the pooled paths no socket is using, e.g. once the peer handles they were made for are gone. */
+    public void evictIdle() {
+        List<P> paths = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Entry<P>> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry<P> e = it.next();
+                if (e.refs == 0) {
+                    paths.add(e.path);
+                    it.remove();
+                }
+            }
+        }
+        for (P path : paths)
+            closer.close(path);
+    }
+
+    /** Empties the pool, closing every path whether or not it is still referenced. */
+    public void clear() {
+        List<P> paths = new ArrayList<>();
+        synchronized (this) {
+            for (Entry<P> e : entries.values())
+                paths.add(e.path);
+            entries.clear();
+        }
+        for (P path : paths)
+            closer.close(path);
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Pooled paths that no socket is using, waiting for reuse or their idle timeout */
+    public synchronized int idle() {
+        int n = 0;
+        for (Entry<P> e : entries.values())
+            if (e.refs == 0)
+                n++;
+        return n;
+    }
+}
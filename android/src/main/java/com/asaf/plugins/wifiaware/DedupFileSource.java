@@ -0,0 +1,145 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Outgoing file as a dedup stream: FILE_OPEN, MANIFEST frames, then DATA for the chunks
+ * the receiver lacks, then END.
+ *
+ * After the manifest the stream parks until the receiver's NEED frames have arrived
+ * ({@link #onNeed}); each needed chunk is then sent as one DATA frame, in manifest order,
+ * so the receiver can place it without any per-frame index.
+ */
+public class DedupFileSource implements StreamMultiplexer.Stream {
+
+    private final FrameCodec.FileOpen open;
+    private final FileChannel source;
+    private final ContentChunker.Manifest manifest;
+    private final ChannelTransfer.ProgressListener listener;
+    private final ChunkCompressor compressor;
+    private final CompletableFuture<Long> done = new CompletableFuture<>();
+    private final List<byte[]> manifestFrames;
+    private final BitSet need = new BitSet();
+    private volatile boolean needComplete;
+    private boolean opened;
+    private boolean counted;
+    private int manifestSent;
+    private int cursor;
+    private long skipped;
+    private long sent;
+    private ByteBuffer chunk;
+    private ByteBuffer compressed;
+
+    public DedupFileSource(FrameCodec.FileOpen open, FileChannel source, ContentChunker.Manifest manifest,
+            ChannelTransfer.ProgressListener listener, ChunkCompressor compressor) {
+        this.open = open;
+        this.source = source;
+        this.manifest = manifest;
+        this.listener = listener;
+        this.compressor = compressor;
+        this.manifestFrames = FrameCodec.encodeManifest(manifest);
+    }
+
+    /** Completes with the number of chunk bytes actually sent. */
+    public CompletableFuture<Long> completion() {
+        return done;
+    }
+
+    /**
+     * Adds one NEED frame from the receiver.
+     *
+     * @return true once the last frame arrived and the stream can be woken
+     */
+    public boolean onNeed(byte[] payload, boolean last) throws IOException {
+        synchronized (need) {
+            FrameCodec.decodeNeed(payload, need);
+        }
+        if (last)
+            needComplete = true;
+        return last;
+    }
+
+    @Override
+    public boolean isReady() {
+        return manifestSent < manifestFrames.size() || needComplete;
+    }
+
+    @Override
+    public boolean writeFrame(int streamId, StreamMultiplexer.FrameSink sink) throws IOException {
+        if (!opened) {
+            sink.write(FrameCodec.TYPE_FILE_OPEN, FrameCodec.FLAG_OPEN_DEDUP, streamId,
+                    ByteBuffer.wrap(FrameCodec.encodeFileOpen(open)));
+            opened = true;
+            return true;
+        }
+        if (manifestSent < manifestFrames.size()) {
+            boolean last = manifestSent == manifestFrames.size() - 1;
+            sink.write(FrameCodec.TYPE_MANIFEST, last ? FrameCodec.FLAG_LAST : 0, streamId,
+                    ByteBuffer.wrap(manifestFrames.get(manifestSent++)));
+            return true;
+        }
+        if (listener != null && listener.isCancelled())
+            throw new IOException("Transfer cancelled");
+
+        int index;
+        synchronized (need) {
+            if (!counted) {
+                // First frame after NEED: count everything the receiver already had
+                counted = true;
+                for (int i = 0; i < manifest.count(); i++) {
+                    if (!need.get(i))
+                        skipped += manifest.lengths[i];
+                }
+                if (listener != null && skipped > 0)
+                    listener.onProgress(skipped);
+            }
+            index = need.nextSetBit(cursor);
+        }
+        if (index < 0 || index >= manifest.count()) {
+            sink.write(FrameCodec.TYPE_END, (byte) 0, streamId, null);
+            return false;
+        }
+
+        int length = manifest.lengths[index];
+        if (chunk == null)
+            chunk = ByteBuffer.allocate(FrameCodec.MAX_PAYLOAD);
+        chunk.clear();
+        chunk.limit(length);
+        long position = manifest.offsets[index];
+        while (chunk.hasRemaining()) {
+            if (source.read(chunk, position + chunk.position()) < 0)
+                throw new IOException("Source ended before announced size");
+        }
+        chunk.flip();
+        ByteBuffer payload = null;
+        if (compressor != null) {
+            if (compressed == null)
+                compressed = ByteBuffer.allocate(FrameCodec.MAX_PAYLOAD);
+            payload = compressor.encode(chunk.array(), length, compressed);
+        }
+        if (payload != null) {
+            sink.write(FrameCodec.TYPE_DATA, FrameCodec.FLAG_DATA_COMPRESSED, streamId, payload);
+        } else {
+            sink.write(FrameCodec.TYPE_DATA, (byte) 0, streamId, chunk);
+        }
+        cursor = index + 1;
+        sent += length;
+        if (listener != null)
+            listener.onProgress(skipped + sent);
+        return true;
+    }
+
+    @Override
+    public void onFinished(IOException error) {
+        if (error != null) {
+            done.completeExceptionally(error);
+        } else {
+            done.complete(sent);
+        }
+    }
+}
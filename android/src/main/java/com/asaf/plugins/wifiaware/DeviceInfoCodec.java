@@ -0,0 +1,305 @@
+package com.asaf.plugins.wifiaware;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Device info carried in the service-specific info of a publish, in one of two layouts.
+ *
+ * TLV (current): {@code [user data][record][record length][TRAILER]}, found from the end of
+ * the service info, so user data may contain any bytes. The record is a version byte followed
+ * by fields, each {@code [type][varint length][value]}; unknown types are skipped. Numbers are
+ * varints and capabilities a bitmask, which keeps a typical record under 40 bytes of the
+ * roughly 255 available.
+ *
+ * JSON (legacy): {@code [user data][0x00][device info]}, where the device info is a flat JSON
+ * object with one-letter keys: {@code {"n":name,"t":type,"m":model,"o":osVersion}}. Still
+ * written on request and always recognized when no TLV record is present.
+ */
+public final class DeviceInfoCodec {
+
+    public static final byte SEPARATOR = 0x00;
+
+    public static final byte TRAILER = (byte) 0xD1;
+    public static final int VERSION = 1;
+
+    public static final String FORMAT_TLV = "tlv";
+    public static final String FORMAT_JSON = "json";
+
+    // Capability bits, in the order of CAPABILITY_NAMES
+    public static final int CAP_MESSAGING = 1;
+    public static final int CAP_FILE_TRANSFER = 1 << 1;
+    public static final int CAP_RANGING = 1 << 2;
+    public static final int CAP_INSTANT_MODE = 1 << 3;
+    private static final String[] CAPABILITY_NAMES = { "messaging", "file-transfer", "ranging", "instant-mode" };
+
+    // Device types sent as a code rather than a string
+    private static final String[] DEVICE_TYPES = { "Android", "iPhone" };
+
+    // Field types
+    private static final int T_NAME = 1;
+    private static final int T_TYPE_CODE = 2;
+    private static final int T_TYPE = 3;
+    private static final int T_MODEL = 4;
+    private static final int T_OS_MAJOR = 5;
+    private static final int T_OS = 6;
+    private static final int T_CAPABILITIES = 7;
+
+    // Longer names are cut, so a record always fits its one-byte length
+    static final int MAX_TEXT_BYTES = 48;
+
+    private DeviceInfoCodec() {
+    }
+
+    public static class Fields {
+        public final String deviceName;
+        public final String deviceType;
+        public final String modelName;
+        public final String osVersion;
+        /** CAP_* bits; -1 when the sender did not say (legacy JSON) */
+        public final int capabilities;
+
+        public Fields(String deviceName, String deviceType, String modelName, String osVersion) {
+            this(deviceName, deviceType, modelName, osVersion, -1);
+        }
+
+        public Fields(String deviceName, String deviceType, String modelName, String osVersion, int capabilities) {
+            this.deviceName = deviceName;
+            this.deviceType = deviceType;
+            this.modelName = modelName;
+            this.osVersion = osVersion;
+            this.capabilities = capabilities;
+        }
+    }
+
+    /** Device info found in a service info, and how many bytes of user data precede it. */
+    public static class Parsed {
+        public final int userLength;
+        public final Fields fields;
+
+        Parsed(int userLength, Fields fields) {
+            this.userLength = userLength;
+            this.fields = fields;
+        }
+    }
+
+    public static int capabilityMask(List<String> names) {
+        int mask = 0;
+        for (int i = 0; i < CAPABILITY_NAMES.length; i++)
+            if (names.contains(CAPABILITY_NAMES[i]))
+                mask |= 1 << i;
+        return mask;
+    }
+
+    public static List<String> capabilityNames(int mask) {
+        List<String> names = new ArrayList<>(Integer.bitCount(mask));
+        for (int i = 0; i < CAPABILITY_NAMES.length; i++)
+            if ((mask & (1 << i)) != 0)
+                names.add(CAPABILITY_NAMES[i]);
+        return names;
+    }
+
+    /** The legacy device info part, without the separator. */
+    public static byte[] encodeJson(Fields f) {
+        String json = "{\"n\":\"" + f.deviceName.replace("\"", "\\\"")
+                + "\",\"t\":\"" + f.deviceType
+                + "\",\"m\":\"" + f.modelName.replace("\"", "\\\"")
+                + "\",\"o\":\"" + f.osVersion + "\"}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Everything that follows the user data: the record, its length and the trailer. */
+    public static byte[] encodeTlv(Fields f) {
+        byte[] out = new byte[2 + 4 * (2 + MAX_TEXT_BYTES) + 2 * 7];
+        int p = 0;
+        out[p++] = VERSION;
+        p = putText(out, p, T_NAME, f.deviceName);
+        int typeCode = indexOf(DEVICE_TYPES, f.deviceType);
+        if (typeCode >= 0)
+            p = putNumber(out, p, T_TYPE_CODE, typeCode);
+        else
+            p = putText(out, p, T_TYPE, f.deviceType);
+        p = putText(out, p, T_MODEL, f.modelName);
+        int major = plainNumber(f.osVersion);
+        if (major >= 0)
+            p = putNumber(out, p, T_OS_MAJOR, major);
+        else
+            p = putText(out, p, T_OS, f.osVersion);
+        if (f.capabilities >= 0)
+            p = putNumber(out, p, T_CAPABILITIES, f.capabilities);
+        out[p] = (byte) p;
+        out[p + 1] = TRAILER;
+        byte[] result = new byte[p + 2];
+        System.arraycopy(out, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Finds the device info in a service info: a TLV record at the end if there is one,
+     * otherwise legacy JSON after a 0x00.
+     *
+     * @return the device info, or null if there is none
+     */
+    public static Parsed parse(byte[] serviceInfo) {
+        Parsed tlv = parseTlv(serviceInfo);
+        return tlv != null ? tlv : parseJson(serviceInfo);
+    }
+
+    /** @return the TLV device info at the end of the service info, or null if it has none */
+    public static Parsed parseTlv(byte[] b) {
+        int n = b.length;
+        if (n < 3 || b[n - 1] != TRAILER)
+            return null;
+        int start = n - 2 - (b[n - 2] & 0xFF);
+        if (start < 0 || b[start] != VERSION)
+            return null;
+        int end = n - 2;
+        String name = null, type = null, model = null, os = null;
+        int capabilities = -1;
+        int p = start + 1;
+        while (p < end) {
+            int t = b[p++] & 0xFF;
+            long len = readVarint(b, p, end);
+            if (len < 0)
+                return null;
+            // Past the bytes it took, which a non-canonical varint makes more than varintSize(len)
+            while (b[p++] < 0)
+                ;
+            if (len > end - p)
+                return null;
+            int l = (int) len;
+            switch (t) {
+                case T_NAME: name = text(b, p, l); break;
+                case T_TYPE: type = text(b, p, l); break;
+                case T_MODEL: model = text(b, p, l); break;
+                case T_OS: os = text(b, p, l); break;
+                case T_TYPE_CODE: {
+                    long code = readVarint(b, p, p + l);
+                    type = code >= 0 && code < DEVICE_TYPES.length ? DEVICE_TYPES[(int) code] : null;
+                    break;
+                }
+                case T_OS_MAJOR: {
+                    long major = readVarint(b, p, p + l);
+                    os = major >= 0 ? Long.toString(major) : null;
+                    break;
+                }
+                case T_CAPABILITIES: {
+                    long mask = readVarint(b, p, p + l);
+                    capabilities = mask >= 0 ? (int) mask : -1;
+                    break;
+                }
+                default:
+                    break; // from a newer sender
+            }
+            p += l;
+        }
+        if (name == null)
+            return null;
+        return new Parsed(start, new Fields(name, type, model, os, capabilities));
+    }
+
+    /**
+     * Looks for legacy device info after each 0x00 in turn, since user data may contain zeros too.
+     *
+     * @return the first one that has a device name, or null if there is none
+     */
+    public static Parsed parseJson(byte[] serviceInfo) {
+        for (int i = 0; i < serviceInfo.length - 1; i++) {
+            if (serviceInfo[i] != SEPARATOR)
+                continue;
+            String json = new String(serviceInfo, i + 1, serviceInfo.length - i - 1, StandardCharsets.UTF_8);
+            String deviceName = extractJsonValue(json, "n");
+            if (deviceName != null) {
+                return new Parsed(i, new Fields(deviceName, extractJsonValue(json, "t"),
+                        extractJsonValue(json, "m"), extractJsonValue(json, "o")));
+            }
+        }
+        return null;
+    }
+
+    // Just enough JSON for the flat string-valued object written by encodeJson
+    static String extractJsonValue(String json, String key) {
+        String pattern = "\"" + key + "\":\"";
+        int start = json.indexOf(pattern);
+        if (start >= 0) {
+            start += pattern.length();
+            int end = json.indexOf("\"", start);
+            if (end > start) {
+                return json.substring(start, end);
+            }
+        }
+        return null;
+    }
+
+    private static int putText(byte[] out, int p, int type, String s) {
+        if (s == null)
+            return p;
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(utf8.length, MAX_TEXT_BYTES);
+        // Cut before a continuation byte rather than inside a character
+        while (len < utf8.length && len > 0 && (utf8[len] & 0xC0) == 0x80)
+            len--;
+        out[p++] = (byte) type;
+        out[p++] = (byte) len; // < 128, so a one-byte varint
+        System.arraycopy(utf8, 0, out, p, len);
+        return p + len;
+    }
+
+    private static int putNumber(byte[] out, int p, int type, int value) {
+        long v = value & 0xFFFFFFFFL;
+        out[p++] = (byte) type;
+        out[p++] = (byte) varintSize(v);
+        while (v >= 0x80) {
+            out[p++] = (byte) (v | 0x80);
+            v >>>= 7;
+        }
+        out[p++] = (byte) v;
+        return p;
+    }
+
+    /** @return the varint at p, or -1 if it is malformed or runs past end */
+    private static long readVarint(byte[] b, int p, int end) {
+        long v = 0;
+        for (int shift = 0; shift < 35 && p < end; shift += 7) {
+            int x = b[p++];
+            v |= (long) (x & 0x7F) << shift;
+            if (x >= 0)
+                return v;
+        }
+        return -1;
+    }
+
+    private static int varintSize(long v) {
+        int n = 1;
+        while ((v >>>= 7) != 0)
+            n++;
+        return n;
+    }
+
+    private static String text(byte[] b, int p, int len) {
+        return new String(b, p, len, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(String[] values, String s) {
+        for (int i = 0; i < values.length; i++)
+            if (values[i].equals(s))
+                return i;
+        return -1;
+    }
+
+    // "14" -> 14; -1 for anything that is not a short run of digits
+    private static int plainNumber(String s) {
+        if (s == null || s.isEmpty() || s.length() > 9)
+            return -1;
+        int v = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            v = v * 10 + (c - '0');
+        }
+        // "014" would not come back the same
+        return s.length() > 1 && s.charAt(0) == '0' ? -1 : v;
+    }
+}
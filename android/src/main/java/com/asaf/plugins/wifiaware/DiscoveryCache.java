@@ -0,0 +1,110 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Last reported discovery of each peer, so repeated onServiceDiscovered callbacks neither
+ * reparse the service info nor reach JS again unless something changed.
+ *
+ * A discovery is reported when the peer is new, its service info differs from the last
+ * report (compared by hash first, then byte for byte), its distance moved by at least
+ * {@link Settings#hysteresisMm} or appeared or disappeared, or {@link Settings#repeatMs}
+ * passed since the last report. Everything else is suppressed. Parsing happens only when
+ * the service info changed; otherwise the cached value is reused.
+ *
+ * @param <V> parsed service info
+ */
+public class DiscoveryCache<V> {
+
+    public interface Parser<V> {
+        V parse(byte[] serviceInfo);
+    }
+
+    /** Thresholds shared by all sessions, adjustable at runtime. */
+    public static class Settings {
+        volatile int hysteresisMm = 500;
+        volatile long repeatMs = 5000;
+
+        public void setHysteresisMm(int mm) {
+            if (mm < 0)
+                throw new IllegalArgumentException("discoveryHysteresisMm must be >= 0");
+            hysteresisMm = mm;
+        }
+
+        /** 0 reports every discovery, as the callbacks arrive */
+        public void setRepeatMs(long ms) {
+            if (ms < 0)
+                throw new IllegalArgumentException("discoveryRepeatMs must be >= 0");
+            repeatMs = ms;
+        }
+    }
+
+    private static class Entry<V> {
+        byte[] info;
+        int infoHash;
+        V value;
+        Integer distanceMm;
+        long reportedAtMs;
+    }
+
+    private final Parser<V> parser;
+    private final Settings settings;
+    private final PeerRegistry.Clock clock;
+    private final Map<String, Entry<V>> entries = new HashMap<>();
+
+    public DiscoveryCache(Parser<V> parser, Settings settings, PeerRegistry.Clock clock) {
+        this.parser = parser;
+        this.settings = settings;
+        this.clock = clock;
+    }
+
+    /**
+     * Records one discovery callback.
+     *
+     * @param serviceInfo the service-specific info as received; null is treated as empty
+     * @return the parsed info to report, or null if the discovery is suppressed
+     */
+    public synchronized V offer(String peerId, byte[] serviceInfo, Integer distanceMm) {
+        byte[] info = serviceInfo != null ? serviceInfo : new byte[0];
+        int hash = Arrays.hashCode(info);
+        long now = clock.nowMs();
+        Entry<V> e = entries.get(peerId);
+        boolean sameInfo = e != null && e.infoHash == hash && Arrays.equals(e.info, info);
+        if (sameInfo && !distanceMoved(e.distanceMm, distanceMm) && now - e.reportedAtMs < settings.repeatMs) {
+            return null;
+        }
+        if (e == null) {
+            e = new Entry<>();
+            entries.put(peerId, e);
+        }
+        if (!sameInfo) {
+            e.info = info.clone();
+            e.infoHash = hash;
+            e.value = parser.parse(info);
+        }
+        e.distanceMm = distanceMm;
+        e.reportedAtMs = now;
+        return e.value;
+    }
+
+    private boolean distanceMoved(Integer last, Integer now) {
+        if (last == null || now == null)
+            return (last == null) != (now == null);
+        return Math.abs(now - last) >= Math.max(1, settings.hysteresisMm);
+    }
+
+    public synchronized void remove(String peerId) {
+        entries.remove(peerId);
+    }
+
+    /** Forgets every peer, so the next discovery of each is reported again */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
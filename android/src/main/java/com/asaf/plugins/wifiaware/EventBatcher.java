@@ -0,0 +1,144 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces high-frequency events into arrays so the bridge to JS is crossed once per batch.
+ *
+ * Events are queued per event name and delivered together when {@link Settings#intervalMs}
+ * has passed since the first one was queued, or as soon as {@link Settings#maxBatch} are
+ * waiting. An event offered with a merge key replaces the queued event with the same key
+ * (a newer progress tick supersedes the older one) and keeps its place. When more than
+ * {@link Settings#maxQueued} events of one name are waiting, the oldest are dropped and
+ * the count is delivered with the next batch.
+ *
+ * @param <T> event payload type
+ */
+public class EventBatcher<T> {
+
+    public interface Sink<T> {
+        /** @param dropped events of this name discarded since the previous batch */
+        void deliver(String event, List<T> batch, int dropped);
+    }
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    /** Batching settings, adjustable at runtime; an interval of 0 turns batching off. */
+    public static class Settings {
+        public static final int DEFAULT_MAX_BATCH = 64;
+        public static final int DEFAULT_MAX_QUEUED = 1024;
+
+        volatile long intervalMs;
+        volatile int maxBatch = DEFAULT_MAX_BATCH;
+        volatile int maxQueued = DEFAULT_MAX_QUEUED;
+
+        public void setIntervalMs(long ms) {
+            if (ms < 0)
+                throw new IllegalArgumentException("eventBatchIntervalMs must be >= 0");
+            intervalMs = ms;
+        }
+
+        public void setMaxBatch(int n) {
+            if (n < 1)
+                throw new IllegalArgumentException("eventBatchSize must be >= 1");
+            maxBatch = n;
+        }
+
+        public void setMaxQueued(int n) {
+            if (n < 1)
+                throw new IllegalArgumentException("eventQueueLimit must be >= 1");
+            maxQueued = n;
+        }
+
+        public boolean enabled() {
+            return intervalMs > 0;
+        }
+    }
+
+    private static class Queue<T> {
+        // Merge key (or a unique placeholder) -> event, in arrival order
+        final LinkedHashMap<Object, T> events = new LinkedHashMap<>();
+        int dropped;
+    }
+
+    private final Sink<T> sink;
+    private final Scheduler scheduler;
+    private final Settings settings;
+    private final Map<String, Queue<T>> queues = new HashMap<>();
+    // Held from taking a batch until it was delivered, so batches arrive in order
+    private final Object deliverLock = new Object();
+    private boolean scheduled;
+
+    public EventBatcher(Sink<T> sink, Scheduler scheduler, Settings settings) {
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.settings = settings;
+    }
+
+    /**
+     * Queues one event.
+     *
+     * @param mergeKey events of the same name and key supersede each other; null never merges
+     */
+    public void offer(String event, Object mergeKey, T payload) {
+        boolean full;
+        boolean schedule = false;
+        synchronized (this) {
+            Queue<T> q = queues.computeIfAbsent(event, e -> new Queue<>());
+            Object key = mergeKey != null ? mergeKey : new Object();
+            q.events.put(key, payload); // a merged event keeps the place of the one it replaces
+            Iterator<Object> oldest = q.events.keySet().iterator();
+            while (q.events.size() > settings.maxQueued) {
+                oldest.next();
+                oldest.remove();
+                q.dropped++;
+            }
+            full = q.events.size() >= settings.maxBatch;
+            if (!full && !scheduled) {
+                scheduled = true;
+                schedule = true;
+            }
+        }
+        if (full)
+            flush();
+        else if (schedule)
+            scheduler.schedule(this::onTimer, settings.intervalMs);
+    }
+
+    /** Delivers everything queued now. */
+    public void flush() {
+        synchronized (deliverLock) {
+            List<String> names = new ArrayList<>();
+            List<List<T>> batches = new ArrayList<>();
+            List<Integer> dropped = new ArrayList<>();
+            synchronized (this) {
+                for (Map.Entry<String, Queue<T>> e : queues.entrySet()) {
+                    Queue<T> q = e.getValue();
+                    if (q.events.isEmpty() && q.dropped == 0)
+                        continue;
+                    names.add(e.getKey());
+                    batches.add(new ArrayList<>(q.events.values()));
+                    dropped.add(q.dropped);
+                    q.events.clear();
+                    q.dropped = 0;
+                }
+            }
+            for (int i = 0; i < names.size(); i++)
+                sink.deliver(names.get(i), batches.get(i), dropped.get(i));
+        }
+    }
+
+    private void onTimer() {
+        synchronized (this) {
+            scheduled = false;
+        }
+        flush();
+    }
+}
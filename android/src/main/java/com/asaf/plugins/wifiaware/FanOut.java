@@ -0,0 +1,107 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends one payload to many peers concurrently.
+ *
+ * The caller encodes the payload once and every target reads the same bytes. At most
+ * {@code maxConcurrent} targets are in progress at a time: that many workers each take the
+ * next target when they finish one, so a slow peer holds up only its own worker. Every
+ * target gets its own {@link Result}, in the order the targets were given.
+ */
+public class FanOut {
+
+    public static final int DEFAULT_MAX_CONCURRENT = 4;
+
+    public interface Send {
+        /**
+         * Sends to one target; an exception fails only that target.
+         *
+         * @return what the send produced for the target (a message or transfer id), or null
+         */
+        String send(String target) throws Exception;
+    }
+
+    public static final class Result {
+        public final String target;
+        /** What the send produced for this target (a message or transfer id), if anything */
+        public final String id;
+        /** null when the send succeeded */
+        public final String error;
+
+        Result(String target, String id, String error) {
+            this.target = target;
+            this.id = id;
+            this.error = error;
+        }
+
+        public boolean ok() {
+            return error == null;
+        }
+    }
+
+    private final Executor executor;
+    private volatile int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+
+    public FanOut(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void setMaxConcurrent(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("fanOutConcurrency must be >= 1");
+        maxConcurrent = n;
+    }
+
+    /** @return completes with one result per target once every target finished */
+    public CompletableFuture<List<Result>> run(List<String> targets, Send send) {
+        CompletableFuture<List<Result>> done = new CompletableFuture<>();
+        int n = targets.size();
+        if (n == 0) {
+            done.complete(new ArrayList<>());
+            return done;
+        }
+        Result[] results = new Result[n];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        Runnable worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < n) {
+                String target = targets.get(i);
+                String id = null;
+                String error = null;
+                try {
+                    id = send.send(target);
+                } catch (Exception e) {
+                    error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                }
+                results[i] = new Result(target, id, error);
+                if (finished.incrementAndGet() == n)
+                    done.complete(Arrays.asList(results));
+            }
+        };
+        int workers = Math.min(maxConcurrent, n);
+        for (int w = 0; w < workers; w++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // Targets not taken by a running worker fail here
+                int i;
+                while ((i = next.getAndIncrement()) < n) {
+                    results[i] = new Result(targets.get(i), null, "Sender stopped");
+                    if (finished.incrementAndGet() == n)
+                        done.complete(Arrays.asList(results));
+                }
+                break;
+            }
+        }
+        return done;
+    }
+}
@@ -0,0 +1,145 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Outgoing file as a v2 stream: FILE_OPEN, then DATA frames, then END.
+ *
+ * The stream covers {@code open.rangeOffset .. + open.rangeLength}, the whole file unless
+ * it is one stripe of a striped transfer. File channels are sent with transferTo so the
+ * zero-copy path survives framing; any other source (e.g. decoded Base64) is read through
+ * a heap buffer and must already be positioned at the range start.
+ *
+ * With a {@link ChunkCompressor} each chunk is read into the heap and sent compressed
+ * when that pays off, giving up zero-copy for fewer bytes on the link.
+ *
+ * A resumable stream flags its FILE_OPEN and then parks until the receiver answers with
+ * the offset it already holds ({@link #resumeAt(long)}); data starts from there.
+ */
+public class FileStreamSource implements StreamMultiplexer.Stream {
+
+    private final FrameCodec.FileOpen open;
+    private final ReadableByteChannel source;
+    private final ChannelTransfer.ProgressListener listener;
+    private final boolean resumable;
+    private final ChunkCompressor compressor;
+    private ByteBuffer compressed;
+    private final CompletableFuture<Long> done = new CompletableFuture<>();
+    private ByteBuffer heapBuffer;
+    private boolean opened;
+    private volatile long resumeOffset = -1;
+    private long sent;
+
+    public FileStreamSource(FrameCodec.FileOpen open, ReadableByteChannel source,
+            ChannelTransfer.ProgressListener listener) {
+        this(open, source, listener, false);
+    }
+
+    /**
+     * @param resumable wait for the receiver's RESUME offset before sending data; the
+     *                  source must then be a FileChannel
+     */
+    public FileStreamSource(FrameCodec.FileOpen open, ReadableByteChannel source,
+            ChannelTransfer.ProgressListener listener, boolean resumable) {
+        this(open, source, listener, resumable, null);
+    }
+
+    /**
+     * @param compressor compresses DATA frames where worthwhile; null sends them raw
+     */
+    public FileStreamSource(FrameCodec.FileOpen open, ReadableByteChannel source,
+            ChannelTransfer.ProgressListener listener, boolean resumable, ChunkCompressor compressor) {
+        this.open = open;
+        this.source = source;
+        this.listener = listener;
+        this.resumable = resumable && source instanceof FileChannel;
+        this.compressor = compressor;
+    }
+
+    /** Sets the offset (within the range) the receiver already holds; call before waking the stream. */
+    public void resumeAt(long offset) {
+        resumeOffset = Math.max(0, Math.min(offset, open.rangeLength));
+    }
+
+    @Override
+    public boolean isReady() {
+        return !resumable || resumeOffset >= 0;
+    }
+
+    /** Completes with the number of bytes sent, or exceptionally if the stream failed or was cancelled. */
+    public CompletableFuture<Long> completion() {
+        return done;
+    }
+
+    @Override
+    public boolean writeFrame(int streamId, StreamMultiplexer.FrameSink sink) throws IOException {
+        if (!opened) {
+            sink.write(FrameCodec.TYPE_FILE_OPEN, resumable ? FrameCodec.FLAG_OPEN_RESUMABLE : 0, streamId,
+                    ByteBuffer.wrap(FrameCodec.encodeFileOpen(open)));
+            opened = true;
+            return true;
+        }
+        if (resumable && sent == 0 && resumeOffset > 0) {
+            // Skip what the receiver already has
+            sent = resumeOffset;
+            if (listener != null)
+                listener.onProgress(sent);
+        }
+        if (listener != null && listener.isCancelled()) {
+            // The multiplexer answers a failed stream with RESET
+            throw new IOException("Transfer cancelled");
+        }
+        long remaining = open.rangeLength - sent;
+        if (remaining <= 0) {
+            sink.write(FrameCodec.TYPE_END, (byte) 0, streamId, null);
+            return false;
+        }
+
+        int n = (int) Math.min(FrameCodec.MAX_PAYLOAD, remaining);
+        if (source instanceof FileChannel && compressor == null) {
+            sink.writeRegion(FrameCodec.TYPE_DATA, (byte) 0, streamId, (FileChannel) source,
+                    open.rangeOffset + sent, n);
+        } else {
+            if (heapBuffer == null)
+                heapBuffer = ByteBuffer.allocate(FrameCodec.MAX_PAYLOAD);
+            heapBuffer.clear();
+            heapBuffer.limit(n);
+            while (heapBuffer.hasRemaining()) {
+                int r = source instanceof FileChannel
+                        ? ((FileChannel) source).read(heapBuffer, open.rangeOffset + sent + heapBuffer.position())
+                        : source.read(heapBuffer);
+                if (r < 0)
+                    throw new IOException("Source ended before announced size");
+            }
+            heapBuffer.flip();
+            ByteBuffer payload = null;
+            if (compressor != null) {
+                if (compressed == null)
+                    compressed = ByteBuffer.allocate(FrameCodec.MAX_PAYLOAD);
+                payload = compressor.encode(heapBuffer.array(), n, compressed);
+            }
+            if (payload != null) {
+                sink.write(FrameCodec.TYPE_DATA, FrameCodec.FLAG_DATA_COMPRESSED, streamId, payload);
+            } else {
+                sink.write(FrameCodec.TYPE_DATA, (byte) 0, streamId, heapBuffer);
+            }
+        }
+        sent += n;
+        if (listener != null)
+            listener.onProgress(sent);
+        return true;
+    }
+
+    @Override
+    public void onFinished(IOException error) {
+        if (error != null) {
+            done.completeExceptionally(error);
+        } else {
+            done.complete(sent);
+        }
+    }
+}
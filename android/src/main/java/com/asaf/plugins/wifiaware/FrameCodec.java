@@ -0,0 +1,356 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Wire format for the NDP socket protocol.
+ *
+ * Version 1 (legacy) is the original {@code int messageType} stream:
+ * {@code 1 <len> <bytes>} for messages and {@code 2 <name> <mime> <size> <bytes>} for files.
+ *
+ * Version 2 is a length-prefixed frame stream that can interleave several logical streams:
+ * <pre>
+ * [u8 type][u8 flags][u32 streamId][u32 length][payload...]
+ * </pre>
+ * The connecting side opens with a single hello int ({@code 'W' 'A' flags version}); the
+ * accepting side answers with the same word carrying the agreed version. A v1 peer reads
+ * the hello as an unknown message type and skips it, and a v1 client never sends one, so
+ * both directions fall back to the legacy stream when no hello is exchanged. The
+ * {@link #HELLO_AUXILIARY} flag marks extra connections opened for striped transfers.
+ */
+public final class FrameCodec {
+
+    public static final int VERSION_LEGACY = 1;
+    public static final int VERSION_FRAMED = 2;
+    public static final int CURRENT_VERSION = VERSION_FRAMED;
+
+    private static final int HELLO_BASE = 0x57410000; // 'W' 'A'
+    private static final int HELLO_MASK = 0xFFFF0000;
+    /** Hello flag: extra connection carrying stripes of a transfer, not a new peer */
+    public static final int HELLO_AUXILIARY = 0x0100;
+
+    public static final int HEADER_SIZE = 10;
+    public static final int MAX_PAYLOAD = 64 * 1024;
+    /** Most connections one transfer is striped over, the primary included */
+    public static final int MAX_STRIPES = 8;
+
+    // Frame types
+    public static final byte TYPE_MESSAGE = 0x01;
+    public static final byte TYPE_FILE_OPEN = 0x02;
+    public static final byte TYPE_DATA = 0x03;
+    public static final byte TYPE_END = 0x04;
+    public static final byte TYPE_RESET = 0x05;
+    /** Asks the connecting side to open {@code u16 count} auxiliary connections for striping */
+    public static final byte TYPE_STRIPE_REQUEST = 0x06;
+
+    /** Receiver's answer to a resumable FILE_OPEN: {@code u64 offset} to continue from */
+    public static final byte TYPE_RESUME = 0x07;
+
+    /** Chunk list of a dedup stream: {@code u32 startIndex} then {@code [u32 length][32 byte hash]...} */
+    public static final byte TYPE_MANIFEST = 0x08;
+    /** Receiver's reply to a manifest: {@code u32 startIndex} then a bitmap of the chunks it lacks */
+    public static final byte TYPE_NEED = 0x09;
+
+    // FILE_OPEN flags
+    /** The sender waits for a RESUME frame before sending data */
+    public static final byte FLAG_OPEN_RESUMABLE = 0x01;
+    /** MANIFEST frames follow, and only chunks named in the NEED reply are sent as DATA */
+    public static final byte FLAG_OPEN_DEDUP = 0x02;
+
+    // MANIFEST / NEED flags
+    public static final byte FLAG_LAST = 0x01;
+
+    // DATA flags
+    /** Payload is {@code [u8 codecId][u32 rawLength][compressed bytes]}, see {@link ChunkCodec} */
+    public static final byte FLAG_DATA_COMPRESSED = 0x01;
+    public static final int COMPRESSED_HEADER_SIZE = 5;
+
+    // RESET flags
+    /** Set by the receiving side to refuse or cancel a stream the remote opened */
+    public static final byte FLAG_RESET_BY_RECEIVER = 0x01;
+
+    /** Stream used for standalone messages */
+    public static final int CONTROL_STREAM = 0;
+
+    private FrameCodec() {
+    }
+
+    public static int hello(int version) {
+        return hello(version, false);
+    }
+
+    public static int hello(int version, boolean auxiliary) {
+        return HELLO_BASE | (auxiliary ? HELLO_AUXILIARY : 0) | (version & 0xFF);
+    }
+
+    public static boolean isAuxiliary(int word) {
+        return isHello(word) && (word & HELLO_AUXILIARY) != 0;
+    }
+
+    public static boolean isHello(int word) {
+        return (word & HELLO_MASK) == HELLO_BASE;
+    }
+
+    public static int helloVersion(int word) {
+        return word & 0xFF;
+    }
+
+    public static class Header {
+        public final byte type;
+        public final byte flags;
+        public final int streamId;
+        public final int length;
+
+        public Header(byte type, byte flags, int streamId, int length) {
+            this.type = type;
+            this.flags = flags;
+            this.streamId = streamId;
+            this.length = length;
+        }
+    }
+
+    public static void putHeader(ByteBuffer b, byte type, byte flags, int streamId, int length) {
+        b.put(type);
+        b.put(flags);
+        b.putInt(streamId);
+        b.putInt(length);
+    }
+
+    /** Encodes a complete frame into a new buffer, flipped and ready to write. */
+    public static ByteBuffer encode(byte type, byte flags, int streamId, byte[] payload) {
+        int length = payload != null ? payload.length : 0;
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + length);
+        putHeader(b, type, flags, streamId, length);
+        if (length > 0)
+            b.put(payload);
+        b.flip();
+        return b;
+    }
+
+    public static Header readHeader(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        byte flags = in.readByte();
+        int streamId = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD)
+            throw new IOException("Invalid frame length " + length);
+        return new Header(type, flags, streamId, length);
+    }
+
+    /** Same as {@link #readHeader(DataInputStream)} for a buffer holding at least {@link #HEADER_SIZE} bytes. */
+    public static Header getHeader(ByteBuffer b) throws IOException {
+        byte type = b.get();
+        byte flags = b.get();
+        int streamId = b.getInt();
+        int length = b.getInt();
+        if (length < 0 || length > MAX_PAYLOAD)
+            throw new IOException("Invalid frame length " + length);
+        return new Header(type, flags, streamId, length);
+    }
+
+    /** Discards a payload the receiver has no use for. */
+    public static void skip(DataInputStream in, int length) throws IOException {
+        while (length > 0) {
+            int n = (int) in.skip(length);
+            if (n <= 0) {
+                in.readByte();
+                n = 1;
+            }
+            length -= n;
+        }
+    }
+
+    // ===== FILE_OPEN payload =====
+
+    public static class FileOpen {
+        public final String transferId;
+        public final String fileName;
+        public final String mimeType;
+        public final long fileSize;
+        // Byte range carried by this stream; a striped transfer sends one range per connection
+        public final long rangeOffset;
+        public final long rangeLength;
+        public final int stripeCount;
+        // Stable id of the sending installation, so a resumed transfer finds its journal again
+        // whatever connection it arrives on; empty when the sender did not send one
+        public final String senderId;
+
+        public FileOpen(String transferId, String fileName, String mimeType, long fileSize) {
+            this(transferId, fileName, mimeType, fileSize, 0, fileSize, 1);
+        }
+
+        public FileOpen(String transferId, String fileName, String mimeType, long fileSize,
+                long rangeOffset, long rangeLength, int stripeCount) {
+            this(transferId, fileName, mimeType, fileSize, rangeOffset, rangeLength, stripeCount, null);
+        }
+
+        public FileOpen(String transferId, String fileName, String mimeType, long fileSize,
+                long rangeOffset, long rangeLength, int stripeCount, String senderId) {
+            this.transferId = transferId;
+            this.fileName = fileName;
+            this.mimeType = mimeType != null ? mimeType : "";
+            this.fileSize = fileSize;
+            this.rangeOffset = rangeOffset;
+            this.rangeLength = rangeLength;
+            this.stripeCount = stripeCount;
+            this.senderId = senderId != null ? senderId : "";
+        }
+    }
+
+    public static byte[] encodeFileOpen(FileOpen f) {
+        byte[] id = f.transferId.getBytes(StandardCharsets.UTF_8);
+        byte[] name = f.fileName.getBytes(StandardCharsets.UTF_8);
+        byte[] mime = f.mimeType.getBytes(StandardCharsets.UTF_8);
+        byte[] sender = f.senderId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(2 + id.length + 2 + name.length + 2 + mime.length + 8 + 8 + 8 + 2
+                + (sender.length > 0 ? 2 + sender.length : 0));
+        putString(b, id);
+        putString(b, name);
+        putString(b, mime);
+        b.putLong(f.fileSize);
+        b.putLong(f.rangeOffset);
+        b.putLong(f.rangeLength);
+        b.putShort((short) f.stripeCount);
+        // Optional trailing field; older receivers stop reading after the stripe count
+        if (sender.length > 0)
+            putString(b, sender);
+        return b.array();
+    }
+
+    /**
+     * @throws IOException if the payload is truncated, or its size, range or stripe count
+     *                     cannot describe a transfer
+     */
+    public static FileOpen decodeFileOpen(byte[] payload) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(payload);
+        String transferId = getString(b);
+        String fileName = getString(b);
+        String mimeType = getString(b);
+        if (b.remaining() < 8)
+            throw new IOException("Malformed file open frame");
+        long fileSize = b.getLong();
+        if (fileSize < 0)
+            throw new IOException("Invalid file size " + fileSize);
+        if (b.remaining() < 18) {
+            // Whole-file stream
+            return new FileOpen(transferId, fileName, mimeType, fileSize);
+        }
+        long rangeOffset = b.getLong();
+        long rangeLength = b.getLong();
+        int stripeCount = b.getShort() & 0xFFFF;
+        if (rangeOffset < 0 || rangeOffset > fileSize || rangeLength < 0 || rangeLength > fileSize - rangeOffset)
+            throw new IOException("Invalid range " + rangeOffset + "+" + rangeLength + " of " + fileSize);
+        if (stripeCount < 1 || stripeCount > MAX_STRIPES)
+            throw new IOException("Invalid stripe count " + stripeCount);
+        String senderId = b.remaining() >= 2 ? getString(b) : null;
+        return new FileOpen(transferId, fileName, mimeType, fileSize, rangeOffset, rangeLength, stripeCount,
+                senderId);
+    }
+
+    // ===== MANIFEST / NEED payloads =====
+
+    private static final int MANIFEST_ENTRY_SIZE = 4 + ContentChunker.HASH_SIZE;
+    private static final int MANIFEST_ENTRIES_PER_FRAME = (MAX_PAYLOAD - 4) / MANIFEST_ENTRY_SIZE;
+    private static final int NEED_BITS_PER_FRAME = (MAX_PAYLOAD - 4) * 8;
+
+    /** Splits a manifest into frame payloads; the last one is sent with {@link #FLAG_LAST}. */
+    public static List<byte[]> encodeManifest(ContentChunker.Manifest m) {
+        List<byte[]> frames = new ArrayList<>();
+        int start = 0;
+        do {
+            int n = Math.min(MANIFEST_ENTRIES_PER_FRAME, m.count() - start);
+            ByteBuffer b = ByteBuffer.allocate(4 + n * MANIFEST_ENTRY_SIZE);
+            b.putInt(start);
+            for (int i = start; i < start + n; i++) {
+                b.putInt(m.lengths[i]);
+                b.put(m.hashes, i * ContentChunker.HASH_SIZE, ContentChunker.HASH_SIZE);
+            }
+            frames.add(b.array());
+            start += n;
+        } while (start < m.count());
+        return frames;
+    }
+
+    /** Collects MANIFEST frames on the receiving side. */
+    public static class ManifestBuilder {
+        private int[] lengths = new int[64];
+        private byte[] hashes = new byte[64 * ContentChunker.HASH_SIZE];
+        private int count;
+
+        public void add(byte[] payload) throws IOException {
+            ByteBuffer b = ByteBuffer.wrap(payload);
+            if (b.remaining() < 4 || b.getInt() != count || b.remaining() % MANIFEST_ENTRY_SIZE != 0)
+                throw new IOException("Malformed manifest frame");
+            int n = b.remaining() / MANIFEST_ENTRY_SIZE;
+            if (count + n > lengths.length) {
+                int capacity = Math.max(count + n, lengths.length * 2);
+                lengths = Arrays.copyOf(lengths, capacity);
+                hashes = Arrays.copyOf(hashes, capacity * ContentChunker.HASH_SIZE);
+            }
+            for (int i = 0; i < n; i++) {
+                int length = b.getInt();
+                if (length <= 0 || length > MAX_PAYLOAD)
+                    throw new IOException("Invalid chunk length " + length);
+                lengths[count] = length;
+                b.get(hashes, count * ContentChunker.HASH_SIZE, ContentChunker.HASH_SIZE);
+                count++;
+            }
+        }
+
+        public ContentChunker.Manifest build() {
+            return ContentChunker.Manifest.fromLengths(Arrays.copyOf(lengths, count),
+                    Arrays.copyOf(hashes, count * ContentChunker.HASH_SIZE));
+        }
+    }
+
+    /** Splits the bitmap of {@code count} chunks into frame payloads; the last one gets {@link #FLAG_LAST}. */
+    public static List<byte[]> encodeNeed(BitSet need, int count) {
+        List<byte[]> frames = new ArrayList<>();
+        int start = 0;
+        do {
+            int n = Math.min(NEED_BITS_PER_FRAME, count - start);
+            byte[] bits = need.get(start, start + n).toByteArray();
+            ByteBuffer b = ByteBuffer.allocate(4 + (n + 7) / 8);
+            b.putInt(start);
+            b.put(bits);
+            frames.add(b.array());
+            start += n;
+        } while (start < count);
+        return frames;
+    }
+
+    public static void decodeNeed(byte[] payload, BitSet into) throws IOException {
+        if (payload.length < 4)
+            throw new IOException("Malformed need frame");
+        int start = ByteBuffer.wrap(payload).getInt();
+        if (start < 0)
+            throw new IOException("Malformed need frame");
+        BitSet bits = BitSet.valueOf(ByteBuffer.wrap(payload, 4, payload.length - 4));
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            into.set(start + i);
+        }
+    }
+
+    static void putString(ByteBuffer b, byte[] s) {
+        b.putShort((short) s.length);
+        b.put(s);
+    }
+
+    static String getString(ByteBuffer b) throws IOException {
+        if (b.remaining() < 2)
+            throw new IOException("Truncated string");
+        int len = b.getShort() & 0xFFFF;
+        if (len > b.remaining())
+            throw new IOException("Truncated string");
+        String s = new String(b.array(), b.arrayOffset() + b.position(), len, StandardCharsets.UTF_8);
+        b.position(b.position() + len);
+        return s;
+    }
+}
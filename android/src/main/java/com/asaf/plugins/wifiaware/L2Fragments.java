@@ -0,0 +1,176 @@
+package com.asaf.plugins.wifiaware;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splitting of discovery messages larger than the firmware limit, and their reassembly.
+ *
+ * A fragment is {@code [0x02][0x01][u16 seq][u8 index][u8 count][bytes]}; the 0x02 prefix
+ * keeps it apart from the 0x01 protocol messages. Senders also wrap a small message that
+ * happens to start with 0x02 as a single fragment, so no payload is mistaken for one.
+ */
+public final class L2Fragments {
+
+    public static final byte PREFIX = 0x02;
+    public static final byte TYPE_FRAGMENT = 0x01;
+    public static final int HEADER_SIZE = 6;
+    public static final int MAX_FRAGMENTS = 255;
+    /** Discovery message size when the device does not report one. */
+    public static final int DEFAULT_MAX_MESSAGE = 255;
+
+    private L2Fragments() {
+    }
+
+    /** Largest payload {@link #split} accepts for the given discovery message limit. */
+    public static int maxPayload(int maxMessage) {
+        return (maxMessage - HEADER_SIZE) * MAX_FRAGMENTS;
+    }
+
+    /** @return true if {@code payload} must go through {@link #split} rather than as one message */
+    public static boolean needsSplit(byte[] payload, int maxMessage) {
+        return payload.length > maxMessage || (payload.length > 0 && payload[0] == PREFIX);
+    }
+
+    public static List<byte[]> split(int seq, byte[] payload, int maxMessage) {
+        int per = maxMessage - HEADER_SIZE;
+        int count = Math.max(1, (payload.length + per - 1) / per);
+        if (count > MAX_FRAGMENTS)
+            throw new IllegalArgumentException("Message too large: " + payload.length + " bytes (max "
+                    + maxPayload(maxMessage) + ")");
+        List<byte[]> fragments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int off = i * per;
+            int len = Math.min(per, payload.length - off);
+            ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + len);
+            b.put(PREFIX).put(TYPE_FRAGMENT).putShort((short) seq).put((byte) i).put((byte) count);
+            b.put(payload, off, len);
+            fragments.add(b.array());
+        }
+        return fragments;
+    }
+
+    public static boolean isFragment(byte[] message) {
+        return message.length >= HEADER_SIZE && message[0] == PREFIX && message[1] == TYPE_FRAGMENT
+                && (message[5] & 0xFF) > (message[4] & 0xFF);
+    }
+
+    /**
+     * Partial messages per peer, bounded in bytes and age. When the budget is exceeded the
+     * oldest partial message is dropped; the sender reports nothing for it, so callers that
+     * need delivery must retry at a higher level.
+     */
+    public static class Reassembler {
+
+        private static class Partial {
+            final int count;
+            final byte[][] parts;
+            final long started;
+            int received;
+            int bytes;
+
+            Partial(int count, long started) {
+                this.count = count;
+                this.parts = new byte[count][];
+                this.started = started;
+            }
+        }
+
+        private final int maxBytes;
+        private final long timeoutMs;
+        // peerId + seq -> partial message, oldest first
+        private final LinkedHashMap<String, Partial> partials = new LinkedHashMap<>();
+        private int totalBytes;
+        private long dropped;
+
+        public Reassembler(int maxBytes, long timeoutMs) {
+            this.maxBytes = maxBytes;
+            this.timeoutMs = timeoutMs;
+        }
+
+        /** @return the whole message once its last fragment arrived, otherwise null */
+        public synchronized byte[] add(String peerId, byte[] fragment, long now) {
+            expire(now);
+            ByteBuffer b = ByteBuffer.wrap(fragment);
+            b.position(2);
+            int seq = b.getShort() & 0xFFFF;
+            int index = b.get() & 0xFF;
+            int count = b.get() & 0xFF;
+            int len = fragment.length - HEADER_SIZE;
+            if (count == 1) {
+                byte[] whole = new byte[len];
+                System.arraycopy(fragment, HEADER_SIZE, whole, 0, len);
+                return whole;
+            }
+
+            String key = peerId + "/" + seq;
+            Partial p = partials.get(key);
+            if (p != null && p.count != count) {
+                // The sender restarted and reused the sequence number
+                remove(key);
+                p = null;
+            }
+            if (p == null) {
+                p = new Partial(count, now);
+                partials.put(key, p);
+            }
+            if (p.parts[index] != null)
+                return null; // duplicate from a retry
+            byte[] part = new byte[len];
+            System.arraycopy(fragment, HEADER_SIZE, part, 0, len);
+            p.parts[index] = part;
+            p.received++;
+            p.bytes += len;
+            totalBytes += len;
+            if (p.received < p.count) {
+                evict();
+                return null;
+            }
+
+            remove(key);
+            byte[] whole = new byte[p.bytes];
+            int off = 0;
+            for (byte[] part2 : p.parts) {
+                System.arraycopy(part2, 0, whole, off, part2.length);
+                off += part2.length;
+            }
+            return whole;
+        }
+
+        public synchronized long dropped() {
+            return dropped;
+        }
+
+        private void expire(long now) {
+            Iterator<Map.Entry<String, Partial>> it = partials.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Partial> e = it.next();
+                if (now - e.getValue().started < timeoutMs)
+                    break; // insertion order, so the rest are younger
+                it.remove();
+                totalBytes -= e.getValue().bytes;
+                dropped++;
+            }
+        }
+
+        private void evict() {
+            Iterator<Map.Entry<String, Partial>> it = partials.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Partial p = it.next().getValue();
+                it.remove();
+                totalBytes -= p.bytes;
+                dropped++;
+            }
+        }
+
+        private void remove(String key) {
+            Partial p = partials.remove(key);
+            if (p != null)
+                totalBytes -= p.bytes;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outbound discovery (L2) messages of one discovery session, paced by the firmware's
+ * send callbacks.
+ *
+ * Every transmission gets its own message id, so onMessageSendSucceeded/Failed can be
+ * matched to it. The number of messages handed to the firmware at once follows an AIMD
+ * window: it grows by one per window of successes up to {@link Pacing#maxInFlight} and
+ * halves on every failure, which finds the highest rate the link sustains without
+ * overflowing the firmware queue. Failed messages are retried with exponential backoff;
+ * a missing callback counts as a failure after {@link Pacing#ackTimeoutMs}. Retries can
+ * reorder messages. The fragments of one large message share a status: it is delivered
+ * once every fragment is, and failed (with the rest dropped) as soon as one fragment is.
+ *
+ * @param <P> peer handle type
+ */
+public class L2MessageQueue<P> {
+
+    public interface Transport<P> {
+        /** Hands one message to the firmware; the outcome arrives through {@link #onSendSucceeded}/{@link #onSendFailed}. */
+        void send(P peer, int messageId, byte[] payload);
+    }
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    public interface Listener {
+        /** @param delivered true once the firmware confirmed the send, false after the last attempt failed */
+        void onMessageStatus(String messageId, String peerId, boolean delivered, int attempts);
+    }
+
+    /** Limits shared by all sessions, adjustable at runtime. */
+    public static class Pacing {
+        volatile int maxInFlight = 4;
+        volatile int maxAttempts = 4;
+        volatile long retryBaseMs = 100;
+        volatile long ackTimeoutMs = 5000;
+
+        public void setMaxInFlight(int n) {
+            if (n < 1)
+                throw new IllegalArgumentException("l2MaxInFlight must be >= 1");
+            maxInFlight = n;
+        }
+
+        public void setMaxAttempts(int n) {
+            if (n < 1)
+                throw new IllegalArgumentException("l2MaxAttempts must be >= 1");
+            maxAttempts = n;
+        }
+    }
+
+    // Shared by the fragments of one message
+    private static class Group {
+        int remaining;
+        int attempts;
+        boolean done;
+
+        Group(int remaining) {
+            this.remaining = remaining;
+        }
+    }
+
+    private static class Pending<P> {
+        final String id;
+        final P peer;
+        final String peerId;
+        final byte[] payload;
+        final boolean report;
+        final Group group;
+        int attempts;
+        int messageId;
+
+        Pending(String id, P peer, String peerId, byte[] payload, boolean report, Group group) {
+            this.id = id;
+            this.peer = peer;
+            this.peerId = peerId;
+            this.payload = payload;
+            this.report = report;
+            this.group = group;
+        }
+    }
+
+    private final Transport<P> transport;
+    private final Scheduler scheduler;
+    private final Listener listener;
+    private final Pacing pacing;
+    private final ArrayDeque<Pending<P>> ready = new ArrayDeque<>();
+    private final Map<Integer, Pending<P>> inFlight = new HashMap<>();
+    private double window = 1;
+    private int nextMessageId = 1;
+    private long nextHandle = 1;
+    private boolean closed;
+
+    public L2MessageQueue(Transport<P> transport, Scheduler scheduler, Listener listener, Pacing pacing) {
+        this.transport = transport;
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.pacing = pacing;
+    }
+
+    /**
+     * Queues a message.
+     *
+     * @param report false for internal protocol messages that should not raise status events
+     * @return the id reported with the message's status
+     */
+    public synchronized String send(P peer, String peerId, byte[] payload, boolean report) {
+        if (closed)
+            throw new IllegalStateException("Discovery session closed");
+        Pending<P> p = new Pending<>("m" + nextHandle++, peer, peerId, payload, report, null);
+        ready.add(p);
+        pump();
+        return p.id;
+    }
+
+    /**
+     * Queues the fragments of one message back to back; they share one id and one status.
+     *
+     * @see #send
+     */
+    public synchronized String sendAll(P peer, String peerId, List<byte[]> fragments, boolean report) {
+        if (closed)
+            throw new IllegalStateException("Discovery session closed");
+        String id = "m" + nextHandle++;
+        Group group = new Group(fragments.size());
+        for (byte[] fragment : fragments)
+            ready.add(new Pending<>(id, peer, peerId, fragment, report, group));
+        pump();
+        return id;
+    }
+
+    public synchronized void onSendSucceeded(int messageId) {
+        Pending<P> p = inFlight.remove(messageId);
+        if (p == null)
+            return;
+        // Additive increase: about one more slot per window of successes
+        window = Math.min(pacing.maxInFlight, window + 1.0 / window);
+        report(p, true);
+        pump();
+    }
+
+    public synchronized void onSendFailed(int messageId) {
+        Pending<P> p = inFlight.remove(messageId);
+        if (p == null)
+            return;
+        failed(p);
+        pump();
+    }
+
+    public synchronized int queued() {
+        return ready.size() + inFlight.size();
+    }
+
+    /** Fails everything still queued; later callbacks are ignored. */
+    public void close() {
+        List<Pending<P>> dropped;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            dropped = new ArrayList<>(ready);
+            dropped.addAll(inFlight.values());
+            ready.clear();
+            inFlight.clear();
+        }
+        for (Pending<P> p : dropped)
+            report(p, false);
+    }
+
+    private void pump() {
+        while (!closed && !ready.isEmpty() && inFlight.size() < Math.min((int) window, pacing.maxInFlight)) {
+            Pending<P> p = ready.poll();
+            p.messageId = nextMessageId();
+            p.attempts++;
+            inFlight.put(p.messageId, p);
+            try {
+                transport.send(p.peer, p.messageId, p.payload);
+            } catch (RuntimeException e) {
+                inFlight.remove(p.messageId);
+                failed(p);
+                continue;
+            }
+            int sent = p.messageId;
+            scheduler.schedule(() -> onTimeout(sent, p), pacing.ackTimeoutMs);
+        }
+    }
+
+    private synchronized void onTimeout(int messageId, Pending<P> p) {
+        if (inFlight.get(messageId) != p)
+            return;
+        inFlight.remove(messageId);
+        failed(p);
+        pump();
+    }
+
+    private void failed(Pending<P> p) {
+        // Multiplicative decrease: the firmware queue or the link is saturated
+        window = Math.max(1, window / 2);
+        if (p.attempts >= pacing.maxAttempts || (p.group != null && p.group.done)) {
+            report(p, false);
+            return;
+        }
+        long delay = pacing.retryBaseMs << Math.min(p.attempts - 1, 10);
+        scheduler.schedule(() -> {
+            synchronized (this) {
+                if (closed || (p.group != null && p.group.done))
+                    return;
+                ready.addFirst(p);
+                pump();
+            }
+        }, delay);
+    }
+
+    // Unique among messages in flight; 0 is left out since it is what untracked sends use
+    private int nextMessageId() {
+        int id;
+        do {
+            id = nextMessageId;
+            nextMessageId = nextMessageId == Integer.MAX_VALUE ? 1 : nextMessageId + 1;
+        } while (inFlight.containsKey(id));
+        return id;
+    }
+
+    private void report(Pending<P> p, boolean delivered) {
+        int attempts = p.attempts;
+        Group g = p.group;
+        if (g != null) {
+            synchronized (this) {
+                if (g.done)
+                    return;
+                g.attempts += p.attempts;
+                if (delivered && --g.remaining > 0)
+                    return;
+                g.done = true;
+                // A lost fragment makes the rest useless to the receiver
+                if (!delivered)
+                    ready.removeIf(q -> q.group == g);
+                attempts = g.attempts;
+            }
+        }
+        if (p.report)
+            listener.onMessageStatus(p.id, p.peerId, delivered, attempts);
+    }
+}
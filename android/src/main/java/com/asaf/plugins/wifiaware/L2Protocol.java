@@ -0,0 +1,101 @@
+package com.asaf.plugins.wifiaware;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The 0x01-prefixed protocol messages sent over discovery (L2) messages.
+ *
+ * <pre>
+ * 0x01 0x01 [transferId: 36 ASCII][u32 nameLen][name][u32 mimeLen][mime][u64 size]  file transfer request
+ * 0x01 0x02 ...                                                                     file transfer response
+ * 0x01 0x03 [transferId: 36 ASCII]                                                  file transfer cancel
+ * </pre>
+ *
+ * Lengths are byte counts of the UTF-8 encoding, big-endian like the rest of the wire formats.
+ */
+public final class L2Protocol {
+
+    public static final byte MARKER = 0x01;
+    public static final byte TYPE_FILE_REQUEST = 0x01;
+    public static final byte TYPE_FILE_RESPONSE = 0x02;
+    public static final byte TYPE_FILE_CANCEL = 0x03;
+    /** Transfer IDs are UUID strings */
+    public static final int TRANSFER_ID_LENGTH = 36;
+
+    private L2Protocol() {
+    }
+
+    public static class FileRequest {
+        public final String transferId;
+        public final String fileName;
+        public final String mimeType;
+        public final long fileSize;
+
+        public FileRequest(String transferId, String fileName, String mimeType, long fileSize) {
+            this.transferId = transferId;
+            this.fileName = fileName;
+            this.mimeType = mimeType;
+            this.fileSize = fileSize;
+        }
+    }
+
+    /** @return the message type if {@code message} is a protocol message, otherwise 0 */
+    public static byte typeOf(byte[] message) {
+        return message.length > 2 && message[0] == MARKER ? message[1] : 0;
+    }
+
+    public static byte[] encodeFileRequest(FileRequest r) {
+        byte[] id = r.transferId.getBytes(StandardCharsets.US_ASCII);
+        byte[] name = r.fileName.getBytes(StandardCharsets.UTF_8);
+        byte[] mime = r.mimeType.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(2 + id.length + 4 + name.length + 4 + mime.length + 8);
+        b.put(MARKER).put(TYPE_FILE_REQUEST).put(id);
+        b.putInt(name.length).put(name);
+        b.putInt(mime.length).put(mime);
+        b.putLong(r.fileSize);
+        return b.array();
+    }
+
+    /** @return the request, or null if {@code message} is not a well-formed one */
+    public static FileRequest decodeFileRequest(byte[] message) {
+        if (typeOf(message) != TYPE_FILE_REQUEST || message.length < 2 + TRANSFER_ID_LENGTH + 16)
+            return null;
+        try {
+            ByteBuffer b = ByteBuffer.wrap(message);
+            b.position(2 + TRANSFER_ID_LENGTH);
+            String transferId = new String(message, 2, TRANSFER_ID_LENGTH, StandardCharsets.US_ASCII);
+            String fileName = getString(b);
+            String mimeType = getString(b);
+            return new FileRequest(transferId, fileName, mimeType, b.getLong());
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static byte[] encodeCancel(String transferId) {
+        byte[] id = transferId.getBytes(StandardCharsets.US_ASCII);
+        byte[] message = new byte[2 + id.length];
+        message[0] = MARKER;
+        message[1] = TYPE_FILE_CANCEL;
+        System.arraycopy(id, 0, message, 2, id.length);
+        return message;
+    }
+
+    /** @return the transfer ID, or null if {@code message} is not a cancel message */
+    public static String decodeCancel(byte[] message) {
+        if (typeOf(message) != TYPE_FILE_CANCEL || message.length < 2 + TRANSFER_ID_LENGTH)
+            return null;
+        return new String(message, 2, TRANSFER_ID_LENGTH, StandardCharsets.US_ASCII);
+    }
+
+    private static String getString(ByteBuffer b) {
+        int length = b.getInt();
+        if (length < 0 || length > b.remaining())
+            throw new IllegalArgumentException("Bad string length " + length);
+        String s = new String(b.array(), b.position(), length, StandardCharsets.UTF_8);
+        b.position(b.position() + length);
+        return s;
+    }
+}
@@ -0,0 +1,505 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Minimal HTTP/1.1 endpoint on 127.0.0.1 that lets the WebView move bulk data with fetch()
+ * instead of Base64 strings through the bridge.
+ *
+ * Every request must carry the token generated when the server started, either as
+ * {@code Authorization: Bearer <token>} or as a {@code token} query parameter (for element
+ * sources that cannot set headers). One request per connection.
+ *
+ * <pre>
+ * GET  /transfers               JSON list of active and completed transfers
+ * GET  /transfers/{id}          a received file; Range requests supported. 409 while the file is
+ *                               still arriving: poll /transfers or wait for fileTransferCompleted.
+ * GET  /messages/{handle}       a payload kept in handle receive mode; ?keep=1 leaves it stored
+ * POST /uploads?fileName=       stores the body; responds with {"filePath"} for sendFile
+ * POST /send?fileName=&peerId=&socketId=[&mimeType=]
+ *                               stores the body and sends it like sendFile; responds with {"transferId"}
+ * </pre>
+ *
+ * Uploads need a Content-Length no larger than {@link #setMaxUploadBytes}; larger ones get 413
+ * before anything is written.
+ */
+public class LoopbackServer implements Closeable {
+
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final long DRAIN_MS = 1000;
+    private static final long MAX_DRAIN_BYTES = 256 * 1024;
+    public static final long DEFAULT_MAX_UPLOAD_BYTES = 1L << 30;
+
+    /** What the endpoint serves, supplied by the shim. */
+    public interface Resources {
+        /** @return a JSON array describing active and completed transfers */
+        String listTransfers();
+
+        /**
+         * @return the received file, null while it is still arriving
+         * @throws FileNotFoundException if there is no such transfer (or it failed)
+         */
+        Download transfer(String transferId) throws FileNotFoundException;
+
+        /** @return the stored payload, or null if it is unknown or evicted */
+        byte[] message(String handle, boolean release);
+
+        /** A new file an upload named {@code fileName} is written to. */
+        File uploadTarget(String fileName) throws IOException;
+
+        /** Starts sending an uploaded file; returns the transferId. */
+        String send(File uploaded, Map<String, String> query) throws Exception;
+    }
+
+    public static final class Download {
+        final File file;
+        final String mimeType;
+
+        public Download(File file, String mimeType) {
+            this.file = file;
+            this.mimeType = mimeType;
+        }
+    }
+
+    private static class HttpException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private static class Request {
+        String method;
+        String path;
+        final Map<String, String> query = new HashMap<>();
+        final Map<String, String> headers = new HashMap<>();
+    }
+
+    private final Resources resources;
+    private final ExecutorService executor;
+    private final ServerSocketChannel server;
+    private final String token;
+    private volatile long maxUploadBytes = DEFAULT_MAX_UPLOAD_BYTES;
+    private volatile boolean closed;
+
+    public LoopbackServer(Resources resources, ExecutorService executor) throws IOException {
+        this.resources = resources;
+        this.executor = executor;
+        byte[] secret = new byte[24];
+        new SecureRandom().nextBytes(secret);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : secret)
+            sb.append(String.format(Locale.US, "%02x", b));
+        this.token = sb.toString();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        executor.execute(this::acceptLoop);
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + port();
+    }
+
+    public String token() {
+        return token;
+    }
+
+    /** Largest request body accepted by /uploads and /send; applies to requests that start afterwards. */
+    public void setMaxUploadBytes(long maxUploadBytes) {
+        if (maxUploadBytes < 0)
+            throw new IllegalArgumentException("maxUploadBytes must be >= 0");
+        this.maxUploadBytes = maxUploadBytes;
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                return; // closed
+            }
+            try {
+                executor.execute(() -> handle(channel));
+            } catch (RejectedExecutionException e) {
+                closeQuietly(channel);
+                return;
+            }
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (SocketChannel c = channel) {
+            InputStream in = Channels.newInputStream(c);
+            Request req;
+            try {
+                req = readRequest(in);
+            } catch (HttpException e) {
+                sendText(c, e.status, e.getMessage());
+                return;
+            }
+            try {
+                route(c, in, req);
+            } catch (HttpException e) {
+                sendText(c, e.status, e.getMessage());
+                drainQuietly(c);
+            }
+        } catch (IOException ignored) {
+            // Client went away
+        }
+    }
+
+    private void route(SocketChannel c, InputStream in, Request req) throws IOException, HttpException {
+        if ("OPTIONS".equals(req.method)) {
+            // CORS preflight; the token still guards the actual request
+            sendHeaders(c, 204, null, 0, null);
+            return;
+        }
+        authorize(req);
+        boolean head = "HEAD".equals(req.method);
+        boolean get = head || "GET".equals(req.method);
+        boolean post = "POST".equals(req.method) || "PUT".equals(req.method);
+        String path = req.path;
+
+        if (get && path.equals("/transfers")) {
+            sendJson(c, 200, resources.listTransfers(), head);
+        } else if (get && path.startsWith("/transfers/")) {
+            serveTransfer(c, req, decode(path.substring("/transfers/".length())), head);
+        } else if (get && path.startsWith("/messages/")) {
+            boolean keep = "1".equals(req.query.get("keep")) || head;
+            byte[] payload = resources.message(decode(path.substring("/messages/".length())), !keep);
+            if (payload == null)
+                throw new HttpException(404, "Unknown or evicted handle");
+            sendHeaders(c, 200, "application/octet-stream", payload.length, null);
+            if (!head)
+                writeFully(c, ByteBuffer.wrap(payload));
+        } else if (post && (path.equals("/uploads") || path.equals("/send"))) {
+            String fileName = req.query.get("fileName");
+            if (fileName == null || fileName.isEmpty() || fileName.contains("/") || fileName.contains(".."))
+                throw new HttpException(400, "fileName query parameter required");
+            long length = contentLength(req);
+            File target = resources.uploadTarget(fileName);
+            long n = receiveBody(in, length, target);
+            if (path.equals("/uploads")) {
+                sendJson(c, 201, "{\"filePath\":" + jsonString(target.getAbsolutePath()) + ",\"bytes\":" + n + "}",
+                        false);
+                return;
+            }
+            String transferId;
+            try {
+                transferId = resources.send(target, req.query);
+            } catch (Exception e) {
+                target.delete();
+                throw new HttpException(400, e.getMessage() != null ? e.getMessage() : "Send failed");
+            }
+            sendJson(c, 202, "{\"transferId\":" + jsonString(transferId) + ",\"filePath\":"
+                    + jsonString(target.getAbsolutePath()) + "}", false);
+        } else {
+            throw new HttpException(404, "Not found");
+        }
+    }
+
+    private void authorize(Request req) throws HttpException {
+        String presented = req.query.get("token");
+        String auth = req.headers.get("authorization");
+        if (auth != null && auth.regionMatches(true, 0, "Bearer ", 0, 7))
+            presented = auth.substring(7).trim();
+        if (presented == null || !MessageDigest.isEqual(
+                presented.getBytes(StandardCharsets.US_ASCII), token.getBytes(StandardCharsets.US_ASCII)))
+            throw new HttpException(401, "Missing or invalid token");
+    }
+
+    private void serveTransfer(SocketChannel c, Request req, String transferId, boolean head)
+            throws IOException, HttpException {
+        Download d;
+        try {
+            d = resources.transfer(transferId);
+        } catch (FileNotFoundException e) {
+            throw new HttpException(404, "Unknown transfer");
+        }
+        // Answer at once rather than hold a pool thread for as long as the transfer takes
+        if (d == null)
+            throw new HttpException(409, "Transfer still in progress");
+
+        try (FileChannel file = FileChannel.open(d.file.toPath())) {
+            long size = file.size();
+            long start = 0;
+            long end = size - 1;
+            int status = 200;
+            String range = req.headers.get("range");
+            if (range != null) {
+                long[] r = parseRange(range, size);
+                if (r == null) {
+                    sendHeaders(c, 416, null, 0, "Content-Range: bytes */" + size + "\r\n");
+                    return;
+                }
+                start = r[0];
+                end = r[1];
+                status = 206;
+            }
+            long length = size == 0 ? 0 : end - start + 1;
+            String extra = "Accept-Ranges: bytes\r\n"
+                    + (status == 206 ? "Content-Range: bytes " + start + "-" + end + "/" + size + "\r\n" : "");
+            sendHeaders(c, status, d.mimeType, length, extra);
+            if (!head)
+                ChannelTransfer.transfer(file, start, length, c, null);
+        }
+    }
+
+    // Single range only; null if unsatisfiable
+    private static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0)
+            return null;
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+            return null;
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0)
+                    return null;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(size - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            if (start >= size || start > end)
+                return null;
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private long contentLength(Request req) throws HttpException {
+        String lengthHeader = req.headers.get("content-length");
+        if (lengthHeader == null)
+            throw new HttpException(411, "Content-Length required");
+        long length;
+        try {
+            length = Long.parseLong(lengthHeader.trim());
+        } catch (NumberFormatException e) {
+            throw new HttpException(400, "Bad Content-Length");
+        }
+        if (length < 0)
+            throw new HttpException(400, "Bad Content-Length");
+        if (length > maxUploadBytes)
+            throw new HttpException(413, "Upload larger than " + maxUploadBytes + " bytes");
+        return length;
+    }
+
+    private static long receiveBody(InputStream in, long length, File target) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long remaining = length;
+        try (FileOutputStream out = new FileOutputStream(target)) {
+            while (remaining > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n < 0)
+                    throw new IOException("Upload ended early");
+                out.write(buf, 0, n);
+                remaining -= n;
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+        return length;
+    }
+
+    private static Request readRequest(InputStream in) throws IOException, HttpException {
+        // Read byte by byte up to the blank line so the body stays in the stream
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b < 0)
+                throw new IOException("Connection closed");
+            head.write(b);
+            if (head.size() > MAX_HEADER_BYTES)
+                throw new HttpException(431, "Headers too large");
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        String[] lines = head.toString("ISO-8859-1").split("\r\n");
+        String[] first = lines[0].split(" ");
+        if (first.length != 3)
+            throw new HttpException(400, "Bad request line");
+        Request req = new Request();
+        req.method = first[0];
+        String target = first[1];
+        int q = target.indexOf('?');
+        req.path = q >= 0 ? target.substring(0, q) : target;
+        if (q >= 0) {
+            for (String pair : target.substring(q + 1).split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0)
+                    req.query.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+            }
+        }
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0)
+                req.headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.US),
+                        lines[i].substring(colon + 1).trim());
+        }
+        return req;
+    }
+
+    private static void sendHeaders(SocketChannel c, int status, String contentType, long length, String extra)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        if (contentType != null)
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+        sb.append("Content-Length: ").append(length).append("\r\n");
+        // The WebView origin differs from 127.0.0.1:port; the token is what guards access
+        sb.append("Access-Control-Allow-Origin: *\r\n");
+        sb.append("Access-Control-Allow-Methods: GET, HEAD, POST, PUT, OPTIONS\r\n");
+        sb.append("Access-Control-Allow-Headers: Authorization, Range, Content-Type\r\n");
+        sb.append("Access-Control-Expose-Headers: Content-Length, Content-Range, Accept-Ranges\r\n");
+        sb.append("Cache-Control: no-store\r\n");
+        sb.append("Connection: close\r\n");
+        if (extra != null)
+            sb.append(extra);
+        sb.append("\r\n");
+        writeFully(c, ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private static void sendJson(SocketChannel c, int status, String json, boolean head) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        sendHeaders(c, status, "application/json", body.length, null);
+        if (!head)
+            writeFully(c, ByteBuffer.wrap(body));
+    }
+
+    private static void sendText(SocketChannel c, int status, String message) {
+        try {
+            byte[] body = (message != null ? message : reason(status)).getBytes(StandardCharsets.UTF_8);
+            sendHeaders(c, status, "text/plain; charset=utf-8", body.length, null);
+            writeFully(c, ByteBuffer.wrap(body));
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Closing with request bytes unread resets the connection, and the client may lose the error
+    // response with it; half-close and discard what is still in flight, within limits
+    private static void drainQuietly(SocketChannel c) {
+        try {
+            c.shutdownOutput();
+            c.configureBlocking(false);
+            try (Selector selector = Selector.open()) {
+                c.register(selector, SelectionKey.OP_READ);
+                ByteBuffer buf = ByteBuffer.allocate(8192);
+                long deadline = System.currentTimeMillis() + DRAIN_MS;
+                long drained = 0;
+                while (drained < MAX_DRAIN_BYTES) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0 || selector.select(left) == 0)
+                        return;
+                    selector.selectedKeys().clear();
+                    buf.clear();
+                    int n = c.read(buf);
+                    if (n < 0)
+                        return;
+                    drained += n;
+                }
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void writeFully(SocketChannel c, ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            c.write(b);
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 404: return "Not Found";
+            case 409: return "Conflict";
+            case 411: return "Length Required";
+            case 413: return "Payload Too Large";
+            case 416: return "Range Not Satisfiable";
+            case 431: return "Request Header Fields Too Large";
+            default: return "Error";
+        }
+    }
+
+    static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\')
+                sb.append('\\').append(ch);
+            else if (ch < 0x20)
+                sb.append(String.format(Locale.US, "\\u%04x", (int) ch));
+            else
+                sb.append(ch);
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return s;
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(server);
+    }
+}
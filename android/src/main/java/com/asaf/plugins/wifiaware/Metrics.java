@@ -0,0 +1,178 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, histograms and gauges cheap enough to leave on permanently.
+ *
+ * Counters and histogram buckets are {@link LongAdder}s, so threads recording at the same
+ * time update separate cells instead of contending on one word; the cost is paid when a
+ * snapshot sums them. Histograms have fixed bucket bounds and report percentiles as the
+ * upper bound of the bucket they fall in. Gauges are sampled only when a snapshot is taken.
+ * Metrics are registered once, up front, and the returned objects are kept by the caller.
+ */
+public class Metrics {
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long sum() {
+            return value.sum();
+        }
+
+        void reset() {
+            value.reset();
+        }
+    }
+
+    public static final class Histogram {
+        private final long[] bounds;  // inclusive upper bounds; one more bucket for overflow
+        private final LongAdder[] buckets;
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds.clone();
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        public void record(long value) {
+            int lo = 0;
+            int hi = bounds.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (value <= bounds[mid])
+                    hi = mid;
+                else
+                    lo = mid + 1;
+            }
+            buckets[lo].increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        Map<String, Object> toMap() {
+            long[] counts = new long[buckets.length];
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("count", count);
+            if (count == 0)
+                return m;
+            long total = sum.sum();
+            long maxValue = max.get();
+            m.put("sum", total);
+            m.put("mean", total / count);
+            m.put("max", maxValue);
+            m.put("p50", percentile(counts, count, 0.50, maxValue));
+            m.put("p90", percentile(counts, count, 0.90, maxValue));
+            m.put("p99", percentile(counts, count, 0.99, maxValue));
+            List<Map<String, Object>> list = new ArrayList<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0)
+                    continue;
+                Map<String, Object> b = new LinkedHashMap<>();
+                b.put("le", i < bounds.length ? bounds[i] : maxValue);
+                b.put("count", counts[i]);
+                list.add(b);
+            }
+            m.put("buckets", list);
+            return m;
+        }
+
+        private long percentile(long[] counts, long count, double q, long maxValue) {
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return i < bounds.length ? Math.min(bounds[i], maxValue) : maxValue;
+            }
+            return maxValue;
+        }
+
+        void reset() {
+            for (LongAdder b : buckets)
+                b.reset();
+            sum.reset();
+            max.reset();
+        }
+    }
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private volatile long resetAtMs = System.currentTimeMillis();
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public Histogram histogram(String name, long[] bounds) {
+        return histograms.computeIfAbsent(name, n -> new Histogram(bounds));
+    }
+
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /** Bounds {@code first, first*factor, ...}, {@code count} of them. */
+    public static long[] exponentialBounds(long first, double factor, int count) {
+        long[] bounds = new long[count];
+        double b = first;
+        for (int i = 0; i < count; i++) {
+            bounds[i] = Math.round(b);
+            b *= factor;
+        }
+        return bounds;
+    }
+
+    /** Everything, keyed by name; histogram values are maps with count, percentiles and buckets. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Counter> e : counters.entrySet())
+            counterValues.put(e.getKey(), e.getValue().sum());
+        Map<String, Object> gaugeValues = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet())
+            gaugeValues.put(e.getKey(), e.getValue().getAsLong());
+        Map<String, Object> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, Histogram> e : histograms.entrySet())
+            histogramValues.put(e.getKey(), e.getValue().toMap());
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("sinceMs", resetAtMs);
+        m.put("counters", counterValues);
+        m.put("gauges", gaugeValues);
+        m.put("histograms", histogramValues);
+        return m;
+    }
+
+    /** Zeroes counters and histograms; gauges reflect current state and are unaffected. */
+    public void reset() {
+        for (Counter c : counters.values())
+            c.reset();
+        for (Histogram h : histograms.values())
+            h.reset();
+        resetAtMs = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,181 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Speculative data paths to discovered peers, started before any socket asks for one.
+ *
+ * Every discovery is checked against a {@link Rule}; a match starts a path unless one is
+ * already warming for that peer or {@link Rule#maxPaths} are. With {@link Rule#preferRecent}
+ * a full budget instead gives up the path of the peer discovered longest ago, so the paths
+ * follow the most recently discovered peers. A socket takes a path over with {@link #claim};
+ * paths nobody claims are cancelled after {@link Rule#timeoutMs}.
+ *
+ * @param <P> data path type
+ */
+public class PathPrewarmer<P> {
+
+    public interface Paths<P> {
+        /** Requests a data path to the peer; null if none could be started. */
+        P start(String peerId);
+
+        /**
+         * Tears down a path no socket claimed; called without the prewarmer's lock held.
+         *
+         * @param expired true if its timeout ran out, false if it was replaced or cancelled
+         */
+        void cancel(P path, boolean expired);
+    }
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    /** Which peers get a path and for how long; null criteria match every peer. */
+    public static class Rule {
+        public static final int DEFAULT_MAX_PATHS = 1;
+        public static final long DEFAULT_TIMEOUT_MS = 15_000;
+
+        final String psk;
+        final String engine;
+        final Integer maxDistanceMm;
+        final String capability;
+        final int maxPaths;
+        final boolean preferRecent;
+        final long timeoutMs;
+
+        public Rule(String psk, String engine, Integer maxDistanceMm, String capability,
+                    int maxPaths, boolean preferRecent, long timeoutMs) {
+            if (psk == null)
+                throw new IllegalArgumentException("prewarm.pskPassphrase required");
+            if (maxPaths < 1)
+                throw new IllegalArgumentException("prewarm.maxPaths must be >= 1");
+            if (timeoutMs <= 0)
+                throw new IllegalArgumentException("prewarm.timeoutMs must be > 0");
+            this.psk = psk;
+            this.engine = engine;
+            this.maxDistanceMm = maxDistanceMm;
+            this.capability = capability;
+            this.maxPaths = maxPaths;
+            this.preferRecent = preferRecent;
+            this.timeoutMs = timeoutMs;
+        }
+
+        public String psk() {
+            return psk;
+        }
+
+        public String engine() {
+            return engine;
+        }
+
+        /** A peer without a reported distance never matches a distance limit. */
+        public boolean matches(Integer distanceMm, List<String> capabilities) {
+            if (maxDistanceMm != null && (distanceMm == null || distanceMm > maxDistanceMm))
+                return false;
+            return capability == null || (capabilities != null && capabilities.contains(capability));
+        }
+    }
+
+    private final Rule rule;
+    private final Scheduler scheduler;
+    private final Paths<P> paths;
+    // Insertion-ordered by discovery, so the first entry is the one preferRecent gives up
+    private final LinkedHashMap<String, P> warming = new LinkedHashMap<>();
+    private long skipped;
+
+    public PathPrewarmer(Rule rule, Scheduler scheduler, Paths<P> paths) {
+        this.rule = rule;
+        this.scheduler = scheduler;
+        this.paths = paths;
+    }
+
+    public Rule rule() {
+        return rule;
+    }
+
+    /** Called for every discovery of a peer, repeated ones included. */
+    public void onPeerFound(String peerId, Integer distanceMm, List<String> capabilities) {
+        if (!rule.matches(distanceMm, capabilities))
+            return;
+        P replaced = null;
+        P path;
+        synchronized (this) {
+            P current = warming.remove(peerId);
+            if (current != null) {
+                // Already warming; a rediscovery only makes it the most recent
+                warming.put(peerId, current);
+                return;
+            }
+            if (warming.size() >= rule.maxPaths) {
+                if (!rule.preferRecent) {
+                    skipped++;
+                    return;
+                }
+                Map.Entry<String, P> oldest = warming.entrySet().iterator().next();
+                replaced = oldest.getValue();
+                warming.remove(oldest.getKey());
+            }
+            path = paths.start(peerId);
+            if (path != null)
+                warming.put(peerId, path);
+        }
+        if (replaced != null)
+            paths.cancel(replaced, false);
+        if (path != null) {
+            P started = path;
+            scheduler.schedule(() -> expire(peerId, started), rule.timeoutMs);
+        }
+    }
+
+    /** @return the path warming for the peer, now owned by the caller, or null */
+    public synchronized P claim(String peerId) {
+        return warming.remove(peerId);
+    }
+
+    /** Forgets a path that went away on its own, without cancelling it. */
+    public synchronized void forget(String peerId, P path) {
+        warming.remove(peerId, path);
+    }
+
+    /** Cancels the path warming for a peer that is no longer discovered. */
+    public void onPeerLost(String peerId) {
+        P path;
+        synchronized (this) {
+            path = warming.remove(peerId);
+        }
+        if (path != null)
+            paths.cancel(path, false);
+    }
+
+    /** Cancels every path still warming. */
+    public void cancelAll() {
+        List<P> cancelled;
+        synchronized (this) {
+            cancelled = new ArrayList<>(warming.values());
+            warming.clear();
+        }
+        for (P path : cancelled)
+            paths.cancel(path, false);
+    }
+
+    private void expire(String peerId, P path) {
+        synchronized (this) {
+            if (!warming.remove(peerId, path))
+                return;
+        }
+        paths.cancel(path, true);
+    }
+
+    public synchronized int size() {
+        return warming.size();
+    }
+
+    /** Matching discoveries that found the budget full */
+    public synchronized long skipped() {
+        return skipped;
+    }
+}
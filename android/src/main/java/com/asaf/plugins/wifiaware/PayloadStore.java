@@ -0,0 +1,86 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Received message payloads kept natively until JS asks for them by handle.
+ *
+ * Bounded by entry count and total bytes; when either is exceeded the oldest payloads are
+ * evicted, so a consumer that never fetches only costs the configured budget. A payload
+ * larger than the whole byte budget is still kept, on its own.
+ */
+public class PayloadStore {
+
+    public static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private final LinkedHashMap<String, byte[]> payloads = new LinkedHashMap<>();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long bytes;
+    private long nextHandle = 1;
+    private long evicted;
+
+    public synchronized void setMaxBytes(long max) {
+        if (max < 1)
+            throw new IllegalArgumentException("payloadStoreBytes must be >= 1");
+        maxBytes = max;
+        evict();
+    }
+
+    public synchronized void setMaxEntries(int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("payloadStoreEntries must be >= 1");
+        maxEntries = max;
+        evict();
+    }
+
+    /** @return the handle the payload can be fetched or released with */
+    public synchronized String put(byte[] payload) {
+        String handle = "h" + nextHandle++;
+        payloads.put(handle, payload);
+        bytes += payload.length;
+        evict();
+        return handle;
+    }
+
+    /** @return the payload, or null if it was released or evicted */
+    public synchronized byte[] get(String handle) {
+        return payloads.get(handle);
+    }
+
+    /** Returns the payload and forgets it; null if it was released or evicted. */
+    public synchronized byte[] take(String handle) {
+        byte[] payload = payloads.remove(handle);
+        if (payload != null)
+            bytes -= payload.length;
+        return payload;
+    }
+
+    public synchronized boolean release(String handle) {
+        return take(handle) != null;
+    }
+
+    public synchronized void clear() {
+        payloads.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return payloads.size();
+    }
+
+    public synchronized long evicted() {
+        return evicted;
+    }
+
+    private void evict() {
+        Iterator<byte[]> oldest = payloads.values().iterator();
+        while ((payloads.size() > maxEntries || bytes > maxBytes) && payloads.size() > 1) {
+            bytes -= oldest.next().length;
+            oldest.remove();
+            evicted++;
+        }
+    }
+}
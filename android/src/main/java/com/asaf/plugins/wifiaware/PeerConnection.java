@@ -0,0 +1,264 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One NDP socket plus its negotiated protocol version.
+ *
+ * The connecting side calls {@link #sendHello()} right after connect; both sides pass
+ * the first int they read to {@link #onFirstWord(int)}. Senders call
+ * {@link #awaitVersion(long)} before writing, which falls back to the legacy protocol
+ * if no hello was exchanged in time. A hello that arrives after that fallback is
+ * ignored, so both ends settle on the same version.
+ */
+public class PeerConnection implements Closeable {
+
+    public static final long NEGOTIATION_TIMEOUT_MS = 2000;
+
+    public final String socketId;
+    public final String peerId;
+    public final Socket socket;
+
+    private final boolean initiator;
+    private volatile boolean auxiliary;
+    private final CoalescingWriter.Batching batching;
+    private final Executor executor;
+    private final DataInputStream in;
+    private final WritableByteChannel out;
+    private final CountDownLatch negotiated = new CountDownLatch(1);
+    private volatile int version;
+    private volatile StreamMultiplexer mux;
+    private volatile CoalescingWriter legacyWriter;
+    private final Object writerInit = new Object();
+    // Outgoing streams parked until the receiver answers (RESUME, NEED)
+    private final Map<Integer, StreamMultiplexer.Stream> awaitingReply = new HashMap<>();
+
+    public PeerConnection(String socketId, String peerId, Socket socket, boolean initiator, Executor executor)
+            throws IOException {
+        this(socketId, peerId, socket, initiator, false, new CoalescingWriter.Batching(), executor);
+    }
+
+    /**
+     * @param auxiliary true for an extra connection opened to carry transfer stripes
+     * @param batching  how small frames are coalesced before they are written
+     */
+    public PeerConnection(String socketId, String peerId, Socket socket, boolean initiator, boolean auxiliary,
+            CoalescingWriter.Batching batching, Executor executor) throws IOException {
+        this(socketId, peerId, socket, initiator, auxiliary,
+                socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(socket.getOutputStream()),
+                batching, executor);
+    }
+
+    /**
+     * @param out channel all writes go through, e.g. a {@link SocketEngine.Connection} for a
+     *            socket in non-blocking mode
+     */
+    public PeerConnection(String socketId, String peerId, Socket socket, boolean initiator, boolean auxiliary,
+            WritableByteChannel out, CoalescingWriter.Batching batching, Executor executor) throws IOException {
+        this.socketId = socketId;
+        this.peerId = peerId;
+        this.socket = socket;
+        this.initiator = initiator;
+        this.auxiliary = auxiliary;
+        this.batching = batching;
+        this.executor = executor;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = out;
+        // Small frames are batched by our writers; the kernel should not hold them back again
+        socket.setTcpNoDelay(true);
+    }
+
+    public DataInputStream input() {
+        return in;
+    }
+
+    /**
+     * Raw output for the legacy protocol; v2 writes must go through {@link #mux()}. Writers
+     * hold this connection's lock, after flushing {@link #legacyWriter()}.
+     */
+    public OutputStream legacyOutput() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    /** Coalescing send queue for legacy messages; it writes while holding this connection's lock. */
+    public CoalescingWriter legacyWriter() {
+        CoalescingWriter w = legacyWriter;
+        if (w != null)
+            return w;
+        // Not this connection's lock: a writer blocked in a send holds that one
+        synchronized (writerInit) {
+            if (legacyWriter == null)
+                legacyWriter = new CoalescingWriter(out, this, executor, batching);
+            return legacyWriter;
+        }
+    }
+
+    public WritableByteChannel channel() {
+        return out;
+    }
+
+    public boolean isInitiator() {
+        return initiator;
+    }
+
+    public boolean isAuxiliary() {
+        return auxiliary;
+    }
+
+    public void sendHello() throws IOException {
+        writeHello(FrameCodec.CURRENT_VERSION);
+    }
+
+    /**
+     * Reads the first int if the peer sends one within {@code timeoutMs}, without consuming
+     * anything on timeout. New clients send their hello right after connecting; legacy
+     * clients stay silent until they have something to send.
+     *
+     * @return the first word, or null if nothing arrived in time
+     */
+    public Integer peekFirstWord(int timeoutMs) throws IOException {
+        int previousTimeout = socket.getSoTimeout();
+        in.mark(4);
+        try {
+            socket.setSoTimeout(timeoutMs);
+            int word = in.readInt();
+            if (FrameCodec.isAuxiliary(word))
+                auxiliary = true;
+            return word;
+        } catch (SocketTimeoutException e) {
+            in.reset();
+            return null;
+        } finally {
+            socket.setSoTimeout(previousTimeout);
+        }
+    }
+
+    private void writeHello(int v) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(4);
+        b.putInt(FrameCodec.hello(v, initiator && auxiliary));
+        b.flip();
+        synchronized (out) {
+            while (b.hasRemaining()) {
+                out.write(b);
+            }
+        }
+    }
+
+    /**
+     * Handles the first int read from the peer.
+     *
+     * @return true if it was a hello and has been consumed, false if it is a legacy message type
+     */
+    public boolean onFirstWord(int word) throws IOException {
+        if (FrameCodec.isAuxiliary(word))
+            auxiliary = true;
+        if (!FrameCodec.isHello(word)) {
+            establish(FrameCodec.VERSION_LEGACY);
+            return false;
+        }
+        int agreed = Math.min(FrameCodec.helloVersion(word), FrameCodec.CURRENT_VERSION);
+        if (agreed >= FrameCodec.VERSION_FRAMED && version == 0) {
+            if (!initiator) {
+                // Answer before establishing so the ack precedes any frame from the multiplexer
+                writeHello(agreed);
+            }
+            establish(agreed);
+        }
+        return true;
+    }
+
+    public int awaitVersion(long timeoutMs) {
+        try {
+            if (!negotiated.await(timeoutMs, TimeUnit.MILLISECONDS))
+                establish(FrameCodec.VERSION_LEGACY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            establish(FrameCodec.VERSION_LEGACY);
+        }
+        return version;
+    }
+
+    public int version() {
+        return version;
+    }
+
+    private synchronized void establish(int v) {
+        if (version != 0)
+            return;
+        if (v >= FrameCodec.VERSION_FRAMED) {
+            StreamMultiplexer m = new StreamMultiplexer(out, batching);
+            m.start(executor);
+            mux = m;
+        }
+        version = v;
+        negotiated.countDown();
+    }
+
+    /**
+     * Opens a stream that parks until the receiver replies; frames from the remote reach it
+     * through {@link #awaitingReply(int)} until {@link #replied(int)} wakes it.
+     */
+    public int openAwaitingReply(StreamMultiplexer.Stream stream, CompletableFuture<?> completion)
+            throws IOException {
+        synchronized (awaitingReply) {
+            int id = mux.open(stream);
+            awaitingReply.put(id, stream);
+            completion.whenComplete((n, e) -> {
+                synchronized (awaitingReply) {
+                    awaitingReply.remove(id);
+                }
+            });
+            return id;
+        }
+    }
+
+    public StreamMultiplexer.Stream awaitingReply(int streamId) {
+        synchronized (awaitingReply) {
+            return awaitingReply.get(streamId);
+        }
+    }
+
+    /** The reply is complete: stop routing frames to the stream and let it send again. */
+    public void replied(int streamId) {
+        synchronized (awaitingReply) {
+            awaitingReply.remove(streamId);
+        }
+        mux.wake(streamId);
+    }
+
+    /** Multiplexer for v2 connections, null for legacy ones. */
+    public StreamMultiplexer mux() {
+        return mux;
+    }
+
+    @Override
+    public void close() {
+        StreamMultiplexer m = mux;
+        if (m != null)
+            m.close();
+        CoalescingWriter w = legacyWriter;
+        if (w != null)
+            w.close();
+        try {
+            socket.close();
+            // An engine-backed channel also has to tell the engine the connection is gone
+            out.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bidirectional peerId <-> handle index used by {@link WifiAwareShim}.
+ *
+ * Lookups in both directions are O(1). Entries are kept in access order so the
+ * least recently seen peer is evicted first when {@code maxPeers} is exceeded,
+ * and {@link #sweep(long)} drops every entry not seen within the TTL. Every
+ * eviction, for whichever reason, is reported to the {@link Listener}.
+ *
+ * Handles are generic so the registry has no Android dependency; the shim uses
+ * it with {@code PeerHandle}, which implements equals/hashCode.
+ */
+public class PeerRegistry<H> {
+
+    private static class Entry<H> {
+        final String id;
+        final H handle;
+        long lastSeenMs;
+
+        Entry(String id, H handle, long lastSeenMs) {
+            this.id = id;
+            this.handle = handle;
+            this.lastSeenMs = lastSeenMs;
+        }
+    }
+
+    public interface Clock {
+        long nowMs();
+    }
+
+    public interface Listener {
+        /** Called without the registry's lock held, once per evicted peer. */
+        void onEvicted(String id);
+    }
+
+    private final int maxPeers;
+    private final long ttlMs;
+    private final Clock clock;
+    private final Listener listener;
+
+    // Access-ordered so iteration starts at the least recently seen entry
+    private final LinkedHashMap<String, Entry<H>> byId = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<H, Entry<H>> byHandle = new HashMap<>();
+
+    // Counters
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong lostEvictions = new AtomicLong();
+    private final AtomicLong ttlEvictions = new AtomicLong();
+    private final AtomicLong capacityEvictions = new AtomicLong();
+
+    public PeerRegistry(int maxPeers, long ttlMs) {
+        this(maxPeers, ttlMs, System::currentTimeMillis);
+    }
+
+    public PeerRegistry(int maxPeers, long ttlMs, Clock clock) {
+        this(maxPeers, ttlMs, clock, id -> { });
+    }
+
+    public PeerRegistry(int maxPeers, long ttlMs, Clock clock, Listener listener) {
+        if (maxPeers <= 0)
+            throw new IllegalArgumentException("maxPeers must be > 0");
+        this.maxPeers = maxPeers;
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+        this.listener = listener;
+    }
+
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    /** Returns the id for a handle, minting and remembering a new one if needed. */
+    public String idFor(H handle) {
+        List<String> evicted;
+        String id;
+        synchronized (this) {
+            lookups.incrementAndGet();
+            long now = clock.nowMs();
+            Entry<H> e = byHandle.get(handle);
+            if (e != null) {
+                e.lastSeenMs = now;
+                byId.get(e.id); // bump access order
+                return e.id;
+            }
+
+            e = new Entry<>(UUID.randomUUID().toString(), handle, now);
+            byId.put(e.id, e);
+            byHandle.put(handle, e);
+            created.incrementAndGet();
+            id = e.id;
+
+            // Evict least recently seen peers beyond capacity
+            evicted = new ArrayList<>();
+            Iterator<Entry<H>> it = byId.values().iterator();
+            while (byId.size() > maxPeers && it.hasNext()) {
+                Entry<H> oldest = it.next();
+                it.remove();
+                byHandle.remove(oldest.handle);
+                evicted.add(oldest.id);
+                capacityEvictions.incrementAndGet();
+            }
+        }
+        notifyEvicted(evicted);
+        return id;
+    }
+
+    /** Returns the id of a known handle without minting one, or null. */
+    public synchronized String find(H handle) {
+        lookups.incrementAndGet();
+        Entry<H> e = byHandle.get(handle);
+        return e != null ? e.id : null;
+    }
+
+    /** Returns the handle for an id, or null if unknown or evicted. */
+    public synchronized H get(String id) {
+        lookups.incrementAndGet();
+        Entry<H> e = byId.get(id);
+        return e != null ? e.handle : null;
+    }
+
+    /** Marks a peer as seen without changing its id. */
+    public synchronized void touch(String id) {
+        Entry<H> e = byId.get(id);
+        if (e != null)
+            e.lastSeenMs = clock.nowMs();
+    }
+
+    /** Removes a peer reported lost by the discovery session. */
+    public boolean remove(String id) {
+        synchronized (this) {
+            Entry<H> e = byId.remove(id);
+            if (e == null)
+                return false;
+            byHandle.remove(e.handle);
+            lostEvictions.incrementAndGet();
+        }
+        listener.onEvicted(id);
+        return true;
+    }
+
+    /**
+     * Drops every peer that has not been seen for longer than the TTL.
+     *
+     * @return the ids that were evicted
+     */
+    public List<String> sweep(long nowMs) {
+        List<String> evicted = new ArrayList<>();
+        if (ttlMs <= 0)
+            return evicted;
+        synchronized (this) {
+            Iterator<Entry<H>> it = byId.values().iterator();
+            while (it.hasNext()) {
+                Entry<H> e = it.next();
+                if (nowMs - e.lastSeenMs < ttlMs)
+                    continue;
+                it.remove();
+                byHandle.remove(e.handle);
+                evicted.add(e.id);
+                ttlEvictions.incrementAndGet();
+            }
+        }
+        notifyEvicted(evicted);
+        return evicted;
+    }
+
+    private void notifyEvicted(List<String> ids) {
+        for (String id : ids)
+            listener.onEvicted(id);
+    }
+
+    public List<String> sweep() {
+        return sweep(clock.nowMs());
+    }
+
+    public synchronized List<String> ids() {
+        return new ArrayList<>(byId.keySet());
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    /** Forgets every peer without reporting them as evicted. */
+    public synchronized void clear() {
+        byId.clear();
+        byHandle.clear();
+    }
+
+    /** Zeroes the counters; the known peers stay. */
+    public void resetStats() {
+        created.set(0);
+        lookups.set(0);
+        lostEvictions.set(0);
+        ttlEvictions.set(0);
+        capacityEvictions.set(0);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("size", size());
+        map.put("maxPeers", maxPeers);
+        map.put("created", created.get());
+        map.put("lookups", lookups.get());
+        map.put("lostEvictions", lostEvictions.get());
+        map.put("ttlEvictions", ttlEvictions.get());
+        map.put("capacityEvictions", capacityEvictions.get());
+        return map;
+    }
+}
@@ -0,0 +1,95 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Progress listener for both transfer directions that reports on a time interval.
+ *
+ * Byte counts may arrive as often as every buffer; a report goes out at most once per
+ * interval, plus once when the last byte arrived. Each report carries the rate since the
+ * previous report and a smoothed rate (an exponential moving average with a fixed time
+ * constant, so irregular report spacing does not skew it), and an ETA from the smoothed rate.
+ */
+public class ProgressReporter implements ChannelTransfer.ProgressListener {
+
+    public static final long DEFAULT_INTERVAL_MS = 500;
+    /** Time constant of the smoothed rate */
+    static final double SMOOTHING_SECONDS = 3.0;
+
+    public static final class Rate {
+        /** bytes/s since the previous report */
+        public final double instantBytesPerSecond;
+        public final double smoothedBytesPerSecond;
+        /** remaining time at the smoothed rate, -1 if unknown */
+        public final long etaMs;
+
+        Rate(double instant, double smoothed, long etaMs) {
+            this.instantBytesPerSecond = instant;
+            this.smoothedBytesPerSecond = smoothed;
+            this.etaMs = etaMs;
+        }
+    }
+
+    public interface Listener {
+        void onReport(long bytesTransferred, long totalBytes, Rate rate);
+    }
+
+    private final long totalBytes;
+    private final long intervalNanos;
+    private final Listener listener;
+    private final BooleanSupplier cancelled;
+    private long startNanos = -1;
+    private long lastNanos;
+    private long lastBytes;
+    private double smoothed = -1;
+    private boolean finished;
+
+    public ProgressReporter(long totalBytes, long intervalMs, Listener listener, BooleanSupplier cancelled) {
+        this.totalBytes = totalBytes;
+        this.intervalNanos = intervalMs * 1_000_000L;
+        this.listener = listener;
+        this.cancelled = cancelled;
+    }
+
+    @Override
+    public void onProgress(long bytesTransferred) {
+        onProgress(bytesTransferred, System.nanoTime());
+    }
+
+    synchronized void onProgress(long bytes, long now) {
+        if (startNanos < 0) {
+            // The first count starts the clock and sets the baseline, so neither setup time
+            // nor the offset a resumed transfer starts at skews the rate
+            startNanos = now;
+            lastNanos = now;
+            lastBytes = bytes;
+        }
+        boolean last = totalBytes > 0 && bytes >= totalBytes;
+        if (finished || (!last && now - lastNanos < intervalNanos))
+            return;
+        finished = last;
+        long dt = now - lastNanos;
+        // Stripes report totals from several threads, so a count may be slightly behind
+        long delta = Math.max(0, bytes - lastBytes);
+        double instant = dt > 0 ? delta * 1e9 / dt : 0;
+        if (smoothed < 0) {
+            smoothed = instant;
+        } else if (dt > 0) {
+            double alpha = 1 - Math.exp(-(dt / 1e9) / SMOOTHING_SECONDS);
+            smoothed += alpha * (instant - smoothed);
+        }
+        long eta = -1;
+        if (last)
+            eta = 0;
+        else if (smoothed > 0 && totalBytes > 0)
+            eta = (long) ((totalBytes - bytes) * 1000 / smoothed);
+        lastNanos = now;
+        lastBytes = Math.max(lastBytes, bytes);
+        listener.onReport(bytes, totalBytes, new Rate(instant, smoothed, eta));
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled.getAsBoolean();
+    }
+}
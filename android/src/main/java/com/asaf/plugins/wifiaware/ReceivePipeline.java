@@ -0,0 +1,302 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Overlapped network -> disk receive path for incoming files.
+ *
+ * The calling thread reads from the socket into pooled direct buffers and hands
+ * them to a writer task on the executor, which writes them at their file offset.
+ * Up to {@code depth} buffers are in flight, so a slow flash write no longer
+ * stalls the socket read (and with it the TCP window). The target file is
+ * preallocated to the announced size, and can optionally be written through
+ * memory-mapped regions instead of FileChannel writes.
+ */
+public class ReceivePipeline implements Closeable {
+
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final long MAP_REGION = 64L * 1024 * 1024;
+
+    /** Retains up to {@code maxRetained} direct buffers for reuse across transfers. */
+    public static class BufferPool {
+        private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger retained = new AtomicInteger();
+        final int bufferSize;
+        private final int maxRetained;
+
+        public BufferPool(int bufferSize, int maxRetained) {
+            this.bufferSize = bufferSize;
+            this.maxRetained = maxRetained;
+        }
+
+        public ByteBuffer acquire() {
+            ByteBuffer b = free.poll();
+            if (b == null)
+                return ByteBuffer.allocateDirect(bufferSize);
+            retained.decrementAndGet();
+            b.clear();
+            return b;
+        }
+
+        public void release(ByteBuffer b) {
+            if (b.capacity() != bufferSize)
+                return;
+            if (retained.incrementAndGet() <= maxRetained) {
+                free.offer(b);
+            } else {
+                retained.decrementAndGet();
+            }
+        }
+    }
+
+    /** Notified on the writer thread once a chunk has been written to the file. */
+    public interface WriteListener {
+        void onWritten(ByteBuffer data, long position);
+    }
+
+    private static class Chunk {
+        final ByteBuffer buffer;
+        final long position;
+
+        Chunk(ByteBuffer buffer, long position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
+
+    private static final Chunk END = new Chunk(null, -1);
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final boolean memoryMapped;
+    private final BufferPool pool;
+    private final Executor executor;
+    private final BlockingQueue<Chunk> filled;
+
+    private volatile IOException writeError;
+    private volatile WriteListener writeListener;
+    private CountDownLatch writerDone;
+    private boolean finished;
+    private MappedByteBuffer region;
+    private long regionStart = -1;
+
+    public ReceivePipeline(File target, long fileSize, boolean memoryMapped, BufferPool pool, Executor executor)
+            throws IOException {
+        this(target, fileSize, memoryMapped, pool, executor, DEFAULT_DEPTH);
+    }
+
+    public ReceivePipeline(File target, long fileSize, boolean memoryMapped, BufferPool pool, Executor executor,
+            int depth) throws IOException {
+        this.file = new RandomAccessFile(target, "rw");
+        this.channel = file.getChannel();
+        this.fileSize = fileSize;
+        this.memoryMapped = memoryMapped;
+        this.pool = pool;
+        this.executor = executor;
+        this.filled = new ArrayBlockingQueue<>(Math.max(2, depth));
+
+        // Preallocate so the filesystem can lay out the extent up front
+        file.setLength(fileSize);
+    }
+
+    /**
+     * Reads up to {@code count} bytes from {@code in}, writing them at {@code startOffset}
+     * onwards, and blocks until every byte read has reached the file.
+     *
+     * @return bytes received; less than count on EOF or cancellation
+     */
+    public long receive(ReadableByteChannel in, long startOffset, long count,
+            ChannelTransfer.ProgressListener listener) throws IOException {
+        start();
+        long received = 0;
+        try {
+            while (received < count && (listener == null || !listener.isCancelled())) {
+                long n = read(in, startOffset + received, Math.min(pool.bufferSize, count - received));
+                if (n <= 0)
+                    break;
+                received += n;
+                if (listener != null)
+                    listener.onProgress(received);
+            }
+        } finally {
+            finish();
+        }
+        return received;
+    }
+
+    /** Set before {@link #start()}; sees chunks in the order they are written. */
+    public void setWriteListener(WriteListener listener) {
+        this.writeListener = listener;
+    }
+
+    /** Starts the writer task; pair with {@link #finish()}. */
+    public void start() {
+        if (writerDone != null)
+            return;
+        CountDownLatch done = new CountDownLatch(1);
+        writerDone = done;
+        executor.execute(() -> {
+            try {
+                drain();
+            } finally {
+                done.countDown();
+            }
+        });
+    }
+
+    /**
+     * Reads up to {@code count} bytes from {@code in} and queues them for writing at
+     * {@code position}. Returns without waiting for the disk write.
+     *
+     * @return bytes read; less than count only at end of stream
+     */
+    public long read(ReadableByteChannel in, long position, long count) throws IOException {
+        long received = 0;
+        while (received < count && writeError == null) {
+            ByteBuffer buf = pool.acquire();
+            if (buf.remaining() > count - received)
+                buf.limit((int) (count - received));
+            // The limit is capped at the bytes still expected, so filling the buffer never over-reads
+            int n = 0;
+            while (buf.hasRemaining() && (n = in.read(buf)) >= 0) {
+            }
+            int read = buf.position();
+            if (read == 0) {
+                pool.release(buf);
+                break;
+            }
+            buf.flip();
+            putChunk(new Chunk(buf, position + received));
+            received += read;
+            if (n < 0)
+                break;
+        }
+        if (writeError != null)
+            throw writeError;
+        return received;
+    }
+
+    /** Copies {@code src} into pooled buffers and queues it for writing at {@code position}. */
+    public void write(ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining() && writeError == null) {
+            ByteBuffer buf = pool.acquire();
+            int n = Math.min(buf.remaining(), src.remaining());
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + n);
+            buf.put(slice);
+            src.position(src.position() + n);
+            buf.flip();
+            putChunk(new Chunk(buf, position));
+            position += n;
+        }
+        if (writeError != null)
+            throw writeError;
+    }
+
+    /** Waits until every queued chunk has been written and stops the writer task. */
+    public void finish() throws IOException {
+        CountDownLatch done = writerDone;
+        if (done == null || finished)
+            return;
+        finished = true;
+        putChunk(END);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writeError != null)
+            throw writeError;
+    }
+
+    private void putChunk(Chunk c) throws IOException {
+        try {
+            filled.put(c);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing received data", e);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Chunk c;
+            try {
+                c = filled.take();
+            } catch (InterruptedException e) {
+                writeError = new IOException("Writer interrupted", e);
+                return;
+            }
+            if (c == END)
+                return;
+            try {
+                if (writeError == null) {
+                    WriteListener listener = writeListener;
+                    ByteBuffer data = listener != null ? c.buffer.duplicate() : null;
+                    writeChunk(c);
+                    if (listener != null)
+                        listener.onWritten(data, c.position);
+                }
+            } catch (IOException e) {
+                writeError = e;
+            } finally {
+                pool.release(c.buffer);
+            }
+        }
+    }
+
+    private void writeChunk(Chunk c) throws IOException {
+        ByteBuffer buf = c.buffer;
+        long pos = c.position;
+        if (!memoryMapped) {
+            while (buf.hasRemaining()) {
+                pos += channel.write(buf, pos);
+            }
+            return;
+        }
+        while (buf.hasRemaining()) {
+            long start = (pos / MAP_REGION) * MAP_REGION;
+            if (region == null || regionStart != start) {
+                region = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(MAP_REGION, fileSize - start));
+                regionStart = start;
+            }
+            int offsetInRegion = (int) (pos - start);
+            int n = Math.min(buf.remaining(), region.capacity() - offsetInRegion);
+            ByteBuffer slice = buf.duplicate();
+            slice.limit(slice.position() + n);
+            region.position(offsetInRegion);
+            region.put(slice);
+            buf.position(buf.position() + n);
+            pos += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } catch (IOException ignore) {
+            // Already reported by receive/read
+        }
+        if (region != null) {
+            region.force();
+            region = null;
+        }
+        file.close();
+    }
+}
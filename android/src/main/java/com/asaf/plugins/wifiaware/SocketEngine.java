@@ -0,0 +1,516 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Event-driven transport serving many NDP connections from one selector thread.
+ *
+ * The selector thread accepts connections and reads every registered socket without
+ * blocking, decoding frame headers and payloads as bytes arrive. Complete frames are
+ * handed to a bounded worker pool, in order per connection. A connection with
+ * {@link #MAX_PENDING_FRAMES} frames waiting for a worker is not read until it catches up,
+ * so a slow consumer pushes back on its sender through TCP instead of buffering.
+ *
+ * Writes stay blocking for the caller: a {@link Connection} is a channel that waits for
+ * OP_WRITE through the selector whenever the socket buffer is full. The writer tasks that
+ * call them run on a separate pool from {@link #boundedPool}, so a connection stalled in a
+ * write never holds up frame delivery.
+ */
+public class SocketEngine implements Closeable {
+
+    public static final int MAX_PENDING_FRAMES = 32;
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** Callbacks for one connection. They run on the worker pool, never two at once. */
+    public interface ConnectionHandler {
+        /**
+         * Receives the first int from the peer, or null if none arrived before the deadline
+         * given to {@link Connection#start}.
+         *
+         * @return true to have the engine read frames from now on (for a null word: keep
+         *         waiting without a deadline), false to detach the connection
+         */
+        boolean onFirstWord(Integer word) throws IOException;
+
+        void onFrame(FrameCodec.Header header, byte[] payload) throws IOException;
+
+        /** The channel is back in blocking mode, positioned right after the first word. */
+        void onDetached();
+
+        /** Called once when the connection ended; error is null for a clean end of stream. */
+        void onClosed(IOException error);
+    }
+
+    /** A socket registered with the engine; writing to it blocks until everything is queued in the kernel. */
+    public final class Connection implements GatheringByteChannel, Runnable {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final AtomicInteger pending = new AtomicInteger();
+        SelectionKey key;
+        ConnectionHandler handler;
+        long deadline;
+        boolean started;
+        boolean framing;
+        boolean awaitingHandler; // first word handed to a worker, reads paused until it answers
+        boolean detached;
+        FrameCodec.Header header;
+        byte[] payload;
+        int payloadFilled;
+
+        // Worker-side queue, guarded by tasks
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private boolean running;
+
+        // Guarded by this
+        private boolean writeWaiting;
+        private boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            in.limit(4);
+        }
+
+        /**
+         * Starts reading. The first int goes to {@link ConnectionHandler#onFirstWord}; if
+         * {@code firstWordTimeoutMs} is positive and nothing arrives in time, it is called with null.
+         */
+        public void start(long firstWordTimeoutMs, ConnectionHandler handler) {
+            post(() -> {
+                this.handler = handler;
+                this.started = true;
+                if (firstWordTimeoutMs > 0)
+                    deadline = System.currentTimeMillis() + firstWordTimeoutMs;
+                updateInterest(this);
+            });
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int total = 0;
+            while (src.hasRemaining()) {
+                int n = channel.write(src);
+                total += n;
+                if (n == 0 && src.hasRemaining())
+                    awaitWritable();
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long total = 0;
+            int end = offset + length;
+            while (offset < end) {
+                long n = channel.write(srcs, offset, end - offset);
+                total += n;
+                while (offset < end && !srcs[offset].hasRemaining())
+                    offset++;
+                if (n == 0 && offset < end)
+                    awaitWritable();
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        private void awaitWritable() throws IOException {
+            synchronized (this) {
+                if (closed)
+                    throw new ClosedChannelException();
+                writeWaiting = true;
+            }
+            post(() -> updateInterest(this));
+            synchronized (this) {
+                try {
+                    while (writeWaiting && !closed && channel.isOpen())
+                        wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while writing", e);
+                }
+                if (closed || !channel.isOpen())
+                    throw new ClosedChannelException();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            post(() -> closeConnection(this, null));
+        }
+
+        // Runs this connection's queued callbacks on a worker, one after another
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (tasks) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                task.run();
+            }
+        }
+
+        void dispatch(Runnable task) {
+            synchronized (tasks) {
+                tasks.add(task);
+                if (running)
+                    return;
+                running = true;
+            }
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Engine shut down; callbacks still queued are dropped
+                synchronized (tasks) {
+                    tasks.clear();
+                    running = false;
+                }
+            }
+        }
+    }
+
+    private final Selector selector;
+    private final ThreadPoolExecutor workers;
+    private final ConcurrentLinkedQueue<Runnable> pendingOps = new ConcurrentLinkedQueue<>();
+    private final List<Connection> awaitingFirstWord = new ArrayList<>(); // selector thread only
+    private final Thread ioThread;
+    private volatile boolean open = true;
+
+    public SocketEngine(int workerThreads) throws IOException {
+        this.selector = Selector.open();
+        this.workers = boundedPool("wifiaware-worker", workerThreads, new LinkedBlockingQueue<>());
+        this.ioThread = new Thread(this::selectLoop, "wifiaware-io");
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    /**
+     * A pool of at most {@code threads} threads, which exit after 30 s idle. Tasks beyond that
+     * wait in {@code queue}; once it is full (at once for a SynchronousQueue) they are rejected
+     * with {@link RejectedExecutionException}.
+     */
+    public static ThreadPoolExecutor boundedPool(String name, int threads, BlockingQueue<Runnable> queue) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, queue,
+                r -> new Thread(r, name + "-" + count.incrementAndGet()));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Accepts connections on {@code server}; {@code onAccept} runs on a worker for each one
+     * and is expected to {@link #attach} it or close it.
+     */
+    public void listen(ServerSocketChannel server, Consumer<SocketChannel> onAccept) throws IOException {
+        server.configureBlocking(false);
+        post(() -> {
+            try {
+                server.register(selector, SelectionKey.OP_ACCEPT, onAccept);
+            } catch (ClosedChannelException ignore) {
+            }
+        });
+    }
+
+    /** Registers a connected socket. Writes work right away; reading begins with {@link Connection#start}. */
+    public Connection attach(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        Connection c = new Connection(channel);
+        post(() -> {
+            try {
+                c.key = channel.register(selector, 0, c);
+                updateInterest(c);
+            } catch (ClosedChannelException e) {
+                closeConnection(c, e);
+            }
+        });
+        return c;
+    }
+
+    public int workerThreads() {
+        return workers.getMaximumPoolSize();
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        selector.wakeup();
+        workers.shutdown();
+    }
+
+    // ===== Selector thread =====
+
+    private void post(Runnable op) {
+        pendingOps.add(op);
+        selector.wakeup();
+    }
+
+    private void selectLoop() {
+        try {
+            while (open) {
+                selector.select(nextTimeout());
+                Runnable op;
+                while ((op = pendingOps.poll()) != null)
+                    op.run();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.channel() instanceof ServerSocketChannel) {
+                        accept(key);
+                        continue;
+                    }
+                    Connection c = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        synchronized (c) {
+                            c.writeWaiting = false;
+                            c.notifyAll();
+                        }
+                        updateInterest(c);
+                    }
+                    if (key.isValid() && key.isReadable())
+                        read(c);
+                }
+                expireFirstWords();
+            }
+        } catch (IOException ignore) {
+            // Selector failed; fall through and release everything
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    closeConnection((Connection) key.attachment(), new IOException("Engine closed"));
+                } else {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private long nextTimeout() {
+        long next = Long.MAX_VALUE;
+        for (Connection c : awaitingFirstWord)
+            next = Math.min(next, c.deadline);
+        if (next == Long.MAX_VALUE)
+            return 0;
+        return Math.max(1, next - System.currentTimeMillis());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void accept(SelectionKey key) {
+        ServerSocketChannel server = (ServerSocketChannel) key.channel();
+        Consumer<SocketChannel> onAccept = (Consumer<SocketChannel>) key.attachment();
+        try {
+            SocketChannel ch;
+            while ((ch = server.accept()) != null) {
+                SocketChannel accepted = ch;
+                workers.execute(() -> onAccept.accept(accepted));
+            }
+        } catch (IOException e) {
+            key.cancel();
+        }
+    }
+
+    private void updateInterest(Connection c) {
+        SelectionKey key = c.key;
+        if (key == null || !key.isValid())
+            return;
+        int ops = 0;
+        if (c.started && !c.awaitingHandler && c.pending.get() < MAX_PENDING_FRAMES)
+            ops |= SelectionKey.OP_READ;
+        synchronized (c) {
+            if (c.writeWaiting)
+                ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+        if (c.started && !c.framing && c.deadline > 0 && !c.awaitingHandler && !awaitingFirstWord.contains(c))
+            awaitingFirstWord.add(c);
+    }
+
+    private void read(Connection c) {
+        int n;
+        try {
+            n = c.channel.read(c.in);
+        } catch (IOException e) {
+            closeConnection(c, e);
+            return;
+        }
+        if (n < 0) {
+            closeConnection(c, null);
+            return;
+        }
+        c.in.flip();
+        try {
+            decode(c);
+        } catch (IOException e) {
+            closeConnection(c, e);
+            return;
+        }
+        c.in.compact();
+        if (!c.framing) {
+            // Never read past the first word: a detached connection must find the rest in the socket
+            c.in.limit(4);
+        }
+    }
+
+    private void decode(Connection c) throws IOException {
+        ByteBuffer in = c.in;
+        while (true) {
+            if (!c.framing) {
+                if (c.awaitingHandler || in.remaining() < 4)
+                    return;
+                firstWord(c, in.getInt());
+                return;
+            }
+            if (c.header == null) {
+                if (in.remaining() < FrameCodec.HEADER_SIZE)
+                    return;
+                c.header = FrameCodec.getHeader(in);
+                c.payload = new byte[c.header.length];
+                c.payloadFilled = 0;
+            }
+            int n = Math.min(in.remaining(), c.payload.length - c.payloadFilled);
+            in.get(c.payload, c.payloadFilled, n);
+            c.payloadFilled += n;
+            if (c.payloadFilled < c.payload.length)
+                return;
+            frame(c, c.header, c.payload);
+            c.header = null;
+            c.payload = null;
+        }
+    }
+
+    private void frame(Connection c, FrameCodec.Header h, byte[] payload) {
+        if (c.pending.incrementAndGet() >= MAX_PENDING_FRAMES)
+            updateInterest(c);
+        c.dispatch(() -> {
+            try {
+                c.handler.onFrame(h, payload);
+            } catch (IOException | RuntimeException e) {
+                post(() -> closeConnection(c, e instanceof IOException ? (IOException) e : new IOException(e)));
+            } finally {
+                if (c.pending.decrementAndGet() == MAX_PENDING_FRAMES - 1)
+                    post(() -> updateInterest(c));
+            }
+        });
+    }
+
+    private void firstWord(Connection c, Integer word) {
+        awaitingFirstWord.remove(c);
+        c.awaitingHandler = true;
+        updateInterest(c);
+        c.dispatch(() -> {
+            boolean keep;
+            try {
+                keep = c.handler.onFirstWord(word);
+            } catch (IOException e) {
+                post(() -> closeConnection(c, e));
+                return;
+            }
+            post(() -> {
+                c.awaitingHandler = false;
+                if (!keep) {
+                    detach(c);
+                    return;
+                }
+                if (word != null) {
+                    c.framing = true;
+                    c.in.limit(c.in.capacity());
+                } else {
+                    c.deadline = 0;
+                }
+                updateInterest(c);
+            });
+        });
+    }
+
+    private void expireFirstWords() {
+        if (awaitingFirstWord.isEmpty())
+            return;
+        long now = System.currentTimeMillis();
+        for (Connection c : new ArrayList<>(awaitingFirstWord)) {
+            if (c.deadline <= now && !c.awaitingHandler)
+                firstWord(c, null);
+        }
+    }
+
+    private void detach(Connection c) {
+        c.detached = true;
+        if (c.key != null)
+            c.key.cancel();
+        awaitingFirstWord.remove(c);
+        try {
+            // Flush the cancelled key so the channel can leave non-blocking mode
+            selector.selectNow();
+            c.channel.configureBlocking(true);
+        } catch (IOException e) {
+            closeConnection(c, e);
+            return;
+        }
+        synchronized (c) {
+            c.writeWaiting = false;
+            c.notifyAll();
+        }
+        c.dispatch(c.handler::onDetached);
+    }
+
+    private void closeConnection(Connection c, IOException error) {
+        synchronized (c) {
+            if (c.closed)
+                return;
+            c.closed = true;
+            c.notifyAll();
+        }
+        awaitingFirstWord.remove(c);
+        if (c.key != null)
+            c.key.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException ignore) {
+        }
+        // A detached connection belongs to whoever took it over
+        if (c.handler != null && !c.detached)
+            c.dispatch(() -> c.handler.onClosed(error));
+    }
+}
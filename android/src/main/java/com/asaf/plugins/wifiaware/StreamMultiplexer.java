@@ -0,0 +1,435 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending half of a v2 (framed) connection.
+ *
+ * A single writer task owns the socket channel. It is scheduled when something is queued
+ * and returns its thread once everything is written, so an idle connection holds no
+ * thread. Small control frames (messages, END, RESET) are written first, as many as fit in
+ * one gathering write (optionally after a short linger, see {@link CoalescingWriter.Batching}); open streams then take turns writing one frame each, so a
+ * large file never holds back a message by more than one {@link FrameCodec#MAX_PAYLOAD}
+ * frame and concurrent files share the link evenly. After {@link #FRAMES_PER_TURN} stream
+ * frames the task requeues itself, so connections sharing a bounded pool take turns.
+ */
+public class StreamMultiplexer implements Closeable {
+
+    public static final int FRAMES_PER_TURN = 16;
+
+    /** A logical outgoing stream, asked for one frame at a time by the writer task. */
+    public interface Stream {
+        /**
+         * Writes the next frame of this stream.
+         *
+         * @return false once the final frame (END or RESET) has been written
+         */
+        boolean writeFrame(int streamId, FrameSink sink) throws IOException;
+
+        /** Called exactly once when the stream finished, failed or was cancelled. */
+        void onFinished(IOException error);
+
+        /**
+         * Checked after each frame; a stream that is not ready is parked until
+         * {@link StreamMultiplexer#wake(int)} is called for it.
+         */
+        default boolean isReady() {
+            return true;
+        }
+    }
+
+    /** Frame writer handed to streams; remembers whether the underlying channel failed. */
+    public static class FrameSink {
+        private final WritableByteChannel out;
+        private final ByteBuffer header = ByteBuffer.allocate(FrameCodec.HEADER_SIZE);
+        private boolean broken;
+
+        FrameSink(WritableByteChannel out) {
+            this.out = out;
+        }
+
+        public void write(byte type, byte flags, int streamId, ByteBuffer payload) throws IOException {
+            header.clear();
+            FrameCodec.putHeader(header, type, flags, streamId, payload != null ? payload.remaining() : 0);
+            header.flip();
+            writeFully(header);
+            if (payload != null)
+                writeFully(payload);
+        }
+
+        /** Writes a DATA-style frame whose payload is transferred straight from a file channel. */
+        public void writeRegion(byte type, byte flags, int streamId, FileChannel src, long position, int length)
+                throws IOException {
+            header.clear();
+            FrameCodec.putHeader(header, type, flags, streamId, length);
+            header.flip();
+            writeFully(header);
+            long sent = 0;
+            while (sent < length) {
+                long n;
+                try {
+                    n = src.transferTo(position + sent, length - sent, out);
+                } catch (IOException e) {
+                    broken = true;
+                    throw e;
+                }
+                if (n <= 0) {
+                    // Source is shorter than announced; the frame can no longer be completed
+                    broken = true;
+                    throw new IOException("Source ended inside a frame");
+                }
+                sent += n;
+            }
+        }
+
+        void writeFully(ByteBuffer[] batch, int count) throws IOException {
+            if (!(out instanceof GatheringByteChannel)) {
+                for (int i = 0; i < count; i++)
+                    writeFully(batch[i]);
+                return;
+            }
+            try {
+                int first = 0;
+                while (first < count) {
+                    ((GatheringByteChannel) out).write(batch, first, count - first);
+                    while (first < count && !batch[first].hasRemaining())
+                        first++;
+                }
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+        }
+
+        void writeFully(ByteBuffer b) throws IOException {
+            try {
+                while (b.hasRemaining()) {
+                    out.write(b);
+                }
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+        }
+
+        boolean isBroken() {
+            return broken;
+        }
+    }
+
+    private static class Entry {
+        final int id;
+        final Stream stream;
+        volatile boolean cancelled;
+
+        Entry(int id, Stream stream) {
+            this.id = id;
+            this.stream = stream;
+        }
+    }
+
+    private final FrameSink sink;
+    private final CoalescingWriter.Batching batching;
+    private final Object lock = new Object();
+    private final ArrayDeque<ByteBuffer> control = new ArrayDeque<>();
+    private final ArrayDeque<Entry> active = new ArrayDeque<>();
+    private final Map<Integer, Entry> parked = new HashMap<>();
+    private final Map<Integer, Entry> byId = new HashMap<>();
+    private int nextStreamId = 1;
+    private boolean closed;
+    private boolean writing;
+    private Executor executor;
+    private long controlQueued;  // control frames ever queued
+    private long controlWritten;
+    private long flushUpTo;      // no lingering until controlWritten reaches this
+    private int controlBytes;
+
+    public StreamMultiplexer(WritableByteChannel out) {
+        this(out, new CoalescingWriter.Batching());
+    }
+
+    public StreamMultiplexer(WritableByteChannel out, CoalescingWriter.Batching batching) {
+        this.sink = new FrameSink(out);
+        this.batching = batching;
+    }
+
+    public void start(Executor executor) {
+        synchronized (lock) {
+            this.executor = executor;
+        }
+        schedule();
+    }
+
+    /** Queues a standalone message frame ahead of any pending stream data. */
+    public void sendMessage(byte[] data) throws IOException {
+        sendMessage(data, false);
+    }
+
+    /**
+     * @param flush skip the linger window and return once the message has been written
+     */
+    public void sendMessage(byte[] data, boolean flush) throws IOException {
+        long seq = queueControl(FrameCodec.TYPE_MESSAGE, (byte) 0, FrameCodec.CONTROL_STREAM, data, flush);
+        schedule();
+        if (flush)
+            awaitControlWritten(seq);
+    }
+
+    public void sendControl(byte type, byte flags, int streamId, byte[] payload) throws IOException {
+        // Protocol replies (RESUME, NEED, RESET) never linger: the peer is waiting for them
+        queueControl(type, flags, streamId, payload, type != FrameCodec.TYPE_MESSAGE);
+        schedule();
+    }
+
+    private long queueControl(byte type, byte flags, int streamId, byte[] payload, boolean flush)
+            throws IOException {
+        synchronized (lock) {
+            if (closed)
+                throw new IOException("Connection closed");
+            ByteBuffer frame = FrameCodec.encode(type, flags, streamId, payload);
+            control.add(frame);
+            controlBytes += frame.remaining();
+            long seq = ++controlQueued;
+            if (flush)
+                flushUpTo = seq;
+            lock.notifyAll();
+            return seq;
+        }
+    }
+
+    private void awaitControlWritten(long seq) throws IOException {
+        synchronized (lock) {
+            while (controlWritten < seq && !closed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while flushing", e);
+                }
+            }
+            if (controlWritten < seq)
+                throw new IOException("Connection closed");
+        }
+    }
+
+    /** Registers a new outgoing stream and returns its id. */
+    public int open(Stream stream) throws IOException {
+        int id;
+        synchronized (lock) {
+            if (closed)
+                throw new IOException("Connection closed");
+            Entry e = new Entry(nextStreamId++, stream);
+            byId.put(e.id, e);
+            active.add(e);
+            id = e.id;
+            lock.notifyAll();
+        }
+        schedule();
+        return id;
+    }
+
+    /** Aborts an outgoing stream; the writer sends RESET in place of its next frame. */
+    public void cancel(int streamId) {
+        synchronized (lock) {
+            Entry e = byId.get(streamId);
+            if (e != null) {
+                e.cancelled = true;
+                // A parked stream still has to go through the writer to send its RESET
+                if (parked.remove(streamId) != null)
+                    active.add(e);
+            }
+        }
+        schedule();
+    }
+
+    /** Puts a parked stream back in the rotation once it became ready. */
+    public void wake(int streamId) {
+        synchronized (lock) {
+            Entry e = parked.remove(streamId);
+            if (e == null)
+                return;
+            active.add(e);
+        }
+        schedule();
+    }
+
+    public int activeStreams() {
+        synchronized (lock) {
+            return byId.size();
+        }
+    }
+
+    // Starts the writer task unless it is already running or there is nothing to write
+    private void schedule() {
+        synchronized (lock) {
+            if (writing || closed || executor == null || (control.isEmpty() && active.isEmpty()))
+                return;
+            writing = true;
+        }
+        submitWriter();
+    }
+
+    // Called with writing set, by schedule() or by a writer task handing over its turn
+    private void submitWriter() {
+        Executor ex;
+        synchronized (lock) {
+            ex = executor;
+        }
+        try {
+            ex.execute(this::writeLoop);
+        } catch (RejectedExecutionException e) {
+            failAll(new IOException("Connection closed", e));
+        }
+    }
+
+    private void writeLoop() {
+        ByteBuffer[] batch = new ByteBuffer[16];
+        int frames = 0;
+        while (true) {
+            if (frames == FRAMES_PER_TURN) {
+                // Still writing: give the thread to the next connection and queue up behind it
+                submitWriter();
+                return;
+            }
+            int count = 0;
+            Entry next = null;
+            synchronized (lock) {
+                if (closed)
+                    break;
+                if (control.isEmpty() && active.isEmpty()) {
+                    // Checked under the lock, so anything queued after this schedules a new task
+                    writing = false;
+                    return;
+                }
+                if (!control.isEmpty()) {
+                    lingerForControl();
+                    if (closed)
+                        break;
+                    int max = batching.maxBatchBytes();
+                    int bytes = 0;
+                    while (!control.isEmpty() && (count == 0 || bytes + control.peek().remaining() <= max)) {
+                        if (count == batch.length)
+                            batch = Arrays.copyOf(batch, count * 2);
+                        ByteBuffer frame = control.poll();
+                        bytes += frame.remaining();
+                        batch[count++] = frame;
+                    }
+                    controlBytes -= bytes;
+                } else {
+                    next = active.poll();
+                    frames++;
+                }
+            }
+
+            try {
+                if (count > 0) {
+                    sink.writeFully(batch, count);
+                    Arrays.fill(batch, 0, count, null);
+                    synchronized (lock) {
+                        controlWritten += count;
+                        lock.notifyAll();
+                    }
+                    continue;
+                }
+                if (next.cancelled) {
+                    sink.write(FrameCodec.TYPE_RESET, (byte) 0, next.id, null);
+                    finish(next, new IOException("Stream cancelled"));
+                    continue;
+                }
+                boolean more = next.stream.writeFrame(next.id, sink);
+                if (more) {
+                    synchronized (lock) {
+                        // Checked under the lock so a concurrent wake() cannot be missed
+                        if (next.stream.isReady() || next.cancelled) {
+                            active.add(next);
+                        } else {
+                            parked.put(next.id, next);
+                        }
+                    }
+                } else {
+                    finish(next, null);
+                }
+            } catch (IOException e) {
+                if (next != null)
+                    finish(next, e);
+                if (sink.isBroken()) {
+                    // The channel itself failed; nothing else can be sent on it
+                    break;
+                }
+                try {
+                    // Source failure only - let the receiver drop the partial stream
+                    if (next != null)
+                        sink.write(FrameCodec.TYPE_RESET, (byte) 0, next.id, null);
+                } catch (IOException ignore) {
+                    break;
+                }
+            }
+        }
+        failAll(new IOException("Connection closed"));
+    }
+
+    // Waits up to the linger window for more control frames; only when no stream data is waiting
+    private void lingerForControl() {
+        long linger = batching.lingerNanos();
+        if (linger <= 0)
+            return;
+        long deadline = System.nanoTime() + linger;
+        while (!closed && active.isEmpty() && flushUpTo <= controlWritten
+                && controlBytes < batching.maxBatchBytes()) {
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0)
+                return;
+            try {
+                TimeUnit.NANOSECONDS.timedWait(lock, wait);
+            } catch (InterruptedException e) {
+                // Write what is queued; the executor owning this thread sees the interrupt after
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void finish(Entry e, IOException error) {
+        synchronized (lock) {
+            byId.remove(e.id);
+        }
+        e.stream.onFinished(error);
+    }
+
+    private void failAll(IOException error) {
+        List<Entry> remaining;
+        synchronized (lock) {
+            closed = true;
+            writing = false;
+            lock.notifyAll();
+            remaining = new ArrayList<>(byId.values());
+            byId.clear();
+            active.clear();
+            parked.clear();
+            control.clear();
+            controlBytes = 0;
+        }
+        for (Entry e : remaining) {
+            e.stream.onFinished(error);
+        }
+    }
+
+    @Override
+    public void close() {
+        failAll(new IOException("Connection closed"));
+    }
+}
@@ -0,0 +1,250 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Small on-disk record that lets an interrupted transfer continue where it stopped.
+ *
+ * Receivers record a CRC32 per {@link #CHUNK_SIZE} chunk as the pipeline writes it; the
+ * verified offset is the end of the last complete chunk. On reconnect the chunks are
+ * re-read and checked against the recorded hashes, and the first mismatch becomes the
+ * resume offset. Senders only record which transferId was used for a source path and target,
+ * so sending the same version of a file to the same peer again reuses the id the receiver
+ * journaled under. Receivers journal under the sender's {@link #instanceId} and transferId but
+ * record their own local transferId, which names the partial file.
+ */
+public class TransferJournal implements ReceivePipeline.WriteListener {
+
+    public static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int MAGIC = 0x57414a31; // 'W' 'A' 'J' '1'
+    // Kept next to the journals, which are useless without it; never pruned
+    static final String INSTANCE_FILE = "instance";
+
+    public final String key;
+    public final String transferId;
+    public final String peerId;
+    public final String fileName;
+    public final long fileSize;
+    // Sender side only: the source the transferId belongs to
+    public final String sourcePath;
+    public final long sourceModified;
+
+    private final File dir;
+    private int[] chunkHashes = new int[16];
+    private int chunkCount;
+    private final CRC32 crc = new CRC32();
+    private long expected;
+    private boolean broken;
+
+    public TransferJournal(File dir, String key, String transferId, String peerId, String fileName, long fileSize,
+            String sourcePath, long sourceModified) {
+        this.dir = dir;
+        this.key = key;
+        this.transferId = transferId;
+        this.peerId = peerId != null ? peerId : "";
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.sourcePath = sourcePath != null ? sourcePath : "";
+        this.sourceModified = sourceModified;
+    }
+
+    /** @param senderKey the sender and its transferId; hashed, as it comes from the remote */
+    public static String incomingKey(String senderKey) {
+        return "in-" + UUID.nameUUIDFromBytes(senderKey.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param targetId the peer the file goes to
+     * @param size     source length, or -1 if unknown
+     * @param modified source modification time, or 0 if unknown; a changed source gets a new key
+     */
+    public static String outgoingKey(String targetId, String sourcePath, long size, long modified) {
+        String id = targetId + "\n" + sourcePath + "\n" + size + "\n" + modified;
+        return "out-" + UUID.nameUUIDFromBytes(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Random id of this installation, created on first use and stored in {@code dir}. Senders
+     * put it in resumable FILE_OPENs, so receivers can find their journal again across
+     * reconnects and restarts of either side.
+     */
+    public static synchronized String instanceId(File dir) {
+        File f = new File(dir, INSTANCE_FILE);
+        if (f.isFile()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+                String id = in.readUTF();
+                if (!id.isEmpty())
+                    return id;
+            } catch (IOException e) {
+                // Unreadable: replace it below
+            }
+        }
+        String id = UUID.randomUUID().toString();
+        try {
+            if (!dir.exists() && !dir.mkdirs())
+                throw new IOException("Cannot create " + dir);
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(f))) {
+                out.writeUTF(id);
+            }
+        } catch (IOException e) {
+            // Still usable for this process; resuming just does not survive a restart
+        }
+        return id;
+    }
+
+    /** Bytes known to be on disk: the end of the last complete chunk. */
+    public synchronized long verifiedOffset() {
+        return Math.min((long) chunkCount * CHUNK_SIZE, fileSize);
+    }
+
+    /** Called on the pipeline's writer thread after each chunk reached the file. */
+    @Override
+    public synchronized void onWritten(ByteBuffer data, long position) {
+        if (broken)
+            return;
+        if (position != expected) {
+            // Only sequential streams can be journaled
+            broken = true;
+            return;
+        }
+        ByteBuffer b = data.duplicate();
+        while (b.hasRemaining()) {
+            long inChunk = expected % CHUNK_SIZE;
+            int n = (int) Math.min(b.remaining(), CHUNK_SIZE - inChunk);
+            ByteBuffer slice = b.duplicate();
+            slice.limit(slice.position() + n);
+            crc.update(slice);
+            b.position(b.position() + n);
+            expected += n;
+            if (expected % CHUNK_SIZE == 0)
+                addChunk((int) crc.getValue());
+        }
+    }
+
+    private void addChunk(int hash) {
+        if (chunkCount == chunkHashes.length)
+            chunkHashes = Arrays.copyOf(chunkHashes, chunkCount * 2);
+        chunkHashes[chunkCount++] = hash;
+        crc.reset();
+    }
+
+    /**
+     * Re-reads the journaled chunks of {@code partial} and drops every chunk from the first
+     * mismatch on.
+     *
+     * @return offset the transfer can resume from
+     */
+    public synchronized long verify(File partial) throws IOException {
+        int good = 0;
+        if (partial.exists()) {
+            try (RandomAccessFile raf = new RandomAccessFile(partial, "r")) {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+                CRC32 check = new CRC32();
+                for (; good < chunkCount; good++) {
+                    long start = (long) good * CHUNK_SIZE;
+                    if (start + CHUNK_SIZE > channel.size())
+                        break;
+                    check.reset();
+                    long pos = start;
+                    while (pos < start + CHUNK_SIZE) {
+                        buf.clear();
+                        buf.limit((int) Math.min(buf.capacity(), start + CHUNK_SIZE - pos));
+                        int n = channel.read(buf, pos);
+                        if (n <= 0)
+                            break;
+                        buf.flip();
+                        check.update(buf);
+                        pos += n;
+                    }
+                    if (pos < start + CHUNK_SIZE || (int) check.getValue() != chunkHashes[good])
+                        break;
+                }
+            }
+        }
+        chunkCount = good;
+        crc.reset();
+        expected = verifiedOffset();
+        broken = false;
+        return expected;
+    }
+
+    public synchronized void save() throws IOException {
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+        File tmp = new File(dir, key + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(MAGIC);
+            out.writeUTF(transferId);
+            out.writeUTF(peerId);
+            out.writeUTF(fileName);
+            out.writeLong(fileSize);
+            out.writeUTF(sourcePath);
+            out.writeLong(sourceModified);
+            int count = broken ? 0 : chunkCount;
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(chunkHashes[i]);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        // Rename so a crash mid-write never leaves a torn journal
+        if (!tmp.renameTo(new File(dir, key)))
+            throw new IOException("Cannot write journal " + key);
+    }
+
+    public void delete() {
+        new File(dir, key).delete();
+    }
+
+    /** @return the journal stored under {@code key}, or null if there is none or it is unreadable */
+    public static TransferJournal load(File dir, String key) {
+        File f = new File(dir, key);
+        if (!f.isFile())
+            return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            if (in.readInt() != MAGIC)
+                return null;
+            TransferJournal j = new TransferJournal(dir, key, in.readUTF(), in.readUTF(), in.readUTF(),
+                    in.readLong(), in.readUTF(), in.readLong());
+            int count = in.readInt();
+            if (count < 0 || (long) count * CHUNK_SIZE > j.fileSize + CHUNK_SIZE)
+                return null;
+            j.chunkHashes = new int[Math.max(16, count)];
+            for (int i = 0; i < count; i++) {
+                j.chunkHashes[i] = in.readInt();
+            }
+            j.chunkCount = count;
+            j.expected = j.verifiedOffset();
+            return j;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Deletes journals not touched for {@code maxAgeMs}; the {@link #instanceId} stays. */
+    public static void prune(File dir, long maxAgeMs) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        long cutoff = System.currentTimeMillis() - maxAgeMs;
+        for (File f : files) {
+            if (f.lastModified() < cutoff && !f.getName().equals(INSTANCE_FILE))
+                f.delete();
+        }
+    }
+}
@@ -4,10 +4,14 @@ import android.Manifest;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
 
 import androidx.core.app.ActivityCompat;
 
 import com.getcapacitor.BridgeActivity;
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.PermissionState;
 import com.getcapacitor.Plugin;
@@ -17,6 +21,9 @@ import com.getcapacitor.annotation.CapacitorPlugin;
 import com.getcapacitor.annotation.Permission;
 import com.getcapacitor.annotation.PermissionCallback;
 
+import java.util.List;
+import java.util.Map;
+
 @CapacitorPlugin(name = "WifiAware", permissions = {
         @Permission(strings = { Manifest.permission.NEARBY_WIFI_DEVICES }, alias = "nearby"),
         @Permission(strings = { Manifest.permission.ACCESS_FINE_LOCATION }, alias = "location")
@@ -25,10 +32,15 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
 
     private WifiAwareShim aware;
     private WifiAwareStateReceiver stateReceiver;
+    // Opt-in coalescing of messageReceived, fileTransferProgress and serviceFound
+    private final EventBatcher.Settings eventBatching = new EventBatcher.Settings();
+    private EventBatcher<JSObject> eventBatcher;
 
     @Override
     public void load() {
         aware = new WifiAwareShim((BridgeActivity) getActivity(), this);
+        eventBatcher = new EventBatcher<>(this::deliverBatch, new Handler(Looper.getMainLooper())::postDelayed,
+                eventBatching);
 
         stateReceiver = new WifiAwareStateReceiver(result -> {
             notifyListeners("stateChanged", resultToJS(result));
@@ -68,7 +80,7 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
         }
         ensurePermissions(call, () -> {
             try {
-                aware.publish(opts, peer -> notifyListeners("serviceFound", peerToJS(peer, opts.serviceName)));
+                aware.publish(opts, peer -> emit("serviceFound", peer.peerId, peerToJS(peer, opts.serviceName)));
                 call.resolve();
             } catch (Exception e) {
                 call.reject(e.getMessage());
@@ -95,7 +107,7 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
             try {
                 aware.subscribe(
                         opts,
-                        peer -> notifyListeners("serviceFound", peerToJS(peer, opts.serviceName)),
+                        peer -> emit("serviceFound", peer.peerId, peerToJS(peer, opts.serviceName)),
                         peerId -> {
                             JSObject js = new JSObject();
                             js.put("peerId", peerId);
@@ -119,34 +131,91 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
     public void sendMessage(PluginCall call) {
         String peerId = call.getString("peerId");
         String dataBase64 = call.getString("dataBase64");
-        if (peerId == null || dataBase64 == null) {
-            call.reject("peerId and dataBase64 required");
+        String socketId = call.getString("socketId");
+        boolean multicast = call.getBoolean("multicast", false);
+        JSArray peerIdsArray = call.getArray("peerIds");
+        List<String> peerIds;
+        try {
+            peerIds = peerIdsArray != null && peerIdsArray.length() > 0 ? peerIdsArray.<String>toList() : null;
+        } catch (Exception e) {
+            call.reject("peerIds must be an array of strings");
+            return;
+        }
+        if ((peerId == null && !multicast && peerIds == null) || dataBase64 == null) {
+            call.reject("peerId (or multicast/peerIds) and dataBase64 required");
             return;
         }
         try {
-            aware.sendMessage(peerId, dataBase64);
-            call.resolve();
+            if (socketId != null && (multicast || peerIds != null)) {
+                // Over the data path to several peers: resolves once every peer was sent to
+                aware.sendDataToPeers(socketId, multicast ? null : peerIds,
+                        Base64.decode(dataBase64, Base64.DEFAULT), call.getBoolean("flush", false))
+                        .thenAccept(results -> call.resolve(sendResultToJS(results, "messageId")));
+            } else if (socketId != null) {
+                // Over the data path: batched with other small messages unless flushed
+                aware.sendDataThroughSocket(socketId, peerId, Base64.decode(dataBase64, Base64.DEFAULT), 1,
+                        call.getBoolean("flush", false));
+                JSObject result = new JSObject();
+                result.put("messageIds", new JSArray());
+                call.resolve(result);
+            } else {
+                aware.sendMessage(peerId, dataBase64, multicast, peerIds)
+                        .thenAccept(results -> call.resolve(sendResultToJS(results, "messageId")));
+            }
         } catch (Exception e) {
             call.reject(e.getMessage());
         }
     }
 
+    // messageIds (or transferIds) given to the targets, plus one result per target
+    private static JSObject sendResultToJS(List<FanOut.Result> results, String idKey) {
+        JSArray ids = new JSArray();
+        JSArray perTarget = new JSArray();
+        for (FanOut.Result r : results) {
+            JSObject o = new JSObject();
+            o.put("peerId", r.target);
+            if (r.id != null) {
+                o.put(idKey, r.id);
+                ids.put(r.id);
+            }
+            if (r.error != null)
+                o.put("error", r.error);
+            perTarget.put(o);
+        }
+        JSObject result = new JSObject();
+        result.put(idKey + "s", ids);
+        result.put("results", perTarget);
+        return result;
+    }
+
     @PluginMethod
     public void startSocket(PluginCall call) {
         String peerId = call.getString("peerId");
         String psk = call.getString("pskPassphrase");
         boolean asServer = call.getBoolean("asServer", false);
+        boolean multicastEnabled = call.getBoolean("multicastEnabled", false);
+        int maxConnections = call.getInt("maxConnections", 5);
+        String engine = call.getString("engine", WifiAwareShim.ENGINE_NIO);
         if (peerId == null || psk == null) {
             call.reject("peerId and pskPassphrase required");
             return;
         }
+        if (!WifiAwareShim.ENGINE_BLOCKING.equals(engine) && !WifiAwareShim.ENGINE_NIO.equals(engine)) {
+            call.reject("engine must be 'blocking' or 'nio'");
+            return;
+        }
+        if (maxConnections < 1) {
+            call.reject("maxConnections must be >= 1");
+            return;
+        }
         try {
-            aware.startSocket(peerId, psk, asServer,
+            aware.startSocketWithId(peerId, psk, asServer, multicastEnabled, maxConnections, engine,
                     info -> {
                         notifyListeners("socketReady", socketToJS(info));
                         call.resolve(socketToJS(info));
                     },
-                    () -> notifyListeners("socketClosed", new JSObject()));
+                    (socketId, connectedPeerId) -> onPeerConnected(socketId, connectedPeerId, null),
+                    this::onPeerDisconnected);
         } catch (Exception e) {
             call.reject(e.getMessage());
         }
@@ -154,11 +223,80 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
 
     @PluginMethod
     public void stopSocket(PluginCall call) {
-        aware.stopSocket();
-        notifyListeners("socketClosed", new JSObject());
+        String socketId = call.getString("socketId");
+        if (socketId != null) {
+            aware.stopSocket(socketId);
+        } else {
+            aware.stopAllSockets();
+        }
+        onSocketClosed(socketId);
         call.resolve();
     }
     
+    @PluginMethod
+    public void sendFile(PluginCall call) {
+        String peerId = call.getString("peerId");
+        String filePath = call.getString("filePath");
+        String fileBase64 = call.getString("fileBase64");
+        String fileName = call.getString("fileName");
+        String mimeType = call.getString("mimeType");
+        String socketId = call.getString("socketId");
+        boolean multicast = call.getBoolean("multicast", false);
+        JSArray peerIdsArray = call.getArray("peerIds");
+        List<String> peerIds;
+        try {
+            peerIds = peerIdsArray != null && peerIdsArray.length() > 0 ? peerIdsArray.<String>toList() : null;
+        } catch (Exception e) {
+            call.reject("peerIds must be an array of strings");
+            return;
+        }
+        
+        if ((peerId == null && !multicast && peerIds == null) || fileName == null) {
+            call.reject("peerId (or multicast/peerIds) and fileName are required");
+            return;
+        }
+        
+        if ((filePath == null && fileBase64 == null) || (filePath != null && fileBase64 != null)) {
+            call.reject("Either filePath OR fileBase64 must be provided");
+            return;
+        }
+        
+        SendFileOptions opts;
+        try {
+            opts = SendFileOptions.fromCall(call);
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        
+        try {
+            if (multicast || peerIds != null) {
+                // One transfer per peer of the socket; each reports its own progress events, and the
+                // call resolves with every target's outcome once all of them finished
+                aware.sendFileToPeers(multicast ? null : peerIds, filePath, fileBase64,
+                        fileName, mimeType, socketId, opts)
+                        .thenAccept(results -> {
+                            JSObject result = sendResultToJS(results, "transferId");
+                            for (FanOut.Result r : results) {
+                                if (r.id != null) {
+                                    result.put("transferId", r.id);
+                                    break;
+                                }
+                            }
+                            call.resolve(result);
+                        });
+                return;
+            }
+            String transferId = aware.sendFile(peerId, filePath, fileBase64, fileName, mimeType, socketId, opts);
+            JSObject result = new JSObject();
+            result.put("transferId", transferId);
+            call.resolve(result);
+        } catch (Exception e) {
+            call.reject("Failed to send file: " + e.getMessage());
+        }
+    }
+    
+    // Older name of sendFile for a single peer, which also derives fileName from filePath
     @PluginMethod
     public void sendFileTransfer(PluginCall call) {
         String peerId = call.getString("peerId");
@@ -196,8 +334,18 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
             }
         }
         
+        SendFileOptions opts;
+        try {
+            opts = SendFileOptions.fromCall(call);
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        
         try {
-            String transferId = aware.sendFileTransfer(peerId, filePath, fileBase64, fileName, mimeType);
+            // Announced over discovery; the data follows on socketId, if given
+            String transferId = aware.sendFile(peerId, filePath, fileBase64, fileName, mimeType,
+                    call.getString("socketId"), opts);
             JSObject result = new JSObject();
             result.put("transferId", transferId);
             call.resolve(result);
@@ -212,20 +360,194 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
         String transferId = call.getString("transferId");
         Boolean accept = call.getBoolean("accept", false);
         String savePath = call.getString("savePath");
-        
         if (peerId == null || transferId == null) {
             call.reject("peerId and transferId are required");
             return;
         }
         
         try {
-            aware.respondToFileTransfer(peerId, transferId, accept, savePath);
-            call.resolve();
+            // Accepted transfers need no reply: the data arrives on the socket and lands in the
+            // cache dir, reported as filePath on completion. A savePath cannot be honoured, so the
+            // caller is told rather than left waiting for a file that never appears there.
+            if (!accept)
+                aware.declineFileTransfer(peerId, transferId);
+            JSObject result = new JSObject();
+            if (accept && savePath != null)
+                result.put("savePathIgnored", true);
+            call.resolve(result);
         } catch (Exception e) {
             call.reject("Failed to respond to file transfer: " + e.getMessage());
         }
     }
 
+    @PluginMethod
+    public void configure(PluginCall call) {
+        try {
+            Boolean receiveMemoryMapped = call.getBoolean("receiveMemoryMapped");
+            if (receiveMemoryMapped != null)
+                aware.setReceiveMemoryMapped(receiveMemoryMapped);
+            String completionMode = call.getString("completionMode");
+            if (completionMode != null)
+                aware.setCompletionMode(completionMode);
+            Long chunkStoreBytes = call.getLong("chunkStoreBytes");
+            if (chunkStoreBytes != null)
+                aware.setChunkStoreBytes(chunkStoreBytes);
+            Long socketLingerMicros = call.getLong("socketLingerMicros");
+            if (socketLingerMicros != null)
+                aware.setSocketLingerMicros(socketLingerMicros);
+            Integer socketBatchBytes = call.getInt("socketBatchBytes");
+            if (socketBatchBytes != null)
+                aware.setSocketBatchBytes(socketBatchBytes);
+            Integer l2MaxInFlight = call.getInt("l2MaxInFlight");
+            if (l2MaxInFlight != null)
+                aware.setL2MaxInFlight(l2MaxInFlight);
+            Integer l2MaxAttempts = call.getInt("l2MaxAttempts");
+            if (l2MaxAttempts != null)
+                aware.setL2MaxAttempts(l2MaxAttempts);
+            Integer fanOutConcurrency = call.getInt("fanOutConcurrency");
+            if (fanOutConcurrency != null)
+                aware.setFanOutConcurrency(fanOutConcurrency);
+            String receivePayloads = call.getString("receivePayloads");
+            if (receivePayloads != null)
+                aware.setReceivePayloadMode(receivePayloads);
+            Integer payloadPrefixBytes = call.getInt("payloadPrefixBytes");
+            if (payloadPrefixBytes != null)
+                aware.setPayloadPrefixBytes(payloadPrefixBytes);
+            Long payloadStoreBytes = call.getLong("payloadStoreBytes");
+            if (payloadStoreBytes != null)
+                aware.setPayloadStoreBytes(payloadStoreBytes);
+            Integer payloadStoreEntries = call.getInt("payloadStoreEntries");
+            if (payloadStoreEntries != null)
+                aware.setPayloadStoreEntries(payloadStoreEntries);
+            Long progressIntervalMs = call.getLong("progressIntervalMs");
+            if (progressIntervalMs != null)
+                aware.setProgressIntervalMs(progressIntervalMs);
+            Long dataPathIdleMs = call.getLong("dataPathIdleMs");
+            if (dataPathIdleMs != null)
+                aware.setDataPathIdleMs(dataPathIdleMs);
+            Long httpMaxUploadBytes = call.getLong("httpMaxUploadBytes");
+            if (httpMaxUploadBytes != null)
+                aware.setHttpMaxUploadBytes(httpMaxUploadBytes);
+            Integer discoveryHysteresisMm = call.getInt("discoveryHysteresisMm");
+            if (discoveryHysteresisMm != null)
+                aware.setDiscoveryHysteresisMm(discoveryHysteresisMm);
+            Long discoveryRepeatMs = call.getLong("discoveryRepeatMs");
+            if (discoveryRepeatMs != null)
+                aware.setDiscoveryRepeatMs(discoveryRepeatMs);
+            Integer eventBatchSize = call.getInt("eventBatchSize");
+            if (eventBatchSize != null)
+                eventBatching.setMaxBatch(eventBatchSize);
+            Integer eventQueueLimit = call.getInt("eventQueueLimit");
+            if (eventQueueLimit != null)
+                eventBatching.setMaxQueued(eventQueueLimit);
+            Long eventBatchIntervalMs = call.getLong("eventBatchIntervalMs");
+            if (eventBatchIntervalMs != null) {
+                eventBatching.setIntervalMs(eventBatchIntervalMs);
+                if (!eventBatching.enabled())
+                    eventBatcher.flush(); // nothing queued is left behind when batching is turned off
+            }
+            call.resolve();
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void startHttpServer(PluginCall call) {
+        try {
+            LoopbackServer server = aware.startLoopbackServer();
+            JSObject result = new JSObject();
+            result.put("url", server.url());
+            result.put("token", server.token());
+            call.resolve(result);
+        } catch (Exception e) {
+            call.reject("Failed to start HTTP server: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void stopHttpServer(PluginCall call) {
+        aware.stopLoopbackServer();
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void readMessage(PluginCall call) {
+        String handle = call.getString("handle");
+        if (handle == null) {
+            call.reject("handle is required");
+            return;
+        }
+        try {
+            byte[] payload = aware.readPayload(handle, call.getBoolean("release", true));
+            JSObject result = new JSObject();
+            result.put("dataBase64", Base64.encodeToString(payload, Base64.NO_WRAP));
+            call.resolve(result);
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void releaseMessages(PluginCall call) {
+        JSArray handles = call.getArray("handles");
+        if (handles == null) {
+            call.reject("handles is required");
+            return;
+        }
+        try {
+            JSObject result = new JSObject();
+            result.put("released", aware.releasePayloads(handles.<String>toList()));
+            call.resolve(result);
+        } catch (Exception e) {
+            call.reject("handles must be an array of strings");
+        }
+    }
+
+    @PluginMethod
+    public void readTransferChunk(PluginCall call) {
+        String transferId = call.getString("transferId");
+        Long offset = call.getLong("offset", 0L);
+        Integer length = call.getInt("length", WifiAwareShim.MAX_TRANSFER_CHUNK);
+        if (transferId == null) {
+            call.reject("transferId is required");
+            return;
+        }
+        try {
+            byte[] chunk = aware.readTransferChunk(transferId, offset, length);
+            JSObject result = new JSObject();
+            result.put("dataBase64", Base64.encodeToString(chunk, Base64.NO_WRAP));
+            result.put("bytesRead", chunk.length);
+            result.put("totalBytes", aware.getTransferSize(transferId));
+            result.put("eof", offset + chunk.length >= aware.getTransferSize(transferId));
+            call.resolve(result);
+        } catch (Exception e) {
+            call.reject("Failed to read transfer: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void releaseTransfer(PluginCall call) {
+        String transferId = call.getString("transferId");
+        if (transferId == null) {
+            call.reject("transferId is required");
+            return;
+        }
+        aware.releaseTransfer(transferId, call.getBoolean("deleteFile", false));
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getStats(PluginCall call) {
+        call.resolve((JSObject) toJS(aware.getStats()));
+    }
+
+    @PluginMethod
+    public void resetStats(PluginCall call) {
+        aware.resetStats();
+        call.resolve();
+    }
+
     @PluginMethod
     public void removeAllListeners(PluginCall call) {
         super.removeAllListeners(call);
@@ -239,7 +561,17 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
         JSObject js = new JSObject();
         js.put("peerId", peerId);
         js.put("dataBase64", dataBase64);
-        notifyListeners("messageReceived", js);
+        emit("messageReceived", null, js);
+    }
+    
+    @Override
+    public void onMessageStored(String peerId, String handle, int length, String prefixBase64) {
+        JSObject js = new JSObject();
+        js.put("peerId", peerId);
+        js.put("handle", handle);
+        js.put("length", length);
+        js.put("prefixBase64", prefixBase64);
+        emit("messageReceived", null, js);
     }
     
     @Override
@@ -257,7 +589,8 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
     
     @Override
     public void onFileTransferProgress(String peerId, String transferId, String fileName, 
-                                       long bytesTransferred, long totalBytes, String direction, String status) {
+                                       long bytesTransferred, long totalBytes, String direction, String status,
+                                       ProgressReporter.Rate rate) {
         JSObject js = new JSObject();
         js.put("peerId", peerId);
         js.put("transferId", transferId);
@@ -267,7 +600,14 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
         js.put("progress", (int)((bytesTransferred * 100) / Math.max(1, totalBytes)));
         js.put("direction", direction);
         js.put("status", status);
-        notifyListeners("fileTransferProgress", js);
+        if (rate != null) {
+            js.put("bytesPerSecond", Math.round(rate.instantBytesPerSecond));
+            js.put("smoothedBytesPerSecond", Math.round(rate.smoothedBytesPerSecond));
+            if (rate.etaMs >= 0)
+                js.put("etaMs", rate.etaMs);
+        }
+        // A newer tick of the same transfer supersedes one still waiting in a batch
+        emit("fileTransferProgress", transferId, js);
     }
     
     @Override
@@ -311,6 +651,16 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
         notifyListeners("peerDisconnected", js);
     }
     
+    @Override
+    public void onMessageStatus(String messageId, String peerId, String status, int attempts) {
+        JSObject js = new JSObject();
+        js.put("messageId", messageId);
+        js.put("peerId", peerId);
+        js.put("status", status);
+        js.put("attempts", attempts);
+        notifyListeners("messageStatus", js);
+    }
+    
     @Override
     public void onSocketClosed(String socketId) {
         JSObject js = new JSObject();
@@ -320,6 +670,22 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
         notifyListeners("socketClosed", js);
     }
 
+    // Fires the event now, or queues it for the next "<event>Batch" when batching is on
+    private void emit(String event, Object mergeKey, JSObject js) {
+        if (eventBatching.enabled()) {
+            eventBatcher.offer(event, mergeKey, js);
+        } else {
+            notifyListeners(event, js);
+        }
+    }
+
+    private void deliverBatch(String event, List<JSObject> batch, int dropped) {
+        JSObject js = new JSObject();
+        js.put("events", new JSArray(batch));
+        js.put("dropped", dropped);
+        notifyListeners(event + "Batch", js);
+    }
+
     // ==== Permission handling ====
 
     private void ensurePermissions(PluginCall call, Runnable proceed) {
@@ -357,6 +723,23 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
 
     // ==== helpers ====
 
+    // Nested maps and lists from the shim's stats into their JS counterparts
+    private static Object toJS(Object value) {
+        if (value instanceof Map) {
+            JSObject js = new JSObject();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet())
+                js.put(String.valueOf(e.getKey()), toJS(e.getValue()));
+            return js;
+        }
+        if (value instanceof List) {
+            JSArray array = new JSArray();
+            for (Object item : (List<?>) value)
+                array.put(toJS(item));
+            return array;
+        }
+        return value;
+    }
+
     private JSObject resultToJS(WifiAwareStateReceiver.AttachResult r) {
         JSObject js = new JSObject();
         js.put("available", r.available);
@@ -382,7 +765,10 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
 
     private JSObject socketToJS(WifiAwareShim.SocketInfo info) {
         JSObject js = new JSObject();
+        js.put("socketId", info.socketId);
         js.put("role", info.role);
+        js.put("multicastEnabled", info.multicastEnabled);
+        js.put("connectedPeers", new JSArray(info.connectedPeers));
         if (info.localPort != null)
             js.put("localPort", info.localPort);
         if (info.peerIpv6 != null)
@@ -399,23 +785,67 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
         final String serviceInfoBase64;
         final boolean instantMode;
         final boolean rangingEnabled;
+        final boolean deviceInfo;
+        final String deviceInfoFormat;
+
+        PublishOptions(String s, String info, boolean instant, boolean ranging, boolean deviceInfo) {
+            this(s, info, instant, ranging, deviceInfo, DeviceInfoCodec.FORMAT_TLV);
+        }
 
-        PublishOptions(String s, String info, boolean instant, boolean ranging) {
+        PublishOptions(String s, String info, boolean instant, boolean ranging, boolean deviceInfo,
+                       String deviceInfoFormat) {
             this.serviceName = s;
             this.serviceInfoBase64 = info;
             this.instantMode = instant;
             this.rangingEnabled = ranging;
+            this.deviceInfo = deviceInfo;
+            this.deviceInfoFormat = deviceInfoFormat;
         }
 
         static PublishOptions fromCall(PluginCall call) {
             String name = call.getString("serviceName");
             if (name == null)
                 throw new IllegalArgumentException("serviceName required");
+            String format = call.getString("deviceInfoFormat", DeviceInfoCodec.FORMAT_TLV);
+            if (!DeviceInfoCodec.FORMAT_TLV.equals(format) && !DeviceInfoCodec.FORMAT_JSON.equals(format))
+                throw new IllegalArgumentException("deviceInfoFormat must be 'tlv' or 'json'");
             return new PublishOptions(
                     name,
                     call.getString("serviceInfoBase64"),
                     call.getBoolean("instantMode", false),
-                    call.getBoolean("rangingEnabled", false));
+                    call.getBoolean("rangingEnabled", false),
+                    call.getBoolean("deviceInfo", false),
+                    format);
+        }
+    }
+
+    static class SendFileOptions {
+        final String sendMode;
+        final int stripes;
+        final boolean resumable;
+        final String compression;
+        final boolean dedup;
+
+        SendFileOptions(String sendMode, int stripes, boolean resumable, String compression, boolean dedup) {
+            this.sendMode = sendMode;
+            this.stripes = stripes;
+            this.resumable = resumable;
+            this.compression = compression;
+            this.dedup = dedup;
+        }
+
+        static SendFileOptions fromCall(PluginCall call) {
+            String sendMode = call.getString("sendMode", WifiAwareShim.SEND_MODE_STREAM);
+            if (!WifiAwareShim.SEND_MODE_STREAM.equals(sendMode) && !WifiAwareShim.SEND_MODE_NIO.equals(sendMode))
+                throw new IllegalArgumentException("sendMode must be 'stream' or 'nio'");
+            String compression = call.getString("compression", ChunkCodecs.NONE);
+            ChunkCodecs.forName(compression); // rejects unknown codecs
+            return new SendFileOptions(
+                    sendMode,
+                    Math.max(1, Math.min(WifiAwareShim.MAX_STRIPES, call.getInt("stripes", 1))),
+                    call.getBoolean("resumable", false),
+                    compression,
+                    call.getBoolean("dedup", false));
         }
     }
 
@@ -424,12 +854,18 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
         final boolean instantMode;
         final Integer minDistanceMm;
         final Integer maxDistanceMm;
+        final PathPrewarmer.Rule prewarm;
 
         SubscribeOptions(String s, boolean instant, Integer min, Integer max) {
+            this(s, instant, min, max, null);
+        }
+
+        SubscribeOptions(String s, boolean instant, Integer min, Integer max, PathPrewarmer.Rule prewarm) {
             this.serviceName = s;
             this.instantMode = instant;
             this.minDistanceMm = min;
             this.maxDistanceMm = max;
+            this.prewarm = prewarm;
         }
 
         static SubscribeOptions fromCall(PluginCall call) {
@@ -440,7 +876,24 @@ public class WifiAwarePlugin extends Plugin implements WifiAwareShim.MessageSink
                     name,
                     call.getBoolean("instantMode", false),
                     call.getInt("minDistanceMm"),
-                    call.getInt("maxDistanceMm"));
+                    call.getInt("maxDistanceMm"),
+                    prewarmRule(call.getObject("prewarm")));
+        }
+
+        static PathPrewarmer.Rule prewarmRule(JSObject o) {
+            if (o == null)
+                return null;
+            String engine = o.getString("engine", WifiAwareShim.ENGINE_NIO);
+            if (!WifiAwareShim.ENGINE_BLOCKING.equals(engine) && !WifiAwareShim.ENGINE_NIO.equals(engine))
+                throw new IllegalArgumentException("prewarm.engine must be 'blocking' or 'nio'");
+            return new PathPrewarmer.Rule(
+                    o.getString("pskPassphrase", null),
+                    engine,
+                    o.getInteger("maxDistanceMm"),
+                    o.getString("capability", null),
+                    o.getInteger("maxPaths", PathPrewarmer.Rule.DEFAULT_MAX_PATHS),
+                    o.getBoolean("preferRecent", false),
+                    o.getInteger("timeoutMs", (int) PathPrewarmer.Rule.DEFAULT_TIMEOUT_MS));
         }
     }
 }
@@ -6,6 +6,7 @@ import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.net.NetworkRequest;
 import android.net.wifi.aware.AttachCallback;
+import android.net.wifi.aware.Characteristics;
 import android.net.wifi.aware.DiscoverySession;
 import android.net.wifi.aware.DiscoverySessionCallback;
 import android.net.wifi.aware.PublishConfig;
@@ -16,9 +17,12 @@ import android.net.wifi.aware.WifiAwareManager;
 import android.net.wifi.aware.WifiAwareNetworkInfo;
 import android.net.wifi.aware.WifiAwareNetworkSpecifier;
 import android.net.wifi.aware.WifiAwareSession;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Base64;
 import android.webkit.MimeTypeMap;
 
@@ -29,11 +33,14 @@ import androidx.appcompat.app.AppCompatActivity;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -41,17 +48,36 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WifiAwareShim {
 
@@ -97,12 +123,19 @@ public class WifiAwareShim {
 
     public interface MessageSink {
         void onMessageReceived(String peerId, String dataBase64);
+        /** A message kept in the payload store; only its first bytes are passed along */
+        void onMessageStored(String peerId, String handle, int length, String prefixBase64);
         void onFileTransferRequest(String peerId, String transferId, String fileName, String mimeType, long fileSize);
-        void onFileTransferProgress(String peerId, String transferId, String fileName, long bytesTransferred, long totalBytes, String direction, String status);
+        /** @param rate throughput and ETA, null for status changes outside the progress interval */
+        void onFileTransferProgress(String peerId, String transferId, String fileName, long bytesTransferred, long totalBytes, String direction, String status, @Nullable ProgressReporter.Rate rate);
+        default void onFileTransferProgress(String peerId, String transferId, String fileName, long bytesTransferred, long totalBytes, String direction, String status) {
+            onFileTransferProgress(peerId, transferId, fileName, bytesTransferred, totalBytes, direction, status, null);
+        }
         void onFileTransferCompleted(String peerId, String transferId, String fileName, String filePath, String fileBase64);
         void onPeerConnected(String socketId, String peerId, Map<String, Object> deviceInfo);
         void onPeerDisconnected(String socketId, String peerId);
         void onSocketClosed(String socketId);
+        void onMessageStatus(String messageId, String peerId, String status, int attempts);
     }
     
     public static class DeviceInfo {
@@ -209,31 +242,223 @@ public class WifiAwareShim {
     private final WifiAwareManager awareMgr;
     private final ConnectivityManager connMgr;
     private final Handler mainHandler;
+    // Everything but socket reads and writes: transfers, data path setup, disk writes, HTTP requests
     private final ExecutorService executorService;
+    private static final int TASK_THREADS = 32;
+    private static final int MAX_QUEUED_TASKS = 1024;
+    // Frame writers of every connection; each connection has at most one task queued at a time
+    private final ExecutorService socketWriters;
+    // Blocking engine sockets and legacy peers read on a thread of their own; past the limit they are refused
+    private final ExecutorService blockingReaders;
+    private static final int MAX_BLOCKING_CONNECTIONS = 64;
+    // Multi-peer sends: one encoded payload, a bounded number of targets in progress
+    private final FanOut fanOut;
     private final DeviceInfo localDeviceInfo;
 
     private @Nullable WifiAwareSession session;
     private @Nullable PublishDiscoverySession pubSession;
     private @Nullable SubscribeDiscoverySession subSession;
+    // Outbound L2 messages of each session, paced by its send callbacks
+    private volatile @Nullable L2MessageQueue<android.net.wifi.aware.PeerHandle> pubQueue;
+    private volatile @Nullable L2MessageQueue<android.net.wifi.aware.PeerHandle> subQueue;
+    private final L2MessageQueue.Pacing l2Pacing = new L2MessageQueue.Pacing();
+    // Messages over the discovery limit are split; partial ones are capped in size and age
+    private static final int REASSEMBLY_MAX_BYTES = 256 * 1024;
+    private static final long REASSEMBLY_TIMEOUT_MS = 30 * 1000;
+    private final L2Fragments.Reassembler reassembler =
+            new L2Fragments.Reassembler(REASSEMBLY_MAX_BYTES, REASSEMBLY_TIMEOUT_MS);
+    private final AtomicInteger fragmentSeq = new AtomicInteger();
+    private int maxL2Message;
 
-    private final Map<String, android.net.wifi.aware.PeerHandle> peers = new ConcurrentHashMap<>();
+    // Peer registry: O(1) id <-> handle lookups, evicted on service lost or TTL expiry
+    private static final int MAX_PEERS = 1024;
+    private static final long PEER_TTL_MS = 10 * 60 * 1000;
+    private static final long PEER_SWEEP_INTERVAL_MS = 60 * 1000;
+    private final PeerRegistry<android.net.wifi.aware.PeerHandle> peers = new PeerRegistry<>(MAX_PEERS, PEER_TTL_MS,
+            System::currentTimeMillis, this::peerEvicted);
     private final Map<String, DeviceInfo> peerDeviceInfo = new ConcurrentHashMap<>();
+    // Parsed service info of each discovered peer, and whether a repeated discovery is worth an event
+    private final DiscoveryCache.Settings discoverySettings = new DiscoveryCache.Settings();
+    private final DiscoveryCache<Discovered> discoveries = new DiscoveryCache<>(
+            this::parseServiceInfo, discoverySettings, SystemClock::elapsedRealtime);
+    private final Runnable peerSweep = new Runnable() {
+        @Override
+        public void run() {
+            peers.sweep();
+            mainHandler.postDelayed(this, PEER_SWEEP_INTERVAL_MS);
+        }
+    };
 
     // Socket connections
-    private final Map<String, ServerSocket> serverSockets = new ConcurrentHashMap<>();
     private final Map<String, Socket> clientSockets = new ConcurrentHashMap<>();
     private final Map<String, List<Socket>> peerSockets = new ConcurrentHashMap<>();
-    private final Map<String, ConnectivityManager.NetworkCallback> networkCallbacks = new ConcurrentHashMap<>();
     private final Map<String, Network> activeNetworks = new ConcurrentHashMap<>();
+    // socketId -> the data path it uses, from startSocketWithId until stopSocket
+    private final Map<String, DataPath> socketPaths = new ConcurrentHashMap<>();
+    private final DataPathPool<DataPath> dataPaths;
+    // Speculative client paths of the current subscribe session, if it asked for them
+    private volatile PathPrewarmer<DataPath> prewarmer;
+    // Connections parked on an idle server path before any socket claims them
+    private static final int MAX_UNCLAIMED_CONNECTIONS = 16;
+    
+    // A data path (NDP) to one peer, shared through dataPaths by that peer's sockets of one role
+    private static final class DataPath {
+        final String key;
+        final String peerId;
+        final boolean server;
+        final boolean useEngine;
+        final long requestedAt = SystemClock.elapsedRealtime();
+        // Guarded by this: sockets using the path, oldest first; servers hand new connections to the newest
+        final List<SocketLease> leases = new ArrayList<>();
+        final List<SocketChannel> unclaimed = new ArrayList<>();
+        boolean closed;
+        ConnectivityManager.NetworkCallback callback;
+        volatile ServerSocketChannel listener;      // server side
+        volatile Network network;                   // set once established
+        volatile InetSocketAddress endpoint;        // client side: the peer's listener
+        
+        DataPath(String key, String peerId, boolean server, boolean useEngine) {
+            this.key = key;
+            this.peerId = peerId;
+            this.server = server;
+            this.useEngine = useEngine;
+        }
+    }
+    
+    // One startSocketWithId call: its socket id, settings and callbacks
+    private static final class SocketLease {
+        final String socketId;
+        final boolean multicastEnabled;
+        final int maxConnections;
+        final java.util.function.Consumer<SocketInfo> onReady;
+        final java.util.function.BiConsumer<String, String> onPeerConnected;
+        final java.util.function.BiConsumer<String, String> onPeerDisconnected;
+        final long startedAt = SystemClock.elapsedRealtime();
+        boolean open; // guarded by the path; ready to take accepted connections
+        
+        SocketLease(String socketId, boolean multicastEnabled, int maxConnections,
+                    java.util.function.Consumer<SocketInfo> onReady,
+                    java.util.function.BiConsumer<String, String> onPeerConnected,
+                    java.util.function.BiConsumer<String, String> onPeerDisconnected) {
+            this.socketId = socketId;
+            this.multicastEnabled = multicastEnabled;
+            this.maxConnections = maxConnections;
+            this.onReady = onReady;
+            this.onPeerConnected = onPeerConnected;
+            this.onPeerDisconnected = onPeerDisconnected;
+        }
+    }
     
     // File transfer tracking
     private final Map<String, FileTransferInfo> activeTransfers = new ConcurrentHashMap<>();
+    // Incoming framed transfers get a local transferId; the sender's id only finds them again,
+    // scoped to the sender (see senderKey)
+    private final Map<String, String> incomingIds = new ConcurrentHashMap<>();
+    private volatile String instanceId;
     private final int BUFFER_SIZE = 8192;
     
+    // Receive pipeline: pooled direct buffers shared by all incoming transfers
+    private final ReceivePipeline.BufferPool receiveBufferPool =
+            new ReceivePipeline.BufferPool(ReceivePipeline.DEFAULT_BUFFER_SIZE, 32);
+    private volatile boolean receiveMemoryMapped = false;
+    
+    // Completed incoming transfers, readable in chunks via readTransferChunk
+    public static final String COMPLETION_MODE_PATH = "path";
+    public static final String COMPLETION_MODE_BASE64 = "base64";
+    private static final int MAX_INLINE_COMPLETION_BYTES = 1024 * 1024;
+    public static final int MAX_TRANSFER_CHUNK = 1024 * 1024;
+    private final Map<String, File> completedTransfers = new ConcurrentHashMap<>();
+    private volatile String completionMode = COMPLETION_MODE_PATH;
+    
+    // Where received message payloads go: Base64 in the event, or the payload store behind a handle
+    public static final String RECEIVE_PAYLOAD_INLINE = "inline";
+    public static final String RECEIVE_PAYLOAD_HANDLE = "handle";
+    public static final int DEFAULT_PAYLOAD_PREFIX_BYTES = 16;
+    public static final int MAX_PAYLOAD_PREFIX_BYTES = 256;
+    private final PayloadStore payloadStore = new PayloadStore();
+    private volatile String receivePayloadMode = RECEIVE_PAYLOAD_INLINE;
+    private volatile int payloadPrefixBytes = DEFAULT_PAYLOAD_PREFIX_BYTES;
+    
+    // Always-on metrics behind getStats(); the objects are kept so the hot paths skip map lookups
+    private static final long[] SIZE_BOUNDS = Metrics.exponentialBounds(64, 4, 11);            // 64 B - 64 MiB
+    private static final long[] SETUP_MS_BOUNDS = Metrics.exponentialBounds(25, 2, 12);        // 25 ms - 51 s
+    private static final long[] READY_MS_BOUNDS = Metrics.exponentialBounds(1, 2, 17);         // 1 ms - 65 s
+    private static final long[] LAG_MICROS_BOUNDS = Metrics.exponentialBounds(100, 2, 16);     // 0.1 ms - 3.3 s
+    private static final long[] RATE_BOUNDS = Metrics.exponentialBounds(16 * 1024, 2, 16);     // 16 KiB/s - 512 MiB/s
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Counter l2Transmissions = metrics.counter("l2.transmissions");
+    private final Metrics.Counter l2Delivered = metrics.counter("l2.delivered");
+    private final Metrics.Counter l2Failed = metrics.counter("l2.failed");
+    private final Metrics.Histogram l2MessageBytes = metrics.histogram("l2.sentMessageBytes", SIZE_BOUNDS);
+    private final Metrics.Histogram receivedMessageBytes = metrics.histogram("messages.receivedBytes", SIZE_BOUNDS);
+    private final Metrics.Counter ndpRequests = metrics.counter("ndp.requests");
+    private final Metrics.Counter ndpEstablished = metrics.counter("ndp.established");
+    private final Metrics.Histogram ndpSetupMs = metrics.histogram("ndp.setupMs", SETUP_MS_BOUNDS);
+    private final Metrics.Counter ndpReleased = metrics.counter("ndp.released");
+    private final Metrics.Counter dataPathHits = metrics.counter("dataPaths.hits");
+    private final Metrics.Counter dataPathMisses = metrics.counter("dataPaths.misses");
+    private final Metrics.Counter discoveryCallbacks = metrics.counter("discovery.callbacks");
+    private final Metrics.Counter discoverySuppressed = metrics.counter("discovery.suppressed");
+    private final Metrics.Counter prewarmStarted = metrics.counter("prewarm.started");
+    private final Metrics.Counter prewarmUsed = metrics.counter("prewarm.used");
+    private final Metrics.Counter prewarmExpired = metrics.counter("prewarm.expired");
+    // startSocketWithId to the socket being ready, pool hits and misses alike
+    private final Metrics.Histogram socketReadyMs = metrics.histogram("sockets.readyMs", READY_MS_BOUNDS);
+    private final Metrics.Counter blockingRefused = metrics.counter("sockets.blockingRefused");
+    private final Metrics.Counter socketBytesSent = metrics.counter("sockets.bytesSent");
+    private final Metrics.Counter socketBytesReceived = metrics.counter("sockets.bytesReceived");
+    private final Metrics.Histogram socketTotalBytes = metrics.histogram("sockets.bytesPerSocket", SIZE_BOUNDS);
+    // socketId -> {sent, received} while the socket is open
+    private final Map<String, Metrics.Counter[]> socketBytes = new ConcurrentHashMap<>();
+    private final Metrics.Counter transfersCompleted = metrics.counter("transfers.completed");
+    private final Metrics.Counter transfersFailed = metrics.counter("transfers.failed");
+    private final Metrics.Histogram transferRate = metrics.histogram("transfers.bytesPerSecond", RATE_BOUNDS);
+    private final Metrics.Histogram eventLagMicros = metrics.histogram("events.bridgeLagMicros", LAG_MICROS_BOUNDS);
+    
+    // Time between progress events of one transfer
+    private volatile long progressIntervalMs = ProgressReporter.DEFAULT_INTERVAL_MS;
+    
+    // Loopback HTTP endpoint for fetch() access to transfers and stored payloads
+    private static final String UPLOAD_DIR = "loopback-uploads";
+    private @Nullable LoopbackServer loopbackServer;
+    private long httpMaxUploadBytes = LoopbackServer.DEFAULT_MAX_UPLOAD_BYTES;
+    
+    // sendFile modes
+    public static final String SEND_MODE_STREAM = "stream";
+    public static final String SEND_MODE_NIO = "nio";
+    
     // For backward compatibility
     private @Nullable ServerSocket serverSocket;
     private @Nullable ConnectivityManager.NetworkCallback networkCallback;
     
+    // Protocol state per connected socket
+    private final Map<Socket, PeerConnection> connections = new ConcurrentHashMap<>();
+    private static final int HELLO_WAIT_MS = 250;
+    public static final String ENGINE_BLOCKING = "blocking";
+    public static final String ENGINE_NIO = "nio";
+    private SocketEngine socketEngine; // guarded by this
+    // How small socket frames are coalesced; shared by every connection
+    private final CoalescingWriter.Batching socketBatching = new CoalescingWriter.Batching();
+    
+    // Striped transfers: extra connections per socket ID, the server endpoint clients connect to,
+    // and incoming files whose stripes arrive over several connections
+    public static final int MAX_STRIPES = FrameCodec.MAX_STRIPES;
+    private static final long STRIPE_CONNECT_TIMEOUT_MS = 3000;
+    private final Map<String, List<PeerConnection>> auxConnections = new ConcurrentHashMap<>();
+    private final Map<String, InetSocketAddress> socketEndpoints = new ConcurrentHashMap<>();
+    private final Map<String, IncomingFile> stripedIncoming = new HashMap<>();
+    
+    // Chunk compression on framed connections, counted for both directions
+    private final ChunkCompressor.Stats compressionStats = new ChunkCompressor.Stats();
+    
+    // Dedup: chunks received through manifest transfers, shared by all peers
+    private static final long DEFAULT_CHUNK_STORE_BYTES = 128L * 1024 * 1024;
+    private final ChunkStore chunkStore;
+    
+    // Resumable transfers: per-transfer journals under cacheDir, dropped after a week
+    private static final String JOURNAL_DIR = "transfer-journal";
+    private static final long JOURNAL_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    
     // Multicast support
     private final Map<String, List<String>> multicastGroups = new ConcurrentHashMap<>();
     
@@ -249,10 +474,12 @@ public class WifiAwareShim {
         public final String direction;  // "incoming" or "outgoing"
         public String status;           // "in-progress", "completed", "failed", "cancelled"
         public long bytesTransferred;
+        public long bytesReused;        // dedup: bytes taken from the chunk store instead of the link
         public Socket socket;
         public InputStream inputStream;
         public OutputStream outputStream;
         public boolean cancelled;
+        public final long startedNanos = System.nanoTime();
         
         public FileTransferInfo(String transferId, String peerId, String fileName, String mimeType, 
                                 long fileSize, String filePath, String fileBase64, String direction) {
@@ -276,21 +503,71 @@ public class WifiAwareShim {
         this.awareMgr = (WifiAwareManager) activity.getSystemService(Context.WIFI_AWARE_SERVICE);
         this.connMgr = (ConnectivityManager) activity.getSystemService(Context.CONNECTIVITY_SERVICE);
         this.mainHandler = new Handler(Looper.getMainLooper());
-        this.executorService = Executors.newCachedThreadPool();
+        this.executorService = SocketEngine.boundedPool("wifiaware-task", TASK_THREADS,
+                new LinkedBlockingQueue<>(MAX_QUEUED_TASKS));
+        this.socketWriters = SocketEngine.boundedPool("wifiaware-writer",
+                Math.max(2, Runtime.getRuntime().availableProcessors()), new LinkedBlockingQueue<>());
+        this.blockingReaders = SocketEngine.boundedPool("wifiaware-reader", MAX_BLOCKING_CONNECTIONS,
+                new SynchronousQueue<>());
+        this.fanOut = new FanOut(executorService);
         this.localDeviceInfo = DeviceInfo.getLocalDeviceInfo(activity);
+        this.chunkStore = new ChunkStore(new File(activity.getCacheDir(), "chunk-store"), DEFAULT_CHUNK_STORE_BYTES);
+        this.dataPaths = new DataPathPool<>(mainHandler::postDelayed, this::closeDataPath);
+        mainHandler.postDelayed(peerSweep, PEER_SWEEP_INTERVAL_MS);
+        executorService.submit(() -> TransferJournal.prune(journalDir(), JOURNAL_MAX_AGE_MS));
+        
+        metrics.gauge("l2.queued", () -> {
+            L2MessageQueue<android.net.wifi.aware.PeerHandle> queue = l2Queue();
+            return queue != null ? queue.queued() : 0;
+        });
+        metrics.gauge("l2.fragmentsDropped", reassembler::dropped);
+        metrics.gauge("sockets.open", () -> socketPaths.size());
+        metrics.gauge("dataPaths.pooled", dataPaths::size);
+        metrics.gauge("dataPaths.idle", dataPaths::idle);
+        metrics.gauge("prewarm.warming", () -> {
+            PathPrewarmer<DataPath> p = prewarmer;
+            return p != null ? p.size() : 0;
+        });
+        metrics.gauge("prewarm.skipped", () -> {
+            PathPrewarmer<DataPath> p = prewarmer;
+            return p != null ? p.skipped() : 0;
+        });
+        metrics.gauge("sockets.connections", () -> connections.size());
+        metrics.gauge("transfers.active", () -> activeTransfers.size());
+        metrics.gauge("payloads.stored", payloadStore::size);
+        metrics.gauge("payloads.evicted", payloadStore::evicted);
     }
 
     public void destroy() {
+        mainHandler.removeCallbacks(peerSweep);
         stopPublish();
         stopSubscribe();
         stopAllSockets();
         cancelAllFileTransfers();
+        payloadStore.clear();
+        stopLoopbackServer();
+        synchronized (this) {
+            if (socketEngine != null)
+                socketEngine.close();
+            socketEngine = null;
+        }
         
         if (session != null)
             session.close();
         session = null;
         
         executorService.shutdown();
+        socketWriters.shutdown();
+        blockingReaders.shutdown();
+    }
+    
+    // Posts work bound for JS to the main thread, measuring how long it waited there
+    private void postEvent(Runnable r) {
+        long queued = System.nanoTime();
+        mainHandler.post(() -> {
+            eventLagMicros.record((System.nanoTime() - queued) / 1000);
+            r.run();
+        });
     }
     
     public DeviceInfo getLocalDeviceInfo() {
@@ -301,20 +578,82 @@ public class WifiAwareShim {
         return peerDeviceInfo.get(peerId);
     }
     
+    /** Write incoming files through memory-mapped regions instead of FileChannel writes */
+    public void setReceiveMemoryMapped(boolean enabled) {
+        this.receiveMemoryMapped = enabled;
+    }
+    
+    /** Linger window for coalescing small socket messages, in microseconds; 0 writes as soon as possible */
+    public void setSocketLingerMicros(long micros) {
+        socketBatching.setLingerMicros(micros);
+    }
+    
+    public void setSocketBatchBytes(int bytes) {
+        socketBatching.setMaxBatchBytes(bytes);
+    }
+    
+    public void setChunkStoreBytes(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("chunkStoreBytes must be >= 0");
+        chunkStore.setMaxBytes(maxBytes);
+    }
+    
+    public Map<String, Object> getChunkStoreStats() {
+        return chunkStore.stats();
+    }
+    
+    public Map<String, Object> getCompressionStats() {
+        return compressionStats.toMap();
+    }
+    
+    public Map<String, Object> getPeerRegistryStats() {
+        return peers.stats();
+    }
+    
+    /** Counters, gauges and histograms since the last reset, plus per-socket byte counts and subsystem stats */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = metrics.snapshot();
+        Map<String, Object> sockets = new HashMap<>();
+        for (Map.Entry<String, Metrics.Counter[]> e : socketBytes.entrySet()) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("bytesSent", e.getValue()[0].sum());
+            m.put("bytesReceived", e.getValue()[1].sum());
+            sockets.put(e.getKey(), m);
+        }
+        stats.put("sockets", sockets);
+        stats.put("compression", getCompressionStats());
+        stats.put("chunkStore", getChunkStoreStats());
+        stats.put("peers", getPeerRegistryStats());
+        return stats;
+    }
+    
+    /** Zeroes every counter {@link #getStats} reports; gauges and sizes describe current state and stay */
+    public void resetStats() {
+        metrics.reset();
+        for (Metrics.Counter[] c : socketBytes.values()) {
+            c[0].reset();
+            c[1].reset();
+        }
+        compressionStats.reset();
+        chunkStore.resetStats();
+        peers.resetStats();
+    }
+    
     private void cancelAllFileTransfers() {
         for (String transferId : new ArrayList<>(activeTransfers.keySet())) {
             cancelFileTransfer(transferId);
         }
     }
     
-    private void stopAllSockets() {
+    public void stopAllSockets() {
         // Stop the legacy socket
         stopSocket();
         
-        // Stop all modern sockets
-        for (String socketId : new ArrayList<>(serverSockets.keySet())) {
+        // Stop all modern sockets, then close the data paths kept for reuse
+        for (String socketId : new ArrayList<>(socketPaths.keySet())) {
             stopSocket(socketId);
         }
+        dataPaths.clear();
     }
 
     public WifiAwareStateReceiver.AttachResult attach() {
@@ -375,19 +714,18 @@ public class WifiAwareShim {
         // Add device info if requested
         if (opts.deviceInfo) {
             try {
-                // Format: [user-data][0x00][json-device-info]
-                serviceInfoBytes.write(0x00);  // Separator
-                
-                // Simple JSON format for device info
-                String deviceInfoJson = String.format(
-                    "{\"n\":\"%s\",\"t\":\"%s\",\"m\":\"%s\",\"o\":\"%s\"}", 
-                    localDeviceInfo.deviceName.replace("\"", "\\\""),
-                    localDeviceInfo.deviceType,
-                    localDeviceInfo.modelName.replace("\"", "\\\""), 
-                    localDeviceInfo.osVersion
-                );
-                
-                serviceInfoBytes.write(deviceInfoJson.getBytes());
+                DeviceInfoCodec.Fields fields = new DeviceInfoCodec.Fields(
+                    localDeviceInfo.deviceName, localDeviceInfo.deviceType,
+                    localDeviceInfo.modelName, localDeviceInfo.osVersion,
+                    DeviceInfoCodec.capabilityMask(localDeviceInfo.capabilities));
+                if (DeviceInfoCodec.FORMAT_JSON.equals(opts.deviceInfoFormat)) {
+                    // Format: [user-data][0x00][device-info], for receivers older than the TLV form
+                    serviceInfoBytes.write(DeviceInfoCodec.SEPARATOR);
+                    serviceInfoBytes.write(DeviceInfoCodec.encodeJson(fields));
+                } else {
+                    // Format: [user-data][record][length][trailer]
+                    serviceInfoBytes.write(DeviceInfoCodec.encodeTlv(fields));
+                }
             } catch (IOException e) {
                 // Ignore errors in device info handling
             }
@@ -410,93 +748,156 @@ public class WifiAwareShim {
             @Override
             public void onPublishStarted(PublishDiscoverySession session) {
                 pubSession = session;
+                pubQueue = newL2Queue(session);
             }
 
             @Override
             public void onMessageReceived(android.net.wifi.aware.PeerHandle peerHandle, byte[] message) {
                 handleIncomingMessage(peerHandle, message);
             }
+            
+            @Override
+            public void onMessageSendSucceeded(int messageId) {
+                L2MessageQueue<android.net.wifi.aware.PeerHandle> q = pubQueue;
+                if (q != null)
+                    q.onSendSucceeded(messageId);
+            }
+            
+            @Override
+            public void onMessageSendFailed(int messageId) {
+                L2MessageQueue<android.net.wifi.aware.PeerHandle> q = pubQueue;
+                if (q != null)
+                    q.onSendFailed(messageId);
+            }
         }, null);
     }
     
     private void handleIncomingMessage(android.net.wifi.aware.PeerHandle peerHandle, byte[] message) {
         String peerId = idFor(peerHandle);
         
-        // Check for special message types with prefix
-        if (message.length > 2 && message[0] == 0x01) {
-            // Protocol message types:
-            // 0x01 0x01 - File transfer request
-            // 0x01 0x02 - File transfer response
-            // 0x01 0x03 - File transfer cancel
-            
-            if (message[1] == 0x01) {
-                // File transfer request
-                try {
-                    ByteBuffer buffer = ByteBuffer.wrap(message, 2, message.length - 2);
-                    String transferId = new String(message, 2, 36); // UUID is 36 chars
-                    
-                    int fileNameLength = buffer.getInt(38);
-                    String fileName = new String(message, 42, fileNameLength);
+        // Fragments of a large message; the whole message is handled below once complete
+        if (L2Fragments.isFragment(message)) {
+            message = reassembler.add(peerId, message, SystemClock.elapsedRealtime());
+            if (message == null)
+                return;
+        }
+        
+        // Protocol messages (see L2Protocol); anything malformed is treated as a regular message
+        byte protocolType = L2Protocol.typeOf(message);
+        if (protocolType == L2Protocol.TYPE_FILE_REQUEST) {
+            L2Protocol.FileRequest request = L2Protocol.decodeFileRequest(message);
+            if (request != null) {
+                // Notify the application of the file transfer request
+                postEvent(() -> {
+                    sink.onFileTransferRequest(peerId, request.transferId, request.fileName,
+                            request.mimeType, request.fileSize);
+                });
+                return;
+            }
+        } else if (protocolType == L2Protocol.TYPE_FILE_CANCEL) {
+            String transferId = L2Protocol.decodeCancel(message);
+            if (transferId != null) {
+                FileTransferInfo info = transferCancelledBy(peerId, transferId);
+                if (info != null) {
+                    info.cancelled = true;
+                    info.status = "cancelled";
                     
-                    int mimeTypeLength = buffer.getInt(42 + fileNameLength);
-                    String mimeType = "";
-                    if (mimeTypeLength > 0) {
-                        mimeType = new String(message, 46 + fileNameLength, mimeTypeLength);
+                    // Close resources if needed
+                    try {
+                        if (info.inputStream != null) info.inputStream.close();
+                        if (info.outputStream != null) info.outputStream.close();
+                        if (info.socket != null) info.socket.close();
+                    } catch (IOException e) {
+                        // Ignore close errors
                     }
                     
-                    long fileSize = buffer.getLong(46 + fileNameLength + mimeTypeLength);
-                    
-                    // Notify the application of the file transfer request
-                    mainHandler.post(() -> {
-                        sink.onFileTransferRequest(peerId, transferId, fileName, mimeType, fileSize);
+                    // Notify of cancellation
+                    postEvent(() -> {
+                        sink.onFileTransferProgress(
+                            info.peerId, info.transferId, info.fileName,
+                            info.bytesTransferred, info.fileSize, 
+                            info.direction, "cancelled"
+                        );
                     });
                     
-                    return;
-                } catch (Exception e) {
-                    // If parsing fails, treat as regular message
-                }
-            } else if (message[1] == 0x03) {
-                // Cancel file transfer
-                try {
-                    String transferId = new String(message, 2, 36); // UUID is 36 chars
-                    FileTransferInfo info = activeTransfers.get(transferId);
-                    if (info != null) {
-                        info.cancelled = true;
-                        info.status = "cancelled";
-                        
-                        // Close resources if needed
-                        try {
-                            if (info.inputStream != null) info.inputStream.close();
-                            if (info.outputStream != null) info.outputStream.close();
-                            if (info.socket != null) info.socket.close();
-                        } catch (IOException e) {
-                            // Ignore close errors
-                        }
-                        
-                        // Notify of cancellation
-                        mainHandler.post(() -> {
-                            sink.onFileTransferProgress(
-                                info.peerId, info.transferId, info.fileName,
-                                info.bytesTransferred, info.fileSize, 
-                                info.direction, "cancelled"
-                            );
-                        });
-                        
-                        activeTransfers.remove(transferId);
-                    }
-                    return;
-                } catch (Exception e) {
-                    // If parsing fails, treat as regular message
+                    activeTransfers.remove(info.transferId);
                 }
+                return;
             }
         }
         
         // Regular message
-        String dataB64 = Base64.encodeToString(message, Base64.NO_WRAP);
-        mainHandler.post(() -> {
+        deliverMessage(peerId, message);
+    }
+    
+    // A peer cancels with our id for a transfer we send to it, or its own id for one it sends us
+    private FileTransferInfo transferCancelledBy(String peerId, String transferId) {
+        FileTransferInfo info = activeTransfers.get(transferId);
+        if (info != null && "outgoing".equals(info.direction))
+            return info;
+        String localId = incomingIds.get(senderKey(peerId, transferId));
+        return localId != null ? activeTransfers.get(localId) : null;
+    }
+    
+    // Hands a received message to JS according to the receive payload mode
+    private void deliverMessage(String peerId, byte[] payload) {
+        receivedMessageBytes.record(payload.length);
+        if (RECEIVE_PAYLOAD_HANDLE.equals(receivePayloadMode)) {
+            String handle = payloadStore.put(payload);
+            String prefixB64 = Base64.encodeToString(payload, 0, Math.min(payload.length, payloadPrefixBytes),
+                    Base64.NO_WRAP);
+            postEvent(() -> {
+                sink.onMessageStored(peerId, handle, payload.length, prefixB64);
+            });
+            return;
+        }
+        String dataB64 = Base64.encodeToString(payload, Base64.NO_WRAP);
+        postEvent(() -> {
             sink.onMessageReceived(peerId, dataB64);
         });
     }
+    
+    public void setReceivePayloadMode(String mode) {
+        if (!RECEIVE_PAYLOAD_INLINE.equals(mode) && !RECEIVE_PAYLOAD_HANDLE.equals(mode))
+            throw new IllegalArgumentException("receivePayloads must be 'inline' or 'handle'");
+        this.receivePayloadMode = mode;
+    }
+    
+    public void setPayloadPrefixBytes(int n) {
+        if (n < 0 || n > MAX_PAYLOAD_PREFIX_BYTES)
+            throw new IllegalArgumentException("payloadPrefixBytes must be 0-" + MAX_PAYLOAD_PREFIX_BYTES);
+        this.payloadPrefixBytes = n;
+    }
+    
+    public void setPayloadStoreBytes(long bytes) {
+        payloadStore.setMaxBytes(bytes);
+    }
+    
+    public void setPayloadStoreEntries(int entries) {
+        payloadStore.setMaxEntries(entries);
+    }
+    
+    /**
+     * Fetches a payload kept in handle mode.
+     *
+     * @param release forget the payload once read
+     */
+    public byte[] readPayload(String handle, boolean release) {
+        byte[] payload = release ? payloadStore.take(handle) : payloadStore.get(handle);
+        if (payload == null)
+            throw new IllegalArgumentException("Unknown or evicted handle: " + handle);
+        return payload;
+    }
+    
+    /** @return how many of the handles were still stored */
+    public int releasePayloads(List<String> handles) {
+        int released = 0;
+        for (String handle : handles) {
+            if (payloadStore.release(handle))
+                released++;
+        }
+        return released;
+    }
 
     public void stopPublish() {
         try {
@@ -505,6 +906,11 @@ public class WifiAwareShim {
         } catch (Throwable ignore) {
         }
         pubSession = null;
+        if (pubQueue != null)
+            pubQueue.close();
+        pubQueue = null;
+        // Peer handles do not outlive the session, so idle paths made through it cannot be reused
+        dataPaths.evictIdle();
     }
 
     // ===== Subscribe =====
@@ -526,11 +932,43 @@ public class WifiAwareShim {
         }
         
         SubscribeConfig cfg = b.build();
+        
+        discoveries.clear();
+        stopPrewarm();
+        if (opts.prewarm != null)
+            prewarmer = new PathPrewarmer<>(opts.prewarm, mainHandler::postDelayed, new PathPrewarmer.Paths<DataPath>() {
+                @Override
+                public DataPath start(String peerId) {
+                    return prewarmDataPath(peerId, opts.prewarm);
+                }
+                
+                @Override
+                public void cancel(DataPath path, boolean expired) {
+                    if (expired)
+                        prewarmExpired.inc();
+                    closeDataPath(path);
+                }
+            });
 
         session.subscribe(cfg, new DiscoverySessionCallback() {
             @Override
             public void onSubscribeStarted(SubscribeDiscoverySession session) {
                 subSession = session;
+                subQueue = newL2Queue(session);
+            }
+            
+            @Override
+            public void onMessageSendSucceeded(int messageId) {
+                L2MessageQueue<android.net.wifi.aware.PeerHandle> q = subQueue;
+                if (q != null)
+                    q.onSendSucceeded(messageId);
+            }
+            
+            @Override
+            public void onMessageSendFailed(int messageId) {
+                L2MessageQueue<android.net.wifi.aware.PeerHandle> q = subQueue;
+                if (q != null)
+                    q.onSendFailed(messageId);
             }
 
             @Override
@@ -541,8 +979,14 @@ public class WifiAwareShim {
 
             @Override
             public void onServiceLost(android.net.wifi.aware.PeerHandle peerHandle, int reason) {
-                String peerId = idFor(peerHandle);
-                peerDeviceInfo.remove(peerId);
+                // A handle never discovered, or already evicted, has nothing to clean up
+                String peerId = peers.find(peerHandle);
+                if (peerId == null)
+                    return;
+                peers.remove(peerId);
+                PathPrewarmer<DataPath> p = prewarmer;
+                if (p != null)
+                    p.onPeerLost(peerId);
                 onLost.accept(peerId);
             }
 
@@ -564,69 +1008,69 @@ public class WifiAwareShim {
                                           Integer distanceMm,
                                           java.util.function.Consumer<PeerFound> onFound) {
         String peerId = idFor(peerHandle);
+        discoveryCallbacks.inc();
         
-        // Process the service info
-        String infoB64 = null;
-        DeviceInfo deviceInfo = null;
-        
-        if (serviceSpecificInfo != null) {
-            // Extract device info if present (marked with 0x00 separator)
-            for (int i = 0; i < serviceSpecificInfo.length; i++) {
-                if (serviceSpecificInfo[i] == 0x00 && i + 1 < serviceSpecificInfo.length) {
-                    // Found separator - extract device info after separator
-                    try {
-                        String jsonDeviceInfo = new String(serviceSpecificInfo, i + 1, 
-                                                          serviceSpecificInfo.length - i - 1);
-                        
-                        // Very basic JSON parsing - in a real app use a proper JSON library
-                        String deviceName = extractJsonValue(jsonDeviceInfo, "n");
-                        String deviceType = extractJsonValue(jsonDeviceInfo, "t");
-                        String modelName = extractJsonValue(jsonDeviceInfo, "m");
-                        String osVersion = extractJsonValue(jsonDeviceInfo, "o");
-                        
-                        if (deviceName != null) {
-                            List<String> capabilities = new ArrayList<>();
-                            capabilities.add("messaging");
-                            
-                            deviceInfo = new DeviceInfo(deviceName, deviceType, modelName, 
-                                                      osVersion, capabilities);
-                            
-                            // Store device info for this peer
-                            peerDeviceInfo.put(peerId, deviceInfo);
-                            
-                            // Use only user part of service info for Base64
-                            infoB64 = Base64.encodeToString(
-                                serviceSpecificInfo, 0, i, Base64.NO_WRAP);
-                            break;
-                        }
-                    } catch (Exception e) {
-                        // If parsing fails, use the full service info
-                    }
-                }
-            }
-            
-            // If we haven't set infoB64 yet, use the full service info
-            if (infoB64 == null) {
-                infoB64 = Base64.encodeToString(serviceSpecificInfo, Base64.NO_WRAP);
-            }
+        // Repeats of the last report are dropped; the info is parsed again only when it changed
+        Discovered d = discoveries.offer(peerId, serviceSpecificInfo, distanceMm);
+        if (d == null) {
+            discoverySuppressed.inc();
+            return;
         }
+        DeviceInfo deviceInfo = d.deviceInfo;
+        if (deviceInfo != null)
+            peerDeviceInfo.put(peerId, deviceInfo);
+        
+        onFound.accept(new PeerFound(peerId, peerHandle, d.infoB64, distanceMm, deviceInfo));
         
-        onFound.accept(new PeerFound(peerId, peerHandle, infoB64, distanceMm, deviceInfo));
+        PathPrewarmer<DataPath> p = prewarmer;
+        if (p != null)
+            p.onPeerFound(peerId, distanceMm, deviceInfo != null ? deviceInfo.capabilities : null);
     }
     
-    private String extractJsonValue(String json, String key) {
-        String pattern = "\"" + key + "\":\"";
-        int start = json.indexOf(pattern);
-        if (start >= 0) {
-            start += pattern.length();
-            int end = json.indexOf("\"", start);
-            if (end > start) {
-                return json.substring(start, end);
-            }
+    private static final class Discovered {
+        final String infoB64;
+        final DeviceInfo deviceInfo;
+        
+        Discovered(String infoB64, DeviceInfo deviceInfo) {
+            this.infoB64 = infoB64;
+            this.deviceInfo = deviceInfo;
         }
-        return null;
     }
-
+    
+    private Discovered parseServiceInfo(byte[] serviceSpecificInfo) {
+        if (serviceSpecificInfo.length == 0)
+            return new Discovered(null, null);
+        
+        // Extract device info if present (a TLV record at the end, or legacy JSON after a 0x00)
+        DeviceInfoCodec.Parsed parsed = DeviceInfoCodec.parse(serviceSpecificInfo);
+        if (parsed == null)
+            return new Discovered(Base64.encodeToString(serviceSpecificInfo, Base64.NO_WRAP), null);
+        
+        DeviceInfoCodec.Fields f = parsed.fields;
+        List<String> capabilities;
+        if (f.capabilities >= 0) {
+            capabilities = DeviceInfoCodec.capabilityNames(f.capabilities);
+        } else {
+            // Legacy JSON does not carry them
+            capabilities = new ArrayList<>();
+            capabilities.add("messaging");
+        }
+        
+        DeviceInfo deviceInfo = new DeviceInfo(f.deviceName, f.deviceType, f.modelName, f.osVersion, capabilities);
+        
+        // Use only user part of service info for Base64
+        return new Discovered(Base64.encodeToString(serviceSpecificInfo, 0, parsed.userLength, Base64.NO_WRAP),
+                deviceInfo);
+    }
+    
+    public void setDiscoveryHysteresisMm(int mm) {
+        discoverySettings.setHysteresisMm(mm);
+    }
+    
+    public void setDiscoveryRepeatMs(long ms) {
+        discoverySettings.setRepeatMs(ms);
+    }
+    
     public void stopSubscribe() {
         try {
             if (subSession != null)
@@ -634,43 +1078,127 @@ public class WifiAwareShim {
         } catch (Throwable ignore) {
         }
         subSession = null;
+        if (subQueue != null)
+            subQueue.close();
+        subQueue = null;
+        // A new session reports every peer afresh
+        discoveries.clear();
+        stopPrewarm();
+        dataPaths.evictIdle();
     }
 
     // ===== Messages =====
 
-    public void sendMessage(String peerId, String dataBase64, boolean multicast, List<String> targetPeerIds) {
+    private L2MessageQueue<android.net.wifi.aware.PeerHandle> newL2Queue(DiscoverySession sess) {
+        return new L2MessageQueue<>(
+                (peer, messageId, payload) -> {
+                    l2Transmissions.inc();
+                    sess.sendMessage(peer, messageId, payload);
+                },
+                mainHandler::postDelayed,
+                (messageId, peerId, delivered, attempts) -> {
+                    (delivered ? l2Delivered : l2Failed).inc();
+                    postEvent(() -> {
+                        sink.onMessageStatus(messageId, peerId, delivered ? "sent" : "failed", attempts);
+                    });
+                },
+                l2Pacing);
+    }
+    
+    // Queue of the session messages go out on, the same one sendMessage always used
+    @Nullable
+    private L2MessageQueue<android.net.wifi.aware.PeerHandle> l2Queue() {
+        return pubSession != null ? pubQueue : subQueue;
+    }
+    
+    public void setL2MaxInFlight(int n) {
+        l2Pacing.setMaxInFlight(n);
+    }
+    
+    public void setL2MaxAttempts(int n) {
+        l2Pacing.setMaxAttempts(n);
+    }
+    
+    // Largest single discovery message the firmware takes
+    private int maxL2Message() {
+        if (maxL2Message == 0) {
+            int max = 0;
+            try {
+                Characteristics c = awareMgr.getCharacteristics();
+                if (c != null)
+                    max = c.getMaxServiceSpecificInfoLength();
+            } catch (RuntimeException ignored) {
+            }
+            maxL2Message = max > L2Fragments.HEADER_SIZE ? max : L2Fragments.DEFAULT_MAX_MESSAGE;
+        }
+        return maxL2Message;
+    }
+    
+    // Queues one logical message, fragmented when it does not fit a single discovery message
+    private String queueL2(L2MessageQueue<android.net.wifi.aware.PeerHandle> queue,
+            android.net.wifi.aware.PeerHandle handle, String peerId, byte[] bytes, boolean report) {
+        int max = maxL2Message();
+        if (!L2Fragments.needsSplit(bytes, max))
+            return queue.send(handle, peerId, bytes, report);
+        List<byte[]> fragments = L2Fragments.split(fragmentSeq.getAndIncrement() & 0xFFFF, bytes, max);
+        return queue.sendAll(handle, peerId, fragments, report);
+    }
+    
+    public void setFanOutConcurrency(int n) {
+        fanOut.setMaxConcurrent(n);
+    }
+    
+    /**
+     * Queues a discovery message to one peer, or to several. The payload is decoded and, if
+     * needed, fragmented once; every target's queue entry shares those bytes.
+     *
+     * Several targets are queued through the fan-out, at most the fan-out concurrency at a time.
+     *
+     * @return completes with one result per target once every target was queued; the id is the
+     *         one reported with its messageStatus event
+     */
+    public CompletableFuture<List<FanOut.Result>> sendMessage(String peerId, String dataBase64, boolean multicast,
+            List<String> targetPeerIds) {
         byte[] bytes = Base64.decode(dataBase64, Base64.DEFAULT);
-        DiscoverySession sess = (pubSession != null) ? pubSession : subSession;
+        L2MessageQueue<android.net.wifi.aware.PeerHandle> queue = l2Queue();
         
-        if (sess == null)
+        if (queue == null)
             throw new IllegalStateException("No discovery session active");
-            
+        int max = maxL2Message();
+        if (bytes.length > L2Fragments.maxPayload(max))
+            throw new IllegalArgumentException("Message too large for discovery: " + bytes.length
+                    + " bytes (max " + L2Fragments.maxPayload(max) + "); use startSocket");
+        List<byte[]> fragments = L2Fragments.needsSplit(bytes, max)
+                ? L2Fragments.split(fragmentSeq.getAndIncrement() & 0xFFFF, bytes, max) : null;
+        l2MessageBytes.record(bytes.length);
+        
         if (multicast || (targetPeerIds != null && !targetPeerIds.isEmpty())) {
-            // Multicast mode - send to multiple peers
-            List<String> peers = targetPeerIds;
-            if (multicast) {
-                // Send to all known peers
-                peers = new ArrayList<>(this.peers.keySet());
+            // Multicast mode - send to all known peers, or the given ones
+            List<String> targets = new ArrayList<>();
+            for (String id : multicast ? this.peers.ids() : new LinkedHashSet<>(targetPeerIds)) {
+                targets.add(id);
             }
-            
-            for (String targetPeerId : peers) {
+            // Each target's queue entries are then paced and retried on their own
+            return fanOut.run(targets, targetPeerId -> {
                 android.net.wifi.aware.PeerHandle handle = this.peers.get(targetPeerId);
-                if (handle != null) {
-                    try {
-                        sess.sendMessage(handle, 0, bytes);
-                    } catch (Exception e) {
-                        // Continue sending to other peers even if one fails
-                    }
-                }
-            }
-        } else {
-            // Single target
-            android.net.wifi.aware.PeerHandle handle = peers.get(peerId);
-            if (handle == null)
-                throw new IllegalArgumentException("Unknown peerId: " + peerId);
-                
-            sess.sendMessage(handle, 0, bytes);
+                if (handle == null)
+                    throw new IllegalArgumentException("Unknown peerId");
+                return fragments != null
+                        ? queue.sendAll(handle, targetPeerId, fragments, true)
+                        : queue.send(handle, targetPeerId, bytes, true);
+            });
         }
+        // Single target
+        android.net.wifi.aware.PeerHandle handle = peers.get(peerId);
+        if (handle == null)
+            throw new IllegalArgumentException("Unknown peerId: " + peerId);
+            
+        String id = fragments != null
+                ? queue.sendAll(handle, peerId, fragments, true)
+                : queue.send(handle, peerId, bytes, true);
+        List<FanOut.Result> results = new ArrayList<>();
+        results.add(new FanOut.Result(peerId, id, null));
+        return CompletableFuture.completedFuture(results);
     }
     
     // For backward compatibility
@@ -691,7 +1219,7 @@ public class WifiAwareShim {
             throw new IllegalStateException("No discovery session active");
 
         if (asServer) {
-            new Thread(() -> {
+            executorService.submit(() -> {
                 try {
                     ServerSocket ss = new ServerSocket(0);
                     serverSocket = ss;
@@ -710,7 +1238,7 @@ public class WifiAwareShim {
                         @Override
                         public void onAvailable(Network network) {
                             onReady.accept(new SocketInfo("publisher", ss.getLocalPort(), null, null));
-                            new Thread(() -> {
+                            executorService.submit(() -> {
                                 try {
                                     Socket s = ss.accept();
                                     try (BufferedReader r = new BufferedReader(
@@ -719,7 +1247,7 @@ public class WifiAwareShim {
                                     }
                                 } catch (Throwable ignore) {
                                 }
-                            }).start();
+                            });
                         }
 
                         @Override
@@ -733,7 +1261,7 @@ public class WifiAwareShim {
                 } catch (Exception e) {
                     onClosed.run();
                 }
-            }).start();
+            });
         } else {
             WifiAwareNetworkSpecifier spec = new WifiAwareNetworkSpecifier.Builder(sess, handle)
                     .setPskPassphrase(psk)
@@ -758,7 +1286,7 @@ public class WifiAwareShim {
                         onReady.accept(new SocketInfo("subscriber", null, ip, port));
 
                         // Demo connect once
-                        new Thread(() -> {
+                        executorService.submit(() -> {
                             try {
                                 Socket s = network.getSocketFactory().createSocket(info.getPeerIpv6Addr(), port);
                                 try (PrintWriter out = new PrintWriter(s.getOutputStream(), true)) {
@@ -766,7 +1294,7 @@ public class WifiAwareShim {
                                 }
                             } catch (Throwable ignore) {
                             }
-                        }).start();
+                        });
                     }
                 }
 
@@ -797,8 +1325,11 @@ public class WifiAwareShim {
         }
     }
     
-    // New socket implementation with socket IDs
+    // New socket implementation with socket IDs; engine is ENGINE_BLOCKING or ENGINE_NIO.
+    // Sockets to a peer that already has a pooled data path of the same role reuse it
+    // instead of requesting a new NDP (see DataPathPool).
     public void startSocketWithId(String peerId, String psk, boolean asServer, boolean multicastEnabled, int maxConnections,
+            String engine,
             java.util.function.Consumer<SocketInfo> onReady,
             java.util.function.BiConsumer<String, String> onPeerConnected,
             java.util.function.BiConsumer<String, String> onPeerDisconnected) {
@@ -811,19 +1342,50 @@ public class WifiAwareShim {
         if (sess == null)
             throw new IllegalStateException("No discovery session active");
         
-        String socketId = UUID.randomUUID().toString();
+        SocketLease lease = new SocketLease(UUID.randomUUID().toString(), multicastEnabled, maxConnections,
+                onReady, onPeerConnected, onPeerDisconnected);
+        String key = dataPathKey(asServer, engine, peerId, psk);
+        
+        DataPath pooled = dataPaths.acquire(key);
+        if (pooled != null) {
+            dataPathHits.inc();
+            if (!attachSocket(pooled, lease)) {
+                // Lost between the lookup and now
+                postEvent(() -> {
+                    sink.onSocketClosed(lease.socketId);
+                });
+                return;
+            }
+            executorService.submit(() -> openSocket(pooled, lease));
+            return;
+        }
+        
+        if (!asServer) {
+            DataPath warm = claimPrewarmed(peerId, key);
+            if (warm != null && adoptDataPath(warm, lease)) {
+                dataPathHits.inc();
+                prewarmUsed.inc();
+                return;
+            }
+        }
+        
+        dataPathMisses.inc();
+        DataPath path = new DataPath(key, peerId, asServer, ENGINE_NIO.equals(engine));
+        attachSocket(path, lease);
         
         if (asServer) {
             // For server mode
-            new Thread(() -> {
+            executorService.submit(() -> {
                 try {
-                    ServerSocket ss = new ServerSocket(0);
-                    serverSockets.put(socketId, ss);
+                    // Channel-backed so accepted sockets expose getChannel() for zero-copy sends
+                    ServerSocketChannel ssc = ServerSocketChannel.open();
+                    ssc.bind(new InetSocketAddress(0));
+                    path.listener = ssc;
                     
                     // Use port in network specifier
                     WifiAwareNetworkSpecifier spec = new WifiAwareNetworkSpecifier.Builder(sess, handle)
                             .setPskPassphrase(psk)
-                            .setPort(ss.getLocalPort())
+                            .setPort(ssc.socket().getLocalPort())
                             .build();
                     
                     NetworkRequest req = new NetworkRequest.Builder()
@@ -831,173 +1393,446 @@ public class WifiAwareShim {
                             .setNetworkSpecifier(spec)
                             .build();
                     
-                    ConnectivityManager.NetworkCallback cb = new ConnectivityManager.NetworkCallback() {
+                    requestDataPath(path, req, new ConnectivityManager.NetworkCallback() {
                         @Override
                         public void onAvailable(Network network) {
-                            // Store network for future use
-                            activeNetworks.put(socketId, network);
-                            
-                            // Create empty list for connected peers
-                            List<String> connectedPeers = new ArrayList<>();
-                            multicastGroups.put(socketId, connectedPeers);
-                            
-                            // Notify socket is ready
-                            onReady.accept(new SocketInfo(socketId, "publisher", ss.getLocalPort(), 
-                                          null, null, multicastEnabled, connectedPeers));
-                            
-                            // Start accepting connections (up to maxConnections)
-                            for (int i = 0; i < maxConnections; i++) {
-                                final int connectionId = i;
-                                executorService.submit(() -> {
-                                    try {
-                                        while (!ss.isClosed() && connectionId < maxConnections) {
-                                            Socket clientSocket = ss.accept();
-                                            String clientPeerId = "peer-" + UUID.randomUUID().toString();
-                                            
-                                            // Add to peer sockets
-                                            List<Socket> sockets = peerSockets.getOrDefault(socketId, new ArrayList<>());
-                                            sockets.add(clientSocket);
-                                            peerSockets.put(socketId, sockets);
-                                            
-                                            // Add to multicast group
-                                            if (multicastEnabled) {
-                                                multicastGroups.get(socketId).add(clientPeerId);
-                                            }
-                                            
-                                            // Notify peer connected
-                                            mainHandler.post(() -> {
-                                                onPeerConnected.accept(socketId, clientPeerId);
-                                            });
-                                            
-                                            // Start reading from socket
-                                            handleClientSocket(socketId, clientSocket, clientPeerId);
-                                        }
-                                    } catch (IOException e) {
-                                        // Socket closed or error
-                                        if (!ss.isClosed()) {
-                                            try {
-                                                ss.close();
-                                            } catch (IOException ignore) { }
-                                        }
-                                    }
-                                });
+                            if (!establishDataPath(path, network, null))
+                                return;
+                            listen(path);
+                            for (SocketLease l : leasesOf(path)) {
+                                openSocket(path, l);
                             }
                         }
                         
                         @Override
                         public void onLost(Network network) {
-                            stopSocket(socketId);
-                            mainHandler.post(() -> {
-                                sink.onSocketClosed(socketId);
-                            });
+                            dataPathLost(path);
                         }
-                    };
-                    
-                    networkCallbacks.put(socketId, cb);
-                    connMgr.requestNetwork(req, cb);
+                    });
                     
                 } catch (Exception e) {
-                    mainHandler.post(() -> {
-                        sink.onSocketClosed(socketId);
-                    });
+                    dataPathLost(path);
                 }
-            }).start();
+            });
         } else {
-            // For client mode
-            WifiAwareNetworkSpecifier spec = new WifiAwareNetworkSpecifier.Builder(sess, handle)
-                    .setPskPassphrase(psk)
-                    .build();
-            
-            NetworkRequest req = new NetworkRequest.Builder()
-                    .addTransportType(NetworkCapabilities.TRANSPORT_WIFI_AWARE)
-                    .setNetworkSpecifier(spec)
-                    .build();
+            requestClientPath(path, sess, handle, psk);
+        }
+    }
+    
+    // Client side: the NDP completes once the peer's server socket answers; its address
+    // arrives with the capabilities
+    private void requestClientPath(DataPath path, DiscoverySession sess, android.net.wifi.aware.PeerHandle handle,
+                                   String psk) {
+        WifiAwareNetworkSpecifier spec = new WifiAwareNetworkSpecifier.Builder(sess, handle)
+                .setPskPassphrase(psk)
+                .build();
+        
+        NetworkRequest req = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI_AWARE)
+                .setNetworkSpecifier(spec)
+                .build();
+        
+        requestDataPath(path, req, new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities caps) {
+                if (Build.VERSION.SDK_INT >= 29) {
+                    WifiAwareNetworkInfo info = (WifiAwareNetworkInfo) caps.getTransportInfo();
+                    if (info == null || info.getPeerIpv6Addr() == null || info.getPort() <= 0)
+                        return;
+                    
+                    // Capabilities can change again later; only the first complete set opens the sockets
+                    if (!establishDataPath(path, network, new InetSocketAddress(info.getPeerIpv6Addr(), info.getPort())))
+                        return;
+                    for (SocketLease l : leasesOf(path)) {
+                        openSocket(path, l);
+                    }
+                }
+            }
             
-            ConnectivityManager.NetworkCallback cb = new ConnectivityManager.NetworkCallback() {
-                @Override
-                public void onCapabilitiesChanged(Network network, NetworkCapabilities caps) {
-                    if (Build.VERSION.SDK_INT >= 29) {
-                        WifiAwareNetworkInfo info = (WifiAwareNetworkInfo) caps.getTransportInfo();
-                        if (info == null || info.getPeerIpv6Addr() == null || info.getPort() <= 0)
-                            return;
-                            
-                        // Store network
-                        activeNetworks.put(socketId, network);
-                        
-                        String ip = info.getPeerIpv6Addr().getHostAddress();
-                        int port = info.getPort();
-                        
-                        // Create empty connected peers list
-                        List<String> connectedPeers = new ArrayList<>();
-                        if (multicastEnabled) {
-                            connectedPeers.add(peerId);
-                            multicastGroups.put(socketId, connectedPeers);
-                        }
-                        
-                        // Notify socket ready
-                        onReady.accept(new SocketInfo(
-                            socketId, "subscriber", null, ip, port, multicastEnabled, connectedPeers
-                        ));
-                        
-                        // Connect to server
-                        executorService.submit(() -> {
-                            try {
-                                Socket s = network.getSocketFactory().createSocket(info.getPeerIpv6Addr(), port);
-                                clientSockets.put(socketId, s);
-                                
-                                // Notify peer connected
-                                mainHandler.post(() -> {
-                                    onPeerConnected.accept(socketId, peerId);
-                                });
-                                
-                                // Start reading from socket
-                                handleClientSocket(socketId, s, peerId);
-                                
-                            } catch (Throwable e) {
-                                mainHandler.post(() -> {
-                                    onPeerDisconnected.accept(socketId, peerId);
-                                    sink.onSocketClosed(socketId);
-                                });
-                            }
-                        });
+            @Override
+            public void onLost(Network network) {
+                dataPathLost(path);
+            }
+        });
+    }
+    
+    // Pool key of a data path; the passphrase only enters as its SHA-256 so it is not kept in the pool
+    static String dataPathKey(boolean server, String engine, String peerId, String psk) {
+        MessageDigest digest = ContentChunker.sha256();
+        digest.update(psk.getBytes(StandardCharsets.UTF_8));
+        return (server ? "server/" : "client/") + engine + "/" + peerId + "/" + ChunkStore.hex(digest.digest());
+    }
+    
+    // Starts a client path to a discovered peer before any socket asks for it
+    @Nullable
+    private DataPath prewarmDataPath(String peerId, PathPrewarmer.Rule rule) {
+        android.net.wifi.aware.PeerHandle handle = peers.get(peerId);
+        DiscoverySession sess = subSession;
+        String key = dataPathKey(false, rule.engine(), peerId, rule.psk());
+        // A pooled path already serves the next socket
+        if (handle == null || sess == null || dataPaths.contains(key))
+            return null;
+        DataPath path = new DataPath(key, peerId, false, ENGINE_NIO.equals(rule.engine()));
+        try {
+            requestClientPath(path, sess, handle, rule.psk());
+        } catch (RuntimeException e) {
+            closeDataPath(path);
+            return null;
+        }
+        prewarmStarted.inc();
+        return path;
+    }
+    
+    // A socket to the peer takes over its speculative path; one made with another key is a wrong guess
+    @Nullable
+    private DataPath claimPrewarmed(String peerId, String key) {
+        PathPrewarmer<DataPath> p = prewarmer;
+        DataPath warm = p != null ? p.claim(peerId) : null;
+        if (warm != null && !warm.key.equals(key)) {
+            closeDataPath(warm);
+            return null;
+        }
+        return warm;
+    }
+    
+    private void stopPrewarm() {
+        PathPrewarmer<DataPath> p = prewarmer;
+        prewarmer = null;
+        if (p != null)
+            p.cancelAll();
+    }
+    
+    public void setDataPathIdleMs(long ms) {
+        dataPaths.setIdleTimeoutMs(ms);
+    }
+    
+    private boolean attachSocket(DataPath path, SocketLease lease) {
+        synchronized (path) {
+            if (path.closed)
+                return false;
+            path.leases.add(lease);
+        }
+        socketPaths.put(lease.socketId, path);
+        return true;
+    }
+    
+    // A speculative path taken over by a socket; pooled now if it is already established
+    private boolean adoptDataPath(DataPath path, SocketLease lease) {
+        boolean established;
+        synchronized (path) {
+            if (path.closed)
+                return false;
+            path.leases.add(lease);
+            established = path.network != null;
+            if (established)
+                dataPaths.add(path.key, path);
+        }
+        socketPaths.put(lease.socketId, path);
+        if (established)
+            executorService.submit(() -> openSocket(path, lease));
+        return true;
+    }
+    
+    private List<SocketLease> leasesOf(DataPath path) {
+        synchronized (path) {
+            return new ArrayList<>(path.leases);
+        }
+    }
+    
+    private void requestDataPath(DataPath path, NetworkRequest req, ConnectivityManager.NetworkCallback cb) {
+        // Under the lock so a socket stopped meanwhile cannot miss unregistering the callback
+        synchronized (path) {
+            if (path.closed)
+                return;
+            path.callback = cb;
+            ndpRequests.inc();
+            connMgr.requestNetwork(req, cb);
+        }
+    }
+    
+    // First callback of a requested path: records the setup time and pools the path for
+    // later sockets to the same peer. False if it was already established or closed.
+    private boolean establishDataPath(DataPath path, Network network, @Nullable InetSocketAddress endpoint) {
+        synchronized (path) {
+            if (path.closed || path.network != null)
+                return false;
+            path.network = network;
+            path.endpoint = endpoint;
+            // Not pooled when a racing request for the same key got there first; it then
+            // serves only its own socket and closes with it. A speculative path is pooled
+            // once a socket adopts it.
+            if (!path.leases.isEmpty())
+                dataPaths.add(path.key, path);
+        }
+        ndpEstablished.inc();
+        ndpSetupMs.record(SystemClock.elapsedRealtime() - path.requestedAt);
+        return true;
+    }
+    
+    // Reports a socket ready on an established path; a client socket then connects to the peer
+    private void openSocket(DataPath path, SocketLease lease) {
+        String socketId = lease.socketId;
+        activeNetworks.put(socketId, path.network);
+        socketReadyMs.record(SystemClock.elapsedRealtime() - lease.startedAt);
+        List<String> connectedPeers = new ArrayList<>();
+        
+        if (path.server) {
+            multicastGroups.put(socketId, connectedPeers);
+            lease.onReady.accept(new SocketInfo(socketId, "publisher", path.listener.socket().getLocalPort(),
+                          null, null, lease.multicastEnabled, connectedPeers));
+            
+            // This socket now receives new connections, including any that arrived while the path was idle
+            List<SocketChannel> waiting;
+            synchronized (path) {
+                lease.open = true;
+                waiting = new ArrayList<>(path.unclaimed);
+                path.unclaimed.clear();
+            }
+            for (SocketChannel ch : waiting) {
+                claimConnection(path, ch);
+            }
+            return;
+        }
+        
+        InetSocketAddress endpoint = path.endpoint;
+        if (lease.multicastEnabled) {
+            connectedPeers.add(path.peerId);
+            multicastGroups.put(socketId, connectedPeers);
+        }
+        lease.onReady.accept(new SocketInfo(
+            socketId, "subscriber", null, endpoint.getAddress().getHostAddress(), endpoint.getPort(),
+            lease.multicastEnabled, connectedPeers
+        ));
+        executorService.submit(() -> connectSocket(path, lease));
+    }
+    
+    // Client side: one TCP connection per socket over the path's network
+    private void connectSocket(DataPath path, SocketLease lease) {
+        String socketId = lease.socketId;
+        String peerId = path.peerId;
+        try {
+            // Channel-backed socket bound to the Aware network, so sends can use transferTo
+            SocketChannel channel = SocketChannel.open();
+            path.network.bindSocket(channel.socket());
+            channel.connect(path.endpoint);
+            Socket s = channel.socket();
+            clientSockets.put(socketId, s);
+            socketEndpoints.put(socketId, path.endpoint);
+            
+            // Offer the framed protocol, then start reading from socket
+            if (path.useEngine) {
+                SocketEngine.Connection ec = socketEngine().attach(channel);
+                PeerConnection conn = new PeerConnection(socketId, peerId, s, true, false, ec,
+                        socketBatching, socketWriters);
+                registerClientConnection(conn, lease);
+                ec.start(0, new EngineSession(conn, null));
+                return;
+            }
+            PeerConnection conn = new PeerConnection(socketId, peerId, s, true, false,
+                    socketBatching, socketWriters);
+            registerClientConnection(conn, lease);
+            startReader(conn, null);
+            
+        } catch (Throwable e) {
+            postEvent(() -> {
+                lease.onPeerDisconnected.accept(socketId, peerId);
+                sink.onSocketClosed(socketId);
+            });
+        }
+    }
+    
+    // Client counterpart of registerAcceptedPeer. peerConnected goes out only once the connection
+    // is registered and its hello written, so a send made in response to it finds the connection.
+    private void registerClientConnection(PeerConnection conn, SocketLease lease) throws IOException {
+        connections.put(conn.socket, conn);
+        conn.sendHello();
+        postEvent(() -> {
+            lease.onPeerConnected.accept(conn.socketId, conn.peerId);
+        });
+    }
+    
+    // Server side: accepts for as long as the path lives, whichever socket is using it
+    private void listen(DataPath path) {
+        ServerSocketChannel ssc = path.listener;
+        if (path.useEngine) {
+            // The selector thread accepts and reads; no thread waits per connection
+            try {
+                socketEngine().listen(ssc, ch -> claimConnection(path, ch));
+            } catch (IOException e) {
+                dataPathLost(path);
+            }
+            return;
+        }
+        try {
+            blockingReaders.execute(() -> {
+                try {
+                    while (ssc.isOpen()) {
+                        claimConnection(path, ssc.accept());
                     }
+                } catch (IOException e) {
+                    // Listener closed with the path
                 }
-                
-                @Override
-                public void onLost(Network network) {
-                    stopSocket(socketId);
-                    mainHandler.post(() -> {
-                        sink.onSocketClosed(socketId);
-                    });
-                }
-            };
+            });
+        } catch (RejectedExecutionException e) {
+            dataPathLost(path);
+        }
+    }
+    
+    // Hands an accepted connection to the newest open socket on the path, or parks it until one opens
+    private void claimConnection(DataPath path, SocketChannel channel) {
+        SocketLease lease = null;
+        boolean reject = false;
+        synchronized (path) {
+            for (int i = path.leases.size() - 1; i >= 0 && lease == null; i--) {
+                if (path.leases.get(i).open)
+                    lease = path.leases.get(i);
+            }
+            if (lease == null) {
+                reject = path.closed || path.unclaimed.size() >= MAX_UNCLAIMED_CONNECTIONS;
+                if (!reject)
+                    path.unclaimed.add(channel);
+            }
+        }
+        if (lease == null) {
+            if (reject) {
+                try {
+                    channel.close();
+                } catch (IOException ignore) { }
+            }
+            return;
+        }
+        if (path.useEngine) {
+            acceptEngineConnection(lease.socketId, channel, lease.multicastEnabled, lease.maxConnections,
+                    lease.onPeerConnected);
+        } else {
+            SocketLease l = lease;
+            try {
+                blockingReaders.execute(() -> acceptBlockingConnection(l, channel.socket()));
+            } catch (RejectedExecutionException e) {
+                blockingRefused.inc();
+                try {
+                    channel.close();
+                } catch (IOException ignore) { }
+            }
+        }
+    }
+    
+    // Blocking server side: a connection just accepted, served on its own thread
+    private void acceptBlockingConnection(SocketLease lease, Socket clientSocket) {
+        String socketId = lease.socketId;
+        String clientPeerId = "peer-" + UUID.randomUUID().toString();
+        PeerConnection conn;
+        Integer firstWord;
+        try {
+            conn = new PeerConnection(socketId, clientPeerId, clientSocket, false, false,
+                    socketBatching, socketWriters);
+            connections.put(clientSocket, conn);
             
-            networkCallbacks.put(socketId, cb);
-            connMgr.requestNetwork(req, cb);
+            // Wait briefly for the hello so stripe connections are not reported as new peers
+            firstWord = conn.peekFirstWord(HELLO_WAIT_MS);
+        } catch (IOException e) {
+            closeConnection(clientSocket);
+            try {
+                clientSocket.close();
+            } catch (IOException ignore) { }
+            return;
+        }
+        if (conn.isAuxiliary()) {
+            addAuxConnection(socketId, conn);
+            handleClientSocket(conn, firstWord);
+            return;
+        }
+        if (activePeerCount(socketId) > lease.maxConnections) {
+            closeConnection(clientSocket);
+            return;
         }
+        
+        registerAcceptedPeer(conn, lease.multicastEnabled, lease.onPeerConnected);
+        
+        // Start reading from socket
+        handleClientSocket(conn, firstWord);
+    }
+    
+    // The NDP went away: every socket on it closes
+    private void dataPathLost(DataPath path) {
+        PathPrewarmer<DataPath> p = prewarmer;
+        if (p != null)
+            p.forget(path.peerId, path);
+        for (SocketLease lease : closeDataPath(path)) {
+            stopSocket(lease.socketId);
+            postEvent(() -> {
+                sink.onSocketClosed(lease.socketId);
+            });
+        }
+    }
+    
+    // Releases the NDP and the listener; returns the sockets that were still using the path
+    private List<SocketLease> closeDataPath(DataPath path) {
+        List<SocketLease> leases;
+        List<SocketChannel> unclaimed;
+        ConnectivityManager.NetworkCallback callback;
+        synchronized (path) {
+            if (path.closed)
+                return new ArrayList<>();
+            path.closed = true;
+            leases = new ArrayList<>(path.leases);
+            unclaimed = new ArrayList<>(path.unclaimed);
+            path.unclaimed.clear();
+            callback = path.callback;
+            dataPaths.remove(path.key, path);
+        }
+        if (callback != null) {
+            try {
+                connMgr.unregisterNetworkCallback(callback);
+            } catch (Exception ignore) { }
+            ndpReleased.inc();
+        }
+        if (path.listener != null) {
+            try {
+                path.listener.close();
+            } catch (IOException ignore) { }
+        }
+        for (SocketChannel ch : unclaimed) {
+            try {
+                ch.close();
+            } catch (IOException ignore) { }
+        }
+        return leases;
     }
     
-    // Handle communication on a connected socket
-    private void handleClientSocket(String socketId, Socket socket, String peerId) {
+    // Handle communication on a connected socket; firstWord is passed if the accept path already read it
+    private void handleClientSocket(PeerConnection conn, @Nullable Integer firstWord) {
+        Socket socket = conn.socket;
+        String peerId = conn.peerId;
         try {
             // Keep connection open and read messages
-            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataInputStream in = conn.input();
+            
+            // The first word is either the v2 hello or a legacy message type
+            if (firstWord == null) {
+                firstWord = in.readInt();
+            }
+            boolean helloConsumed = conn.onFirstWord(firstWord);
+            if (conn.version() >= FrameCodec.VERSION_FRAMED) {
+                handleFramedSocket(conn);
+                return;
+            }
+            Integer pendingType = helloConsumed ? null : firstWord;
             
             while (!socket.isClosed()) {
                 // Read message type
-                int messageType = in.readInt();
+                int messageType = pendingType != null ? pendingType : in.readInt();
+                pendingType = null;
                 
                 switch (messageType) {
                     case 1: // Regular message
                         int messageLength = in.readInt();
                         byte[] messageData = new byte[messageLength];
                         in.readFully(messageData);
-                        String messageBase64 = Base64.encodeToString(messageData, Base64.NO_WRAP);
+                        countSocketBytes(conn.socketId, false, messageData.length);
                         
                         // Notify message received
-                        mainHandler.post(() -> {
-                            sink.onMessageReceived(peerId, messageBase64);
-                        });
+                        deliverMessage(peerId, messageData);
                         break;
                         
                     case 2: // File transfer
@@ -1008,19 +1843,14 @@ public class WifiAwareShim {
                         String fileName = new String(fileNameBytes);
                         
                         int mimeTypeLength = in.readInt();
-                        String mimeType = "";
-                        if (mimeTypeLength > 0) {
-                            byte[] mimeTypeBytes = new byte[mimeTypeLength];
-                            in.readFully(mimeTypeBytes);
-                            mimeType = new String(mimeTypeBytes);
-                        }
+                        byte[] mimeTypeBytes = new byte[Math.max(0, mimeTypeLength)];
+                        in.readFully(mimeTypeBytes);
+                        String mimeType = new String(mimeTypeBytes);
                         
                         long fileSize = in.readLong();
                         
-                        // Create file in cache directory
-                        File outputFile = new File(activity.getCacheDir(), transferId + "_" + fileName);
-                        FileOutputStream fileOut = new FileOutputStream(outputFile);
-                        BufferedOutputStream bufferedOut = new BufferedOutputStream(fileOut);
+                        // Create file in cache directory, preallocated to the announced size
+                        File outputFile = incomingFile(transferId, fileName);
                         
                         // Create transfer info
                         FileTransferInfo transferInfo = new FileTransferInfo(
@@ -1028,377 +1858,1670 @@ public class WifiAwareShim {
                             outputFile.getAbsolutePath(), null, "incoming"
                         );
                         
-                        transferInfo.outputStream = bufferedOut;
                         activeTransfers.put(transferId, transferInfo);
                         
                         // Notify file transfer request
-                        mainHandler.post(() -> {
+                        postEvent(() -> {
                             sink.onFileTransferRequest(peerId, transferId, fileName, mimeType, fileSize);
                         });
                         
-                        // Read file data with progress updates
-                        byte[] buffer = new byte[BUFFER_SIZE];
-                        long totalBytesRead = 0;
-                        int lastProgressPercent = 0;
+                        // Read file data with progress updates; disk writes overlap the socket reads
+                        ChannelTransfer.ProgressListener progress = newProgressListener(transferInfo);
                         
-                        while (totalBytesRead < fileSize && !transferInfo.cancelled) {
-                            int bytesRemaining = (int) Math.min(BUFFER_SIZE, fileSize - totalBytesRead);
-                            int bytesRead = in.read(buffer, 0, bytesRemaining);
-                            
-                            if (bytesRead == -1) {
+                        try (ReceivePipeline pipeline = new ReceivePipeline(
+                                outputFile, fileSize, receiveMemoryMapped, receiveBufferPool, executorService)) {
+                            long received = pipeline.receive(Channels.newChannel(in), 0, fileSize, progress);
+                            countSocketBytes(conn.socketId, false, received);
+                            if (received < fileSize && !transferInfo.cancelled) {
                                 // End of stream reached prematurely
                                 transferInfo.status = "failed";
-                                break;
-                            }
-                            
-                            // Write to file
-                            bufferedOut.write(buffer, 0, bytesRead);
-                            
-                            // Update progress
-                            totalBytesRead += bytesRead;
-                            transferInfo.bytesTransferred = totalBytesRead;
-                            
-                            // Calculate progress percentage
-                            int progressPercent = (int) ((totalBytesRead * 100) / fileSize);
-                            
-                            // Report progress every 5%
-                            if (progressPercent - lastProgressPercent >= 5) {
-                                lastProgressPercent = progressPercent;
-                                
-                                final long finalBytesRead = totalBytesRead;
-                                mainHandler.post(() -> {
-                                    sink.onFileTransferProgress(
-                                        peerId, transferId, fileName,
-                                        finalBytesRead, fileSize, 
-                                        "incoming", transferInfo.status
-                                    );
-                                });
                             }
                         }
                         
-                        // Close file
-                        bufferedOut.close();
-                        
                         if (transferInfo.status.equals("in-progress")) {
                             transferInfo.status = "completed";
                             
-                            // Read the file to base64 if it's not too large
-                            String fileBase64 = null;
-                            if (fileSize <= 1024 * 1024) { // 1MB limit for base64
-                                try {
-                                    byte[] fileBytes = new byte[(int)fileSize];
-                                    FileInputStream fis = new FileInputStream(outputFile);
-                                    fis.read(fileBytes);
-                                    fis.close();
-                                    fileBase64 = Base64.encodeToString(fileBytes, Base64.NO_WRAP);
-                                } catch (Exception e) {
-                                    // If reading fails, we'll still have the file path
-                                }
-                            }
-                            
-                            // Notify completion
-                            final String finalFileBase64 = fileBase64;
-                            mainHandler.post(() -> {
-                                sink.onFileTransferCompleted(
-                                    peerId, transferId, fileName,
-                                    outputFile.getAbsolutePath(), finalFileBase64
-                                );
-                            });
+                            completeIncomingTransfer(transferInfo, outputFile);
                         }
                         
                         activeTransfers.remove(transferId);
+                        recordTransferEnd(transferInfo);
                         break;
                 }
             }
         } catch (IOException e) {
             // Socket closed or error
-            try {
-                if (!socket.isClosed()) {
-                    socket.close();
+        } finally {
+            releaseConnection(conn);
+        }
+    }
+    
+    // A blocking read loop needs a thread of its own; past the limit the connection is closed, not queued
+    private void startReader(PeerConnection conn, @Nullable Integer firstWord) {
+        try {
+            blockingReaders.execute(() -> handleClientSocket(conn, firstWord));
+        } catch (RejectedExecutionException e) {
+            blockingRefused.inc();
+            releaseConnection(conn);
+        }
+    }
+    
+    private void releaseConnection(PeerConnection conn) {
+        connections.remove(conn.socket);
+        List<PeerConnection> aux = auxConnections.get(conn.socketId);
+        if (aux != null) {
+            aux.remove(conn);
+        }
+        conn.close();
+    }
+    
+    private void registerAcceptedPeer(PeerConnection conn, boolean multicastEnabled,
+                                      java.util.function.BiConsumer<String, String> onPeerConnected) {
+        String socketId = conn.socketId;
+        
+        // Add to peer sockets
+        List<Socket> sockets = peerSockets.getOrDefault(socketId, new ArrayList<>());
+        sockets.add(conn.socket);
+        peerSockets.put(socketId, sockets);
+        
+        // Add to multicast group
+        List<String> group = multicastGroups.get(socketId);
+        if (multicastEnabled && group != null) {
+            group.add(conn.peerId);
+        }
+        
+        // Notify peer connected
+        postEvent(() -> {
+            onPeerConnected.accept(socketId, conn.peerId);
+        });
+    }
+    
+    // Lazily started: sockets using the blocking engine never pay for the selector thread
+    private synchronized SocketEngine socketEngine() throws IOException {
+        if (socketEngine == null) {
+            socketEngine = new SocketEngine(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        }
+        return socketEngine;
+    }
+    
+    // Engine server side: a connection just accepted by the selector thread
+    private void acceptEngineConnection(String socketId, SocketChannel channel, boolean multicastEnabled,
+                                        int maxConnections,
+                                        java.util.function.BiConsumer<String, String> onPeerConnected) {
+        try {
+            SocketEngine.Connection ec = socketEngine().attach(channel);
+            String clientPeerId = "peer-" + UUID.randomUUID().toString();
+            PeerConnection conn = new PeerConnection(socketId, clientPeerId, channel.socket(), false, false, ec,
+                    socketBatching, socketWriters);
+            connections.put(channel.socket(), conn);
+            ec.start(HELLO_WAIT_MS, new EngineSession(conn, () -> {
+                if (activePeerCount(socketId) > maxConnections) {
+                    return false;
                 }
+                registerAcceptedPeer(conn, multicastEnabled, onPeerConnected);
+                return true;
+            }));
+        } catch (IOException e) {
+            try {
+                channel.close();
             } catch (IOException ignore) { }
         }
     }
     
-    public void stopSocket(String socketId) {
-        ConnectivityManager.NetworkCallback callback = networkCallbacks.remove(socketId);
-        if (callback != null) {
-            try {
-                connMgr.unregisterNetworkCallback(callback);
-            } catch (Exception ignore) { }
+    // Open primary (non-stripe) connections of a socket, including one still being set up
+    private int activePeerCount(String socketId) {
+        int count = 0;
+        for (PeerConnection c : connections.values()) {
+            if (c.socketId.equals(socketId) && !c.isAuxiliary()) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    // Socket engine callbacks for one connection: framed peers stay on the engine, legacy ones get a thread
+    private class EngineSession implements SocketEngine.ConnectionHandler {
+        final PeerConnection conn;
+        @Nullable final java.util.function.BooleanSupplier onPeer; // accepted side only; false rejects the peer
+        Integer firstWord;
+        FramedSession framed;
+        
+        EngineSession(PeerConnection conn, @Nullable java.util.function.BooleanSupplier onPeer) {
+            this.conn = conn;
+            this.onPeer = onPeer;
+        }
+        
+        @Override
+        public boolean onFirstWord(Integer word) throws IOException {
+            firstWord = word;
+            if (word != null) {
+                conn.onFirstWord(word);
+            }
+            if (onPeer != null) {
+                // Accepted side: a stripe joins its socket, anything else is a new peer
+                if (conn.isAuxiliary()) {
+                    addAuxConnection(conn.socketId, conn);
+                } else if (!onPeer.getAsBoolean()) {
+                    throw new IOException("Connection limit reached");
+                }
+            }
+            if (conn.version() >= FrameCodec.VERSION_FRAMED) {
+                framed = new FramedSession(conn);
+                return true;
+            }
+            // Legacy peer or no hello yet: the blocking reader takes over
+            return false;
+        }
+        
+        @Override
+        public void onFrame(FrameCodec.Header header, byte[] payload) throws IOException {
+            framed.onFrame(header, payload);
+        }
+        
+        @Override
+        public void onDetached() {
+            startReader(conn, firstWord);
+        }
+        
+        @Override
+        public void onClosed(IOException error) {
+            if (framed != null) {
+                framed.close();
+            }
+            releaseConnection(conn);
+        }
+    }
+    
+    // A file being received, possibly as several stripes over different connections
+    private static class IncomingFile {
+        final FileTransferInfo info;
+        final File file;
+        final ReceivePipeline pipeline;
+        final ChannelTransfer.ProgressListener progress;
+        final int stripeCount;
+        final AtomicLong received = new AtomicLong();
+        TransferJournal journal; // resumable transfers only
+        String senderKey;        // framed transfers: the sender and its transferId
+        int endedStripes;       // guarded by this
+        boolean incomplete;     // guarded by this
+        volatile boolean aborted;
+        
+        IncomingFile(FileTransferInfo info, File file, ReceivePipeline pipeline,
+                     ChannelTransfer.ProgressListener progress, int stripeCount) {
+            this.info = info;
+            this.file = file;
+            this.pipeline = pipeline;
+            this.progress = progress;
+            this.stripeCount = stripeCount;
+        }
+    }
+    
+    // Receiver side of a dedup stream: manifest being collected, then the chunks still expected
+    private static class DedupState {
+        FrameCodec.ManifestBuilder builder = new FrameCodec.ManifestBuilder();
+        ContentChunker.Manifest manifest;
+        final BitSet need = new BitSet();
+        int cursor;
+    }
+    
+    // One stream's view of an incoming file: the byte range it carries
+    private static class IncomingStream {
+        final IncomingFile file;
+        final long end;
+        long position;
+        DedupState dedup;
+        
+        IncomingStream(IncomingFile file, long position, long end) {
+            this.file = file;
+            this.position = position;
+            this.end = end;
+        }
+    }
+    
+    // Blocking read loop for v2 connections: frames from several streams arrive interleaved
+    private void handleFramedSocket(PeerConnection conn) throws IOException {
+        DataInputStream in = conn.input();
+        ReadableByteChannel channel = Channels.newChannel(in);
+        FramedSession session = new FramedSession(conn);
+        
+        try {
+            while (!conn.socket.isClosed()) {
+                FrameCodec.Header h = FrameCodec.readHeader(in);
+                IncomingStream target = session.rawDataTarget(h);
+                if (target != null) {
+                    // Plain file data goes from the socket straight into the pipeline's buffers
+                    long n = target.file.pipeline.read(channel, target.position, h.length);
+                    if (n < h.length) {
+                        throw new EOFException("Connection closed inside a frame");
+                    }
+                    session.received(target, n);
+                    continue;
+                }
+                byte[] payload = new byte[h.length];
+                in.readFully(payload);
+                session.onFrame(h, payload);
+            }
+        } finally {
+            session.close();
+        }
+    }
+    
+    // Receive side of one v2 connection; frames come from the blocking loop above or the socket engine
+    private class FramedSession {
+        final PeerConnection conn;
+        final Map<Integer, IncomingStream> streams = new HashMap<>();
+        
+        FramedSession(PeerConnection conn) {
+            this.conn = conn;
+        }
+        
+        // The stream an uncompressed DATA frame can be read into directly, or null if it needs onFrame
+        @Nullable
+        IncomingStream rawDataTarget(FrameCodec.Header h) {
+            if (h.type != FrameCodec.TYPE_DATA || (h.flags & FrameCodec.FLAG_DATA_COMPRESSED) != 0) {
+                return null;
+            }
+            IncomingStream stream = streams.get(h.streamId);
+            if (stream == null || stream.dedup != null || stream.file.info.cancelled || stream.file.aborted
+                    || stream.position + h.length > stream.end) {
+                return null;
+            }
+            return stream;
+        }
+        
+        void received(IncomingStream stream, long n) {
+            countSocketBytes(conn.socketId, false, n);
+            stream.position += n;
+            stream.file.progress.onProgress(stream.file.received.addAndGet(n));
+        }
+        
+        void onFrame(FrameCodec.Header h, byte[] payload) throws IOException {
+            switch (h.type) {
+                case FrameCodec.TYPE_MESSAGE: {
+                    countSocketBytes(conn.socketId, false, payload.length);
+                    deliverMessage(conn.peerId, payload);
+                    break;
+                }
+                
+                case FrameCodec.TYPE_FILE_OPEN: {
+                    FrameCodec.FileOpen open = FrameCodec.decodeFileOpen(payload);
+                    IncomingStream stream;
+                    if ((h.flags & FrameCodec.FLAG_OPEN_RESUMABLE) != 0) {
+                        // The sender waits for the offset we already hold, even if that is 0
+                        stream = openResumableStream(conn.peerId, senderScope(conn), open);
+                        ByteBuffer offset = ByteBuffer.allocate(8).putLong(stream.position - open.rangeOffset);
+                        conn.mux().sendControl(FrameCodec.TYPE_RESUME, (byte) 0, h.streamId, offset.array());
+                    } else {
+                        stream = openIncomingStream(conn.peerId, senderScope(conn), open);
+                        if ((h.flags & FrameCodec.FLAG_OPEN_DEDUP) != 0 && open.stripeCount <= 1) {
+                            stream.dedup = new DedupState();
+                        }
+                    }
+                    IncomingStream previous = streams.put(h.streamId, stream);
+                    if (previous != null) {
+                        abortIncomingStream(previous, "failed");
+                    }
+                    break;
+                }
+                
+                case FrameCodec.TYPE_DATA: {
+                    IncomingStream stream = streams.get(h.streamId);
+                    if (stream != null && stream.dedup != null) {
+                        receiveDedupChunk(conn, streams, h, payload, stream);
+                        break;
+                    }
+                    boolean compressed = (h.flags & FrameCodec.FLAG_DATA_COMPRESSED) != 0;
+                    int rawLength = payload.length;
+                    if (compressed) {
+                        rawLength = payload.length >= FrameCodec.COMPRESSED_HEADER_SIZE
+                                ? ByteBuffer.wrap(payload, 1, 4).getInt() : -1;
+                    }
+                    if (stream == null || stream.file.info.cancelled || stream.file.aborted
+                            || rawLength < 0 || rawLength > FrameCodec.MAX_PAYLOAD
+                            || stream.position + rawLength > stream.end) {
+                        if (stream != null) {
+                            // Cancelled locally or out of range - tell the sender to stop
+                            rejectIncomingStream(conn, streams, h.streamId,
+                                    stream.file.info.cancelled ? "cancelled" : "failed");
+                        }
+                        break;
+                    }
+                    byte[] raw = payload;
+                    if (compressed) {
+                        raw = inflateChunk(payload, rawLength);
+                        if (raw == null) {
+                            // Only this stream is affected; the connection stays in sync
+                            rejectIncomingStream(conn, streams, h.streamId, "failed");
+                            break;
+                        }
+                    }
+                    stream.file.pipeline.write(ByteBuffer.wrap(raw, 0, rawLength), stream.position);
+                    received(stream, rawLength);
+                    break;
+                }
+                
+                case FrameCodec.TYPE_END: {
+                    IncomingStream stream = streams.remove(h.streamId);
+                    if (stream != null) {
+                        DedupState d = stream.dedup;
+                        if (d != null && d.manifest != null && d.need.nextSetBit(d.cursor) < 0) {
+                            // Every chunk is either reused or received
+                            stream.position = stream.end;
+                        }
+                        endIncomingStream(stream);
+                    }
+                    break;
+                }
+                
+                case FrameCodec.TYPE_MANIFEST: {
+                    IncomingStream stream = streams.get(h.streamId);
+                    if (stream == null || stream.dedup == null || stream.dedup.builder == null) {
+                        break;
+                    }
+                    try {
+                        stream.dedup.builder.add(payload);
+                    } catch (IOException e) {
+                        rejectIncomingStream(conn, streams, h.streamId, "failed");
+                        break;
+                    }
+                    if ((h.flags & FrameCodec.FLAG_LAST) != 0) {
+                        acceptManifest(conn, streams, h.streamId, stream);
+                    }
+                    break;
+                }
+                
+                case FrameCodec.TYPE_NEED: {
+                    StreamMultiplexer.Stream outgoing = conn.awaitingReply(h.streamId);
+                    if (outgoing instanceof DedupFileSource) {
+                        try {
+                            if (((DedupFileSource) outgoing).onNeed(payload, (h.flags & FrameCodec.FLAG_LAST) != 0)) {
+                                conn.replied(h.streamId);
+                            }
+                        } catch (IOException e) {
+                            conn.mux().cancel(h.streamId);
+                        }
+                    }
+                    break;
+                }
+                
+                case FrameCodec.TYPE_STRIPE_REQUEST: {
+                    int count = payload.length >= 2 ? ByteBuffer.wrap(payload).getShort() & 0xFFFF : 0;
+                    if (conn.isInitiator()) {
+                        // Only the connecting side can open connections to the server socket
+                        executorService.submit(() -> {
+                            for (int i = 0; i < Math.min(count, MAX_STRIPES - 1); i++) {
+                                try {
+                                    openAuxConnection(conn.socketId);
+                                } catch (IOException e) {
+                                    break;
+                                }
+                            }
+                        });
+                    }
+                    break;
+                }
+                
+                case FrameCodec.TYPE_RESUME: {
+                    StreamMultiplexer.Stream outgoing = conn.awaitingReply(h.streamId);
+                    if (payload.length >= 8 && outgoing instanceof FileStreamSource) {
+                        ((FileStreamSource) outgoing).resumeAt(ByteBuffer.wrap(payload).getLong());
+                        conn.replied(h.streamId);
+                    }
+                    break;
+                }
+                
+                case FrameCodec.TYPE_RESET: {
+                    if ((h.flags & FrameCodec.FLAG_RESET_BY_RECEIVER) != 0) {
+                        // The remote refused one of our outgoing streams
+                        conn.mux().cancel(h.streamId);
+                    } else {
+                        IncomingStream stream = streams.remove(h.streamId);
+                        if (stream != null) {
+                            abortIncomingStream(stream, "cancelled");
+                        }
+                    }
+                    break;
+                }
+                
+                default:
+                    // Unknown frame type from a newer peer
+                    break;
+            }
+        }
+        
+        void close() {
+            for (IncomingStream stream : streams.values()) {
+                abortIncomingStream(stream, "failed");
+            }
+            streams.clear();
+        }
+    }
+    
+    // Drops one incoming stream and asks the sender to stop it; the connection itself stays usable
+    private void rejectIncomingStream(PeerConnection conn, Map<Integer, IncomingStream> streams, int streamId,
+                                      String status) throws IOException {
+        IncomingStream stream = streams.remove(streamId);
+        if (stream != null) {
+            abortIncomingStream(stream, status);
+        }
+        conn.mux().sendControl(FrameCodec.TYPE_RESET, FrameCodec.FLAG_RESET_BY_RECEIVER, streamId, null);
+    }
+    
+    // Expands a compressed DATA payload; null if the codec is unknown or the data is corrupt
+    @Nullable
+    private byte[] inflateChunk(byte[] packed, int rawLength) {
+        ChunkCodec codec = ChunkCodecs.get(packed[0] & 0xFF);
+        if (codec == null) {
+            return null;
+        }
+        byte[] raw = new byte[rawLength];
+        try {
+            codec.decompress(packed, FrameCodec.COMPRESSED_HEADER_SIZE,
+                    packed.length - FrameCodec.COMPRESSED_HEADER_SIZE, raw, rawLength);
+        } catch (IOException e) {
+            return null;
+        }
+        compressionStats.recordInflated(packed.length, rawLength);
+        return raw;
+    }
+    
+    // Dedup: fill every chunk the store already has, then tell the sender which ones are missing
+    private void acceptManifest(PeerConnection conn, Map<Integer, IncomingStream> streams, int streamId,
+                                IncomingStream stream) throws IOException {
+        DedupState d = stream.dedup;
+        ContentChunker.Manifest manifest = d.builder.build();
+        d.builder = null;
+        IncomingFile file = stream.file;
+        if (manifest.totalLength() != file.info.fileSize) {
+            rejectIncomingStream(conn, streams, streamId, "failed");
+            return;
+        }
+        
+        long reused = 0;
+        for (int i = 0; i < manifest.count(); i++) {
+            byte[] chunk = chunkStore.get(manifest.hash(i));
+            if (chunk != null && chunk.length == manifest.lengths[i]) {
+                file.pipeline.write(ByteBuffer.wrap(chunk), manifest.offsets[i]);
+                reused += chunk.length;
+            } else {
+                d.need.set(i);
+            }
+        }
+        d.manifest = manifest;
+        file.info.bytesReused = reused;
+        if (reused > 0) {
+            file.progress.onProgress(file.received.addAndGet(reused));
+        }
+        
+        List<byte[]> frames = FrameCodec.encodeNeed(d.need, manifest.count());
+        for (int i = 0; i < frames.size(); i++) {
+            conn.mux().sendControl(FrameCodec.TYPE_NEED, i == frames.size() - 1 ? FrameCodec.FLAG_LAST : 0,
+                    streamId, frames.get(i));
+        }
+    }
+    
+    // Dedup DATA frame: the next needed chunk in manifest order, verified before it is written and stored
+    private void receiveDedupChunk(PeerConnection conn, Map<Integer, IncomingStream> streams,
+                                   FrameCodec.Header h, byte[] payload, IncomingStream stream) throws IOException {
+        IncomingFile file = stream.file;
+        DedupState d = stream.dedup;
+        if (file.info.cancelled || file.aborted || d.manifest == null) {
+            rejectIncomingStream(conn, streams, h.streamId, file.info.cancelled ? "cancelled" : "failed");
+            return;
+        }
+        
+        byte[] chunk = payload;
+        int length = payload.length;
+        if ((h.flags & FrameCodec.FLAG_DATA_COMPRESSED) != 0) {
+            length = payload.length >= FrameCodec.COMPRESSED_HEADER_SIZE
+                    ? ByteBuffer.wrap(payload, 1, 4).getInt() : -1;
+            chunk = length > 0 && length <= FrameCodec.MAX_PAYLOAD ? inflateChunk(payload, length) : null;
+        }
+        int index = d.need.nextSetBit(d.cursor);
+        if (chunk == null || index < 0 || index >= d.manifest.count() || d.manifest.lengths[index] != length) {
+            rejectIncomingStream(conn, streams, h.streamId, "failed");
+            return;
+        }
+        MessageDigest digest = ContentChunker.sha256();
+        digest.update(chunk, 0, length);
+        if (!d.manifest.matches(index, digest.digest())) {
+            rejectIncomingStream(conn, streams, h.streamId, "failed");
+            return;
+        }
+        
+        file.pipeline.write(ByteBuffer.wrap(chunk, 0, length), d.manifest.offsets[index]);
+        chunkStore.put(d.manifest.hash(index), chunk, length);
+        d.cursor = index + 1;
+        file.progress.onProgress(file.received.addAndGet(length));
+    }
+    
+    private IncomingStream openIncomingStream(String peerId, String scope, FrameCodec.FileOpen open)
+            throws IOException {
+        String key = senderKey(scope, open.transferId);
+        IncomingFile file;
+        if (open.stripeCount > 1) {
+            // Stripes of one transfer share a file and pipeline, keyed by the sender and its transferId
+            synchronized (stripedIncoming) {
+                file = stripedIncoming.get(key);
+                if (file == null) {
+                    file = createIncomingFile(peerId, key, UUID.randomUUID().toString(), open, null);
+                    stripedIncoming.put(key, file);
+                }
+            }
+        } else {
+            file = createIncomingFile(peerId, key, UUID.randomUUID().toString(), open, null);
+        }
+        return new IncomingStream(file, open.rangeOffset, open.rangeOffset + open.rangeLength);
+    }
+    
+    // Resumable stream: continue after the chunks the journal can still verify on disk
+    private IncomingStream openResumableStream(String peerId, String scope, FrameCodec.FileOpen open)
+            throws IOException {
+        if (open.stripeCount > 1) {
+            // Stripes are written out of order and cannot be journaled; receive them in full
+            return openIncomingStream(peerId, scope, open);
+        }
+        File dir = journalDir();
+        String key = senderKey(scope, open.transferId);
+        // The sender's install id outlives connections and restarts; the connection scope does not
+        String journalKey = TransferJournal.incomingKey(
+                open.senderId.isEmpty() ? key : senderKey(open.senderId, open.transferId));
+        TransferJournal journal = TransferJournal.load(dir, journalKey);
+        long offset = 0;
+        if (journal != null && journal.fileSize == open.fileSize && journal.fileName.equals(open.fileName)) {
+            // The journal holds the local id the partial file was written under
+            offset = journal.verify(incomingFile(journal.transferId, open.fileName));
+        } else {
+            journal = new TransferJournal(dir, journalKey, UUID.randomUUID().toString(), peerId, open.fileName,
+                    open.fileSize, null, 0);
+        }
+        
+        IncomingFile file = createIncomingFile(peerId, key, journal.transferId, open, journal);
+        file.received.set(offset);
+        return new IncomingStream(file, offset, open.rangeOffset + open.rangeLength);
+    }
+    
+    private IncomingFile createIncomingFile(String peerId, String senderKey, String transferId,
+                                            FrameCodec.FileOpen open,
+                                            @Nullable TransferJournal journal) throws IOException {
+        File outputFile = incomingFile(transferId, open.fileName);
+        FileTransferInfo transferInfo = new FileTransferInfo(
+            transferId, peerId, open.fileName, open.mimeType, open.fileSize,
+            outputFile.getAbsolutePath(), null, "incoming"
+        );
+        activeTransfers.put(transferId, transferInfo);
+        incomingIds.put(senderKey, transferId);
+        
+        postEvent(() -> {
+            sink.onFileTransferRequest(peerId, transferId, open.fileName, open.mimeType, open.fileSize);
+        });
+        
+        ReceivePipeline pipeline = new ReceivePipeline(
+                outputFile, open.fileSize, receiveMemoryMapped, receiveBufferPool, executorService);
+        pipeline.setWriteListener(journal);
+        pipeline.start();
+        IncomingFile file = new IncomingFile(transferInfo, outputFile, pipeline, newProgressListener(transferInfo),
+                Math.max(1, open.stripeCount));
+        file.journal = journal;
+        file.senderKey = senderKey;
+        return file;
+    }
+    
+    // Received files are named by their local transferId; the sender only contributes a plain name
+    private File incomingFile(String transferId, String fileName) throws IOException {
+        if (fileName == null || fileName.isEmpty() || fileName.contains("/") || fileName.contains(".."))
+            throw new IOException("Invalid file name: " + fileName);
+        return new File(activity.getCacheDir(), transferId + "_" + fileName);
+    }
+    
+    // Sender transferIds are only unique per sender. Client sockets know the peer by its discovery
+    // id; server sockets give every connection a fresh id, so there the remote address stands in,
+    // which a peer's stripe connections share
+    private static String senderScope(PeerConnection conn) {
+        InetAddress address = conn.socket.getInetAddress();
+        return conn.isInitiator() || address == null ? conn.peerId : address.getHostAddress();
+    }
+    
+    private static String senderKey(String scope, String senderTransferId) {
+        return scope + "/" + senderTransferId;
+    }
+    
+    // Called when a stream sends END; the file completes once every stripe has ended
+    private void endIncomingStream(IncomingStream stream) {
+        IncomingFile file = stream.file;
+        boolean done;
+        synchronized (file) {
+            file.endedStripes++;
+            if (stream.position < stream.end) {
+                file.incomplete = true;
+            }
+            done = file.endedStripes >= file.stripeCount && !file.aborted;
+        }
+        if (!done) {
+            return;
+        }
+        forgetIncomingFile(file);
+        
+        FileTransferInfo info = file.info;
+        try {
+            file.pipeline.close();
+            if (file.incomplete || file.received.get() < info.fileSize) {
+                info.status = "failed";
+            }
+        } catch (IOException e) {
+            info.status = "failed";
+        }
+        
+        if (info.status.equals("in-progress")) {
+            info.status = "completed";
+            if (file.journal != null) {
+                file.journal.delete();
+            }
+            completeIncomingTransfer(info, file.file);
+        } else {
+            saveJournal(file.journal);
+            postEvent(() -> {
+                sink.onFileTransferProgress(
+                    info.peerId, info.transferId, info.fileName,
+                    info.bytesTransferred, info.fileSize,
+                    info.direction, info.status
+                );
+            });
+        }
+        activeTransfers.remove(info.transferId);
+        recordTransferEnd(info);
+    }
+    
+    private void abortIncomingStream(IncomingStream stream, String status) {
+        IncomingFile file = stream.file;
+        synchronized (file) {
+            if (file.aborted) {
+                return;
+            }
+            file.aborted = true;
+        }
+        forgetIncomingFile(file);
+        FileTransferInfo info = file.info;
+        try {
+            file.pipeline.close();
+        } catch (IOException ignore) { }
+        if (file.journal != null) {
+            if (info.cancelled || "cancelled".equals(status)) {
+                file.journal.delete();
+            } else {
+                // Keep the partial file so a reconnect can continue from the verified offset
+                saveJournal(file.journal);
+            }
+        }
+        
+        boolean notify = !info.cancelled;
+        info.status = status;
+        activeTransfers.remove(info.transferId);
+        recordTransferEnd(info);
+        if (notify) {
+            postEvent(() -> {
+                sink.onFileTransferProgress(
+                    info.peerId, info.transferId, info.fileName,
+                    info.bytesTransferred, info.fileSize,
+                    info.direction, status
+                );
+            });
+        }
+    }
+    
+    private void forgetIncomingFile(IncomingFile file) {
+        synchronized (stripedIncoming) {
+            stripedIncoming.remove(file.senderKey, file);
+        }
+        incomingIds.remove(file.senderKey, file.info.transferId);
+    }
+    
+    private File journalDir() {
+        return new File(activity.getCacheDir(), JOURNAL_DIR);
+    }
+    
+    private static void saveJournal(@Nullable TransferJournal journal) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.save();
+        } catch (IOException e) {
+            // Without a journal the next attempt simply starts from 0
+            journal.delete();
+        }
+    }
+    
+    // Stable id sent with resumable streams (see TransferJournal.instanceId)
+    private String instanceId() {
+        String id = instanceId;
+        if (id == null) {
+            id = TransferJournal.instanceId(journalDir());
+            instanceId = id;
+        }
+        return id;
+    }
+    
+    // Outgoing journals are per target and per version of the source
+    private String outgoingJournalKey(String targetId, String filePath) {
+        if (filePath.startsWith("content://")) {
+            return TransferJournal.outgoingKey(targetId, filePath, -1, 0);
+        }
+        File file = new File(filePath);
+        return TransferJournal.outgoingKey(targetId, filePath, file.length(), file.lastModified());
+    }
+    
+    // Sender side: reuse the transferId of an unfinished resumable send of the same file to the same peer
+    private String resumableTransferId(String targetId, String filePath) {
+        TransferJournal journal = TransferJournal.load(journalDir(), outgoingJournalKey(targetId, filePath));
+        if (journal == null || !journal.sourcePath.equals(filePath) || !journal.peerId.equals(targetId)) {
+            return null;
+        }
+        if (!filePath.startsWith("content://")) {
+            File file = new File(filePath);
+            if (file.length() != journal.fileSize || file.lastModified() != journal.sourceModified) {
+                return null;
+            }
+        }
+        // A transfer with that id still running is not resumable
+        return activeTransfers.containsKey(journal.transferId) ? null : journal.transferId;
+    }
+    
+    // Progress reporting shared by both directions and both protocol versions
+    private ChannelTransfer.ProgressListener newProgressListener(FileTransferInfo transferInfo) {
+        return new ProgressReporter(transferInfo.fileSize, progressIntervalMs,
+                (bytes, total, rate) -> {
+                    transferInfo.bytesTransferred = bytes;
+                    postEvent(() -> {
+                        sink.onFileTransferProgress(
+                            transferInfo.peerId, transferInfo.transferId, transferInfo.fileName,
+                            bytes, total,
+                            transferInfo.direction, transferInfo.status, rate
+                        );
+                    });
+                },
+                () -> transferInfo.cancelled) {
+            @Override
+            public void onProgress(long bytesTransferred) {
+                // Kept current for cancellation and the loopback listing, reported on the interval
+                transferInfo.bytesTransferred = bytesTransferred;
+                super.onProgress(bytesTransferred);
+            }
+        };
+    }
+    
+    public void setProgressIntervalMs(long ms) {
+        if (ms < 0)
+            throw new IllegalArgumentException("progressIntervalMs must be >= 0");
+        this.progressIntervalMs = ms;
+    }
+    
+    // Records a finished incoming file and notifies JS according to the completion mode
+    private void completeIncomingTransfer(FileTransferInfo transferInfo, File outputFile) {
+        completedTransfers.put(transferInfo.transferId, outputFile);
+        
+        // Only inline the content when JS explicitly asked for Base64 completion
+        String fileBase64 = null;
+        if (COMPLETION_MODE_BASE64.equals(completionMode) && transferInfo.fileSize <= MAX_INLINE_COMPLETION_BYTES) {
+            try (FileInputStream fis = new FileInputStream(outputFile)) {
+                byte[] fileBytes = new byte[(int) transferInfo.fileSize];
+                int off = 0;
+                int n;
+                while (off < fileBytes.length && (n = fis.read(fileBytes, off, fileBytes.length - off)) != -1) {
+                    off += n;
+                }
+                fileBase64 = Base64.encodeToString(fileBytes, 0, off, Base64.NO_WRAP);
+            } catch (Exception e) {
+                // If reading fails, we'll still have the file path
+            }
+        }
+        
+        final String finalFileBase64 = fileBase64;
+        postEvent(() -> {
+            sink.onFileTransferCompleted(
+                transferInfo.peerId, transferInfo.transferId, transferInfo.fileName,
+                outputFile.getAbsolutePath(), finalFileBase64
+            );
+        });
+    }
+    
+    /**
+     * Reads up to {@code length} bytes of a completed incoming transfer starting at {@code offset}.
+     * Returns an empty array at end of file.
+     */
+    public byte[] readTransferChunk(String transferId, long offset, int length) throws IOException {
+        File file = completedTransfers.get(transferId);
+        if (file == null)
+            throw new IllegalArgumentException("Unknown transferId: " + transferId);
+        if (offset < 0 || length <= 0)
+            throw new IllegalArgumentException("offset must be >= 0 and length > 0");
+        
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (offset >= size)
+                return new byte[0];
+            ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(Math.min(length, MAX_TRANSFER_CHUNK), size - offset));
+            while (chunk.hasRemaining() && channel.read(chunk, offset + chunk.position()) > 0) {
+            }
+            return chunk.position() == chunk.capacity() ? chunk.array()
+                    : java.util.Arrays.copyOf(chunk.array(), chunk.position());
+        }
+    }
+    
+    public long getTransferSize(String transferId) {
+        File file = completedTransfers.get(transferId);
+        if (file == null)
+            throw new IllegalArgumentException("Unknown transferId: " + transferId);
+        return file.length();
+    }
+    
+    /** Forgets a completed transfer, optionally deleting the received file */
+    public void releaseTransfer(String transferId, boolean deleteFile) {
+        File file = completedTransfers.remove(transferId);
+        if (file != null && deleteFile) {
+            file.delete();
+        }
+    }
+    
+    // ===== Loopback HTTP endpoint =====
+    
+    /** Starts the endpoint if needed; the token changes with every start. */
+    public synchronized LoopbackServer startLoopbackServer() throws IOException {
+        if (loopbackServer == null) {
+            loopbackServer = new LoopbackServer(new LoopbackResources(), executorService);
+            loopbackServer.setMaxUploadBytes(httpMaxUploadBytes);
+        }
+        return loopbackServer;
+    }
+    
+    public synchronized void setHttpMaxUploadBytes(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("httpMaxUploadBytes must be >= 0");
+        httpMaxUploadBytes = bytes;
+        if (loopbackServer != null)
+            loopbackServer.setMaxUploadBytes(bytes);
+    }
+    
+    /** Stops the endpoint and deletes files uploaded through it. */
+    public synchronized void stopLoopbackServer() {
+        if (loopbackServer != null)
+            loopbackServer.close();
+        loopbackServer = null;
+        File[] uploads = new File(activity.getCacheDir(), UPLOAD_DIR).listFiles();
+        if (uploads != null) {
+            for (File f : uploads)
+                f.delete();
+        }
+    }
+    
+    private class LoopbackResources implements LoopbackServer.Resources {
+        @Override
+        public String listTransfers() {
+            StringBuilder json = new StringBuilder("[");
+            for (FileTransferInfo t : activeTransfers.values()) {
+                if (json.length() > 1)
+                    json.append(',');
+                json.append("{\"transferId\":").append(LoopbackServer.jsonString(t.transferId))
+                        .append(",\"peerId\":").append(LoopbackServer.jsonString(t.peerId))
+                        .append(",\"fileName\":").append(LoopbackServer.jsonString(t.fileName))
+                        .append(",\"totalBytes\":").append(t.fileSize)
+                        .append(",\"bytesTransferred\":").append(t.bytesTransferred)
+                        .append(",\"direction\":").append(LoopbackServer.jsonString(t.direction))
+                        .append(",\"status\":").append(LoopbackServer.jsonString(t.status))
+                        .append('}');
+            }
+            for (Map.Entry<String, File> e : completedTransfers.entrySet()) {
+                if (json.length() > 1)
+                    json.append(',');
+                json.append("{\"transferId\":").append(LoopbackServer.jsonString(e.getKey()))
+                        .append(",\"totalBytes\":").append(e.getValue().length())
+                        .append(",\"direction\":\"incoming\",\"status\":\"completed\"}");
+            }
+            return json.append(']').toString();
         }
         
-        // Close server socket
-        ServerSocket ss = serverSockets.remove(socketId);
-        if (ss != null) {
-            try {
-                ss.close();
-            } catch (Exception ignore) { }
+        @Override
+        public LoopbackServer.Download transfer(String transferId) throws FileNotFoundException {
+            File file = completedTransfers.get(transferId);
+            if (file != null) {
+                String extension = MimeTypeMap.getFileExtensionFromUrl(file.getName());
+                String mimeType = extension != null
+                        ? MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase()) : null;
+                return new LoopbackServer.Download(file, mimeType != null ? mimeType : "application/octet-stream");
+            }
+            FileTransferInfo info = activeTransfers.get(transferId);
+            if (info != null && "incoming".equals(info.direction) && !info.cancelled)
+                return null; // still arriving
+            throw new FileNotFoundException(transferId);
+        }
+        
+        @Override
+        public byte[] message(String handle, boolean release) {
+            return release ? payloadStore.take(handle) : payloadStore.get(handle);
+        }
+        
+        @Override
+        public File uploadTarget(String fileName) throws IOException {
+            File dir = new File(activity.getCacheDir(), UPLOAD_DIR);
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Cannot create " + dir);
+            return new File(dir, UUID.randomUUID() + "_" + fileName);
+        }
+        
+        @Override
+        public String send(File uploaded, Map<String, String> query) {
+            String peerId = query.get("peerId");
+            String socketId = query.get("socketId");
+            String fileName = query.get("fileName");
+            if (peerId == null || socketId == null)
+                throw new IllegalArgumentException("peerId and socketId query parameters required");
+            return sendFile(peerId, uploaded.getAbsolutePath(), null, fileName, query.get("mimeType"), socketId);
+        }
+    }
+    
+    public void setCompletionMode(String mode) {
+        if (!COMPLETION_MODE_PATH.equals(mode) && !COMPLETION_MODE_BASE64.equals(mode))
+            throw new IllegalArgumentException("completionMode must be 'path' or 'base64'");
+        this.completionMode = mode;
+    }
+    
+    public void stopSocket(String socketId) {
+        // Give back the data path; the pool keeps it for the idle timeout before releasing the NDP
+        DataPath path = socketPaths.remove(socketId);
+        if (path != null) {
+            synchronized (path) {
+                path.leases.removeIf(l -> l.socketId.equals(socketId));
+            }
+            dataPaths.release(path.key, path);
         }
         
         // Close client socket
         Socket cs = clientSockets.remove(socketId);
         if (cs != null) {
-            try {
-                cs.close();
-            } catch (Exception ignore) { }
+            closeConnection(cs);
         }
         
         // Close all peer sockets for this socket ID
         List<Socket> sockets = peerSockets.remove(socketId);
         if (sockets != null) {
             for (Socket s : sockets) {
-                try {
-                    s.close();
-                } catch (Exception ignore) { }
+                closeConnection(s);
+            }
+        }
+        
+        // Close stripe connections
+        List<PeerConnection> aux = auxConnections.remove(socketId);
+        if (aux != null) {
+            for (PeerConnection c : aux) {
+                closeConnection(c.socket);
             }
         }
+        socketEndpoints.remove(socketId);
         
         // Remove from multicast groups
         multicastGroups.remove(socketId);
         
         // Remove from active networks
         activeNetworks.remove(socketId);
+        
+        Metrics.Counter[] bytes = socketBytes.remove(socketId);
+        if (bytes != null) {
+            socketTotalBytes.record(bytes[0].sum() + bytes[1].sum());
+        }
+    }
+    
+    private void closeConnection(Socket s) {
+        PeerConnection conn = connections.remove(s);
+        if (conn != null) {
+            conn.close();
+            return;
+        }
+        try {
+            s.close();
+        } catch (Exception ignore) { }
+    }
+    
+    private void addAuxConnection(String socketId, PeerConnection conn) {
+        synchronized (auxConnections) {
+            auxConnections.computeIfAbsent(socketId, k -> new CopyOnWriteArrayList<>()).add(conn);
+            auxConnections.notifyAll();
+        }
+    }
+    
+    // Client side: opens an extra connection to the server socket for carrying stripes
+    private PeerConnection openAuxConnection(String socketId) throws IOException {
+        Network network = activeNetworks.get(socketId);
+        InetSocketAddress endpoint = socketEndpoints.get(socketId);
+        PeerConnection primary = connectionFor(socketId);
+        if (network == null || endpoint == null || primary == null) {
+            throw new IOException("No connected client socket for " + socketId);
+        }
+        
+        SocketChannel channel = SocketChannel.open();
+        network.bindSocket(channel.socket());
+        channel.connect(endpoint);
+        Socket s = channel.socket();
+        if (primary.channel() instanceof SocketEngine.Connection) {
+            // Stripes of an engine socket are served by the engine too
+            SocketEngine.Connection ec = socketEngine().attach(channel);
+            PeerConnection conn = new PeerConnection(socketId, primary.peerId, s, true, true, ec, socketBatching,
+                    socketWriters);
+            connections.put(s, conn);
+            addAuxConnection(socketId, conn);
+            conn.sendHello();
+            ec.start(0, new EngineSession(conn, null));
+            return conn;
+        }
+        PeerConnection conn = new PeerConnection(socketId, primary.peerId, s, true, true, socketBatching, socketWriters);
+        connections.put(s, conn);
+        addAuxConnection(socketId, conn);
+        conn.sendHello();
+        startReader(conn, null);
+        return conn;
+    }
+    
+    // Primary connection plus up to stripes-1 framed auxiliary connections, opening or requesting more as needed
+    private List<PeerConnection> stripeConnections(String socketId, PeerConnection primary, int stripes)
+            throws IOException {
+        List<PeerConnection> existing = auxConnections.get(socketId);
+        int missing = stripes - 1 - (existing != null ? existing.size() : 0);
+        if (missing > 0) {
+            if (primary.isInitiator()) {
+                for (int i = 0; i < missing; i++) {
+                    openAuxConnection(socketId);
+                }
+            } else {
+                // Server side: ask the client to connect more sockets and wait for them to arrive
+                ByteBuffer count = ByteBuffer.allocate(2).putShort((short) missing);
+                primary.mux().sendControl(FrameCodec.TYPE_STRIPE_REQUEST, (byte) 0,
+                        FrameCodec.CONTROL_STREAM, count.array());
+                long deadline = System.currentTimeMillis() + STRIPE_CONNECT_TIMEOUT_MS;
+                synchronized (auxConnections) {
+                    while (true) {
+                        List<PeerConnection> aux = auxConnections.get(socketId);
+                        long wait = deadline - System.currentTimeMillis();
+                        if ((aux != null && aux.size() >= stripes - 1) || wait <= 0) {
+                            break;
+                        }
+                        try {
+                            auxConnections.wait(wait);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        
+        List<PeerConnection> result = new ArrayList<>();
+        result.add(primary);
+        List<PeerConnection> aux = auxConnections.get(socketId);
+        if (aux != null) {
+            for (PeerConnection c : aux) {
+                if (result.size() >= stripes) {
+                    break;
+                }
+                if (c.awaitVersion(PeerConnection.NEGOTIATION_TIMEOUT_MS) >= FrameCodec.VERSION_FRAMED) {
+                    result.add(c);
+                }
+            }
+        }
+        return result;
+    }
+    
+    // Finds the connection behind a socket ID: the client socket, or the first accepted peer socket
+    private @Nullable PeerConnection connectionFor(String socketId) {
+        Socket socket = clientSockets.get(socketId);
+        if (socket == null) {
+            List<Socket> sockets = peerSockets.get(socketId);
+            if (sockets != null && !sockets.isEmpty()) {
+                // For now, just use the first socket (in a real app, map peers to sockets)
+                socket = sockets.get(0);
+            }
+        }
+        if (socket == null || socket.isClosed()) {
+            return null;
+        }
+        return connections.get(socket);
+    }
+    
+    // The primary connection to one peer of a socket, or null if that peer is not connected to it
+    private @Nullable PeerConnection peerConnection(String socketId, String peerId) {
+        for (PeerConnection c : connections.values()) {
+            if (c.socketId.equals(socketId) && c.peerId.equals(peerId) && !c.isAuxiliary()
+                    && !c.socket.isClosed()) {
+                return c;
+            }
+        }
+        return null;
+    }
+    
+    // Discovery id behind a socket peer id. Connections this side opened carry it already; accepted
+    // ones get a synthetic "peer-" id, but a server path is made for a single discovered peer.
+    private String discoveryPeerId(@Nullable String socketId, String peerId) {
+        if (socketId == null || !peerId.startsWith("peer-"))
+            return peerId;
+        DataPath path = socketPaths.get(socketId);
+        return path != null && path.server ? path.peerId : peerId;
+    }
+    
+    // Peers with a primary connection on the socket
+    private List<String> socketPeerIds(String socketId) {
+        List<String> ids = new ArrayList<>();
+        for (PeerConnection c : connections.values()) {
+            if (c.socketId.equals(socketId) && !c.isAuxiliary() && !c.socket.isClosed()) {
+                ids.add(c.peerId);
+            }
+        }
+        return ids;
     }
     
     // Method to send data through an established socket
     public void sendDataThroughSocket(String socketId, String peerId, byte[] data, int messageType) 
             throws IOException {
+        sendDataThroughSocket(socketId, peerId, data, messageType, false);
+    }
+    
+    /**
+     * @param flush skip the batching window and return once the data has been written
+     */
+    public void sendDataThroughSocket(String socketId, String peerId, byte[] data, int messageType, boolean flush)
+            throws IOException {
         
         Network network = activeNetworks.get(socketId);
         if (network == null) {
             throw new IOException("No active network for socket ID: " + socketId);
         }
         
-        // Get appropriate socket
-        Socket socket = null;
-        
-        if ("subscriber".equals(socketId)) {
-            // Client mode - use the client socket
-            socket = clientSockets.get(socketId);
-        } else {
-            // Server mode - find the peer socket
-            List<Socket> sockets = peerSockets.get(socketId);
-            if (sockets != null) {
-                // For now, just use the first socket (in a real app, map peers to sockets)
-                if (!sockets.isEmpty()) {
-                    socket = sockets.get(0);
-                }
+        PeerConnection conn = connectionFor(socketId);
+        if (conn == null) {
+            throw new IOException("No active socket connection");
+        }
+        sendThroughConnection(conn, data, messageType, flush);
+    }
+    
+    /**
+     * Sends one message to several peers of a socket concurrently, at most the fan-out
+     * concurrency at a time; every connection writes from the same payload array.
+     *
+     * @param targetPeerIds peers connected to the socket; null sends to every peer connected to it
+     * @return completes with one result per target once every send finished
+     */
+    public CompletableFuture<List<FanOut.Result>> sendDataToPeers(String socketId, @Nullable List<String> targetPeerIds,
+            byte[] data, boolean flush) throws IOException {
+        if (activeNetworks.get(socketId) == null) {
+            throw new IOException("No active network for socket ID: " + socketId);
+        }
+        List<String> targets = new ArrayList<>(new LinkedHashSet<>(
+                targetPeerIds != null ? targetPeerIds : socketPeerIds(socketId)));
+        return fanOut.run(targets, target -> {
+            PeerConnection conn = peerConnection(socketId, target);
+            if (conn == null) {
+                throw new IOException("No connection to peer on socket " + socketId);
             }
+            sendThroughConnection(conn, data, 1, flush);
+            return null;
+        });
+    }
+    
+    private void countSocketBytes(String socketId, boolean sent, long n) {
+        (sent ? socketBytesSent : socketBytesReceived).add(n);
+        socketBytes.computeIfAbsent(socketId, id -> new Metrics.Counter[] { new Metrics.Counter(), new Metrics.Counter() })
+                [sent ? 0 : 1].add(n);
+    }
+    
+    private void recordTransferEnd(FileTransferInfo info) {
+        if ("completed".equals(info.status)) {
+            transfersCompleted.inc();
+            long elapsed = System.nanoTime() - info.startedNanos;
+            if (elapsed > 0 && info.fileSize > 0)
+                transferRate.record((long) (info.fileSize * 1e9 / elapsed));
+        } else if ("failed".equals(info.status)) {
+            transfersFailed.inc();
         }
-        
-        if (socket == null || socket.isClosed()) {
-            throw new IOException("No active socket connection");
+    }
+    
+    private void sendThroughConnection(PeerConnection conn, byte[] data, int messageType, boolean flush)
+            throws IOException {
+        countSocketBytes(conn.socketId, true, data.length);
+        if (conn.awaitVersion(PeerConnection.NEGOTIATION_TIMEOUT_MS) >= FrameCodec.VERSION_FRAMED) {
+            // Framed connection - files go through sendFile streams, messages are queued ahead of file data
+            if (messageType != 1) {
+                throw new IOException("Raw file headers are not supported on framed connections");
+            }
+            conn.mux().sendMessage(data, flush);
+            return;
         }
         
-        // Send the data with message type header
-        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-        out.writeInt(messageType);  // 1=Message, 2=File
-        
+        // Send the data with message type header; header and payload leave in one gathering write
+        ByteBuffer header;
         if (messageType == 1) {
             // Regular message
-            out.writeInt(data.length);
-            out.write(data);
+            header = ByteBuffer.allocate(8).putInt(messageType).putInt(data.length);
         } else if (messageType == 2) {
             // File transfer - data should already be formatted correctly
-            out.write(data);
+            header = ByteBuffer.allocate(4).putInt(messageType);
+        } else {
+            throw new IOException("Unknown message type " + messageType);
         }
-        out.flush();
+        header.flip();
+        conn.legacyWriter().write(flush, header, ByteBuffer.wrap(data));
     }
     
     public String sendFile(String peerId, String filePath, String fileBase64, String fileName, 
                          String mimeType, String socketId) {
-        String transferId = UUID.randomUUID().toString();
+        return sendFile(peerId, filePath, fileBase64, fileName, mimeType, socketId, SEND_MODE_STREAM);
+    }
+    
+    /**
+     * @param sendMode {@link #SEND_MODE_STREAM} copies through a heap buffer,
+     *                 {@link #SEND_MODE_NIO} streams the file channel straight to the socket with transferTo
+     */
+    public String sendFile(String peerId, String filePath, String fileBase64, String fileName, 
+                         String mimeType, String socketId, String sendMode) {
+        return sendFile(peerId, filePath, fileBase64, fileName, mimeType, socketId,
+                new WifiAwarePlugin.SendFileOptions(sendMode, 1, false, ChunkCodecs.NONE, false));
+    }
+    
+    /**
+     * Options beyond the send mode only apply to framed (v2) connections:
+     * {@code stripes} spreads a file source over parallel connections, one contiguous range each;
+     * {@code resumable} journals the send so that sending the same, unchanged filePath to the same
+     * peer again after a failure reuses its transferId and continues from the offset the receiver
+     * verified (unstriped only);
+     * {@code compression} names a {@link ChunkCodec} applied to the chunks that compress well;
+     * {@code dedup} sends a chunk manifest first and then only the chunks the receiver lacks (unstriped).
+     */
+    public String sendFile(String peerId, String filePath, String fileBase64, String fileName, 
+                         String mimeType, String socketId, WifiAwarePlugin.SendFileOptions opts) {
+        // Socket peer ids of accepted connections change on every connection; the discovery peer does not
+        String resumeId = opts.resumable && filePath != null
+                ? resumableTransferId(discoveryPeerId(socketId, peerId), filePath) : null;
+        String transferId = resumeId != null ? resumeId : UUID.randomUUID().toString();
         
-        executorService.submit(() -> {
-            try {
-                // Determine file size and prepare data
-                long fileSize;
-                InputStream fileData;
-                
+        executorService.submit(() -> transferFile(transferId, peerId, null, filePath, null, fileBase64,
+                fileName, mimeType, socketId, opts));
+        return transferId;
+    }
+    
+    /**
+     * Sends one file to several peers of a socket at once, at most the fan-out concurrency at a time.
+     * Base64 content is decoded once and shared by every transfer. Striping and resuming are
+     * per connection, so each target gets a single unstriped stream.
+     *
+     * @param targetPeerIds peers connected to the socket; null sends to every peer connected to it
+     * @return completes once every transfer has finished, with one result per target carrying its
+     *         transferId and, if it did not complete, why. Meanwhile each transfer reports through the
+     *         usual progress events, under the target's socket peer id. The L2 file request goes to the
+     *         discovery peer behind that id (see {@link #transferFile})
+     */
+    public CompletableFuture<List<FanOut.Result>> sendFileToPeers(@Nullable List<String> targetPeerIds, String filePath,
+            String fileBase64, String fileName, String mimeType, String socketId,
+            WifiAwarePlugin.SendFileOptions opts) {
+        if (socketId == null)
+            throw new IllegalArgumentException("socketId is required to send a file to several peers");
+        if (opts.resumable)
+            throw new IllegalArgumentException("resumable is not supported with several targets");
+        WifiAwarePlugin.SendFileOptions single = new WifiAwarePlugin.SendFileOptions(
+                opts.sendMode, 1, false, opts.compression, opts.dedup);
+        byte[] fileBytes = fileBase64 != null ? Base64.decode(fileBase64, Base64.DEFAULT) : null;
+        
+        List<String> requested = new ArrayList<>(
+                new LinkedHashSet<>(targetPeerIds != null ? targetPeerIds : socketPeerIds(socketId)));
+        List<String> targets = new ArrayList<>();
+        Map<String, String> transferIds = new HashMap<>();
+        for (String target : requested) {
+            if (peerConnection(socketId, target) != null) {
+                transferIds.put(target, UUID.randomUUID().toString());
+                targets.add(target);
+            }
+        }
+        Set<String> started = ConcurrentHashMap.newKeySet();
+        return fanOut.run(targets, target -> {
+            started.add(target);
+            String error = transferFile(transferIds.get(target), target, target, filePath, fileBytes,
+                    null, fileName, mimeType, socketId, single);
+            if (error != null)
+                throw new IOException(error);
+            return transferIds.get(target);
+        }).thenApply(sent -> {
+            Map<String, FanOut.Result> outcomes = new HashMap<>();
+            for (FanOut.Result r : sent) {
+                String transferId = transferIds.get(r.target);
+                outcomes.put(r.target, new FanOut.Result(r.target, transferId, r.error));
+                if (r.ok() || started.contains(r.target))
+                    continue;
+                // transferFile reports its own failures; this target never got to run it
+                transfersFailed.inc();
+                postEvent(() -> {
+                    sink.onFileTransferProgress(r.target, transferId, fileName, 0, 0, "outgoing", "failed");
+                });
+            }
+            List<FanOut.Result> results = new ArrayList<>();
+            for (String target : requested) {
+                FanOut.Result r = outcomes.get(target);
+                results.add(r != null ? r
+                        : new FanOut.Result(target, null, "No connection to peer on socket " + socketId));
+            }
+            return results;
+        });
+    }
+    
+    // Runs one outgoing transfer on the calling thread; failures are reported as progress events.
+    // Returns null once the file was sent, otherwise why it was not
+    @Nullable
+    private String transferFile(String transferId, String peerId, @Nullable String targetPeerId, String filePath,
+            @Nullable byte[] fileBytes, @Nullable String fileBase64, String fileName, String mimeType,
+            String socketId, WifiAwarePlugin.SendFileOptions opts) {
+        String sendMode = opts.sendMode;
+        int stripes = opts.stripes;
+        boolean resumable = opts.resumable;
+        ChunkCodec codec = ChunkCodecs.forName(opts.compression);
+        TransferJournal journal = null;
+        String error = null;
+        try {
+            // Determine file size and prepare data
+            long fileSize;
+            InputStream fileData;
+            
+            if (filePath != null && filePath.startsWith("content://")) {
+                // Content URI - read through its file descriptor so the NIO path can still use a channel
+                ParcelFileDescriptor pfd = activity.getContentResolver()
+                        .openFileDescriptor(Uri.parse(filePath), "r");
+                if (pfd == null) {
+                    throw new IOException("Cannot open " + filePath);
+                }
+                fileSize = pfd.getStatSize();
+                fileData = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+            } else if (filePath != null) {
+                // Read from file path
+                File file = new File(filePath);
+                fileSize = file.length();
+                fileData = new FileInputStream(file);
+            } else if (fileBytes != null || fileBase64 != null) {
+                // Convert base64 to byte array, unless the caller already did for all targets
+                byte[] bytes = fileBytes != null ? fileBytes : Base64.decode(fileBase64, Base64.DEFAULT);
+                fileSize = bytes.length;
+                fileData = new ByteArrayInputStream(bytes);
+            } else {
+                throw new IllegalArgumentException("Either filePath or fileBase64 must be provided");
+            }
+            
+            // Determine MIME type if not provided
+            String actualMimeType = mimeType;
+            if (actualMimeType == null || actualMimeType.isEmpty()) {
                 if (filePath != null) {
-                    // Read from file path
-                    File file = new File(filePath);
-                    fileSize = file.length();
-                    fileData = new FileInputStream(file);
-                } else if (fileBase64 != null) {
-                    // Convert base64 to byte array
-                    byte[] fileBytes = Base64.decode(fileBase64, Base64.DEFAULT);
-                    fileSize = fileBytes.length;
-                    fileData = new ByteArrayInputStream(fileBytes);
-                } else {
-                    throw new IllegalArgumentException("Either filePath or fileBase64 must be provided");
+                    String extension = MimeTypeMap.getFileExtensionFromUrl(filePath);
+                    if (extension != null) {
+                        actualMimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase());
+                    }
                 }
                 
-                // Determine MIME type if not provided
-                String actualMimeType = mimeType;
+                // Default MIME type if still not determined
                 if (actualMimeType == null || actualMimeType.isEmpty()) {
-                    if (filePath != null) {
-                        String extension = MimeTypeMap.getFileExtensionFromUrl(filePath);
-                        if (extension != null) {
-                            actualMimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase());
-                        }
-                    }
-                    
-                    // Default MIME type if still not determined
-                    if (actualMimeType == null || actualMimeType.isEmpty()) {
-                        actualMimeType = "application/octet-stream";
-                    }
+                    actualMimeType = "application/octet-stream";
                 }
-                
-                // Create file transfer info object
-                FileTransferInfo transferInfo = new FileTransferInfo(
-                    transferId, peerId, fileName, actualMimeType, fileSize,
-                    filePath, fileBase64, "outgoing"
-                );
-                
-                activeTransfers.put(transferId, transferInfo);
-                
-                // First, send a small L2 message to notify the peer about the upcoming file transfer
-                // Use special message format for file transfer requests
-                ByteBuffer headerBuffer = ByteBuffer.allocate(2 + 36 + 4 + fileName.length() + 4 + 
-                                                            actualMimeType.length() + 8);
-                headerBuffer.put((byte) 0x01); // Protocol message marker
-                headerBuffer.put((byte) 0x01); // File transfer request
-                headerBuffer.put(transferId.getBytes()); // 36 bytes for UUID
-                
-                // File name
-                headerBuffer.putInt(fileName.length());
-                headerBuffer.put(fileName.getBytes());
-                
-                // MIME type
-                headerBuffer.putInt(actualMimeType.length());
-                if (!actualMimeType.isEmpty()) {
-                    headerBuffer.put(actualMimeType.getBytes());
+            }
+            
+            // Create file transfer info object
+            FileTransferInfo transferInfo = new FileTransferInfo(
+                transferId, peerId, fileName, actualMimeType, fileSize,
+                filePath, fileBase64, "outgoing"
+            );
+            
+            activeTransfers.put(transferId, transferInfo);
+            
+            if (resumable && filePath != null) {
+                String targetId = discoveryPeerId(socketId, peerId);
+                long modified = filePath.startsWith("content://") ? 0 : new File(filePath).lastModified();
+                journal = new TransferJournal(journalDir(), outgoingJournalKey(targetId, filePath),
+                        transferId, targetId, fileName, fileSize, filePath, modified);
+                saveJournal(journal);
+            }
+            
+            // First, send a small L2 message to notify the peer about the upcoming file transfer
+            byte[] request = L2Protocol.encodeFileRequest(
+                    new L2Protocol.FileRequest(transferId, fileName, actualMimeType, fileSize));
+            
+            // Send notification using L2 message
+            L2MessageQueue<android.net.wifi.aware.PeerHandle> queue = l2Queue();
+            if (queue != null) {
+                String noticePeerId = discoveryPeerId(socketId, peerId);
+                android.net.wifi.aware.PeerHandle handle = peers.get(noticePeerId);
+                if (handle != null) {
+                    queueL2(queue, handle, noticePeerId, request, false);
                 }
-                
-                // File size
-                headerBuffer.putLong(fileSize);
-                
-                // Send notification using L2 message
-                DiscoverySession sess = (pubSession != null) ? pubSession : subSession;
-                if (sess != null) {
-                    android.net.wifi.aware.PeerHandle handle = peers.get(peerId);
-                    if (handle != null) {
-                        sess.sendMessage(handle, 0, headerBuffer.array());
-                    }
+            }
+            
+            // If we have an active socket connection, use it for the actual transfer
+            if (socketId != null) {
+                PeerConnection conn = targetPeerId != null
+                        ? peerConnection(socketId, targetPeerId) : connectionFor(socketId);
+                if (conn == null) {
+                    throw new IOException("No active socket connection");
                 }
                 
-                // If we have an active socket connection, use it for the actual transfer
-                if (socketId != null) {
-                    // Prepare file transfer header for socket
-                    ByteBuffer fileHeader = ByteBuffer.allocate(4 + fileName.length() + 4 + 
-                                                              actualMimeType.length() + 8);
-                    // File name
-                    fileHeader.putInt(fileName.length());
-                    fileHeader.put(fileName.getBytes());
-                    
-                    // MIME type
-                    fileHeader.putInt(actualMimeType.length());
-                    if (!actualMimeType.isEmpty()) {
-                        fileHeader.put(actualMimeType.getBytes());
-                    }
-                    
-                    // File size
-                    fileHeader.putLong(fileSize);
-                    
-                    // Send file transfer header
-                    sendDataThroughSocket(socketId, peerId, fileHeader.array(), 2);
-                    
-                    // Send file data with progress updates
-                    try (BufferedInputStream bis = new BufferedInputStream(fileData)) {
-                        byte[] buffer = new byte[BUFFER_SIZE];
-                        int bytesRead;
-                        long totalBytesRead = 0;
-                        int lastProgressPercent = 0;
-                        
-                        // Get output stream from socket
-                        Network network = activeNetworks.get(socketId);
-                        Socket socket = clientSockets.get(socketId);
-                        
-                        if (socket == null || socket.isClosed()) {
-                            // Try to find the right peer socket
-                            List<Socket> sockets = peerSockets.get(socketId);
-                            if (sockets != null && !sockets.isEmpty()) {
-                                socket = sockets.get(0); // Assuming first socket for now
-                            }
-                        }
-                        
-                        if (socket != null && !socket.isClosed()) {
-                            DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-                            
-                            while ((bytesRead = bis.read(buffer)) != -1 && !transferInfo.cancelled) {
-                                // Write chunk to socket
-                                dos.write(buffer, 0, bytesRead);
-                                
-                                // Update progress
-                                totalBytesRead += bytesRead;
-                                transferInfo.bytesTransferred = totalBytesRead;
-                                
-                                // Calculate progress percentage
-                                int progressPercent = (int) ((totalBytesRead * 100) / fileSize);
-                                
-                                // Report progress every 5%
-                                if (progressPercent - lastProgressPercent >= 5) {
-                                    lastProgressPercent = progressPercent;
-                                    
-                                    final long finalBytesRead = totalBytesRead;
-                                    mainHandler.post(() -> {
-                                        sink.onFileTransferProgress(
-                                            peerId, transferId, fileName,
-                                            finalBytesRead, fileSize, 
-                                            "outgoing", transferInfo.status
-                                        );
-                                    });
-                                }
-                            }
-                            
-                            dos.flush();
-                            
-                            // Complete the transfer
-                            if (!transferInfo.cancelled) {
-                                transferInfo.status = "completed";
-                                mainHandler.post(() -> {
-                                    sink.onFileTransferProgress(
-                                        peerId, transferId, fileName,
-                                        fileSize, fileSize, 
-                                        "outgoing", "completed"
-                                    );
-                                });
-                            }
-                        }
+                // Send file data with progress updates
+                ChannelTransfer.ProgressListener progress = newProgressListener(transferInfo);
+                try (InputStream source = fileData) {
+                    boolean framed = conn.awaitVersion(PeerConnection.NEGOTIATION_TIMEOUT_MS)
+                            >= FrameCodec.VERSION_FRAMED;
+                    if (framed && stripes > 1 && source instanceof FileInputStream) {
+                        sendFileStriped(socketId, conn, transferInfo,
+                                ((FileInputStream) source).getChannel(), stripes, codec, progress);
+                    } else if (framed && opts.dedup && source instanceof FileInputStream) {
+                        sendFileDedup(conn, transferInfo, ((FileInputStream) source).getChannel(), codec, progress);
+                    } else if (framed) {
+                        sendFileFramed(conn, transferInfo, source, journal != null, codec, progress);
+                    } else {
+                        sendFileLegacy(conn, transferInfo, source, sendMode, progress);
                     }
-                } else {
-                    // No socket available - notify that user needs to establish a socket
-                    transferInfo.status = "failed";
-                    mainHandler.post(() -> {
-                        sink.onFileTransferProgress(
-                            peerId, transferId, fileName,
-                            0, fileSize, 
-                            "outgoing", "failed"
-                        );
-                    });
                 }
                 
-            } catch (Exception e) {
-                FileTransferInfo info = activeTransfers.get(transferId);
-                if (info != null) {
-                    info.status = "failed";
-                    mainHandler.post(() -> {
+                // Complete the transfer
+                if (journal != null) {
+                    journal.delete();
+                }
+                if (!transferInfo.cancelled) {
+                    transferInfo.status = "completed";
+                    countSocketBytes(socketId, true, fileSize - transferInfo.bytesReused);
+                    postEvent(() -> {
                         sink.onFileTransferProgress(
                             peerId, transferId, fileName,
-                            info.bytesTransferred, info.fileSize, 
-                            "outgoing", "failed"
+                            fileSize, fileSize, 
+                            "outgoing", "completed"
                         );
                     });
+                } else {
+                    error = "Transfer cancelled";
                 }
-            } finally {
-                // Remove from active transfers when done
-                activeTransfers.remove(transferId);
+            } else {
+                // No socket available - notify that user needs to establish a socket
+                error = "No socket connection to peer";
+                transferInfo.status = "failed";
+                postEvent(() -> {
+                    sink.onFileTransferProgress(
+                        peerId, transferId, fileName,
+                        0, fileSize, 
+                        "outgoing", "failed"
+                    );
+                });
             }
-        });
+            
+        } catch (Exception e) {
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            FileTransferInfo info = activeTransfers.get(transferId);
+            if (info != null) {
+                info.status = "failed";
+                postEvent(() -> {
+                    sink.onFileTransferProgress(
+                        peerId, transferId, fileName,
+                        info.bytesTransferred, info.fileSize, 
+                        "outgoing", "failed"
+                    );
+                });
+            }
+        } finally {
+            // Remove from active transfers when done
+            FileTransferInfo info = activeTransfers.remove(transferId);
+            if (info != null) {
+                recordTransferEnd(info);
+            }
+        }
+        return error;
+    }
+    
+    // v2: the file becomes one stream on the multiplexer, interleaved with messages and other files
+    private void sendFileFramed(PeerConnection conn, FileTransferInfo transferInfo, InputStream source,
+                                boolean resumable, @Nullable ChunkCodec codec,
+                                ChannelTransfer.ProgressListener progress) throws IOException {
+        ReadableByteChannel channel = source instanceof FileInputStream
+                ? ((FileInputStream) source).getChannel()
+                : Channels.newChannel(source);
+        FileStreamSource stream = new FileStreamSource(
+                new FrameCodec.FileOpen(transferInfo.transferId, transferInfo.fileName,
+                        transferInfo.mimeType, transferInfo.fileSize, 0, transferInfo.fileSize, 1,
+                        resumable ? instanceId() : null),
+                channel, progress, resumable, newCompressor(codec));
+        if (resumable) {
+            conn.openAwaitingReply(stream, stream.completion());
+        } else {
+            conn.mux().open(stream);
+        }
+        try {
+            stream.completion().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending", e);
+        } catch (ExecutionException e) {
+            if (!transferInfo.cancelled) {
+                throw new IOException("File stream failed", e.getCause());
+            }
+        }
+    }
+    
+    // v2 dedup: manifest first, then only the chunks missing from the receiver's chunk store
+    private void sendFileDedup(PeerConnection conn, FileTransferInfo transferInfo, FileChannel channel,
+                               @Nullable ChunkCodec codec, ChannelTransfer.ProgressListener progress)
+            throws IOException {
+        ContentChunker.Manifest manifest = ContentChunker.scan(channel, transferInfo.fileSize);
+        DedupFileSource stream = new DedupFileSource(
+                new FrameCodec.FileOpen(transferInfo.transferId, transferInfo.fileName,
+                        transferInfo.mimeType, transferInfo.fileSize),
+                channel, manifest, progress, newCompressor(codec));
+        conn.openAwaitingReply(stream, stream.completion());
+        try {
+            long sent = stream.completion().get();
+            transferInfo.bytesReused = transferInfo.fileSize - sent;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending", e);
+        } catch (ExecutionException e) {
+            if (!transferInfo.cancelled) {
+                throw new IOException("File stream failed", e.getCause());
+            }
+        }
+    }
+    
+    // v2 striped: one contiguous range per connection, written positionally by the receiver
+    private void sendFileStriped(String socketId, PeerConnection primary, FileTransferInfo transferInfo,
+                                 FileChannel channel, int stripes, @Nullable ChunkCodec codec,
+                                 ChannelTransfer.ProgressListener progress) throws IOException {
+        List<PeerConnection> conns = stripeConnections(socketId, primary, Math.min(stripes, MAX_STRIPES));
+        int count = conns.size();
+        long fileSize = transferInfo.fileSize;
+        long stripeSize = (fileSize + count - 1) / count;
+        AtomicLong totalSent = new AtomicLong();
         
-        return transferId;
+        List<FileStreamSource> streams = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long offset = Math.min(i * stripeSize, fileSize);
+            long length = Math.min(stripeSize, fileSize - offset);
+            FileStreamSource stream = new FileStreamSource(
+                    new FrameCodec.FileOpen(transferInfo.transferId, transferInfo.fileName,
+                            transferInfo.mimeType, fileSize, offset, length, count),
+                    channel,
+                    new ChannelTransfer.ProgressListener() {
+                        long last;
+                        
+                        @Override
+                        public void onProgress(long stripeBytes) {
+                            // Report the sum over all stripes
+                            progress.onProgress(totalSent.addAndGet(stripeBytes - last));
+                            last = stripeBytes;
+                        }
+                        
+                        @Override
+                        public boolean isCancelled() {
+                            return progress.isCancelled();
+                        }
+                    },
+                    false, newCompressor(codec));
+            conns.get(i).mux().open(stream);
+            streams.add(stream);
+        }
+        
+        IOException failure = null;
+        for (FileStreamSource stream : streams) {
+            try {
+                stream.completion().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sending", e);
+            } catch (ExecutionException e) {
+                if (!transferInfo.cancelled && failure == null) {
+                    failure = new IOException("File stripe failed", e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    @Nullable
+    private ChunkCompressor newCompressor(@Nullable ChunkCodec codec) {
+        return codec != null ? new ChunkCompressor(codec, compressionStats) : null;
+    }
+    
+    // v1: header then raw bytes; the file occupies the socket until it is done
+    private void sendFileLegacy(PeerConnection conn, FileTransferInfo transferInfo, InputStream source,
+                                String sendMode, ChannelTransfer.ProgressListener progress) throws IOException {
+        byte[] fileName = transferInfo.fileName.getBytes();
+        byte[] mimeType = transferInfo.mimeType.getBytes();
+        
+        // Prepare file transfer header for socket
+        ByteBuffer fileHeader = ByteBuffer.allocate(4 + 4 + fileName.length + 4 + mimeType.length + 8);
+        fileHeader.putInt(2); // File transfer
+        
+        // File name
+        fileHeader.putInt(fileName.length);
+        fileHeader.put(fileName);
+        
+        // MIME type
+        fileHeader.putInt(mimeType.length);
+        fileHeader.put(mimeType);
+        
+        // File size
+        fileHeader.putLong(transferInfo.fileSize);
+        
+        // Queued messages go first; the file then holds the connection until it is done
+        conn.legacyWriter().flush();
+        synchronized (conn) {
+            OutputStream out = conn.legacyOutput();
+            out.write(fileHeader.array());
+            
+            if (SEND_MODE_NIO.equals(sendMode) && source instanceof FileInputStream) {
+                // Zero-copy: file channel -> socket channel, no heap buffer in between
+                FileChannel fileChannel = ((FileInputStream) source).getChannel();
+                ChannelTransfer.transfer(fileChannel, 0, transferInfo.fileSize, conn.channel(), progress);
+            } else {
+                ChannelTransfer.copy(source, out, new byte[BUFFER_SIZE], progress);
+                out.flush();
+            }
+        }
     }
     
     public void cancelFileTransfer(String transferId) {
@@ -1409,17 +3532,11 @@ public class WifiAwareShim {
             
             // Send cancel message if we're still in discovery
             try {
-                DiscoverySession sess = (pubSession != null) ? pubSession : subSession;
-                if (sess != null) {
+                L2MessageQueue<android.net.wifi.aware.PeerHandle> queue = l2Queue();
+                if (queue != null) {
                     android.net.wifi.aware.PeerHandle handle = peers.get(info.peerId);
                     if (handle != null) {
-                        // Create cancel message: 0x01 0x03 <transferId>
-                        byte[] message = new byte[2 + transferId.length()];
-                        message[0] = 0x01; // Protocol message marker
-                        message[1] = 0x03; // Cancel transfer
-                        System.arraycopy(transferId.getBytes(), 0, message, 2, transferId.length());
-                        
-                        sess.sendMessage(handle, 0, message);
+                        queueL2(queue, handle, info.peerId, L2Protocol.encodeCancel(transferId), false);
                     }
                 }
             } catch (Exception e) {
@@ -1436,7 +3553,7 @@ public class WifiAwareShim {
             }
             
             // Notify cancellation
-            mainHandler.post(() -> {
+            postEvent(() -> {
                 sink.onFileTransferProgress(
                     info.peerId, info.transferId, info.fileName,
                     info.bytesTransferred, info.fileSize, 
@@ -1446,18 +3563,25 @@ public class WifiAwareShim {
         }
     }
 
+    /** Tells the sender of a file transfer request that it was declined, which cancels its send. */
+    public void declineFileTransfer(String peerId, String transferId) {
+        L2MessageQueue<android.net.wifi.aware.PeerHandle> queue = l2Queue();
+        android.net.wifi.aware.PeerHandle handle = peers.get(peerId);
+        if (queue == null || handle == null)
+            throw new IllegalArgumentException("Unknown peerId: " + peerId);
+        queueL2(queue, handle, peerId, L2Protocol.encodeCancel(transferId), false);
+    }
+
     // ===== Utils =====
 
     private String idFor(android.net.wifi.aware.PeerHandle handle) {
-        // If we already assigned an ID to an equivalent handle, return it
-        for (java.util.Map.Entry<String, android.net.wifi.aware.PeerHandle> e : peers.entrySet()) {
-            if (e.getValue() != null && e.getValue().equals(handle)) {
-                return e.getKey();
-            }
-        }
-        // Otherwise create one and remember it
-        String id = java.util.UUID.randomUUID().toString();
-        peers.put(id, handle);
-        return id;
+        // Reuses the ID of an equivalent handle, or mints and remembers a new one
+        return peers.idFor(handle);
+    }
+    
+    // Lost, expired or pushed out by capacity: state kept per peer goes with it
+    private void peerEvicted(String peerId) {
+        peerDeviceInfo.remove(peerId);
+        discoveries.remove(peerId);
     }
 }
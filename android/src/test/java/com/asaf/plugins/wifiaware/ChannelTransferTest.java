@@ -0,0 +1,145 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChannelTransferTest {
+
+    private static final int SIZE = 3 * ChannelTransfer.TRANSFER_CHUNK + 12345;
+
+    private ExecutorService executor;
+    private ServerSocket server;
+    private File file;
+    private byte[] content;
+
+    private static class Progress implements ChannelTransfer.ProgressListener {
+        final List<Long> reports = new ArrayList<>();
+        long cancelAfter = Long.MAX_VALUE;
+
+        @Override
+        public void onProgress(long bytesTransferred) {
+            reports.add(bytesTransferred);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return !reports.isEmpty() && reports.get(reports.size() - 1) >= cancelAfter;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        file = Files.createTempFile("transfer", ".bin").toFile();
+        content = new byte[SIZE];
+        new Random(3).nextBytes(content);
+        Files.write(file.toPath(), content);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        executor.shutdownNow();
+        file.delete();
+    }
+
+    // Reads one connection to EOF
+    private Future<byte[]> receive() {
+        return executor.submit(() -> {
+            try (Socket s = server.accept(); InputStream in = s.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) > 0)
+                    out.write(buf, 0, n);
+                return out.toByteArray();
+            }
+        });
+    }
+
+    private static void assertAscendingTo(long last, List<Long> reports) {
+        assertFalse(reports.isEmpty());
+        for (int i = 1; i < reports.size(); i++)
+            assertTrue(reports.get(i) > reports.get(i - 1));
+        assertEquals(last, (long) reports.get(reports.size() - 1));
+    }
+
+    @Test
+    public void streamCopySendsWholeFile() throws Exception {
+        Future<byte[]> received = receive();
+        Progress progress = new Progress();
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+                InputStream in = new FileInputStream(file)) {
+            assertEquals(SIZE, ChannelTransfer.copy(in, s.getOutputStream(), new byte[8192], progress));
+        }
+        assertArrayEquals(content, received.get(10, TimeUnit.SECONDS));
+        assertAscendingTo(SIZE, progress.reports);
+    }
+
+    @Test
+    public void transferToSendsRangeWithSameProgress() throws Exception {
+        Future<byte[]> received = receive();
+        Progress progress = new Progress();
+        long offset = 1000;
+        long count = SIZE - 2000;
+        try (SocketChannel c = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                server.getLocalPort()));
+                FileChannel src = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            assertEquals(count, ChannelTransfer.transfer(src, offset, count, c, progress));
+        }
+        assertArrayEquals(Arrays.copyOfRange(content, (int) offset, (int) (offset + count)),
+                received.get(10, TimeUnit.SECONDS));
+        assertAscendingTo(count, progress.reports);
+        // At most one report per transferTo chunk
+        assertTrue(progress.reports.size() <= count / ChannelTransfer.TRANSFER_CHUNK + 1);
+    }
+
+    @Test
+    public void transferToStopsWhenCancelledAndAtEndOfFile() throws Exception {
+        Future<byte[]> received = receive();
+        Progress progress = new Progress();
+        progress.cancelAfter = 1;
+        long sent;
+        try (SocketChannel c = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                server.getLocalPort()));
+                FileChannel src = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            sent = ChannelTransfer.transfer(src, 0, SIZE, c, progress);
+        }
+        assertTrue(sent > 0 && sent < SIZE);
+        assertEquals(sent, received.get(10, TimeUnit.SECONDS).length);
+
+        // Asking for more than the file holds ends at its size
+        received = receive();
+        try (SocketChannel c = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                server.getLocalPort()));
+                FileChannel src = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            assertEquals(SIZE - 10, ChannelTransfer.transfer(src, 10, SIZE, c, null));
+        }
+        assertEquals(SIZE - 10, received.get(10, TimeUnit.SECONDS).length);
+    }
+}
@@ -0,0 +1,143 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ChunkCompressorTest {
+
+    private static final int CHUNK = FrameCodec.MAX_PAYLOAD - FrameCodec.COMPRESSED_HEADER_SIZE;
+
+    private final ChunkCompressor.Stats stats = new ChunkCompressor.Stats();
+    private final ByteBuffer payload = ByteBuffer.allocate(FrameCodec.MAX_PAYLOAD);
+
+    private static byte[] text(int len) {
+        byte[] b = new byte[len];
+        byte[] line = "2026-10-16 12:00:00 INFO transfer progressing normally\n".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < len; i++)
+            b[i] = line[i % line.length];
+        return b;
+    }
+
+    private static byte[] random(int len, long seed) {
+        byte[] b = new byte[len];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    // Expands a payload the way the receiver does
+    private static byte[] inflate(ByteBuffer payload) throws Exception {
+        byte[] packed = new byte[payload.remaining()];
+        payload.get(packed);
+        ChunkCodec codec = ChunkCodecs.get(packed[0] & 0xFF);
+        int rawLength = ByteBuffer.wrap(packed, 1, 4).getInt();
+        byte[] raw = new byte[rawLength];
+        codec.decompress(packed, FrameCodec.COMPRESSED_HEADER_SIZE,
+                packed.length - FrameCodec.COMPRESSED_HEADER_SIZE, raw, rawLength);
+        return raw;
+    }
+
+    // Counts how often the compressor actually runs the codec
+    private static class CountingCodec implements ChunkCodec {
+        int calls;
+
+        @Override
+        public int id() {
+            return ChunkCodecs.DEFLATE.id();
+        }
+
+        @Override
+        public String name() {
+            return "counting";
+        }
+
+        @Override
+        public int compress(byte[] src, int off, int len, byte[] dst) {
+            calls++;
+            return ChunkCodecs.DEFLATE.compress(src, off, len, dst);
+        }
+
+        @Override
+        public void decompress(byte[] src, int off, int len, byte[] dst, int rawLength) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Test
+    public void compressibleChunkRoundTrips() throws Exception {
+        ChunkCompressor c = new ChunkCompressor(ChunkCodecs.DEFLATE, stats);
+        byte[] raw = text(CHUNK);
+        ByteBuffer encoded = c.encode(raw, raw.length, payload);
+        assertNotNull(encoded);
+        assertEquals(ChunkCodecs.DEFLATE.id(), encoded.get(0));
+        assertTrue(encoded.remaining() < raw.length / 2);
+        int wire = encoded.remaining();
+        assertArrayEquals(raw, inflate(encoded));
+
+        Map<String, Object> m = stats.toMap();
+        assertEquals(1L, m.get("chunksCompressed"));
+        assertEquals((long) raw.length, m.get("sentInputBytes"));
+        assertEquals((long) wire, m.get("sentWireBytes"));
+    }
+
+    @Test
+    public void incompressibleChunkIsSentRaw() {
+        ChunkCompressor c = new ChunkCompressor(ChunkCodecs.DEFLATE, stats);
+        assertNull(c.encode(random(CHUNK, 1), CHUNK, payload));
+        // Small chunks skip the sample and are judged on the whole chunk
+        assertNull(new ChunkCompressor(ChunkCodecs.DEFLATE, stats).encode(random(1000, 2), 1000, payload));
+
+        Map<String, Object> m = stats.toMap();
+        assertEquals(2L, m.get("chunksRaw"));
+        assertEquals(2L, m.get("samplesRejected"));
+        assertEquals(0L, m.get("chunksCompressed"));
+        assertEquals((long) CHUNK + 1000, m.get("sentWireBytes"));
+        assertEquals(0L, m.get("sentSavedBytes"));
+    }
+
+    @Test
+    public void rejectedChunksBackOffSampling() throws Exception {
+        CountingCodec codec = new CountingCodec();
+        ChunkCompressor c = new ChunkCompressor(codec, stats);
+        byte[] noise = random(CHUNK, 3);
+        // Rejections skip 1, then 2 chunks before sampling again
+        boolean[] sampled = new boolean[6];
+        for (int i = 0; i < sampled.length; i++) {
+            int before = codec.calls;
+            assertNull(c.encode(noise, CHUNK, payload));
+            sampled[i] = codec.calls > before;
+        }
+        assertTrue(Arrays.equals(new boolean[] { true, false, true, false, false, true }, sampled));
+        assertEquals(3L, stats.toMap().get("samplesRejected"));
+
+        // A compressible chunk after the skip is compressed and resets the backoff
+        for (int i = 0; i < 4; i++)
+            c.encode(noise, CHUNK, payload);
+        ByteBuffer encoded = c.encode(text(CHUNK), CHUNK, payload);
+        assertNotNull(encoded);
+        assertArrayEquals(text(CHUNK), inflate(encoded));
+        assertNull(c.encode(noise, CHUNK, payload));
+        int before = codec.calls;
+        assertNull(c.encode(noise, CHUNK, payload));
+        assertEquals(before, codec.calls);
+        assertNull(c.encode(noise, CHUNK, payload));
+        assertTrue(codec.calls > before);
+    }
+
+    @Test
+    public void resetZeroesEveryCounter() {
+        ChunkCompressor c = new ChunkCompressor(ChunkCodecs.DEFLATE, stats);
+        assertNotNull(c.encode(text(CHUNK), CHUNK, payload));
+        stats.recordInflated(100, 1000);
+        stats.reset();
+
+        for (Map.Entry<String, Object> e : stats.toMap().entrySet())
+            assertEquals(e.getKey(), 0L, e.getValue());
+    }
+}
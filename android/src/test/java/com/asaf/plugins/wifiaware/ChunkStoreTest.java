@@ -0,0 +1,97 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkStoreTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("chunks").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private static byte[] hash(int n) {
+        byte[] h = new byte[ContentChunker.HASH_SIZE];
+        h[0] = (byte) n;
+        return h;
+    }
+
+    @Test
+    public void getHitsStoredChunksAndMissesOthers() {
+        ChunkStore store = new ChunkStore(dir, 100);
+        assertNull(store.get(hash(1)));
+        store.put(hash(1), new byte[] { 1, 2, 3, 4 }, 3);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, store.get(hash(1)));
+        assertNull(store.get(hash(2)));
+
+        Map<String, Object> stats = store.stats();
+        assertEquals(1L, stats.get("hits"));
+        assertEquals(2L, stats.get("misses"));
+        assertEquals(1L, stats.get("puts"));
+        assertEquals(3L, stats.get("bytesReused"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ChunkStore store = new ChunkStore(dir, 15);
+        store.put(hash(1), new byte[6], 6);
+        store.put(hash(2), new byte[6], 6);
+        assertNotNull(store.get(hash(1)));
+        store.put(hash(3), new byte[6], 6);
+
+        assertNull(store.get(hash(2)));
+        assertNotNull(store.get(hash(1)));
+        assertNotNull(store.get(hash(3)));
+        assertEquals(1L, store.stats().get("evictions"));
+
+        // Larger than the whole store: never kept
+        store.put(hash(4), new byte[16], 16);
+        assertNull(store.get(hash(4)));
+        store.setMaxBytes(6);
+        assertEquals(1, store.stats().get("chunks"));
+    }
+
+    @Test
+    public void reloadsChunksFromDisk() throws Exception {
+        new ChunkStore(dir, 100).put(hash(1), new byte[] { 9, 8, 7 }, 3);
+        assertTrue(new File(dir, "leftover.tmp").createNewFile());
+
+        ChunkStore reopened = new ChunkStore(dir, 100);
+        assertArrayEquals(new byte[] { 9, 8, 7 }, reopened.get(hash(1)));
+        assertEquals(3L, reopened.stats().get("bytes"));
+        assertFalse(new File(dir, "leftover.tmp").exists());
+    }
+
+    @Test
+    public void resetStatsZeroesCountersAndKeepsChunks() {
+        ChunkStore store = new ChunkStore(dir, 10);
+        store.put(hash(1), new byte[] { 1, 2, 3, 4, 5, 6 }, 6);
+        store.put(hash(2), new byte[] { 7, 8, 9, 10, 11, 12 }, 6); // evicts 1
+        store.get(hash(2));
+        store.get(hash(1));
+        store.resetStats();
+
+        Map<String, Object> stats = store.stats();
+        for (String counter : new String[] { "hits", "misses", "puts", "evictions", "bytesReused" })
+            assertEquals(counter, 0L, stats.get(counter));
+        assertEquals(1, stats.get("chunks"));
+        assertEquals(6L, stats.get("bytes"));
+        assertNotNull(store.get(hash(2)));
+    }
+}
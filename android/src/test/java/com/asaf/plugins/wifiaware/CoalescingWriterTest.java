@@ -0,0 +1,144 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CoalescingWriterTest {
+
+    private ExecutorService executor;
+    private final Channel channel = new Channel();
+    private final CoalescingWriter.Batching batching = new CoalescingWriter.Batching();
+    private CoalescingWriter writer;
+
+    // Records the bytes of every write call separately, so batching is visible
+    static class Channel implements GatheringByteChannel {
+        final List<byte[]> writes = new ArrayList<>();
+
+        synchronized List<byte[]> awaitWrites(int n) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (writes.size() < n && System.currentTimeMillis() < deadline)
+                wait(10);
+            return new ArrayList<>(writes);
+        }
+
+        @Override
+        public synchronized long write(ByteBuffer[] srcs, int offset, int length) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = offset; i < offset + length; i++) {
+                byte[] b = new byte[srcs[i].remaining()];
+                srcs[i].get(b);
+                out.write(b, 0, b.length);
+            }
+            writes.add(out.toByteArray());
+            notifyAll();
+            return out.size();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[] { src }, 0, 1);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        writer = new CoalescingWriter(channel, new Object(), executor, batching);
+    }
+
+    @After
+    public void tearDown() {
+        writer.close();
+        executor.shutdownNow();
+    }
+
+    private static ByteBuffer bytes(int len, int value) {
+        byte[] b = new byte[len];
+        Arrays.fill(b, (byte) value);
+        return ByteBuffer.wrap(b);
+    }
+
+    @Test
+    public void withoutLingerFramesGoOutAtOnce() throws Exception {
+        writer.write(false, bytes(10, 1));
+        assertEquals(10, channel.awaitWrites(1).get(0).length);
+    }
+
+    @Test
+    public void lingerCollectsFramesUntilFlushed() throws Exception {
+        batching.setLingerMicros(10_000_000);
+        writer.write(false, bytes(10, 1), bytes(5, 2));
+        writer.write(false, bytes(20, 3));
+        Thread.sleep(50);
+        assertTrue(channel.awaitWrites(0).isEmpty());
+
+        writer.flush();
+        List<byte[]> writes = channel.awaitWrites(1);
+        assertEquals(1, writes.size());
+        assertEquals(35, writes.get(0).length);
+        assertEquals(3, writes.get(0)[34]);
+    }
+
+    @Test
+    public void flushedWriteSkipsTheLingerWindow() throws Exception {
+        batching.setLingerMicros(10_000_000);
+        writer.write(false, bytes(10, 1));
+        long start = System.nanoTime();
+        // Returns once written, taking the frame queued before it along
+        writer.write(true, bytes(10, 2));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        assertEquals(1, channel.awaitWrites(0).size());
+        assertEquals(20, channel.awaitWrites(0).get(0).length);
+    }
+
+    @Test
+    public void fullBatchEndsTheLinger() throws Exception {
+        batching.setLingerMicros(10_000_000);
+        batching.setMaxBatchBytes(1024);
+        writer.write(false, bytes(400, 1));
+        writer.write(false, bytes(400, 2));
+        writer.write(false, bytes(400, 3));
+        // The first two fit one batch; the third waits for more
+        assertEquals(800, channel.awaitWrites(1).get(0).length);
+        Thread.sleep(50);
+        assertEquals(1, channel.awaitWrites(0).size());
+
+        writer.flush();
+        assertEquals(400, channel.awaitWrites(2).get(1).length);
+        assertThrows(IllegalArgumentException.class, () -> batching.setMaxBatchBytes(100));
+        assertThrows(IllegalArgumentException.class, () -> batching.setLingerMicros(-1));
+    }
+
+    @Test
+    public void writeAfterCloseFails() {
+        writer.close();
+        assertThrows(ClosedChannelException.class, () -> writer.write(false, bytes(1, 1)));
+    }
+}
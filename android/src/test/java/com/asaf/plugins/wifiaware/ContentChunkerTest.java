@@ -0,0 +1,122 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentChunkerTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("chunker", ".bin").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private ContentChunker.Manifest scan(byte[] content) throws Exception {
+        Files.write(file.toPath(), content);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return ContentChunker.scan(channel, content.length);
+        }
+    }
+
+    private static byte[] random(int len, long seed) {
+        byte[] b = new byte[len];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static Set<String> hashes(ContentChunker.Manifest m) {
+        Set<String> set = new HashSet<>();
+        for (int i = 0; i < m.count(); i++)
+            set.add(ChunkStore.hex(m.hash(i)));
+        return set;
+    }
+
+    @Test
+    public void chunksCoverTheFileWithinSizeLimits() throws Exception {
+        byte[] content = random(3 * 1024 * 1024 + 17, 1);
+        ContentChunker.Manifest m = scan(content);
+
+        assertTrue(m.count() > 1);
+        assertEquals(content.length, m.totalLength());
+        long pos = 0;
+        for (int i = 0; i < m.count(); i++) {
+            assertEquals(pos, m.offsets[i]);
+            assertTrue(m.lengths[i] <= ContentChunker.MAX_CHUNK);
+            if (i < m.count() - 1)
+                assertTrue(m.lengths[i] >= ContentChunker.MIN_CHUNK);
+            byte[] digest = ContentChunker.sha256().digest(
+                    Arrays.copyOfRange(content, (int) pos, (int) pos + m.lengths[i]));
+            assertTrue(m.matches(i, digest));
+            pos += m.lengths[i];
+        }
+        // Same content, same cuts
+        assertArrayEquals(m.hashes, scan(content).hashes);
+    }
+
+    @Test
+    public void insertOnlyMovesNearbyBoundaries() throws Exception {
+        byte[] content = random(4 * 1024 * 1024, 2);
+        ContentChunker.Manifest before = scan(content);
+
+        int at = content.length / 2;
+        byte[] inserted = new byte[content.length + 100];
+        System.arraycopy(content, 0, inserted, 0, at);
+        System.arraycopy(random(100, 3), 0, inserted, at, 100);
+        System.arraycopy(content, at, inserted, at + 100, content.length - at);
+        ContentChunker.Manifest after = scan(inserted);
+
+        // Chunks ending before the insert are untouched
+        int untouched = 0;
+        while (before.offsets[untouched] + before.lengths[untouched] <= at) {
+            assertEquals(before.lengths[untouched], after.lengths[untouched]);
+            assertArrayEquals(before.hash(untouched), after.hash(untouched));
+            untouched++;
+        }
+        // Past the insert the boundaries resynchronise, shifted by its length
+        Set<String> common = hashes(before);
+        common.retainAll(hashes(after));
+        assertTrue(common.size() >= before.count() - 2);
+        assertEquals(before.offsets[before.count() - 1] + 100, after.offsets[after.count() - 1]);
+    }
+
+    @Test
+    public void shortAndEmptyFiles() throws Exception {
+        ContentChunker.Manifest m = scan(random(100, 4));
+        assertEquals(1, m.count());
+        assertEquals(100, m.lengths[0]);
+
+        ContentChunker.Manifest empty = scan(new byte[0]);
+        assertEquals(0, empty.count());
+        assertEquals(0, empty.totalLength());
+    }
+
+    @Test
+    public void manifestRoundTripsThroughFrames() throws Exception {
+        ContentChunker.Manifest m = scan(random(2 * 1024 * 1024, 5));
+        FrameCodec.ManifestBuilder builder = new FrameCodec.ManifestBuilder();
+        for (byte[] frame : FrameCodec.encodeManifest(m))
+            builder.add(frame);
+        ContentChunker.Manifest decoded = builder.build();
+        assertArrayEquals(m.offsets, decoded.offsets);
+        assertArrayEquals(m.lengths, decoded.lengths);
+        assertArrayEquals(m.hashes, decoded.hashes);
+    }
+}
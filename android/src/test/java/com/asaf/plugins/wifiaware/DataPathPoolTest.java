@@ -0,0 +1,113 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DataPathPoolTest {
+
+    private final List<Runnable> timers = new ArrayList<>();
+    private final List<Long> delays = new ArrayList<>();
+    private final List<String> closed = new ArrayList<>();
+    private final DataPathPool<String> pool = new DataPathPool<>((task, delayMs) -> {
+        timers.add(task);
+        delays.add(delayMs);
+    }, closed::add);
+
+    private void fireTimers() {
+        List<Runnable> due = new ArrayList<>(timers);
+        timers.clear();
+        for (Runnable t : due)
+            t.run();
+    }
+
+    @Test
+    public void laterSocketsReuseThePooledPath() {
+        assertNull(pool.acquire("k"));
+        assertTrue(pool.add("k", "path-1"));
+        assertEquals("path-1", pool.acquire("k"));
+
+        pool.release("k", "path-1");
+        assertEquals(0, pool.idle());
+        pool.release("k", "path-1");
+        assertEquals(1, pool.idle());
+        assertEquals(Arrays.asList(DataPathPool.DEFAULT_IDLE_TIMEOUT_MS), delays);
+
+        // Acquired again before the idle timeout: the old timer must not close it
+        assertEquals("path-1", pool.acquire("k"));
+        fireTimers();
+        assertTrue(closed.isEmpty());
+        assertTrue(pool.contains("k"));
+    }
+
+    @Test
+    public void idlePathIsClosedWhenItsTimeoutRunsOut() {
+        pool.setIdleTimeoutMs(2000);
+        pool.add("k", "path-1");
+        pool.release("k", "path-1");
+        assertEquals(Arrays.asList(2000L), delays);
+        assertEquals(1, pool.size());
+
+        fireTimers();
+        assertEquals(Arrays.asList("path-1"), closed);
+        assertEquals(0, pool.size());
+        assertNull(pool.acquire("k"));
+    }
+
+    @Test
+    public void zeroTimeoutClosesOnLastRelease() {
+        pool.setIdleTimeoutMs(0);
+        pool.add("k", "path-1");
+        pool.release("k", "path-1");
+        assertEquals(Arrays.asList("path-1"), closed);
+        assertTrue(timers.isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> pool.setIdleTimeoutMs(-1));
+    }
+
+    @Test
+    public void racingPathStaysPrivateAndClosesOnRelease() {
+        assertTrue(pool.add("k", "path-1"));
+        assertFalse(pool.add("k", "path-2"));
+        pool.release("k", "path-2");
+        assertEquals(Arrays.asList("path-2"), closed);
+        assertEquals("path-1", pool.acquire("k"));
+    }
+
+    @Test
+    public void evictIdleClosesOnlyUnusedPaths() {
+        pool.add("a", "path-a");
+        pool.add("b", "path-b");
+        pool.release("b", "path-b");
+        pool.evictIdle();
+        assertEquals(Arrays.asList("path-b"), closed);
+        assertTrue(pool.contains("a"));
+
+        // Lost on its own: forgotten without a close
+        assertTrue(pool.remove("a", "path-a"));
+        assertFalse(pool.remove("a", "path-a"));
+        pool.add("c", "path-c");
+        pool.clear();
+        assertEquals(Arrays.asList("path-b", "path-c"), closed);
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void poolKeyHashesThePassphrase() {
+        String key = WifiAwareShim.dataPathKey(false, "nio", "peer-1", "secret passphrase");
+        assertFalse(key.contains("secret"));
+        String hash = ChunkStore.hex(ContentChunker.sha256().digest(
+                "secret passphrase".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("client/nio/peer-1/" + hash, key);
+
+        assertEquals(key, WifiAwareShim.dataPathKey(false, "nio", "peer-1", "secret passphrase"));
+        assertNotEquals(key, WifiAwareShim.dataPathKey(false, "nio", "peer-1", "other passphrase"));
+        assertNotEquals(key, WifiAwareShim.dataPathKey(true, "nio", "peer-1", "secret passphrase"));
+        assertNotEquals(key, WifiAwareShim.dataPathKey(false, "blocking", "peer-1", "secret passphrase"));
+        assertNotEquals(key, WifiAwareShim.dataPathKey(false, "nio", "peer-2", "secret passphrase"));
+    }
+}
@@ -0,0 +1,225 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DedupFileSourceTest {
+
+    private File dir;
+    private File file;
+    private ChunkStore store;
+    private FileChannel channel;
+    private final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    private final StreamMultiplexer.FrameSink sink = new StreamMultiplexer.FrameSink(Channels.newChannel(wire));
+
+    private static class Progress implements ChannelTransfer.ProgressListener {
+        final List<Long> reports = new ArrayList<>();
+        volatile boolean cancelled;
+
+        @Override
+        public void onProgress(long bytesTransferred) {
+            reports.add(bytesTransferred);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("dedup").toFile();
+        file = new File(dir, "source.bin");
+        store = new ChunkStore(new File(dir, "chunks"), 64L * 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (channel != null)
+            channel.close();
+        File chunks = new File(dir, "chunks");
+        File[] stored = chunks.listFiles();
+        if (stored != null) {
+            for (File f : stored)
+                f.delete();
+        }
+        chunks.delete();
+        file.delete();
+        dir.delete();
+    }
+
+    private static byte[] random(int len, long seed) {
+        byte[] b = new byte[len];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    // Compressible but not periodic, so the chunker still finds content boundaries
+    private static byte[] words(int len, long seed) {
+        String[] vocabulary = { "peer ", "chunk ", "frame ", "aware ", "link ", "data ", "path ", "send\n" };
+        Random r = new Random(seed);
+        StringBuilder sb = new StringBuilder(len + 8);
+        while (sb.length() < len)
+            sb.append(vocabulary[r.nextInt(vocabulary.length)]);
+        return sb.substring(0, len).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private ContentChunker.Manifest write(byte[] content) throws IOException {
+        Files.write(file.toPath(), content);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        return ContentChunker.scan(channel, content.length);
+    }
+
+    // Stores every chunk of content, as a receiver that got it earlier would have
+    private void remember(byte[] content) throws IOException {
+        ContentChunker.Manifest m = write(content);
+        for (int i = 0; i < m.count(); i++) {
+            int off = (int) m.offsets[i];
+            store.put(m.hash(i), Arrays.copyOfRange(content, off, off + m.lengths[i]), m.lengths[i]);
+        }
+        channel.close();
+        store.resetStats();
+    }
+
+    private List<byte[]> frames(byte type) throws IOException {
+        List<byte[]> out = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(wire.toByteArray()));
+        while (in.available() > 0) {
+            FrameCodec.Header h = FrameCodec.readHeader(in);
+            byte[] payload = new byte[h.length];
+            in.readFully(payload);
+            if (h.type == type) {
+                byte[] tagged = new byte[payload.length + 1];
+                tagged[0] = h.flags;
+                System.arraycopy(payload, 0, tagged, 1, payload.length);
+                out.add(tagged);
+            }
+        }
+        return out;
+    }
+
+    // Plays the receiver: fills chunks from the store, asks for the rest, then places the DATA frames
+    private byte[] transfer(DedupFileSource source, int streamId) throws IOException {
+        while (source.isReady())
+            assertTrue(source.writeFrame(streamId, sink));
+        FrameCodec.ManifestBuilder builder = new FrameCodec.ManifestBuilder();
+        for (byte[] frame : frames(FrameCodec.TYPE_MANIFEST))
+            builder.add(Arrays.copyOfRange(frame, 1, frame.length));
+        ContentChunker.Manifest manifest = builder.build();
+
+        byte[] received = new byte[(int) manifest.totalLength()];
+        BitSet need = new BitSet();
+        for (int i = 0; i < manifest.count(); i++) {
+            byte[] chunk = store.get(manifest.hash(i));
+            if (chunk == null)
+                need.set(i);
+            else
+                System.arraycopy(chunk, 0, received, (int) manifest.offsets[i], chunk.length);
+        }
+        List<byte[]> needFrames = FrameCodec.encodeNeed(need, manifest.count());
+        for (int i = 0; i < needFrames.size(); i++)
+            assertEquals(i == needFrames.size() - 1, source.onNeed(needFrames.get(i), i == needFrames.size() - 1));
+
+        wire.reset();
+        while (source.writeFrame(streamId, sink))
+            assertTrue(source.isReady());
+        source.onFinished(null);
+
+        int index = -1;
+        for (byte[] frame : frames(FrameCodec.TYPE_DATA)) {
+            index = need.nextSetBit(index + 1);
+            byte[] chunk = Arrays.copyOfRange(frame, 1, frame.length);
+            if ((frame[0] & FrameCodec.FLAG_DATA_COMPRESSED) != 0) {
+                byte[] raw = new byte[manifest.lengths[index]];
+                ChunkCodecs.get(chunk[0] & 0xFF).decompress(chunk, FrameCodec.COMPRESSED_HEADER_SIZE,
+                        chunk.length - FrameCodec.COMPRESSED_HEADER_SIZE, raw, raw.length);
+                chunk = raw;
+            }
+            assertTrue(manifest.matches(index, ContentChunker.sha256().digest(chunk)));
+            System.arraycopy(chunk, 0, received, (int) manifest.offsets[index], chunk.length);
+        }
+        assertEquals(-1, need.nextSetBit(index + 1));
+        assertEquals(1, frames(FrameCodec.TYPE_END).size());
+        return received;
+    }
+
+    @Test
+    public void sendsOnlyChunksTheReceiverLacks() throws Exception {
+        byte[] original = random(4 * 1024 * 1024, 1);
+        remember(original);
+        byte[] edited = new byte[original.length + 100];
+        int at = original.length / 3;
+        System.arraycopy(original, 0, edited, 0, at);
+        System.arraycopy(random(100, 2), 0, edited, at, 100);
+        System.arraycopy(original, at, edited, at + 100, original.length - at);
+
+        ContentChunker.Manifest manifest = write(edited);
+        Progress progress = new Progress();
+        DedupFileSource source = new DedupFileSource(new FrameCodec.FileOpen("t-1", "a.bin", "", edited.length),
+                channel, manifest, progress, null);
+        assertArrayEquals(edited, transfer(source, 3));
+
+        long hits = (Long) store.stats().get("hits");
+        long misses = (Long) store.stats().get("misses");
+        assertEquals(manifest.count(), hits + misses);
+        assertTrue(misses >= 1 && misses <= 2);
+        long sent = source.completion().get();
+        assertTrue(sent < 2L * ContentChunker.MAX_CHUNK);
+        assertEquals(edited.length, (long) progress.reports.get(progress.reports.size() - 1));
+    }
+
+    @Test
+    public void nothingStoredSendsEveryChunkCompressed() throws Exception {
+        byte[] content = words(1024 * 1024, 3);
+        ContentChunker.Manifest manifest = write(content);
+        ChunkCompressor.Stats stats = new ChunkCompressor.Stats();
+        DedupFileSource source = new DedupFileSource(new FrameCodec.FileOpen("t-1", "a.txt", "", content.length),
+                channel, manifest, null, new ChunkCompressor(ChunkCodecs.DEFLATE, stats));
+        assertArrayEquals(content, transfer(source, 5));
+
+        assertEquals(content.length, (long) source.completion().get());
+        assertEquals((long) manifest.count(), stats.toMap().get("chunksCompressed"));
+        assertEquals((long) manifest.count(), store.stats().get("misses"));
+    }
+
+    @Test
+    public void cancelStopsBeforeTheNextChunk() throws Exception {
+        byte[] content = random(1024 * 1024, 4);
+        ContentChunker.Manifest manifest = write(content);
+        Progress progress = new Progress();
+        DedupFileSource source = new DedupFileSource(new FrameCodec.FileOpen("t-1", "a.bin", "", content.length),
+                channel, manifest, progress, null);
+        while (source.isReady())
+            source.writeFrame(1, sink);
+        BitSet all = new BitSet();
+        all.set(0, manifest.count());
+        source.onNeed(FrameCodec.encodeNeed(all, manifest.count()).get(0), true);
+        assertTrue(source.writeFrame(1, sink));
+
+        progress.cancelled = true;
+        IOException e = assertThrows(IOException.class, () -> source.writeFrame(1, sink));
+        source.onFinished(e);
+        assertTrue(source.completion().isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,131 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class DeviceInfoCodecTest {
+
+    private static final int CAPS = DeviceInfoCodec.CAP_MESSAGING | DeviceInfoCodec.CAP_RANGING;
+
+    private static byte[] withUserData(byte[] user, byte[] info) {
+        byte[] b = Arrays.copyOf(user, user.length + info.length);
+        System.arraycopy(info, 0, b, user.length, info.length);
+        return b;
+    }
+
+    // A record as a newer or differently built sender might write it, trailer included
+    private static byte[] record(int... bytes) {
+        byte[] b = new byte[bytes.length + 2];
+        for (int i = 0; i < bytes.length; i++)
+            b[i] = (byte) bytes[i];
+        b[bytes.length] = (byte) bytes.length;
+        b[bytes.length + 1] = DeviceInfoCodec.TRAILER;
+        return b;
+    }
+
+    @Test
+    public void tlvRoundTrip() {
+        DeviceInfoCodec.Fields f = new DeviceInfoCodec.Fields("Pixel 8", "Android", "Pixel 8 Pro", "14", CAPS);
+        byte[] user = { 0, 1, 2, DeviceInfoCodec.TRAILER, 0 };
+        DeviceInfoCodec.Parsed p = DeviceInfoCodec.parse(withUserData(user, DeviceInfoCodec.encodeTlv(f)));
+        assertNotNull(p);
+        assertEquals(user.length, p.userLength);
+        assertEquals("Pixel 8", p.fields.deviceName);
+        assertEquals("Android", p.fields.deviceType);
+        assertEquals("Pixel 8 Pro", p.fields.modelName);
+        assertEquals("14", p.fields.osVersion);
+        assertEquals(CAPS, p.fields.capabilities);
+    }
+
+    @Test
+    public void tlvKeepsTextForUncodedTypeAndVersion() {
+        DeviceInfoCodec.Fields f = new DeviceInfoCodec.Fields("Tab", "Tablet", "X1", "14.1.2");
+        DeviceInfoCodec.Parsed p = DeviceInfoCodec.parseTlv(DeviceInfoCodec.encodeTlv(f));
+        assertEquals("Tablet", p.fields.deviceType);
+        assertEquals("14.1.2", p.fields.osVersion);
+        assertEquals(-1, p.fields.capabilities);
+    }
+
+    @Test
+    public void tlvCutsLongNamesAtCharacterBoundary() {
+        String name = "ééééééééééééééééééééééééé"; // 25 two-byte characters, over MAX_TEXT_BYTES
+        DeviceInfoCodec.Fields f = new DeviceInfoCodec.Fields(name, "Android", "m", "14");
+        String parsed = DeviceInfoCodec.parseTlv(DeviceInfoCodec.encodeTlv(f)).fields.deviceName;
+        assertTrue(name.startsWith(parsed));
+        assertTrue(parsed.getBytes(StandardCharsets.UTF_8).length <= DeviceInfoCodec.MAX_TEXT_BYTES);
+    }
+
+    @Test
+    public void truncatedRecordsAreRejected() {
+        byte[] tlv = DeviceInfoCodec.encodeTlv(new DeviceInfoCodec.Fields("Pixel", "Android", "P", "14", CAPS));
+        // Drop bytes from the front of the record: the length byte then points before the data
+        for (int cut = 1; cut < tlv.length; cut++) {
+            byte[] b = Arrays.copyOfRange(tlv, cut, tlv.length);
+            assertNull("cut " + cut, DeviceInfoCodec.parseTlv(b));
+        }
+    }
+
+    @Test
+    public void fieldRunningPastRecordIsRejected() {
+        // Name claims 10 bytes but only 2 follow
+        assertNull(DeviceInfoCodec.parseTlv(record(DeviceInfoCodec.VERSION, 1, 10, 'a', 'b')));
+        // Length varint never terminates inside the record
+        assertNull(DeviceInfoCodec.parseTlv(record(DeviceInfoCodec.VERSION, 1, 0x80, 0x80)));
+    }
+
+    @Test
+    public void nonCanonicalVarintLengthsAreFollowed() {
+        // Name length 2 written as 0x82 0x00, then a capability mask of 5 as 0x85 0x80 0x00
+        byte[] b = record(DeviceInfoCodec.VERSION,
+                1, 0x82, 0x00, 'h', 'i',
+                7, 3, 0x85, 0x80, 0x00);
+        DeviceInfoCodec.Parsed p = DeviceInfoCodec.parseTlv(b);
+        assertNotNull(p);
+        assertEquals("hi", p.fields.deviceName);
+        assertEquals(5, p.fields.capabilities);
+    }
+
+    @Test
+    public void unknownFieldTypesAreSkipped() {
+        byte[] b = record(DeviceInfoCodec.VERSION,
+                99, 3, 'x', 'y', 'z',
+                1, 2, 'h', 'i',
+                100, 0,
+                5, 1, 14);
+        DeviceInfoCodec.Parsed p = DeviceInfoCodec.parseTlv(b);
+        assertNotNull(p);
+        assertEquals("hi", p.fields.deviceName);
+        assertEquals("14", p.fields.osVersion);
+    }
+
+    @Test
+    public void otherVersionsAndMissingNameAreNotDeviceInfo() {
+        assertNull(DeviceInfoCodec.parseTlv(record(DeviceInfoCodec.VERSION + 1, 1, 2, 'h', 'i')));
+        assertNull(DeviceInfoCodec.parseTlv(record(DeviceInfoCodec.VERSION, 4, 1, 'm')));
+        assertNull(DeviceInfoCodec.parseTlv(new byte[] { DeviceInfoCodec.TRAILER }));
+    }
+
+    @Test
+    public void legacyJsonStillParses() {
+        DeviceInfoCodec.Fields f = new DeviceInfoCodec.Fields("My \"Phone\"", "iPhone", "iPhone 15", "17.1");
+        byte[] user = "user".getBytes(StandardCharsets.UTF_8);
+        byte[] info = withUserData(Arrays.copyOf(user, user.length + 1), DeviceInfoCodec.encodeJson(f));
+        DeviceInfoCodec.Parsed p = DeviceInfoCodec.parse(info);
+        assertNotNull(p);
+        assertEquals(user.length, p.userLength);
+        assertEquals("iPhone", p.fields.deviceType);
+        assertEquals("17.1", p.fields.osVersion);
+        assertEquals(-1, p.fields.capabilities);
+    }
+
+    @Test
+    public void capabilityNamesRoundTrip() {
+        int mask = DeviceInfoCodec.capabilityMask(Arrays.asList("ranging", "messaging", "unknown"));
+        assertEquals(CAPS, mask);
+        assertEquals(Arrays.asList("messaging", "ranging"), DeviceInfoCodec.capabilityNames(mask));
+    }
+}
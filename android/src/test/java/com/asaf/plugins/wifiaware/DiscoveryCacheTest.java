@@ -0,0 +1,78 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class DiscoveryCacheTest {
+
+    private long now = 1000;
+    private int parses;
+    private final DiscoveryCache.Settings settings = new DiscoveryCache.Settings();
+    private final DiscoveryCache<String> cache = new DiscoveryCache<>(info -> {
+        parses++;
+        return new String(info, StandardCharsets.UTF_8);
+    }, settings, () -> now);
+
+    private static byte[] info(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void repeatsAreSuppressedUntilTheRepeatIntervalPasses() {
+        assertEquals("v1", cache.offer("a", info("v1"), null));
+        now += 4999;
+        assertNull(cache.offer("a", info("v1"), null));
+
+        // Reported again once the interval has passed, from the cached parse
+        now += 1;
+        assertEquals("v1", cache.offer("a", info("v1"), null));
+        assertNull(cache.offer("a", info("v1"), null));
+        assertEquals(1, parses);
+    }
+
+    @Test
+    public void changedServiceInfoIsReportedAndReparsed() {
+        cache.offer("a", info("v1"), null);
+        assertEquals("v2", cache.offer("a", info("v2"), null));
+        assertEquals(2, parses);
+        assertEquals("", cache.offer("b", null, null));
+        assertNull(cache.offer("b", new byte[0], null));
+    }
+
+    @Test
+    public void distanceMustMovePastTheHysteresis() {
+        settings.setHysteresisMm(500);
+        cache.offer("a", info("v1"), 2000);
+        assertNull(cache.offer("a", info("v1"), 2400));
+        assertEquals("v1", cache.offer("a", info("v1"), 2500));
+        // Losing or gaining a distance always counts
+        assertEquals("v1", cache.offer("a", info("v1"), null));
+        assertNull(cache.offer("a", info("v1"), null));
+        assertEquals("v1", cache.offer("a", info("v1"), 100));
+    }
+
+    @Test
+    public void forgottenPeersAreReportedAgain() {
+        cache.offer("a", info("v1"), null);
+        cache.offer("b", info("v1"), null);
+        assertEquals(2, cache.size());
+        cache.remove("a");
+        assertEquals("v1", cache.offer("a", info("v1"), null));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals("v1", cache.offer("b", info("v1"), null));
+    }
+
+    @Test
+    public void zeroRepeatReportsEveryDiscovery() {
+        settings.setRepeatMs(0);
+        cache.offer("a", info("v1"), null);
+        assertEquals("v1", cache.offer("a", info("v1"), null));
+        assertEquals(1, parses);
+        assertThrows(IllegalArgumentException.class, () -> settings.setRepeatMs(-1));
+        assertThrows(IllegalArgumentException.class, () -> settings.setHysteresisMm(-1));
+    }
+}
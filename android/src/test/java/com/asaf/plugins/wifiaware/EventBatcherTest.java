@@ -0,0 +1,90 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventBatcherTest {
+
+    private final List<Runnable> timers = new ArrayList<>();
+    private final List<Long> delays = new ArrayList<>();
+    private final List<String> delivered = new ArrayList<>();
+    private final EventBatcher.Settings settings = new EventBatcher.Settings();
+    private EventBatcher<String> batcher;
+
+    @Before
+    public void setUp() {
+        settings.setIntervalMs(100);
+        batcher = new EventBatcher<>((event, batch, dropped) -> delivered.add(event + " " + batch + " " + dropped),
+                (task, delayMs) -> {
+                    timers.add(task);
+                    delays.add(delayMs);
+                }, settings);
+    }
+
+    private void fireTimers() {
+        List<Runnable> due = new ArrayList<>(timers);
+        timers.clear();
+        for (Runnable t : due)
+            t.run();
+    }
+
+    @Test
+    public void deliversWhenTheIntervalPasses() {
+        batcher.offer("message", null, "a");
+        batcher.offer("message", null, "b");
+        batcher.offer("progress", null, "p");
+        assertTrue(delivered.isEmpty());
+        // One timer for the whole batch, started by the first event
+        assertEquals(Arrays.asList(100L), delays);
+
+        fireTimers();
+        assertEquals(2, delivered.size());
+        assertTrue(delivered.contains("message [a, b] 0"));
+        assertTrue(delivered.contains("progress [p] 0"));
+
+        batcher.offer("message", null, "c");
+        assertEquals(2, delays.size());
+    }
+
+    @Test
+    public void deliversAtOnceWhenTheBatchIsFull() {
+        settings.setMaxBatch(3);
+        batcher.offer("message", null, "a");
+        batcher.offer("message", null, "b");
+        assertTrue(delivered.isEmpty());
+        batcher.offer("message", null, "c");
+        assertEquals(Arrays.asList("message [a, b, c] 0"), delivered);
+
+        // The timer still pending finds nothing left to send
+        fireTimers();
+        assertEquals(1, delivered.size());
+    }
+
+    @Test
+    public void mergedEventKeepsItsPlace() {
+        batcher.offer("progress", "t1", "t1 10%");
+        batcher.offer("progress", "t2", "t2 10%");
+        batcher.offer("progress", "t1", "t1 20%");
+        batcher.flush();
+        assertEquals(Arrays.asList("progress [t1 20%, t2 10%] 0"), delivered);
+    }
+
+    @Test
+    public void dropsOldestBeyondTheQueueLimit() {
+        settings.setMaxQueued(2);
+        batcher.offer("message", null, "a");
+        batcher.offer("message", null, "b");
+        batcher.offer("message", null, "c");
+        batcher.offer("message", null, "d");
+        fireTimers();
+        assertEquals(Arrays.asList("message [c, d] 2"), delivered);
+        assertThrows(IllegalArgumentException.class, () -> settings.setMaxQueued(0));
+        assertThrows(IllegalArgumentException.class, () -> settings.setIntervalMs(-1));
+    }
+}
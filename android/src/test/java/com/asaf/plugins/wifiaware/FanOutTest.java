@@ -0,0 +1,86 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class FanOutTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void resultsCarryIdsAndErrorsInTargetOrder() throws Exception {
+        FanOut fanOut = new FanOut(executor);
+        List<FanOut.Result> results = fanOut.run(Arrays.asList("a", "b", "c"), target -> {
+            if (target.equals("b"))
+                throw new IOException("No route");
+            return "id-" + target;
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, results.size());
+        assertEquals("a", results.get(0).target);
+        assertEquals("id-a", results.get(0).id);
+        assertTrue(results.get(0).ok());
+        assertEquals("b", results.get(1).target);
+        assertFalse(results.get(1).ok());
+        assertEquals("No route", results.get(1).error);
+        assertEquals("id-c", results.get(2).id);
+    }
+
+    @Test
+    public void completesOnlyAfterEveryTargetFinished() throws Exception {
+        FanOut fanOut = new FanOut(executor);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<FanOut.Result>> done = fanOut.run(Arrays.asList("fast", "slow"), target -> {
+            if (target.equals("slow"))
+                release.await();
+            return target;
+        });
+        Thread.sleep(100);
+        assertFalse(done.isDone());
+        release.countDown();
+        assertEquals(2, done.get(5, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void runsAtMostMaxConcurrentTargets() throws Exception {
+        FanOut fanOut = new FanOut(executor);
+        fanOut.setMaxConcurrent(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        fanOut.run(Arrays.asList("1", "2", "3", "4", "5", "6"), target -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            return null;
+        }).get(5, TimeUnit.SECONDS);
+        assertEquals(2, peak.get());
+        assertThrows(IllegalArgumentException.class, () -> fanOut.setMaxConcurrent(0));
+    }
+
+    @Test
+    public void targetsLeftWhenTheExecutorStopsFail() throws Exception {
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        List<FanOut.Result> results = new FanOut(stopped).run(Arrays.asList("a", "b"), target -> target)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals("Sender stopped", results.get(0).error);
+        assertEquals("Sender stopped", results.get(1).error);
+    }
+}
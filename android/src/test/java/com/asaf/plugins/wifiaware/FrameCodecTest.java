@@ -0,0 +1,189 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FrameCodecTest {
+
+    @Test
+    public void headerRoundTrip() throws Exception {
+        byte[] payload = { 1, 2, 3 };
+        ByteBuffer frame = FrameCodec.encode(FrameCodec.TYPE_DATA, FrameCodec.FLAG_DATA_COMPRESSED, 0x7F000001, payload);
+        assertEquals(FrameCodec.HEADER_SIZE + payload.length, frame.remaining());
+
+        FrameCodec.Header h = FrameCodec.getHeader(frame.duplicate());
+        assertEquals(FrameCodec.TYPE_DATA, h.type);
+        assertEquals(FrameCodec.FLAG_DATA_COMPRESSED, h.flags);
+        assertEquals(0x7F000001, h.streamId);
+        assertEquals(payload.length, h.length);
+
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        FrameCodec.Header read = FrameCodec.readHeader(in);
+        assertEquals(h.streamId, read.streamId);
+        assertEquals(h.length, read.length);
+        byte[] body = new byte[read.length];
+        in.readFully(body);
+        assertArrayEquals(payload, body);
+    }
+
+    @Test
+    public void headerRejectsOversizedLength() {
+        ByteBuffer b = ByteBuffer.allocate(FrameCodec.HEADER_SIZE);
+        FrameCodec.putHeader(b, FrameCodec.TYPE_DATA, (byte) 0, 1, FrameCodec.MAX_PAYLOAD + 1);
+        b.flip();
+        assertThrows(IOException.class, () -> FrameCodec.getHeader(b));
+    }
+
+    @Test
+    public void helloCarriesVersionAndAuxiliaryFlag() {
+        int hello = FrameCodec.hello(FrameCodec.VERSION_FRAMED);
+        assertTrue(FrameCodec.isHello(hello));
+        assertFalse(FrameCodec.isAuxiliary(hello));
+        assertEquals(FrameCodec.VERSION_FRAMED, FrameCodec.helloVersion(hello));
+
+        int aux = FrameCodec.hello(FrameCodec.VERSION_FRAMED, true);
+        assertTrue(FrameCodec.isAuxiliary(aux));
+        assertEquals(FrameCodec.VERSION_FRAMED, FrameCodec.helloVersion(aux));
+
+        // Legacy message types are small ints, never a hello
+        assertFalse(FrameCodec.isHello(1));
+        assertFalse(FrameCodec.isAuxiliary(2));
+    }
+
+    @Test
+    public void fileOpenRoundTrip() throws Exception {
+        FrameCodec.FileOpen open = new FrameCodec.FileOpen("id-1", "photo é.jpg", "image/jpeg", 5000, 1000, 2000, 3);
+        FrameCodec.FileOpen decoded = FrameCodec.decodeFileOpen(FrameCodec.encodeFileOpen(open));
+        assertEquals("id-1", decoded.transferId);
+        assertEquals("photo é.jpg", decoded.fileName);
+        assertEquals("image/jpeg", decoded.mimeType);
+        assertEquals(5000, decoded.fileSize);
+        assertEquals(1000, decoded.rangeOffset);
+        assertEquals(2000, decoded.rangeLength);
+        assertEquals(3, decoded.stripeCount);
+        assertEquals("", decoded.senderId);
+    }
+
+    @Test
+    public void fileOpenCarriesOptionalSenderId() throws Exception {
+        FrameCodec.FileOpen open = new FrameCodec.FileOpen("id-1", "a.txt", "", 10, 0, 10, 1, "install-1");
+        byte[] frame = FrameCodec.encodeFileOpen(open);
+        assertEquals("install-1", FrameCodec.decodeFileOpen(frame).senderId);
+
+        // A receiver that stops after the stripe count still reads the rest of the frame
+        byte[] plain = FrameCodec.encodeFileOpen(new FrameCodec.FileOpen("id-1", "a.txt", "", 10, 0, 10, 1));
+        assertArrayEquals(plain, Arrays.copyOf(frame, plain.length));
+    }
+
+    @Test
+    public void fileOpenWithoutRangeIsWholeFile() throws Exception {
+        ByteBuffer b = ByteBuffer.allocate(64);
+        FrameCodec.putString(b, "id".getBytes(StandardCharsets.UTF_8));
+        FrameCodec.putString(b, "a.txt".getBytes(StandardCharsets.UTF_8));
+        FrameCodec.putString(b, new byte[0]);
+        b.putLong(42);
+        FrameCodec.FileOpen open = FrameCodec.decodeFileOpen(Arrays.copyOf(b.array(), b.position()));
+        assertEquals(0, open.rangeOffset);
+        assertEquals(42, open.rangeLength);
+        assertEquals(1, open.stripeCount);
+        assertEquals("", open.mimeType);
+    }
+
+    @Test
+    public void fileOpenRejectsTruncatedFrames() {
+        byte[] frame = FrameCodec.encodeFileOpen(new FrameCodec.FileOpen("id", "a.txt", "text/plain", 10));
+        // Every cut inside the strings or the size must fail cleanly, not with a runtime exception
+        int wholeFile = frame.length - 18;
+        for (int n = 0; n < wholeFile; n++) {
+            byte[] cut = Arrays.copyOf(frame, n);
+            assertThrows("cut at " + n, IOException.class, () -> FrameCodec.decodeFileOpen(cut));
+        }
+    }
+
+    @Test
+    public void fileOpenRejectsStringLongerThanPayload() {
+        ByteBuffer b = ByteBuffer.allocate(16);
+        b.putShort((short) 0xFFFF);
+        b.put(new byte[] { 'x', 'y' });
+        assertThrows(IOException.class, () -> FrameCodec.decodeFileOpen(Arrays.copyOf(b.array(), b.position())));
+    }
+
+    @Test
+    public void fileOpenRejectsNegativeSize() {
+        byte[] frame = FrameCodec.encodeFileOpen(new FrameCodec.FileOpen("id", "a", "", -1, 0, 0, 1));
+        assertThrows(IOException.class, () -> FrameCodec.decodeFileOpen(frame));
+    }
+
+    @Test
+    public void fileOpenRejectsRangesOutsideTheFile() {
+        long[][] ranges = { { -1, 10 }, { 0, -1 }, { 101, 0 }, { 50, 51 }, { 1, Long.MAX_VALUE } };
+        for (long[] r : ranges) {
+            byte[] frame = FrameCodec.encodeFileOpen(new FrameCodec.FileOpen("id", "a", "", 100, r[0], r[1], 2));
+            assertThrows(r[0] + "+" + r[1], IOException.class, () -> FrameCodec.decodeFileOpen(frame));
+        }
+    }
+
+    @Test
+    public void fileOpenAcceptsRangeEndingAtFileSize() throws Exception {
+        byte[] frame = FrameCodec.encodeFileOpen(new FrameCodec.FileOpen("id", "a", "", 100, 60, 40, 2));
+        assertEquals(40, FrameCodec.decodeFileOpen(frame).rangeLength);
+    }
+
+    @Test
+    public void fileOpenRejectsStripeCountOutsideLimit() throws Exception {
+        byte[] max = FrameCodec.encodeFileOpen(
+                new FrameCodec.FileOpen("id", "a", "", 100, 0, 100, FrameCodec.MAX_STRIPES));
+        assertEquals(FrameCodec.MAX_STRIPES, FrameCodec.decodeFileOpen(max).stripeCount);
+
+        byte[] tooMany = FrameCodec.encodeFileOpen(
+                new FrameCodec.FileOpen("id", "a", "", 100, 0, 100, FrameCodec.MAX_STRIPES + 1));
+        assertThrows(IOException.class, () -> FrameCodec.decodeFileOpen(tooMany));
+        byte[] none = FrameCodec.encodeFileOpen(new FrameCodec.FileOpen("id", "a", "", 100, 0, 100, 0));
+        assertThrows(IOException.class, () -> FrameCodec.decodeFileOpen(none));
+    }
+
+    @Test
+    public void needRoundTripAcrossFrames() throws Exception {
+        int count = (FrameCodec.MAX_PAYLOAD - 4) * 8 + 100;
+        BitSet need = new BitSet();
+        need.set(0);
+        need.set(7);
+        need.set(8);
+        need.set(count - 1);
+        List<byte[]> frames = FrameCodec.encodeNeed(need, count);
+        assertEquals(2, frames.size());
+
+        BitSet decoded = new BitSet();
+        for (byte[] f : frames)
+            FrameCodec.decodeNeed(f, decoded);
+        assertEquals(need, decoded);
+    }
+
+    @Test
+    public void needWithNothingMissing() throws Exception {
+        List<byte[]> frames = FrameCodec.encodeNeed(new BitSet(), 10);
+        assertEquals(1, frames.size());
+        BitSet decoded = new BitSet();
+        FrameCodec.decodeNeed(frames.get(0), decoded);
+        assertTrue(decoded.isEmpty());
+    }
+
+    @Test
+    public void needRejectsMalformedFrames() {
+        assertThrows(IOException.class, () -> FrameCodec.decodeNeed(new byte[3], new BitSet()));
+        byte[] negative = ByteBuffer.allocate(5).putInt(-8).put((byte) 1).array();
+        assertThrows(IOException.class, () -> FrameCodec.decodeNeed(negative, new BitSet()));
+    }
+}
@@ -0,0 +1,148 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class L2FragmentsTest {
+
+    private static final int MAX_MESSAGE = 16; // 10 payload bytes per fragment
+
+    private static byte[] payload(int length) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++)
+            b[i] = (byte) (i * 31 + 7);
+        return b;
+    }
+
+    @Test
+    public void splitAndReassembleRoundTrip() {
+        byte[] message = payload(95);
+        List<byte[]> fragments = L2Fragments.split(1, message, MAX_MESSAGE);
+        assertEquals(10, fragments.size());
+        for (byte[] f : fragments) {
+            assertTrue(f.length <= MAX_MESSAGE);
+            assertTrue(L2Fragments.isFragment(f));
+        }
+
+        L2Fragments.Reassembler r = new L2Fragments.Reassembler(1024, 1000);
+        byte[] whole = null;
+        for (int i = 0; i < fragments.size(); i++) {
+            whole = r.add("peer", fragments.get(i), 0);
+            if (i < fragments.size() - 1)
+                assertNull(whole);
+        }
+        assertArrayEquals(message, whole);
+        assertEquals(0, r.dropped());
+    }
+
+    @Test
+    public void fragmentsMayArriveOutOfOrder() {
+        byte[] message = payload(30);
+        List<byte[]> fragments = L2Fragments.split(2, message, MAX_MESSAGE);
+        L2Fragments.Reassembler r = new L2Fragments.Reassembler(1024, 1000);
+        assertNull(r.add("peer", fragments.get(2), 0));
+        assertNull(r.add("peer", fragments.get(0), 0));
+        assertArrayEquals(message, r.add("peer", fragments.get(1), 0));
+    }
+
+    @Test
+    public void smallMessageStartingWithPrefixIsWrapped() {
+        byte[] message = { L2Fragments.PREFIX, L2Fragments.TYPE_FRAGMENT, 3 };
+        assertTrue(L2Fragments.needsSplit(message, MAX_MESSAGE));
+        assertFalse(L2Fragments.needsSplit(payload(MAX_MESSAGE), MAX_MESSAGE));
+
+        List<byte[]> fragments = L2Fragments.split(3, message, MAX_MESSAGE);
+        assertEquals(1, fragments.size());
+        L2Fragments.Reassembler r = new L2Fragments.Reassembler(1024, 1000);
+        assertArrayEquals(message, r.add("peer", fragments.get(0), 0));
+    }
+
+    @Test
+    public void splitRejectsTooManyFragments() {
+        byte[] tooLarge = payload(L2Fragments.maxPayload(MAX_MESSAGE) + 1);
+        assertThrows(IllegalArgumentException.class, () -> L2Fragments.split(1, tooLarge, MAX_MESSAGE));
+        assertEquals(L2Fragments.MAX_FRAGMENTS,
+                L2Fragments.split(1, payload(L2Fragments.maxPayload(MAX_MESSAGE)), MAX_MESSAGE).size());
+    }
+
+    @Test
+    public void duplicateFragmentsAreIgnored() {
+        byte[] message = payload(25);
+        List<byte[]> fragments = L2Fragments.split(4, message, MAX_MESSAGE);
+        L2Fragments.Reassembler r = new L2Fragments.Reassembler(1024, 1000);
+        assertNull(r.add("peer", fragments.get(0), 0));
+        assertNull(r.add("peer", fragments.get(0), 0));
+        assertNull(r.add("peer", fragments.get(1), 0));
+        assertNull(r.add("peer", fragments.get(1), 0));
+        assertArrayEquals(message, r.add("peer", fragments.get(2), 0));
+        assertEquals(0, r.dropped());
+    }
+
+    @Test
+    public void sequenceNumbersArePerPeer() {
+        byte[] a = payload(20);
+        byte[] b = payload(15);
+        List<byte[]> fa = L2Fragments.split(5, a, MAX_MESSAGE);
+        List<byte[]> fb = L2Fragments.split(5, b, MAX_MESSAGE);
+        L2Fragments.Reassembler r = new L2Fragments.Reassembler(1024, 1000);
+        assertNull(r.add("a", fa.get(0), 0));
+        assertNull(r.add("b", fb.get(0), 0));
+        assertArrayEquals(a, r.add("a", fa.get(1), 0));
+        assertArrayEquals(b, r.add("b", fb.get(1), 0));
+    }
+
+    @Test
+    public void reusedSequenceWithDifferentCountRestarts() {
+        List<byte[]> stale = L2Fragments.split(6, payload(35), MAX_MESSAGE);
+        byte[] message = payload(18);
+        List<byte[]> fresh = L2Fragments.split(6, message, MAX_MESSAGE);
+        assertNotEquals(stale.size(), fresh.size());
+
+        L2Fragments.Reassembler r = new L2Fragments.Reassembler(1024, 1000);
+        assertNull(r.add("peer", stale.get(0), 0));
+        assertNull(r.add("peer", stale.get(1), 0));
+        // The sender restarted: the stale parts must not leak into the new message
+        assertNull(r.add("peer", fresh.get(1), 0));
+        assertArrayEquals(message, r.add("peer", fresh.get(0), 0));
+    }
+
+    @Test
+    public void partialMessagesTimeOut() {
+        byte[] message = payload(20);
+        List<byte[]> fragments = L2Fragments.split(7, message, MAX_MESSAGE);
+        L2Fragments.Reassembler r = new L2Fragments.Reassembler(1024, 1000);
+        assertNull(r.add("peer", fragments.get(0), 0));
+        // The first part expired, so the second one starts a new partial message
+        assertNull(r.add("peer", fragments.get(1), 1000));
+        assertEquals(1, r.dropped());
+
+        assertArrayEquals(message, r.add("peer", fragments.get(0), 1500));
+        assertEquals(1, r.dropped());
+    }
+
+    @Test
+    public void byteBudgetEvictsOldestPartial() {
+        byte[] a = payload(20);
+        byte[] b = payload(20);
+        List<byte[]> fa = L2Fragments.split(8, a, MAX_MESSAGE);
+        List<byte[]> fb = L2Fragments.split(9, b, MAX_MESSAGE);
+        // Room for two 10-byte fragments, not three
+        L2Fragments.Reassembler r = new L2Fragments.Reassembler(25, 10_000);
+        assertNull(r.add("peer", fa.get(0), 0));
+        assertNull(r.add("peer", fb.get(0), 1));
+        assertEquals(0, r.dropped());
+
+        // Going over the budget drops the older message
+        byte[] c = payload(30);
+        List<byte[]> fc = L2Fragments.split(10, c, MAX_MESSAGE);
+        assertNull(r.add("peer", fc.get(0), 2));
+        assertEquals(1, r.dropped());
+        assertArrayEquals(b, r.add("peer", fb.get(1), 3));
+
+        // What arrived of the dropped message is gone: its last part alone completes nothing
+        assertNull(r.add("peer", fa.get(1), 4));
+    }
+}
@@ -0,0 +1,167 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class L2MessageQueueTest {
+
+    private static final long ACK_TIMEOUT = 5000;
+
+    private final Set<Integer> outstanding = new LinkedHashSet<>();
+    private final List<byte[]> payloads = new ArrayList<>();
+    private final List<Runnable> retries = new ArrayList<>();
+    private final List<Runnable> timeouts = new ArrayList<>();
+    private final List<Long> retryDelays = new ArrayList<>();
+    private final List<String> statuses = new ArrayList<>();
+    private L2MessageQueue.Pacing pacing;
+    private L2MessageQueue<String> queue;
+
+    @Before
+    public void setUp() {
+        pacing = new L2MessageQueue.Pacing();
+        L2MessageQueue.Transport<String> transport = (peer, messageId, payload) -> {
+            outstanding.add(messageId);
+            payloads.add(payload);
+        };
+        L2MessageQueue.Scheduler scheduler = (task, delayMs) -> {
+            if (delayMs == ACK_TIMEOUT) {
+                timeouts.add(task);
+            } else {
+                retries.add(task);
+                retryDelays.add(delayMs);
+            }
+        };
+        L2MessageQueue.Listener listener = (messageId, peerId, delivered, attempts) ->
+                statuses.add(messageId + " " + peerId + " " + (delivered ? "delivered" : "failed") + " " + attempts);
+        queue = new L2MessageQueue<>(transport, scheduler, listener, pacing);
+    }
+
+    // Runs the tasks scheduled so far, as if their delay had passed
+    private static void run(List<Runnable> tasks) {
+        List<Runnable> due = new ArrayList<>(tasks);
+        tasks.clear();
+        for (Runnable task : due)
+            task.run();
+    }
+
+    private int oldest() {
+        return outstanding.iterator().next();
+    }
+
+    private void succeed(int messageId) {
+        outstanding.remove(messageId);
+        queue.onSendSucceeded(messageId);
+    }
+
+    private void fail(int messageId) {
+        outstanding.remove(messageId);
+        queue.onSendFailed(messageId);
+    }
+
+    @Test
+    public void windowGrowsWithSuccessesAndHalvesOnFailure() {
+        for (int i = 0; i < 30; i++)
+            queue.send("peer", "p1", new byte[] { (byte) i }, false);
+        assertEquals(1, outstanding.size());
+
+        // Additive increase up to maxInFlight, never past it
+        int peak = 0;
+        for (int i = 0; i < 12; i++) {
+            succeed(oldest());
+            peak = Math.max(peak, outstanding.size());
+        }
+        assertEquals(pacing.maxInFlight, peak);
+        assertEquals(pacing.maxInFlight, outstanding.size());
+
+        // Multiplicative decrease: nothing new goes out until fewer than half the slots are used
+        fail(oldest());
+        assertEquals(3, outstanding.size());
+        succeed(oldest());
+        assertEquals(2, outstanding.size());
+        succeed(oldest());
+        assertEquals(2, outstanding.size());
+        assertTrue(statuses.isEmpty());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttemptsWithBackoff() {
+        pacing.setMaxAttempts(3);
+        String id = queue.send("peer", "p1", new byte[] { 1 }, true);
+
+        fail(oldest());
+        run(retries);
+        assertEquals(1, outstanding.size());
+        fail(oldest());
+        run(retries);
+        assertEquals(Arrays.asList(100L, 200L), retryDelays);
+        assertTrue(statuses.isEmpty());
+
+        // The last attempt gets no callback: its ack timeout fails it for good
+        run(timeouts);
+        assertEquals(Arrays.asList(id + " p1 failed 3"), statuses);
+        assertEquals(3, payloads.size());
+        assertEquals(2, retryDelays.size());
+        assertEquals(0, queue.queued());
+
+        // A late callback for the timed out send is ignored
+        queue.onSendSucceeded(outstanding.iterator().next());
+        assertEquals(1, statuses.size());
+        assertThrows(IllegalArgumentException.class, () -> pacing.setMaxAttempts(0));
+    }
+
+    @Test
+    public void fragmentsReportOnceWhenAllAreDelivered() {
+        String id = queue.sendAll("peer", "p1",
+                Arrays.asList(new byte[] { 1 }, new byte[] { 2 }, new byte[] { 3 }), true);
+        succeed(oldest());
+        fail(oldest());
+        run(retries);
+        while (!outstanding.isEmpty()) {
+            assertTrue(statuses.isEmpty());
+            succeed(oldest());
+        }
+        // One status for the whole message, with the attempts of every fragment
+        assertEquals(Arrays.asList(id + " p1 delivered 4"), statuses);
+        assertEquals(0, queue.queued());
+    }
+
+    @Test
+    public void oneLostFragmentFailsTheMessageAndDropsTheRest() {
+        pacing.setMaxAttempts(1);
+        String id = queue.sendAll("peer", "p1",
+                Arrays.asList(new byte[] { 1 }, new byte[] { 2 }, new byte[] { 3 }, new byte[] { 4 }), true);
+        String single = queue.send("peer", "p2", new byte[] { 5 }, true);
+        succeed(oldest());
+        fail(oldest());
+
+        assertEquals(Arrays.asList(id + " p1 failed 2"), statuses);
+        // The fragments not yet sent never go out; the other message still does
+        while (!outstanding.isEmpty())
+            succeed(oldest());
+        assertEquals(4, payloads.size());
+        assertArrayEquals(new byte[] { 5 }, payloads.get(3));
+        assertEquals(Arrays.asList(id + " p1 failed 2", single + " p2 delivered 1"), statuses);
+    }
+
+    @Test
+    public void closeFailsEverythingQueued() {
+        String first = queue.send("peer", "p1", new byte[] { 1 }, true);
+        String second = queue.send("peer", "p1", new byte[] { 2 }, true);
+        queue.send("peer", "p1", new byte[] { 3 }, false);
+        queue.close();
+
+        assertEquals(2, statuses.size());
+        assertTrue(statuses.contains(first + " p1 failed 1"));
+        assertTrue(statuses.contains(second + " p1 failed 0"));
+        assertEquals(0, queue.queued());
+        assertThrows(IllegalStateException.class, () -> queue.send("peer", "p1", new byte[0], true));
+    }
+}
@@ -0,0 +1,156 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoopbackServerTest {
+
+    private ExecutorService executor;
+    private File dir;
+    private File received;
+    private LoopbackServer server;
+
+    private class Resources implements LoopbackServer.Resources {
+        @Override
+        public String listTransfers() {
+            return "[]";
+        }
+
+        @Override
+        public LoopbackServer.Download transfer(String transferId) throws FileNotFoundException {
+            if (transferId.equals("done"))
+                return new LoopbackServer.Download(received, "text/plain");
+            if (transferId.equals("arriving"))
+                return null;
+            throw new FileNotFoundException(transferId);
+        }
+
+        @Override
+        public byte[] message(String handle, boolean release) {
+            return null;
+        }
+
+        @Override
+        public File uploadTarget(String fileName) {
+            return new File(dir, fileName);
+        }
+
+        @Override
+        public String send(File uploaded, Map<String, String> query) {
+            return "sent";
+        }
+    }
+
+    @Before
+    public void start() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        dir = Files.createTempDirectory("loopback").toFile();
+        received = new File(dir, "received.txt");
+        try (OutputStream out = new FileOutputStream(received)) {
+            out.write("0123456789".getBytes(StandardCharsets.US_ASCII));
+        }
+        server = new LoopbackServer(new Resources(), executor);
+    }
+
+    @After
+    public void stop() {
+        server.close();
+        executor.shutdownNow();
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    // Status line and body of one request
+    private String[] request(String head, byte[] body) throws IOException {
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+            OutputStream out = s.getOutputStream();
+            out.write((head + "Authorization: Bearer " + server.token() + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            if (body != null)
+                out.write(body);
+            out.flush();
+            InputStream in = s.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                response.write(buf, 0, n);
+            String text = new String(response.toByteArray(), StandardCharsets.UTF_8);
+            return new String[] { text.substring(0, text.indexOf("\r\n")), text.substring(text.indexOf("\r\n\r\n") + 4) };
+        }
+    }
+
+    @Test
+    public void servesCompletedTransferWithRange() throws Exception {
+        String[] r = request("GET /transfers/done HTTP/1.1\r\nRange: bytes=2-4\r\n", null);
+        assertEquals("HTTP/1.1 206 Partial Content", r[0]);
+        assertEquals("234", r[1]);
+    }
+
+    @Test
+    public void transferStillArrivingIsAnsweredAtOnce() throws Exception {
+        long start = System.nanoTime();
+        assertEquals("HTTP/1.1 409 Conflict", request("GET /transfers/arriving HTTP/1.1\r\n", null)[0]);
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        assertEquals("HTTP/1.1 404 Not Found", request("GET /transfers/unknown HTTP/1.1\r\n", null)[0]);
+    }
+
+    @Test
+    public void uploadIsStored() throws Exception {
+        byte[] body = "hello".getBytes(StandardCharsets.US_ASCII);
+        String[] r = request("POST /uploads?fileName=a.txt HTTP/1.1\r\nContent-Length: 5\r\n", body);
+        assertEquals("HTTP/1.1 201 Created", r[0]);
+        assertArrayEquals(body, Files.readAllBytes(new File(dir, "a.txt").toPath()));
+    }
+
+    @Test
+    public void negativeContentLengthIsRejected() throws Exception {
+        String[] r = request("POST /uploads?fileName=a.txt HTTP/1.1\r\nContent-Length: -1\r\n", null);
+        assertEquals("HTTP/1.1 400 Bad Request", r[0]);
+        assertFalse(new File(dir, "a.txt").exists());
+    }
+
+    @Test
+    public void uploadOverLimitIsRejectedBeforeWriting() throws Exception {
+        server.setMaxUploadBytes(4);
+        String[] r = request("POST /uploads?fileName=a.txt HTTP/1.1\r\nContent-Length: 5\r\n",
+                "hello".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("HTTP/1.1 413 Payload Too Large", r[0]);
+        assertFalse(new File(dir, "a.txt").exists());
+
+        r = request("POST /uploads?fileName=b.txt HTTP/1.1\r\nContent-Length: 4\r\n",
+                "hell".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("HTTP/1.1 201 Created", r[0]);
+    }
+
+    @Test
+    public void requestsWithoutTokenAreRefused() throws Exception {
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+            s.getOutputStream().write("GET /transfers HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            byte[] status = new byte[12];
+            int n = 0;
+            while (n < status.length)
+                n += s.getInputStream().read(status, n, status.length - n);
+            assertEquals("HTTP/1.1 401", new String(status, StandardCharsets.ISO_8859_1));
+        }
+    }
+}
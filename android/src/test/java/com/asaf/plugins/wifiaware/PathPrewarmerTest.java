@@ -0,0 +1,112 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PathPrewarmerTest {
+
+    private final List<Runnable> timers = new ArrayList<>();
+    private final List<String> started = new ArrayList<>();
+    private final List<String> cancelled = new ArrayList<>();
+
+    private PathPrewarmer<String> prewarmer(int maxPaths, boolean preferRecent) {
+        PathPrewarmer.Rule rule = new PathPrewarmer.Rule("psk", "nio", 3000, null, maxPaths, preferRecent, 15_000);
+        return new PathPrewarmer<>(rule, (task, delayMs) -> timers.add(task), new PathPrewarmer.Paths<String>() {
+            @Override
+            public String start(String peerId) {
+                started.add(peerId);
+                return "path-" + peerId;
+            }
+
+            @Override
+            public void cancel(String path, boolean expired) {
+                cancelled.add(path + (expired ? " expired" : " cancelled"));
+            }
+        });
+    }
+
+    private void fireTimers() {
+        List<Runnable> due = new ArrayList<>(timers);
+        timers.clear();
+        for (Runnable t : due)
+            t.run();
+    }
+
+    @Test
+    public void startsOneNearbyPathPerPeer() {
+        PathPrewarmer<String> p = prewarmer(2, false);
+        p.onPeerFound("a", 1000, null);
+        p.onPeerFound("a", 1200, null);
+        // Too far, or no distance reported
+        p.onPeerFound("b", 5000, null);
+        p.onPeerFound("c", null, null);
+        assertEquals(Arrays.asList("a"), started);
+        assertEquals(1, p.size());
+    }
+
+    @Test
+    public void fullBudgetSkipsOrReplacesTheOldest() {
+        PathPrewarmer<String> keep = prewarmer(1, false);
+        keep.onPeerFound("a", 1000, null);
+        keep.onPeerFound("b", 1000, null);
+        assertEquals(Arrays.asList("a"), started);
+        assertEquals(1, keep.skipped());
+
+        started.clear();
+        PathPrewarmer<String> recent = prewarmer(1, true);
+        recent.onPeerFound("a", 1000, null);
+        recent.onPeerFound("b", 1000, null);
+        assertEquals(Arrays.asList("a", "b"), started);
+        assertEquals(Arrays.asList("path-a cancelled"), cancelled);
+        assertEquals("path-b", recent.claim("b"));
+    }
+
+    @Test
+    public void unclaimedPathExpiresAndClaimedOneDoesNot() {
+        PathPrewarmer<String> p = prewarmer(2, false);
+        p.onPeerFound("a", 1000, null);
+        p.onPeerFound("b", 1000, null);
+        assertEquals("path-a", p.claim("a"));
+        assertNull(p.claim("a"));
+
+        fireTimers();
+        assertEquals(Arrays.asList("path-b expired"), cancelled);
+        assertEquals(0, p.size());
+    }
+
+    @Test
+    public void lostPeersAndCancelAllTearPathsDown() {
+        PathPrewarmer<String> p = prewarmer(3, false);
+        p.onPeerFound("a", 1000, null);
+        p.onPeerFound("b", 1000, null);
+        p.onPeerFound("c", 1000, null);
+        p.onPeerLost("a");
+        p.forget("b", "path-b");
+        p.cancelAll();
+        assertEquals(Arrays.asList("path-a cancelled", "path-c cancelled"), cancelled);
+
+        // Timers of paths already gone do nothing
+        fireTimers();
+        assertEquals(2, cancelled.size());
+    }
+
+    @Test
+    public void ruleMatchesCapabilityAndRejectsBadLimits() {
+        PathPrewarmer.Rule rule = new PathPrewarmer.Rule("psk", null, null, "files", 1, false, 1000);
+        assertTrue(rule.matches(null, Arrays.asList("chat", "files")));
+        assertFalse(rule.matches(100, Collections.singletonList("chat")));
+        assertFalse(rule.matches(100, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PathPrewarmer.Rule(null, null, null, null, 1, false, 1000));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PathPrewarmer.Rule("psk", null, null, null, 0, false, 1000));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PathPrewarmer.Rule("psk", null, null, null, 1, false, 0));
+    }
+}
@@ -0,0 +1,73 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PayloadStoreTest {
+
+    private final PayloadStore store = new PayloadStore();
+
+    @Test
+    public void evictsOldestBeyondEntryLimit() {
+        store.setMaxEntries(2);
+        String a = store.put(new byte[] { 1 });
+        String b = store.put(new byte[] { 2 });
+        String c = store.put(new byte[] { 3 });
+
+        assertNull(store.get(a));
+        assertArrayEquals(new byte[] { 2 }, store.get(b));
+        assertArrayEquals(new byte[] { 3 }, store.get(c));
+        assertEquals(2, store.size());
+        assertEquals(1, store.evicted());
+    }
+
+    @Test
+    public void evictsOldestBeyondByteBudget() {
+        store.setMaxBytes(10);
+        String a = store.put(new byte[4]);
+        String b = store.put(new byte[4]);
+        String c = store.put(new byte[4]);
+        assertNull(store.get(a));
+        assertNotNull(store.get(b));
+        assertNotNull(store.get(c));
+
+        // Larger than the whole budget: kept, on its own
+        String big = store.put(new byte[11]);
+        assertEquals(1, store.size());
+        assertEquals(11, store.get(big).length);
+        assertEquals(3, store.evicted());
+    }
+
+    @Test
+    public void handlesExpireOnceTakenReleasedOrEvicted() {
+        store.setMaxBytes(8);
+        String a = store.put(new byte[] { 1, 2, 3, 4 });
+        String b = store.put(new byte[] { 5, 6, 7, 8 });
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, store.take(a));
+        assertNull(store.take(a));
+        assertNull(store.get(a));
+        // Taking freed its bytes: another payload fits without evicting b
+        String c = store.put(new byte[4]);
+        assertNotNull(store.get(b));
+        assertTrue(store.release(b));
+        assertFalse(store.release(b));
+        assertEquals(0, store.evicted());
+
+        // Shrinking the budget evicts what no longer fits
+        store.put(new byte[4]);
+        store.setMaxEntries(1);
+        assertNull(store.get(c));
+        assertEquals(1, store.size());
+        store.clear();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void handlesAreUnique() {
+        assertNotEquals(store.put(new byte[0]), store.put(new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> store.setMaxBytes(0));
+        assertThrows(IllegalArgumentException.class, () -> store.setMaxEntries(0));
+    }
+}
@@ -0,0 +1,119 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PeerConnectionTest {
+
+    private ExecutorService executor;
+    private Socket clientSocket;
+    private Socket serverSocket;
+
+    @Before
+    public void connect() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            clientSocket = new Socket(listener.getInetAddress(), listener.getLocalPort());
+            serverSocket = listener.accept();
+        }
+    }
+
+    @After
+    public void close() throws Exception {
+        clientSocket.close();
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void bothSidesAgreeOnFramed() throws Exception {
+        PeerConnection client = new PeerConnection("s", "server", clientSocket, true, executor);
+        PeerConnection server = new PeerConnection("s", "client", serverSocket, false, executor);
+
+        client.sendHello();
+        Integer hello = server.peekFirstWord(1000);
+        assertNotNull(hello);
+        assertTrue(server.onFirstWord(hello));
+        assertEquals(FrameCodec.VERSION_FRAMED, server.awaitVersion(0));
+
+        // The accepting side answers with the agreed version
+        Integer ack = client.peekFirstWord(1000);
+        assertNotNull(ack);
+        assertTrue(client.onFirstWord(ack));
+        assertEquals(FrameCodec.VERSION_FRAMED, client.awaitVersion(0));
+
+        assertNotNull(client.mux());
+        assertNotNull(server.mux());
+        assertFalse(server.isAuxiliary());
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void auxiliaryHelloMarksServerConnection() throws Exception {
+        PeerConnection client = new PeerConnection("s", "server", clientSocket, true, true,
+                new CoalescingWriter.Batching(), executor);
+        PeerConnection server = new PeerConnection("s", "client", serverSocket, false, executor);
+
+        client.sendHello();
+        Integer hello = server.peekFirstWord(1000);
+        assertTrue(FrameCodec.isAuxiliary(hello));
+        assertTrue(server.isAuxiliary());
+        assertTrue(server.onFirstWord(hello));
+        assertEquals(FrameCodec.VERSION_FRAMED, server.awaitVersion(0));
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void silentClientFallsBackToLegacy() throws Exception {
+        PeerConnection server = new PeerConnection("s", "client", serverSocket, false, executor);
+
+        assertNull(server.peekFirstWord(50));
+        assertEquals(FrameCodec.VERSION_LEGACY, server.awaitVersion(10));
+        assertNull(server.mux());
+
+        // Nothing was consumed: the legacy message that follows is read in full
+        DataOutputStream out = new DataOutputStream(clientSocket.getOutputStream());
+        out.writeInt(1);
+        out.flush();
+        assertEquals(1, server.input().readInt());
+        server.close();
+    }
+
+    @Test
+    public void legacyMessageTypeIsNotAHello() throws Exception {
+        PeerConnection server = new PeerConnection("s", "client", serverSocket, false, executor);
+        DataOutputStream out = new DataOutputStream(clientSocket.getOutputStream());
+        out.writeInt(1);
+        out.flush();
+
+        Integer word = server.peekFirstWord(1000);
+        assertEquals(Integer.valueOf(1), word);
+        assertFalse(server.onFirstWord(word));
+        assertEquals(FrameCodec.VERSION_LEGACY, server.version());
+        assertNull(server.mux());
+        server.close();
+    }
+
+    @Test
+    public void lateHelloAfterFallbackIsIgnored() throws Exception {
+        PeerConnection server = new PeerConnection("s", "client", serverSocket, false, executor);
+        assertEquals(FrameCodec.VERSION_LEGACY, server.awaitVersion(10));
+
+        assertTrue(server.onFirstWord(FrameCodec.hello(FrameCodec.VERSION_FRAMED)));
+        assertEquals(FrameCodec.VERSION_LEGACY, server.version());
+        assertNull(server.mux());
+        server.close();
+    }
+}
@@ -0,0 +1,174 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class PeerRegistryTest {
+
+    private long now;
+    private final List<String> evicted = new ArrayList<>();
+
+    private PeerRegistry<String> registry(int maxPeers, long ttlMs) {
+        return new PeerRegistry<>(maxPeers, ttlMs, () -> now, evicted::add);
+    }
+
+    @Test
+    public void idAndHandleMapBothWays() {
+        PeerRegistry<String> r = registry(10, 0);
+        String a = r.idFor("handle-a");
+        String b = r.idFor("handle-b");
+        assertNotEquals(a, b);
+        assertEquals(a, r.idFor("handle-a"));
+        assertEquals("handle-a", r.get(a));
+        assertEquals("handle-b", r.get(b));
+        assertNull(r.get("unknown"));
+        assertEquals(2, r.size());
+    }
+
+    @Test
+    public void findDoesNotMintIds() {
+        PeerRegistry<String> r = registry(10, 0);
+        assertNull(r.find("handle-a"));
+        assertEquals(0, r.size());
+        assertEquals(0L, r.stats().get("created"));
+
+        String a = r.idFor("handle-a");
+        assertEquals(a, r.find("handle-a"));
+        assertEquals(1L, r.stats().get("created"));
+    }
+
+    @Test
+    public void removeForgetsBothDirections() {
+        PeerRegistry<String> r = registry(10, 0);
+        String a = r.idFor("handle-a");
+        assertTrue(r.remove(a));
+        assertFalse(r.remove(a));
+        assertNull(r.get(a));
+        assertNull(r.find("handle-a"));
+        assertEquals(Collections.singletonList(a), evicted);
+
+        // The same handle discovered again gets a fresh id
+        assertNotEquals(a, r.idFor("handle-a"));
+    }
+
+    @Test
+    public void sweepDropsPeersNotSeenWithinTtl() {
+        PeerRegistry<String> r = registry(10, 1000);
+        String a = r.idFor("handle-a");
+        now = 500;
+        String b = r.idFor("handle-b");
+        now = 900;
+        r.touch(a);
+
+        now = 1499;
+        assertEquals(Collections.emptyList(), r.sweep());
+        now = 1500;
+        assertEquals(Collections.singletonList(b), r.sweep());
+        assertEquals(Collections.singletonList(b), evicted);
+        assertEquals(Arrays.asList(a), r.ids());
+
+        now = 1900;
+        assertEquals(Collections.singletonList(a), r.sweep());
+        assertEquals(0, r.size());
+    }
+
+    @Test
+    public void sweepIsOffWithoutTtl() {
+        PeerRegistry<String> r = registry(10, 0);
+        r.idFor("handle-a");
+        now = Long.MAX_VALUE / 2;
+        assertTrue(r.sweep().isEmpty());
+        assertEquals(1, r.size());
+    }
+
+    @Test
+    public void capacityEvictsLeastRecentlySeen() {
+        PeerRegistry<String> r = registry(2, 0);
+        String a = r.idFor("handle-a");
+        String b = r.idFor("handle-b");
+        // Seeing a again makes b the least recently seen
+        assertEquals(a, r.idFor("handle-a"));
+        String c = r.idFor("handle-c");
+
+        assertEquals(Collections.singletonList(b), evicted);
+        assertNull(r.get(b));
+        assertNull(r.find("handle-b"));
+        assertEquals("handle-a", r.get(a));
+        assertEquals("handle-c", r.get(c));
+        assertEquals(2, r.size());
+    }
+
+    @Test
+    public void listenerMayCallBackIntoRegistry() {
+        List<Integer> sizes = new ArrayList<>();
+        AtomicReference<PeerRegistry<String>> ref = new AtomicReference<>();
+        ref.set(new PeerRegistry<>(1, 0, () -> now, id -> sizes.add(ref.get().size())));
+        ref.get().idFor("handle-a");
+        ref.get().idFor("handle-b");
+        assertEquals(Collections.singletonList(1), sizes);
+    }
+
+    @Test
+    public void countersTrackEveryKindOfEviction() {
+        PeerRegistry<String> r = registry(2, 1000);
+        String a = r.idFor("handle-a");
+        r.idFor("handle-a");
+        r.idFor("handle-b");
+        r.idFor("handle-c"); // pushes out a
+        r.get("nobody");
+        r.find("handle-z");
+        String c = r.find("handle-c");
+        r.remove(c);
+        now = 1000;
+        r.sweep(); // b
+
+        Map<String, Object> stats = r.stats();
+        assertEquals(0, stats.get("size"));
+        assertEquals(2, stats.get("maxPeers"));
+        assertEquals(3L, stats.get("created"));
+        assertEquals(7L, stats.get("lookups"));
+        assertEquals(1L, stats.get("capacityEvictions"));
+        assertEquals(1L, stats.get("lostEvictions"));
+        assertEquals(1L, stats.get("ttlEvictions"));
+        assertEquals(3, evicted.size());
+        assertEquals(a, evicted.get(0));
+    }
+
+    @Test
+    public void resetStatsZeroesCountersAndKeepsPeers() {
+        PeerRegistry<String> r = registry(1, 0);
+        String a = r.idFor("handle-a");
+        r.idFor("handle-b");
+        r.get(a);
+        r.resetStats();
+
+        Map<String, Object> stats = r.stats();
+        assertEquals(0L, stats.get("created"));
+        assertEquals(0L, stats.get("lookups"));
+        assertEquals(0L, stats.get("capacityEvictions"));
+        assertEquals(1, stats.get("size"));
+        assertEquals(1, stats.get("maxPeers"));
+    }
+
+    @Test
+    public void clearDoesNotReportEvictions() {
+        PeerRegistry<String> r = registry(10, 0);
+        r.idFor("handle-a");
+        r.clear();
+        assertEquals(0, r.size());
+        assertTrue(evicted.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        registry(0, 0);
+    }
+}
@@ -0,0 +1,72 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ProgressReporterTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final List<long[]> reports = new ArrayList<>();
+    private final List<ProgressReporter.Rate> rates = new ArrayList<>();
+
+    private ProgressReporter reporter(long total) {
+        return new ProgressReporter(total, 500, (bytes, totalBytes, rate) -> {
+            reports.add(new long[] { bytes, totalBytes });
+            rates.add(rate);
+        }, () -> false);
+    }
+
+    @Test
+    public void reportsAtMostOncePerInterval() {
+        ProgressReporter r = reporter(10_000_000);
+        // 1000 bytes per ms for two seconds, counted every 10 ms
+        for (long t = 0; t <= 2000; t += 10)
+            r.onProgress(t * 1000, t * MS);
+
+        assertEquals(4, reports.size());
+        for (int i = 0; i < reports.size(); i++)
+            assertEquals((i + 1) * 500_000L, reports.get(i)[0]);
+        ProgressReporter.Rate rate = rates.get(3);
+        assertEquals(1_000_000, rate.instantBytesPerSecond, 1);
+        assertEquals(1_000_000, rate.smoothedBytesPerSecond, 1);
+        assertEquals(8000, rate.etaMs);
+    }
+
+    @Test
+    public void lastByteIsAlwaysReportedOnce() {
+        ProgressReporter r = reporter(1000);
+        r.onProgress(0, 0);
+        r.onProgress(400, 100 * MS);
+        r.onProgress(1000, 150 * MS);
+        r.onProgress(1000, 900 * MS);
+
+        assertEquals(1, reports.size());
+        assertEquals(1000, reports.get(0)[0]);
+        assertEquals(1000, reports.get(0)[1]);
+        assertEquals(0, rates.get(0).etaMs);
+    }
+
+    @Test
+    public void resumedTransferRatesFromItsFirstCount() {
+        ProgressReporter r = reporter(2_000_000);
+        r.onProgress(1_000_000, 0);
+        r.onProgress(1_500_000, 500 * MS);
+        assertEquals(1_000_000, rates.get(0).instantBytesPerSecond, 1);
+        assertEquals(500, rates.get(0).etaMs);
+    }
+
+    @Test
+    public void unknownSizeHasNoEtaAndNoFinalReport() {
+        ProgressReporter r = reporter(0);
+        r.onProgress(0, 0);
+        r.onProgress(100, 600 * MS);
+        r.onProgress(200, 700 * MS);
+        assertEquals(1, reports.size());
+        assertEquals(-1, rates.get(0).etaMs);
+    }
+}
@@ -0,0 +1,162 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SocketEngineTest {
+
+    private static final int WORKERS = 2;
+    private static final int WRITERS = 2;
+
+    private SocketEngine engine;
+    private ThreadPoolExecutor writers;
+    private ServerSocketChannel server;
+    private final List<PeerConnection> connections = new ArrayList<>();
+    private final AtomicInteger received = new AtomicInteger();
+
+    // Framed session on the engine: hello, then messages counted
+    private class Session implements SocketEngine.ConnectionHandler {
+        final PeerConnection conn;
+
+        Session(PeerConnection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public boolean onFirstWord(Integer word) throws IOException {
+            return word != null && conn.onFirstWord(word);
+        }
+
+        @Override
+        public void onFrame(FrameCodec.Header header, byte[] payload) {
+            if (header.type == FrameCodec.TYPE_MESSAGE)
+                received.incrementAndGet();
+        }
+
+        @Override
+        public void onDetached() {
+        }
+
+        @Override
+        public void onClosed(IOException error) {
+        }
+    }
+
+    @Before
+    public void start() throws Exception {
+        engine = new SocketEngine(WORKERS);
+        writers = SocketEngine.boundedPool("test-writer", WRITERS, new LinkedBlockingQueue<>());
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        engine.listen(server, ch -> {
+            try {
+                open(ch, false);
+            } catch (IOException e) {
+                fail(e.toString());
+            }
+        });
+    }
+
+    @After
+    public void stop() throws Exception {
+        synchronized (connections) {
+            for (PeerConnection c : connections)
+                c.close();
+        }
+        server.close();
+        engine.close();
+        writers.shutdownNow();
+    }
+
+    // Attaches a connection and starts reading it on the engine
+    private PeerConnection open(SocketChannel channel, boolean initiator) throws IOException {
+        SocketEngine.Connection ec = engine.attach(channel);
+        PeerConnection conn = new PeerConnection("s", initiator ? "server" : "client", channel.socket(), initiator,
+                false, ec, new CoalescingWriter.Batching(), writers);
+        synchronized (connections) {
+            connections.add(conn);
+        }
+        ec.start(0, new Session(conn));
+        return conn;
+    }
+
+    // Opens n connections, each sending one message once the hello was answered
+    private void connectAndSend(int n) throws Exception {
+        int before = received.get();
+        List<PeerConnection> clients = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            SocketChannel ch = SocketChannel.open(server.getLocalAddress());
+            PeerConnection c = open(ch, true);
+            c.sendHello();
+            clients.add(c);
+        }
+        for (PeerConnection c : clients) {
+            assertEquals(FrameCodec.VERSION_FRAMED, c.awaitVersion(5000));
+            c.mux().sendMessage(new byte[] { 1, 2, 3 });
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (received.get() < before + n && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(before + n, received.get());
+    }
+
+    private static int engineThreads() {
+        int n = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.isAlive() && (t.getName().startsWith("wifiaware-") || t.getName().startsWith("test-writer-")))
+                n++;
+        }
+        return n;
+    }
+
+    @Test
+    public void threadCountStaysFlatAsConnectionsGrow() throws Exception {
+        connectAndSend(8);
+        int small = engineThreads();
+        connectAndSend(120);
+        int large = engineThreads();
+
+        // One selector thread plus the two bounded pools, however many connections are open
+        int bound = 1 + WORKERS + WRITERS;
+        assertTrue("threads with 16 connections: " + small, small <= bound);
+        assertTrue("threads with 256 connections: " + large, large <= bound);
+        assertEquals(256, connections.size());
+    }
+
+    @Test
+    public void boundedPoolRejectsPastItsQueue() throws Exception {
+        ThreadPoolExecutor pool = SocketEngine.boundedPool("test-bounded", 1, new LinkedBlockingQueue<>(1));
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            pool.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            pool.execute(() -> { });
+            assertThrows(java.util.concurrent.RejectedExecutionException.class, () -> pool.execute(() -> { }));
+            assertEquals(1, pool.getPoolSize());
+        } finally {
+            release.countDown();
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+}
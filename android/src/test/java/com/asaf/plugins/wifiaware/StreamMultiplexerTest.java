@@ -0,0 +1,155 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamMultiplexerTest {
+
+    private ExecutorService executor;
+    private final CoalescingWriterTest.Channel channel = new CoalescingWriterTest.Channel();
+    private final CoalescingWriter.Batching batching = new CoalescingWriter.Batching();
+    private StreamMultiplexer mux;
+
+    // Writes a fixed number of DATA frames, then END
+    private static class Frames implements StreamMultiplexer.Stream {
+        final CompletableFuture<IOException> finished = new CompletableFuture<>();
+        int left;
+
+        Frames(int count) {
+            left = count;
+        }
+
+        @Override
+        public boolean writeFrame(int streamId, StreamMultiplexer.FrameSink sink) throws IOException {
+            if (left-- > 0) {
+                sink.write(FrameCodec.TYPE_DATA, (byte) 0, streamId, ByteBuffer.wrap(new byte[100]));
+                return true;
+            }
+            sink.write(FrameCodec.TYPE_END, (byte) 0, streamId, null);
+            return false;
+        }
+
+        @Override
+        public void onFinished(IOException error) {
+            finished.complete(error);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        mux = new StreamMultiplexer(channel, batching);
+    }
+
+    @After
+    public void tearDown() {
+        mux.close();
+        executor.shutdownNow();
+    }
+
+    // Frame types in the order they were written; a stream frame may span several write calls
+    private static List<Byte> types(List<byte[]> writes) throws IOException {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (byte[] w : writes)
+            all.write(w);
+        List<Byte> types = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(all.toByteArray()));
+        while (in.available() > 0) {
+            FrameCodec.Header h = FrameCodec.readHeader(in);
+            in.readFully(new byte[h.length]);
+            types.add(h.type);
+        }
+        return types;
+    }
+
+    @Test
+    public void controlFramesGoAheadOfStreamData() throws Exception {
+        Frames stream = new Frames(3);
+        mux.open(stream);
+        mux.sendMessage(new byte[] { 1 });
+        mux.sendControl(FrameCodec.TYPE_RESET, (byte) 0, 7, null);
+        mux.start(executor);
+
+        assertNull(stream.finished.get(5, TimeUnit.SECONDS));
+        List<Byte> types = types(channel.awaitWrites(0));
+        assertEquals(6, types.size());
+        assertEquals(FrameCodec.TYPE_MESSAGE, (byte) types.get(0));
+        assertEquals(FrameCodec.TYPE_RESET, (byte) types.get(1));
+        assertEquals(FrameCodec.TYPE_DATA, (byte) types.get(2));
+        assertEquals(FrameCodec.TYPE_END, (byte) types.get(5));
+        assertEquals(0, mux.activeStreams());
+    }
+
+    @Test
+    public void messagesLingerAndLeaveInOneBatch() throws Exception {
+        batching.setLingerMicros(10_000_000);
+        mux.start(executor);
+        mux.sendMessage(new byte[] { 1 });
+        mux.sendMessage(new byte[] { 2 });
+        Thread.sleep(50);
+        assertTrue(channel.awaitWrites(0).isEmpty());
+
+        // Protocol replies never linger and take the queued messages along
+        mux.sendControl(FrameCodec.TYPE_NEED, FrameCodec.FLAG_LAST, 3, new byte[4]);
+        List<byte[]> writes = channel.awaitWrites(1);
+        assertEquals(1, writes.size());
+        assertEquals(3, types(writes).size());
+    }
+
+    @Test
+    public void flushedMessageSkipsTheLingerWindow() throws Exception {
+        batching.setLingerMicros(10_000_000);
+        mux.start(executor);
+        mux.sendMessage(new byte[] { 1 });
+        long start = System.nanoTime();
+        // Returns only once written, well inside the linger window
+        mux.sendMessage(new byte[] { 2 }, true);
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        List<byte[]> writes = channel.awaitWrites(0);
+        assertEquals(1, writes.size());
+        assertEquals(2, types(writes).size());
+    }
+
+    @Test
+    public void interruptEndsTheLingerAndIsKept() throws Exception {
+        batching.setLingerMicros(10_000_000);
+        CompletableFuture<Thread> writerThread = new CompletableFuture<>();
+        CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+        mux.start(task -> executor.execute(() -> {
+            writerThread.complete(Thread.currentThread());
+            task.run();
+            interrupted.complete(Thread.interrupted());
+        }));
+        mux.sendMessage(new byte[] { 1 });
+        Thread.sleep(50);
+        writerThread.get(5, TimeUnit.SECONDS).interrupt();
+
+        assertTrue(interrupted.get(5, TimeUnit.SECONDS));
+        assertEquals(1, types(channel.awaitWrites(1)).size());
+    }
+
+    @Test
+    public void closeFailsOpenStreamsAndLaterSends() throws Exception {
+        Frames stream = new Frames(1);
+        mux.open(stream);
+        mux.close();
+        assertNotNull(stream.finished.get(5, TimeUnit.SECONDS));
+        assertThrows(IOException.class, () -> mux.sendMessage(new byte[] { 1 }));
+        assertThrows(IOException.class, () -> mux.open(new Frames(1)));
+    }
+}
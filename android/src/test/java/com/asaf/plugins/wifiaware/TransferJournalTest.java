@@ -0,0 +1,135 @@
+package com.asaf.plugins.wifiaware;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransferJournalTest {
+
+    private static final int CHUNK = TransferJournal.CHUNK_SIZE;
+
+    private File dir;
+    private File partial;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("journal").toFile();
+        partial = new File(dir, "partial.bin");
+        content = new byte[3 * CHUNK + 100];
+        new Random(7).nextBytes(content);
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    // Journal for content, fed the way the receive pipeline writes it
+    private TransferJournal written(String key, int bytes) throws IOException {
+        TransferJournal j = new TransferJournal(dir, key, "local-1", "peer-a", "a.bin", content.length, null, 0);
+        for (int pos = 0; pos < bytes; pos += 64 * 1024) {
+            int n = Math.min(64 * 1024, bytes - pos);
+            j.onWritten(ByteBuffer.wrap(content, pos, n), pos);
+        }
+        try (FileOutputStream out = new FileOutputStream(partial)) {
+            out.write(content, 0, bytes);
+        }
+        return j;
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws Exception {
+        String key = TransferJournal.incomingKey("install-1/t-1");
+        TransferJournal j = written(key, 2 * CHUNK + 500);
+        assertEquals(2L * CHUNK, j.verifiedOffset());
+        j.save();
+
+        TransferJournal loaded = TransferJournal.load(dir, key);
+        assertNotNull(loaded);
+        assertEquals("local-1", loaded.transferId);
+        assertEquals("peer-a", loaded.peerId);
+        assertEquals("a.bin", loaded.fileName);
+        assertEquals(content.length, loaded.fileSize);
+        assertEquals(2L * CHUNK, loaded.verifiedOffset());
+        assertEquals(2L * CHUNK, loaded.verify(partial));
+        assertFalse(new File(dir, key + ".tmp").exists());
+    }
+
+    @Test
+    public void verifyDropsChunksFromFirstMismatch() throws Exception {
+        String key = TransferJournal.incomingKey("install-1/t-1");
+        written(key, 3 * CHUNK).save();
+        // The partial file changed after the journal was written: its second chunk is stale
+        try (RandomAccessFile raf = new RandomAccessFile(partial, "rw")) {
+            raf.seek(CHUNK + 10);
+            raf.write(content[CHUNK + 10] ^ 1);
+        }
+        TransferJournal loaded = TransferJournal.load(dir, key);
+        assertEquals(CHUNK, loaded.verify(partial));
+
+        // Missing partial file: nothing to continue from
+        assertTrue(partial.delete());
+        assertEquals(0, TransferJournal.load(dir, key).verify(partial));
+    }
+
+    @Test
+    public void outgoingKeysSeparatePeersAndSourceVersions() {
+        String key = TransferJournal.outgoingKey("peer-a", "/sdcard/a.bin", 100, 1000);
+        assertEquals(key, TransferJournal.outgoingKey("peer-a", "/sdcard/a.bin", 100, 1000));
+        assertNotEquals(key, TransferJournal.outgoingKey("peer-b", "/sdcard/a.bin", 100, 1000));
+        assertNotEquals(key, TransferJournal.outgoingKey("peer-a", "/sdcard/a.bin", 101, 1000));
+        assertNotEquals(key, TransferJournal.outgoingKey("peer-a", "/sdcard/a.bin", 100, 1001));
+        assertNotEquals(key, TransferJournal.outgoingKey("peer-a", "/sdcard/b.bin", 100, 1000));
+    }
+
+    @Test
+    public void corruptJournalLoadsAsNone() throws Exception {
+        String key = TransferJournal.incomingKey("install-1/t-1");
+        written(key, CHUNK).save();
+        File file = new File(dir, key);
+        byte[] saved = Files.readAllBytes(file.toPath());
+
+        // Truncated
+        Files.write(file.toPath(), Arrays.copyOf(saved, saved.length - 3));
+        assertNull(TransferJournal.load(dir, key));
+        // Wrong magic
+        byte[] bad = saved.clone();
+        bad[0] ^= 0x55;
+        Files.write(file.toPath(), bad);
+        assertNull(TransferJournal.load(dir, key));
+        // More chunks than the file size allows
+        bad = saved.clone();
+        ByteBuffer.wrap(bad).putInt(saved.length - 8, Integer.MAX_VALUE);
+        Files.write(file.toPath(), bad);
+        assertNull(TransferJournal.load(dir, key));
+
+        assertNull(TransferJournal.load(dir, "in-missing"));
+    }
+
+    @Test
+    public void instanceIdIsStableAndSurvivesPruning() throws Exception {
+        String id = TransferJournal.instanceId(dir);
+        assertFalse(id.isEmpty());
+        assertEquals(id, TransferJournal.instanceId(dir));
+
+        TransferJournal j = written(TransferJournal.incomingKey("install-1/t-1"), CHUNK);
+        j.save();
+        TransferJournal.prune(dir, -1000);
+        assertNull(TransferJournal.load(dir, j.key));
+        assertEquals(id, TransferJournal.instanceId(dir));
+    }
+}
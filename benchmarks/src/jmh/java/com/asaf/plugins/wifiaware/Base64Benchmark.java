@@ -0,0 +1,49 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Base64 paid on every payload crossing the bridge. The plugin uses android.util.Base64,
+ * which is not available on a desktop JDK; java.util.Base64 stands in for it, so the
+ * numbers show how cost scales with size rather than the on-device cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class Base64Benchmark {
+
+    /** A discovery message, a socket message, a 1 MiB inline file */
+    @Param({ "255", "65536", "1048576" })
+    public int bytes;
+
+    private byte[] data;
+    private String encoded;
+
+    @Setup
+    public void setup() {
+        data = new byte[bytes];
+        new Random(1).nextBytes(data);
+        encoded = Base64.getEncoder().encodeToString(data);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64.getDecoder().decode(encoded);
+    }
+}
@@ -0,0 +1,81 @@
+package com.asaf.plugins.wifiaware;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Device info in the publish service info, decoded once per discovery callback. The legacy
+ * JSON form (encode, parse, extractJsonValue) next to the TLV form (encodeTlv, parseTlv).
+ * For the fields below the TLV form takes 38 bytes of the service info, JSON 61 with its
+ * separator.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class DeviceInfoCodecBenchmark {
+
+    /** User service info in front of the device info; the JSON decoder scans it for the separator */
+    @Param({ "0", "64", "160" })
+    public int userBytes;
+
+    private DeviceInfoCodec.Fields fields;
+    private byte[] serviceInfo;
+    private byte[] tlvServiceInfo;
+    private String json;
+
+    @Setup
+    public void setup() {
+        fields = new DeviceInfoCodec.Fields("Pixel 8 Pro", "Android", "Pixel 8 Pro", "14",
+                DeviceInfoCodec.CAP_MESSAGING | DeviceInfoCodec.CAP_FILE_TRANSFER | DeviceInfoCodec.CAP_RANGING);
+        byte[] info = DeviceInfoCodec.encodeJson(fields);
+        serviceInfo = new byte[userBytes + 1 + info.length];
+        fillUserData(serviceInfo);
+        serviceInfo[userBytes] = DeviceInfoCodec.SEPARATOR;
+        System.arraycopy(info, 0, serviceInfo, userBytes + 1, info.length);
+        json = new String(info, StandardCharsets.UTF_8);
+
+        byte[] tlv = DeviceInfoCodec.encodeTlv(fields);
+        tlvServiceInfo = new byte[userBytes + tlv.length];
+        fillUserData(tlvServiceInfo);
+        System.arraycopy(tlv, 0, tlvServiceInfo, userBytes, tlv.length);
+    }
+
+    private void fillUserData(byte[] b) {
+        for (int i = 0; i < userBytes; i++)
+            b[i] = (byte) ('a' + i % 26);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return DeviceInfoCodec.encodeJson(fields);
+    }
+
+    @Benchmark
+    public DeviceInfoCodec.Parsed parse() {
+        return DeviceInfoCodec.parse(serviceInfo);
+    }
+
+    @Benchmark
+    public String extractJsonValue() {
+        return DeviceInfoCodec.extractJsonValue(json, "o");
+    }
+
+    @Benchmark
+    public byte[] encodeTlv() {
+        return DeviceInfoCodec.encodeTlv(fields);
+    }
+
+    @Benchmark
+    public DeviceInfoCodec.Parsed parseTlv() {
+        return DeviceInfoCodec.parse(tlvServiceInfo);
+    }
+}
@@ -0,0 +1,80 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** v2 socket frames: encoding, reading back from a stream or buffer, and FILE_OPEN payloads. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FrameCodecBenchmark {
+
+    @Param({ "64", "1024", "65536" })
+    public int payloadBytes;
+
+    private byte[] payload;
+    private byte[] wire;
+    private byte[] readBuffer;
+    private FrameCodec.FileOpen open;
+    private byte[] encodedOpen;
+
+    @Setup
+    public void setup() {
+        payload = new byte[payloadBytes];
+        new Random(1).nextBytes(payload);
+        ByteBuffer frame = FrameCodec.encode(FrameCodec.TYPE_MESSAGE, (byte) 0, 3, payload);
+        wire = new byte[frame.remaining()];
+        frame.get(wire);
+        readBuffer = new byte[FrameCodec.MAX_PAYLOAD];
+        open = new FrameCodec.FileOpen(UUID.randomUUID().toString(), "recording.mp4", "video/mp4",
+                256L << 20, 64L << 20, 64L << 20, 4);
+        encodedOpen = FrameCodec.encodeFileOpen(open);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeFrame() {
+        return FrameCodec.encode(FrameCodec.TYPE_MESSAGE, (byte) 0, 3, payload);
+    }
+
+    /** The blocking read path: header and payload through a DataInputStream */
+    @Benchmark
+    public int readFrameFromStream() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(wire));
+        FrameCodec.Header h = FrameCodec.readHeader(in);
+        in.readFully(readBuffer, 0, h.length);
+        return h.length;
+    }
+
+    /** The selector read path: header parsed from a buffer already holding the frame */
+    @Benchmark
+    public int readFrameFromBuffer() throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(wire);
+        FrameCodec.Header h = FrameCodec.getHeader(b);
+        b.get(readBuffer, 0, h.length);
+        return h.length;
+    }
+
+    @Benchmark
+    public byte[] encodeFileOpen() {
+        return FrameCodec.encodeFileOpen(open);
+    }
+
+    @Benchmark
+    public FrameCodec.FileOpen decodeFileOpen() throws IOException {
+        return FrameCodec.decodeFileOpen(encodedOpen);
+    }
+}
@@ -0,0 +1,73 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Discovery-message protocol: the 0x01 0x01 file request header, cancel, and fragmentation. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class L2ProtocolBenchmark {
+
+    @Param({ "1024", "16384" })
+    public int messageBytes;
+
+    private L2Protocol.FileRequest request;
+    private byte[] encodedRequest;
+    private byte[] encodedCancel;
+    private byte[] message;
+    private List<byte[]> fragments;
+    private L2Fragments.Reassembler reassembler;
+    private int seq;
+
+    @Setup
+    public void setup() {
+        String transferId = UUID.randomUUID().toString();
+        request = new L2Protocol.FileRequest(transferId, "IMG_20240611_181502.jpg", "image/jpeg", 4_718_592);
+        encodedRequest = L2Protocol.encodeFileRequest(request);
+        encodedCancel = L2Protocol.encodeCancel(transferId);
+        message = new byte[messageBytes];
+        new Random(1).nextBytes(message);
+        fragments = L2Fragments.split(0, message, L2Fragments.DEFAULT_MAX_MESSAGE);
+        reassembler = new L2Fragments.Reassembler(1 << 20, 30_000);
+    }
+
+    @Benchmark
+    public byte[] encodeFileRequest() {
+        return L2Protocol.encodeFileRequest(request);
+    }
+
+    @Benchmark
+    public L2Protocol.FileRequest decodeFileRequest() {
+        return L2Protocol.decodeFileRequest(encodedRequest);
+    }
+
+    @Benchmark
+    public String decodeCancel() {
+        return L2Protocol.decodeCancel(encodedCancel);
+    }
+
+    @Benchmark
+    public List<byte[]> splitMessage() {
+        return L2Fragments.split(seq++ & 0xFFFF, message, L2Fragments.DEFAULT_MAX_MESSAGE);
+    }
+
+    @Benchmark
+    public byte[] reassembleMessage() {
+        byte[] whole = null;
+        for (byte[] f : fragments)
+            whole = reassembler.add("peer", f, 0);
+        return whole;
+    }
+}
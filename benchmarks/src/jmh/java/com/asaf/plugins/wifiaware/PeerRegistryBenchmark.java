@@ -0,0 +1,54 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Handle to ID and ID to handle lookups, made for every discovery callback and every send. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PeerRegistryBenchmark {
+
+    @Param({ "16", "256", "4096" })
+    public int peers;
+
+    private PeerRegistry<Object> registry;
+    private Object[] handles;
+    private String[] ids;
+    private int next;
+
+    @Setup
+    public void setup() {
+        registry = new PeerRegistry<>(peers, 60_000);
+        handles = new Object[peers];
+        ids = new String[peers];
+        for (int i = 0; i < peers; i++) {
+            handles[i] = new Object();
+            ids[i] = registry.idFor(handles[i]);
+        }
+    }
+
+    @Benchmark
+    public String idForKnownHandle() {
+        return registry.idFor(handles[next++ % peers]);
+    }
+
+    @Benchmark
+    public Object getById() {
+        return registry.get(ids[next++ % peers]);
+    }
+
+    /** A new peer at capacity: mints an ID and evicts the least recently seen one */
+    @Benchmark
+    public String idForNewHandleAtCapacity() {
+        return registry.idFor(new Object());
+    }
+}
@@ -0,0 +1,129 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Whole-file sends over loopback TCP with the two copy loops behind sendMode: the buffered
+ * stream copy against transferTo. Each operation ends when the receiver has read everything
+ * and acknowledged it.
+ *
+ * Loopback has no radio in the way, so this measures the sender's CPU and copy overhead;
+ * it says nothing about NDP link throughput.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SendModeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Loopback {
+        @Param({ "67108864" })
+        public long fileBytes;
+
+        Path file;
+        ServerSocketChannel server;
+        InetSocketAddress address;
+        ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            file = Files.createTempFile("loopback-bench", ".bin");
+            byte[] block = new byte[1 << 20];
+            new Random(1).nextBytes(block);
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (long written = 0; written < fileBytes; written += block.length)
+                    out.write(block, 0, (int) Math.min(block.length, fileBytes - written));
+            }
+            executor = Executors.newCachedThreadPool();
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            address = (InetSocketAddress) server.getLocalAddress();
+            executor.execute(this::acceptLoop);
+        }
+
+        // Drains each connection to EOF, then acknowledges with one byte
+        private void acceptLoop() {
+            while (server.isOpen()) {
+                SocketChannel c;
+                try {
+                    c = server.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                executor.execute(() -> {
+                    ByteBuffer buf = ByteBuffer.allocateDirect(256 * 1024);
+                    try (SocketChannel ch = c) {
+                        while (ch.read(buf) >= 0)
+                            buf.clear();
+                        ch.write(ByteBuffer.wrap(new byte[] { 1 }));
+                    } catch (IOException ignored) {
+                    }
+                });
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            server.close();
+            executor.shutdownNow();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** sendMode 'stream': file bytes copied through a heap buffer into the socket stream */
+    @Benchmark
+    public long streamCopy(Loopback l) throws IOException {
+        try (Socket s = new Socket(l.address.getAddress(), l.address.getPort());
+             InputStream in = new FileInputStream(l.file.toFile())) {
+            OutputStream out = s.getOutputStream();
+            long n = ChannelTransfer.copy(in, out, new byte[64 * 1024], null);
+            s.shutdownOutput();
+            awaitAck(s.getInputStream());
+            return n;
+        }
+    }
+
+    /** sendMode 'nio': transferTo from the file channel to the socket channel */
+    @Benchmark
+    public long nioTransferTo(Loopback l) throws IOException {
+        try (SocketChannel c = SocketChannel.open(l.address);
+             FileChannel file = FileChannel.open(l.file, StandardOpenOption.READ)) {
+            long n = ChannelTransfer.transfer(file, 0, l.fileBytes, c, null);
+            c.shutdownOutput();
+            awaitAck(c.socket().getInputStream());
+            return n;
+        }
+    }
+
+    private static void awaitAck(InputStream in) throws IOException {
+        if (in.read() != 1)
+            throw new IOException("Receiver did not acknowledge");
+    }
+}
@@ -0,0 +1,209 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Striped transfers over loopback TCP through the pieces the plugin sends and receives them
+ * with: one {@link FileStreamSource} per range, each on its own framed {@link PeerConnection},
+ * read into one shared {@link ReceivePipeline} with positional writes. Each operation ends when
+ * every stripe has sent END and the pipeline has written the whole file.
+ *
+ * Loopback has no radio in the way, so this shows how framing, copy and disk work spread over
+ * connections; it says nothing about NDP link throughput.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StripedTransferBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Loopback {
+        @Param({ "67108864" })
+        public long fileBytes;
+
+        @Param({ "1", "2", "4" })
+        public int stripes;
+
+        Path source;
+        Path target;
+        ServerSocket server;
+        ExecutorService executor;
+        final List<PeerConnection> senders = new ArrayList<>();
+        final ReceivePipeline.BufferPool pool =
+                new ReceivePipeline.BufferPool(ReceivePipeline.DEFAULT_BUFFER_SIZE, 32);
+        volatile Transfer current;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            source = Files.createTempFile("striped-bench", ".bin");
+            target = Files.createTempFile("striped-bench", ".out");
+            byte[] block = new byte[1 << 20];
+            new Random(1).nextBytes(block);
+            try (OutputStream out = Files.newOutputStream(source)) {
+                for (long written = 0; written < fileBytes; written += block.length)
+                    out.write(block, 0, (int) Math.min(block.length, fileBytes - written));
+            }
+            executor = Executors.newCachedThreadPool();
+            server = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+            executor.execute(this::acceptLoop);
+
+            // The connections of a striped transfer stay open between transfers, as in the plugin
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            for (int i = 0; i < stripes; i++) {
+                Socket socket = SocketChannel.open(address).socket();
+                PeerConnection conn = new PeerConnection("bench", "receiver", socket, true, i > 0,
+                        new CoalescingWriter.Batching(), executor);
+                executor.execute(() -> readHello(conn));
+                conn.sendHello();
+                if (conn.awaitVersion(5000) != FrameCodec.VERSION_FRAMED)
+                    throw new IOException("Receiver did not negotiate framing");
+                senders.add(conn);
+            }
+        }
+
+        private void acceptLoop() {
+            while (!server.isClosed()) {
+                Socket s;
+                try {
+                    s = server.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                executor.execute(() -> receive(s));
+            }
+        }
+
+        // Sender side: only the hello answer ever arrives
+        private void readHello(PeerConnection conn) {
+            try {
+                conn.onFirstWord(conn.input().readInt());
+            } catch (IOException ignored) {
+            }
+        }
+
+        // Receiver side of one connection: DATA goes from the socket straight into the pipeline
+        private void receive(Socket socket) {
+            try (PeerConnection conn = new PeerConnection("bench", "sender", socket, false, executor)) {
+                DataInputStream in = conn.input();
+                if (!conn.onFirstWord(in.readInt()))
+                    return;
+                ReadableByteChannel channel = Channels.newChannel(in);
+                Map<Integer, Long> positions = new HashMap<>();
+                while (true) {
+                    FrameCodec.Header h = FrameCodec.readHeader(in);
+                    if (h.type == FrameCodec.TYPE_DATA) {
+                        long position = positions.get(h.streamId);
+                        if (current.pipeline.read(channel, position, h.length) < h.length)
+                            throw new IOException("Connection closed inside a frame");
+                        positions.put(h.streamId, position + h.length);
+                        continue;
+                    }
+                    byte[] payload = new byte[h.length];
+                    in.readFully(payload);
+                    if (h.type == FrameCodec.TYPE_FILE_OPEN) {
+                        positions.put(h.streamId, FrameCodec.decodeFileOpen(payload).rangeOffset);
+                    } else if (h.type == FrameCodec.TYPE_END) {
+                        positions.remove(h.streamId);
+                        current.stripeEnded();
+                    }
+                }
+            } catch (IOException e) {
+                // Closed at tear down
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            for (PeerConnection c : senders)
+                c.close();
+            server.close();
+            executor.shutdownNow();
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+        }
+    }
+
+    // One file being received: the stripes share the pipeline and finish it together
+    static class Transfer {
+        final ReceivePipeline pipeline;
+        final int stripes;
+        final AtomicInteger ended = new AtomicInteger();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Transfer(Loopback l) throws IOException {
+            pipeline = new ReceivePipeline(l.target.toFile(), l.fileBytes, false, l.pool, l.executor);
+            pipeline.start();
+            stripes = l.stripes;
+        }
+
+        void stripeEnded() {
+            if (ended.incrementAndGet() < stripes)
+                return;
+            try {
+                pipeline.finish();
+                pipeline.close();
+                done.complete(null);
+            } catch (IOException e) {
+                done.completeExceptionally(e);
+            }
+        }
+    }
+
+    /** One striped transfer: a contiguous range per connection, as sendFile with stripes sends it */
+    @Benchmark
+    public long striped(Loopback l) throws Exception {
+        Transfer transfer = new Transfer(l);
+        l.current = transfer;
+        long stripeSize = (l.fileBytes + l.stripes - 1) / l.stripes;
+        List<FileStreamSource> streams = new ArrayList<>();
+        try (FileChannel file = FileChannel.open(l.source, StandardOpenOption.READ)) {
+            for (int i = 0; i < l.stripes; i++) {
+                long offset = Math.min(i * stripeSize, l.fileBytes);
+                long length = Math.min(stripeSize, l.fileBytes - offset);
+                FileStreamSource stream = new FileStreamSource(
+                        new FrameCodec.FileOpen("bench", "bench.bin", "", l.fileBytes, offset, length, l.stripes),
+                        file, null);
+                l.senders.get(i).mux().open(stream);
+                streams.add(stream);
+            }
+            long sent = 0;
+            for (FileStreamSource s : streams)
+                sent += s.completion().get(30, TimeUnit.SECONDS);
+            transfer.done.get(30, TimeUnit.SECONDS);
+            return sent;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package android.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+/** Stand-in for android.content.ContentResolver; content URIs resolve to local file paths. */
+public class ContentResolver {
+
+    public ParcelFileDescriptor openFileDescriptor(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode))
+            throw new FileNotFoundException("Only mode \"r\" is emulated: " + mode);
+        return new ParcelFileDescriptor(new FileInputStream(new File(uri.getPath())));
+    }
+}
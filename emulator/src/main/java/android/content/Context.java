@@ -0,0 +1,28 @@
+package android.content;
+
+import java.io.File;
+
+/** Stand-in for android.content.Context; emulated nodes override what the plugin asks of it. */
+public abstract class Context {
+    public static final String WIFI_AWARE_SERVICE = "wifiaware";
+    public static final String CONNECTIVITY_SERVICE = "connectivity";
+
+    public Object getSystemService(String name) {
+        return null;
+    }
+
+    public ContentResolver getContentResolver() {
+        return new ContentResolver();
+    }
+
+    public File getCacheDir() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return null;
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+    }
+}
@@ -0,0 +1,14 @@
+package android.content;
+
+public class Intent {
+
+    private final String action;
+
+    public Intent(String action) {
+        this.action = action;
+    }
+
+    public String getAction() {
+        return action;
+    }
+}
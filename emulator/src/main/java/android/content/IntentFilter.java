@@ -0,0 +1,14 @@
+package android.content;
+
+public class IntentFilter {
+
+    private final String action;
+
+    public IntentFilter(String action) {
+        this.action = action;
+    }
+
+    public boolean hasAction(String a) {
+        return action.equals(a);
+    }
+}
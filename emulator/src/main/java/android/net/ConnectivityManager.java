@@ -0,0 +1,45 @@
+package android.net;
+
+import android.os.Handler;
+
+import com.asaf.plugins.wifiaware.Air;
+
+/** Stand-in for android.net.ConnectivityManager; Wi-Fi Aware requests are matched on the {@link Air}. */
+public class ConnectivityManager {
+
+    public static class NetworkCallback {
+        public void onAvailable(Network network) {
+        }
+
+        public void onLost(Network network) {
+        }
+
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+        }
+
+        public void onUnavailable() {
+        }
+    }
+
+    private final Air.Radio radio;
+
+    public ConnectivityManager(Air.Radio radio) {
+        this.radio = radio;
+    }
+
+    public void requestNetwork(NetworkRequest request, NetworkCallback networkCallback) {
+        radio.requestNetwork(request, networkCallback, null, 0);
+    }
+
+    public void requestNetwork(NetworkRequest request, NetworkCallback networkCallback, Handler handler) {
+        radio.requestNetwork(request, networkCallback, handler, 0);
+    }
+
+    public void requestNetwork(NetworkRequest request, NetworkCallback networkCallback, int timeoutMs) {
+        radio.requestNetwork(request, networkCallback, null, timeoutMs);
+    }
+
+    public void unregisterNetworkCallback(NetworkCallback networkCallback) {
+        radio.unregisterNetworkCallback(networkCallback);
+    }
+}
@@ -0,0 +1,42 @@
+package android.net;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.Socket;
+
+import javax.net.SocketFactory;
+
+/** Stand-in for android.net.Network; the emulated link is reachable without binding. */
+public class Network {
+
+    private final int netId;
+
+    public Network(int netId) {
+        this.netId = netId;
+    }
+
+    public SocketFactory getSocketFactory() {
+        return SocketFactory.getDefault();
+    }
+
+    public void bindSocket(Socket socket) throws IOException {
+    }
+
+    public void bindSocket(DatagramSocket socket) throws IOException {
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Network && ((Network) o).netId == netId;
+    }
+
+    @Override
+    public int hashCode() {
+        return netId * 11;
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toString(netId);
+    }
+}
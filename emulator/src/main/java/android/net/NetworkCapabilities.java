@@ -0,0 +1,19 @@
+package android.net;
+
+public class NetworkCapabilities {
+    public static final int TRANSPORT_WIFI_AWARE = 5;
+
+    private final TransportInfo transportInfo;
+
+    public NetworkCapabilities(TransportInfo transportInfo) {
+        this.transportInfo = transportInfo;
+    }
+
+    public TransportInfo getTransportInfo() {
+        return transportInfo;
+    }
+
+    public boolean hasTransport(int transportType) {
+        return transportType == TRANSPORT_WIFI_AWARE;
+    }
+}
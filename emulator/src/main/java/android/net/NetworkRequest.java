@@ -0,0 +1,33 @@
+package android.net;
+
+public class NetworkRequest {
+
+    private final NetworkSpecifier specifier;
+
+    private NetworkRequest(NetworkSpecifier specifier) {
+        this.specifier = specifier;
+    }
+
+    public NetworkSpecifier getNetworkSpecifier() {
+        return specifier;
+    }
+
+    public static class Builder {
+        private NetworkSpecifier specifier;
+
+        public Builder addTransportType(int transportType) {
+            if (transportType != NetworkCapabilities.TRANSPORT_WIFI_AWARE)
+                throw new UnsupportedOperationException("Only TRANSPORT_WIFI_AWARE is emulated");
+            return this;
+        }
+
+        public Builder setNetworkSpecifier(NetworkSpecifier networkSpecifier) {
+            this.specifier = networkSpecifier;
+            return this;
+        }
+
+        public NetworkRequest build() {
+            return new NetworkRequest(specifier);
+        }
+    }
+}
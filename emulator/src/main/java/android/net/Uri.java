@@ -0,0 +1,30 @@
+package android.net;
+
+import java.net.URI;
+
+/** Stand-in for android.net.Uri backed by java.net.URI. */
+public class Uri {
+
+    private final URI uri;
+
+    private Uri(URI uri) {
+        this.uri = uri;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(URI.create(uriString));
+    }
+
+    public String getScheme() {
+        return uri.getScheme();
+    }
+
+    public String getPath() {
+        return uri.getPath();
+    }
+
+    @Override
+    public String toString() {
+        return uri.toString();
+    }
+}
@@ -0,0 +1,9 @@
+package android.net.wifi.aware;
+
+public class AttachCallback {
+    public void onAttached(WifiAwareSession session) {
+    }
+
+    public void onAttachFailed() {
+    }
+}
@@ -0,0 +1,18 @@
+package android.net.wifi.aware;
+
+public class Characteristics {
+
+    private final int maxServiceSpecificInfoLength;
+
+    public Characteristics(int maxServiceSpecificInfoLength) {
+        this.maxServiceSpecificInfoLength = maxServiceSpecificInfoLength;
+    }
+
+    public int getMaxServiceSpecificInfoLength() {
+        return maxServiceSpecificInfoLength;
+    }
+
+    public int getMaxServiceNameLength() {
+        return 255;
+    }
+}
@@ -0,0 +1,27 @@
+package android.net.wifi.aware;
+
+import com.asaf.plugins.wifiaware.Air;
+
+/** Stand-in for android.net.wifi.aware.DiscoverySession; messages go out over the {@link Air}. */
+public class DiscoverySession implements AutoCloseable {
+
+    private final Air.Session session;
+
+    DiscoverySession(Air.Session session) {
+        this.session = session;
+    }
+
+    /** The emulated session behind this one, for matching data-path requests */
+    public Air.Session emulatedSession() {
+        return session;
+    }
+
+    public void sendMessage(PeerHandle peerHandle, int messageId, byte[] message) {
+        session.sendMessage(peerHandle, messageId, message);
+    }
+
+    @Override
+    public void close() {
+        session.close();
+    }
+}
@@ -0,0 +1,26 @@
+package android.net.wifi.aware;
+
+/** Stand-in for android.net.wifi.aware.PeerHandle; the id is the remote session's. */
+public class PeerHandle {
+
+    public final int peerId;
+
+    public PeerHandle(int peerId) {
+        this.peerId = peerId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PeerHandle && ((PeerHandle) o).peerId == peerId;
+    }
+
+    @Override
+    public int hashCode() {
+        return peerId;
+    }
+
+    @Override
+    public String toString() {
+        return "PeerHandle(" + peerId + ")";
+    }
+}
@@ -0,0 +1,43 @@
+package android.net.wifi.aware;
+
+public class PublishConfig {
+
+    private final String serviceName;
+    private final byte[] serviceSpecificInfo;
+
+    private PublishConfig(String serviceName, byte[] serviceSpecificInfo) {
+        this.serviceName = serviceName;
+        this.serviceSpecificInfo = serviceSpecificInfo;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public byte[] getServiceSpecificInfo() {
+        return serviceSpecificInfo;
+    }
+
+    public static class Builder {
+        private String serviceName;
+        private byte[] serviceSpecificInfo;
+
+        public Builder setServiceName(String serviceName) {
+            this.serviceName = serviceName;
+            return this;
+        }
+
+        public Builder setServiceSpecificInfo(byte[] serviceSpecificInfo) {
+            this.serviceSpecificInfo = serviceSpecificInfo;
+            return this;
+        }
+
+        public Builder setRangingEnabled(boolean enable) {
+            return this;
+        }
+
+        public PublishConfig build() {
+            return new PublishConfig(serviceName, serviceSpecificInfo);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package android.net.wifi.aware;
+
+import com.asaf.plugins.wifiaware.Air;
+
+public class PublishDiscoverySession extends DiscoverySession {
+    public PublishDiscoverySession(Air.Session session) {
+        super(session);
+    }
+}
@@ -0,0 +1,35 @@
+package android.net.wifi.aware;
+
+public class SubscribeConfig {
+
+    private final String serviceName;
+
+    private SubscribeConfig(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public static class Builder {
+        private String serviceName;
+
+        public Builder setServiceName(String serviceName) {
+            this.serviceName = serviceName;
+            return this;
+        }
+
+        public Builder setMinDistanceMm(int minDistanceMm) {
+            return this;
+        }
+
+        public Builder setMaxDistanceMm(int maxDistanceMm) {
+            return this;
+        }
+
+        public SubscribeConfig build() {
+            return new SubscribeConfig(serviceName);
+        }
+    }
+}
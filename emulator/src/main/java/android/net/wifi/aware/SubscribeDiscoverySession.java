@@ -0,0 +1,9 @@
+package android.net.wifi.aware;
+
+import com.asaf.plugins.wifiaware.Air;
+
+public class SubscribeDiscoverySession extends DiscoverySession {
+    public SubscribeDiscoverySession(Air.Session session) {
+        super(session);
+    }
+}
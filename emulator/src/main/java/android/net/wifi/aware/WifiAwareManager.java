@@ -0,0 +1,27 @@
+package android.net.wifi.aware;
+
+import android.os.Handler;
+
+import com.asaf.plugins.wifiaware.Air;
+
+/** Stand-in for android.net.wifi.aware.WifiAwareManager over one emulated radio. */
+public class WifiAwareManager {
+
+    private final Air.Radio radio;
+
+    public WifiAwareManager(Air.Radio radio) {
+        this.radio = radio;
+    }
+
+    public boolean isAvailable() {
+        return true;
+    }
+
+    public Characteristics getCharacteristics() {
+        return new Characteristics(radio.maxMessage());
+    }
+
+    public void attach(AttachCallback attachCallback, Handler handler) {
+        radio.attach(attachCallback, handler);
+    }
+}
@@ -0,0 +1,28 @@
+package android.net.wifi.aware;
+
+import java.net.Inet6Address;
+
+import android.net.TransportInfo;
+
+public class WifiAwareNetworkInfo implements TransportInfo {
+
+    private final Inet6Address peerIpv6Addr;
+    private final int port;
+
+    public WifiAwareNetworkInfo(Inet6Address peerIpv6Addr, int port) {
+        this.peerIpv6Addr = peerIpv6Addr;
+        this.port = port;
+    }
+
+    public Inet6Address getPeerIpv6Addr() {
+        return peerIpv6Addr;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getTransportProtocol() {
+        return port > 0 ? 6 : -1;
+    }
+}
@@ -0,0 +1,51 @@
+package android.net.wifi.aware;
+
+import android.net.NetworkSpecifier;
+
+public class WifiAwareNetworkSpecifier extends NetworkSpecifier {
+
+    public final DiscoverySession discoverySession;
+    public final PeerHandle peerHandle;
+    public final String pskPassphrase;
+    public final int port;
+
+    private WifiAwareNetworkSpecifier(DiscoverySession discoverySession, PeerHandle peerHandle,
+            String pskPassphrase, int port) {
+        this.discoverySession = discoverySession;
+        this.peerHandle = peerHandle;
+        this.pskPassphrase = pskPassphrase;
+        this.port = port;
+    }
+
+    public static class Builder {
+        private final DiscoverySession discoverySession;
+        private final PeerHandle peerHandle;
+        private String pskPassphrase;
+        private int port;
+
+        public Builder(DiscoverySession discoverySession, PeerHandle peerHandle) {
+            if (discoverySession == null || peerHandle == null)
+                throw new IllegalArgumentException("Non-null discoverySession and peerHandle required");
+            this.discoverySession = discoverySession;
+            this.peerHandle = peerHandle;
+        }
+
+        public Builder setPskPassphrase(String pskPassphrase) {
+            if (pskPassphrase == null || pskPassphrase.length() < 8 || pskPassphrase.length() > 63)
+                throw new IllegalArgumentException("Passphrase must be 8-63 characters");
+            this.pskPassphrase = pskPassphrase;
+            return this;
+        }
+
+        public Builder setPort(int port) {
+            if (port <= 0 || port > 65535)
+                throw new IllegalArgumentException("The port must be a positive value (0, 65535]");
+            this.port = port;
+            return this;
+        }
+
+        public WifiAwareNetworkSpecifier build() {
+            return new WifiAwareNetworkSpecifier(discoverySession, peerHandle, pskPassphrase, port);
+        }
+    }
+}
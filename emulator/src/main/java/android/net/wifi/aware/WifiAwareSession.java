@@ -0,0 +1,26 @@
+package android.net.wifi.aware;
+
+import android.os.Handler;
+
+import com.asaf.plugins.wifiaware.Air;
+
+public class WifiAwareSession {
+
+    private final Air.Radio radio;
+
+    public WifiAwareSession(Air.Radio radio) {
+        this.radio = radio;
+    }
+
+    public void publish(PublishConfig publishConfig, DiscoverySessionCallback callback, Handler handler) {
+        radio.publish(publishConfig.getServiceName(), publishConfig.getServiceSpecificInfo(), callback, handler);
+    }
+
+    public void subscribe(SubscribeConfig subscribeConfig, DiscoverySessionCallback callback, Handler handler) {
+        radio.subscribe(subscribeConfig.getServiceName(), callback, handler);
+    }
+
+    public void close() {
+        radio.detach();
+    }
+}
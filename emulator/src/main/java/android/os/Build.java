@@ -0,0 +1,11 @@
+package android.os;
+
+/** Stand-in for android.os.Build, describing an Android 14 device. */
+public class Build {
+    public static final String MODEL = "Emulated";
+
+    public static class VERSION {
+        public static final int SDK_INT = 34;
+        public static final String RELEASE = "14";
+    }
+}
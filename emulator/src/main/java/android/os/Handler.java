@@ -0,0 +1,29 @@
+package android.os;
+
+/** Stand-in for android.os.Handler, posting runnables to a {@link Looper}. */
+public class Handler {
+
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        if (looper == null)
+            throw new NullPointerException("looper");
+        this.looper = looper;
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return looper.enqueue(this, r, SystemClock.uptimeMillis());
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return looper.enqueue(this, r, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        looper.remove(this, r);
+    }
+}
@@ -0,0 +1,127 @@
+package android.os;
+
+import java.util.PriorityQueue;
+
+/**
+ * Stand-in for the Android message loop: one thread draining a queue of runnables ordered by
+ * due time. Each emulated node runs its own, and {@link #getMainLooper()} answers with the
+ * looper of the calling thread so that code built on a node's looper thread treats it as main.
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> current = new ThreadLocal<>();
+    private static Looper fallback;
+
+    static final class Message implements Comparable<Message> {
+        final Handler target;
+        final Runnable callback;
+        final long when;
+        final long seq;
+
+        Message(Handler target, Runnable callback, long when, long seq) {
+            this.target = target;
+            this.callback = callback;
+            this.when = when;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Message o) {
+            return when != o.when ? Long.compare(when, o.when) : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final Thread thread;
+    private final PriorityQueue<Message> queue = new PriorityQueue<>();
+    private long seq;
+    private boolean quitting;
+
+    private Looper(Thread thread) {
+        this.thread = thread;
+    }
+
+    public static void prepare() {
+        if (current.get() != null)
+            throw new RuntimeException("Only one Looper may be created per thread");
+        current.set(new Looper(Thread.currentThread()));
+    }
+
+    public static Looper myLooper() {
+        return current.get();
+    }
+
+    /** The calling thread's looper, or a shared one for threads that have none */
+    public static Looper getMainLooper() {
+        Looper l = current.get();
+        if (l != null)
+            return l;
+        synchronized (Looper.class) {
+            if (fallback == null) {
+                HandlerThread t = new HandlerThread("main");
+                t.setDaemon(true);
+                t.start();
+                fallback = t.getLooper();
+            }
+            return fallback;
+        }
+    }
+
+    public static void loop() {
+        Looper me = current.get();
+        if (me == null)
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        while (true) {
+            Message m;
+            synchronized (me) {
+                while (true) {
+                    if (me.quitting)
+                        return;
+                    Message head = me.queue.peek();
+                    long now = SystemClock.uptimeMillis();
+                    if (head != null && head.when <= now) {
+                        m = me.queue.poll();
+                        break;
+                    }
+                    try {
+                        me.wait(head == null ? 0 : head.when - now);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            try {
+                m.callback.run();
+            } catch (RuntimeException e) {
+                // A real looper would crash the app; keep the node alive and say why
+                System.err.println("Uncaught exception on " + me.thread.getName());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    public synchronized void quit() {
+        quitting = true;
+        queue.clear();
+        notifyAll();
+    }
+
+    synchronized boolean enqueue(Handler target, Runnable r, long when) {
+        if (quitting)
+            return false;
+        queue.add(new Message(target, r, when, seq++));
+        notifyAll();
+        return true;
+    }
+
+    synchronized void remove(Handler target, Runnable r) {
+        queue.removeIf(m -> m.target == target && m.callback == r);
+    }
+}
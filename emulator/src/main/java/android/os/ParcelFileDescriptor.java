@@ -0,0 +1,55 @@
+package android.os;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/** Stand-in for android.os.ParcelFileDescriptor over an open file. */
+public class ParcelFileDescriptor implements Closeable {
+
+    private final FileInputStream file;
+
+    public ParcelFileDescriptor(FileInputStream file) {
+        this.file = file;
+    }
+
+    public long getStatSize() {
+        try {
+            return file.getChannel().size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public FileDescriptor getFileDescriptor() {
+        try {
+            return file.getFD();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    public static class AutoCloseInputStream extends FileInputStream {
+        private final ParcelFileDescriptor pfd;
+
+        public AutoCloseInputStream(ParcelFileDescriptor pfd) {
+            super(pfd.getFileDescriptor());
+            this.pfd = pfd;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                pfd.close();
+            }
+        }
+    }
+}
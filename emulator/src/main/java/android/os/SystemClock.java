@@ -0,0 +1,22 @@
+package android.os;
+
+/** Stand-in for android.os.SystemClock; both clocks count from JVM start and never go back. */
+public final class SystemClock {
+
+    private static final long origin = System.nanoTime();
+
+    private SystemClock() {
+    }
+
+    public static long elapsedRealtime() {
+        return (System.nanoTime() - origin) / 1_000_000;
+    }
+
+    public static long uptimeMillis() {
+        return elapsedRealtime();
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return System.nanoTime() - origin;
+    }
+}
@@ -0,0 +1,21 @@
+package android.provider;
+
+import android.content.ContentResolver;
+
+/** Stand-in for android.provider.Settings; no setting is ever set. */
+public final class Settings {
+
+    public static final class Global {
+        public static String getString(ContentResolver resolver, String name) {
+            return null;
+        }
+    }
+
+    public static final class Secure {
+        public static final String ANDROID_ID = "android_id";
+
+        public static String getString(ContentResolver resolver, String name) {
+            return null;
+        }
+    }
+}
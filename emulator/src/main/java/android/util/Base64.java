@@ -0,0 +1,48 @@
+package android.util;
+
+/**
+ * Stand-in for android.util.Base64 on top of java.util.Base64, with Android's flags:
+ * DEFAULT wraps lines at 76 characters, and decoding skips whitespace and missing padding.
+ */
+public final class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+
+    private Base64() {
+    }
+
+    public static byte[] decode(String str, int flags) {
+        StringBuilder clean = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c != '\n' && c != '\r' && c != ' ' && c != '\t' && c != '=')
+                clean.append(c);
+        }
+        java.util.Base64.Decoder decoder = (flags & URL_SAFE) != 0
+                ? java.util.Base64.getUrlDecoder() : java.util.Base64.getDecoder();
+        return decoder.decode(clean.toString());
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return encodeToString(input, 0, input.length, flags);
+    }
+
+    public static String encodeToString(byte[] input, int offset, int len, int flags) {
+        java.util.Base64.Encoder encoder = (flags & URL_SAFE) != 0
+                ? java.util.Base64.getUrlEncoder() : java.util.Base64.getEncoder();
+        if ((flags & NO_PADDING) != 0)
+            encoder = encoder.withoutPadding();
+        byte[] slice = offset == 0 && len == input.length ? input : java.util.Arrays.copyOfRange(input, offset, offset + len);
+        String s = encoder.encodeToString(slice);
+        if ((flags & NO_WRAP) != 0)
+            return s;
+        String eol = (flags & CRLF) != 0 ? "\r\n" : "\n";
+        StringBuilder wrapped = new StringBuilder(s.length() + s.length() / 76 * eol.length() + eol.length());
+        for (int i = 0; i < s.length(); i += 76)
+            wrapped.append(s, i, Math.min(s.length(), i + 76)).append(eol);
+        return wrapped.toString();
+    }
+}
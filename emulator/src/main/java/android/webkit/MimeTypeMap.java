@@ -0,0 +1,34 @@
+package android.webkit;
+
+import java.net.URLConnection;
+
+/** Stand-in for android.webkit.MimeTypeMap using the JDK's file name map. */
+public class MimeTypeMap {
+
+    private static final MimeTypeMap singleton = new MimeTypeMap();
+
+    public static MimeTypeMap getSingleton() {
+        return singleton;
+    }
+
+    public static String getFileExtensionFromUrl(String url) {
+        if (url == null)
+            return "";
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0)
+            end = query;
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end)
+            end = fragment;
+        String path = url.substring(url.lastIndexOf('/', end - 1) + 1, end);
+        int dot = path.lastIndexOf('.');
+        return dot >= 0 ? path.substring(dot + 1) : "";
+    }
+
+    public String getMimeTypeFromExtension(String extension) {
+        if (extension == null || extension.isEmpty())
+            return null;
+        return URLConnection.getFileNameMap().getContentTypeFor("f." + extension);
+    }
+}
@@ -0,0 +1,6 @@
+package androidx.appcompat.app;
+
+import android.content.Context;
+
+public class AppCompatActivity extends Context {
+}
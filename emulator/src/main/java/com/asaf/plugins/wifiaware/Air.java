@@ -0,0 +1,440 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.wifi.aware.AttachCallback;
+import android.net.wifi.aware.DiscoverySessionCallback;
+import android.net.wifi.aware.PeerHandle;
+import android.net.wifi.aware.PublishDiscoverySession;
+import android.net.wifi.aware.SubscribeDiscoverySession;
+import android.net.wifi.aware.WifiAwareNetworkInfo;
+import android.net.wifi.aware.WifiAwareNetworkSpecifier;
+import android.net.wifi.aware.WifiAwareSession;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * The medium shared by every emulated node: matches publishers with subscribers, carries
+ * discovery messages between sessions under the {@link LinkProfile}, and brings up data paths
+ * as {@link LinkProxy} instances on the IPv6 loopback.
+ *
+ * Callbacks arrive where Android delivers them: discovery callbacks on the node's main looper,
+ * network callbacks on a per-node connectivity thread, unless a handler was given.
+ */
+public final class Air implements Closeable {
+
+    /** WifiAwareManager.WIFI_AWARE_DISCOVERY_LOST_REASON_PEER_NOT_VISIBLE */
+    private static final int LOST_REASON_PEER_NOT_VISIBLE = 1;
+
+    final LinkProfile profile;
+    private final Random random;
+    private final ScheduledExecutorService clock;
+    private final AtomicInteger sessionIds = new AtomicInteger(1);
+    private final AtomicInteger networkIds = new AtomicInteger(100);
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final Map<ConnectivityManager.NetworkCallback, Request> requests = new HashMap<>();
+    private final Set<LinkProxy> proxies = ConcurrentHashMap.newKeySet();
+    private final Inet6Address loopback;
+
+    final AtomicLong l2Sent = new AtomicLong();
+    final AtomicLong l2Delivered = new AtomicLong();
+    final AtomicLong l2Lost = new AtomicLong();
+    final AtomicLong l2Refused = new AtomicLong();
+    final AtomicLong discoveries = new AtomicLong();
+    final AtomicLong ndpUp = new AtomicLong();
+    final AtomicLong ndpDown = new AtomicLong();
+
+    Air(LinkProfile profile) throws IOException {
+        this.profile = profile;
+        this.random = new Random(profile.seed);
+        this.clock = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "air");
+            t.setDaemon(true);
+            return t;
+        });
+        this.loopback = (Inet6Address) InetAddress.getByName("::1");
+    }
+
+    Radio radio(String name, Looper mainLooper) {
+        return new Radio(name, mainLooper);
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("l2Sent", l2Sent.get());
+        m.put("l2Delivered", l2Delivered.get());
+        m.put("l2Lost", l2Lost.get());
+        m.put("l2Refused", l2Refused.get());
+        m.put("discoveries", discoveries.get());
+        m.put("ndpUp", ndpUp.get());
+        m.put("ndpDown", ndpDown.get());
+        return m;
+    }
+
+    @Override
+    public void close() {
+        clock.shutdownNow();
+        for (LinkProxy p : proxies)
+            p.close();
+        proxies.clear();
+    }
+
+    long jitter() {
+        return profile.jitterMs > 0 ? (long) (random.nextDouble() * profile.jitterMs) : 0;
+    }
+
+    boolean lost() {
+        return profile.loss > 0 && random.nextDouble() < profile.loss;
+    }
+
+    private void later(long delayMs, Runnable r) {
+        try {
+            clock.schedule(r, delayMs, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException ignored) {
+            // The air is closed; nothing is delivered any more
+        }
+    }
+
+    /** One node's Wi-Fi Aware interface */
+    public final class Radio {
+        final String name;
+        private final Handler main;
+        private final HandlerThread connectivityThread;
+        private final Handler connectivity;
+        private long busyUntilNanos;
+
+        Radio(String name, Looper mainLooper) {
+            this.name = name;
+            this.main = new Handler(mainLooper);
+            this.connectivityThread = new HandlerThread(name + "-connectivity");
+            connectivityThread.setDaemon(true);
+            connectivityThread.start();
+            this.connectivity = new Handler(connectivityThread.getLooper());
+        }
+
+        public int maxMessage() {
+            return profile.l2MaxMessage;
+        }
+
+        public void attach(AttachCallback callback, Handler handler) {
+            WifiAwareSession s = new WifiAwareSession(this);
+            (handler != null ? handler : main).post(() -> callback.onAttached(s));
+        }
+
+        public void detach() {
+            for (Session s : sessions) {
+                if (s.radio == this)
+                    s.close();
+            }
+        }
+
+        public void publish(String serviceName, byte[] serviceSpecificInfo, DiscoverySessionCallback callback,
+                Handler handler) {
+            Session s = new Session(this, true, serviceName, serviceSpecificInfo, callback,
+                    handler != null ? handler : main);
+            s.handler.post(() -> callback.onPublishStarted(new PublishDiscoverySession(s)));
+            open(s);
+        }
+
+        public void subscribe(String serviceName, DiscoverySessionCallback callback, Handler handler) {
+            Session s = new Session(this, false, serviceName, null, callback, handler != null ? handler : main);
+            s.handler.post(() -> callback.onSubscribeStarted(new SubscribeDiscoverySession(s)));
+            open(s);
+        }
+
+        public void requestNetwork(NetworkRequest request, ConnectivityManager.NetworkCallback callback,
+                Handler handler, int timeoutMs) {
+            if (!(request.getNetworkSpecifier() instanceof WifiAwareNetworkSpecifier))
+                throw new IllegalArgumentException("Only Wi-Fi Aware network requests are emulated");
+            Air.this.requestNetwork(new Request(this, (WifiAwareNetworkSpecifier) request.getNetworkSpecifier(),
+                    callback, handler != null ? handler : connectivity), timeoutMs);
+        }
+
+        public void unregisterNetworkCallback(ConnectivityManager.NetworkCallback callback) {
+            Air.this.unregisterNetworkCallback(callback);
+        }
+
+        void close() {
+            detach();
+            connectivityThread.quit();
+        }
+
+        // Time the message leaves this radio; messages go out one after another
+        synchronized long transmitAt(long nowNanos) {
+            long start = Math.max(nowNanos, busyUntilNanos);
+            busyUntilNanos = start + TimeUnit.MILLISECONDS.toNanos(profile.l2AirtimeMs);
+            return busyUntilNanos;
+        }
+    }
+
+    /** A publish or subscribe session */
+    public final class Session {
+        final int id = sessionIds.getAndIncrement();
+        final Radio radio;
+        final boolean publisher;
+        final String serviceName;
+        final byte[] serviceSpecificInfo;
+        final DiscoverySessionCallback callback;
+        final Handler handler;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Set<Integer> discovered = ConcurrentHashMap.newKeySet();
+        private volatile boolean closed;
+
+        Session(Radio radio, boolean publisher, String serviceName, byte[] serviceSpecificInfo,
+                DiscoverySessionCallback callback, Handler handler) {
+            this.radio = radio;
+            this.publisher = publisher;
+            this.serviceName = serviceName;
+            this.serviceSpecificInfo = serviceSpecificInfo;
+            this.callback = callback;
+            this.handler = handler;
+        }
+
+        public void sendMessage(PeerHandle peer, int messageId, byte[] message) {
+            if (closed || message == null || message.length > profile.l2MaxMessage) {
+                handler.post(() -> callback.onMessageSendFailed(messageId));
+                return;
+            }
+            // The firmware only holds so many messages per session
+            if (outstanding.incrementAndGet() > profile.l2QueueLimit) {
+                outstanding.decrementAndGet();
+                l2Refused.incrementAndGet();
+                handler.post(() -> callback.onMessageSendFailed(messageId));
+                return;
+            }
+            l2Sent.incrementAndGet();
+            byte[] copy = message.clone();
+            long now = System.nanoTime();
+            long delayMs = TimeUnit.NANOSECONDS.toMillis(radio.transmitAt(now) - now) + profile.latencyMs + jitter();
+            later(delayMs, () -> {
+                outstanding.decrementAndGet();
+                Session target = sessionById(peer.peerId);
+                if (closed || target == null || target.closed || lost()) {
+                    l2Lost.incrementAndGet();
+                    handler.post(() -> callback.onMessageSendFailed(messageId));
+                    return;
+                }
+                l2Delivered.incrementAndGet();
+                PeerHandle from = new PeerHandle(id);
+                target.handler.post(() -> target.callback.onMessageReceived(from, copy));
+                handler.post(() -> callback.onMessageSendSucceeded(messageId));
+            });
+        }
+
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            sessions.remove(this);
+            if (!publisher)
+                return;
+            PeerHandle self = new PeerHandle(id);
+            for (Session s : sessions) {
+                if (s.discovered.remove(id))
+                    s.handler.post(() -> s.callback.onServiceLost(self, LOST_REASON_PEER_NOT_VISIBLE));
+            }
+        }
+    }
+
+    private Session sessionById(int id) {
+        for (Session s : sessions) {
+            if (s.id == id)
+                return s;
+        }
+        return null;
+    }
+
+    // Matches the new session against every open one on the other side of its service
+    private void open(Session s) {
+        sessions.add(s);
+        for (Session other : sessions) {
+            if (other.radio == s.radio || other.publisher == s.publisher || !other.serviceName.equals(s.serviceName))
+                continue;
+            Session pub = s.publisher ? s : other;
+            Session sub = s.publisher ? other : s;
+            later(profile.discoveryMs + jitter(), () -> {
+                if (pub.closed || sub.closed || !sub.discovered.add(pub.id))
+                    return;
+                discoveries.incrementAndGet();
+                PeerHandle handle = new PeerHandle(pub.id);
+                sub.handler.post(() -> sub.callback.onServiceDiscovered(handle, pub.serviceSpecificInfo,
+                        Collections.emptyList()));
+            });
+        }
+    }
+
+    // ===== Data paths =====
+
+    /** A registered network request; publishers respond, subscribers initiate */
+    private static final class Request {
+        final Radio radio;
+        final Session session;
+        final PeerHandle peer;
+        final String psk;
+        final int port;
+        final ConnectivityManager.NetworkCallback callback;
+        final Handler handler;
+        Link link;
+
+        Request(Radio radio, WifiAwareNetworkSpecifier spec, ConnectivityManager.NetworkCallback callback,
+                Handler handler) {
+            this.radio = radio;
+            this.session = spec.discoverySession.emulatedSession();
+            this.peer = spec.peerHandle;
+            this.psk = spec.pskPassphrase;
+            this.port = spec.port;
+            this.callback = callback;
+            this.handler = handler;
+        }
+
+        boolean pairsWith(Request o) {
+            return link == null && o.link == null && session.publisher != o.session.publisher
+                    && session.id == o.peer.peerId && o.session.id == peer.peerId && Objects.equals(psk, o.psk);
+        }
+    }
+
+    private static final class Link {
+        final Request responder;
+        final Request initiator;
+        LinkProxy proxy;
+        Network responderNetwork;
+        Network initiatorNetwork;
+        boolean up;
+        boolean torn;
+
+        Link(Request responder, Request initiator) {
+            this.responder = responder;
+            this.initiator = initiator;
+        }
+
+        Request other(Request r) {
+            return r == responder ? initiator : responder;
+        }
+
+        Network networkOf(Request r) {
+            return r == responder ? responderNetwork : initiatorNetwork;
+        }
+    }
+
+    private void requestNetwork(Request r, int timeoutMs) {
+        Link link = null;
+        synchronized (requests) {
+            if (requests.containsKey(r.callback))
+                throw new IllegalArgumentException("NetworkCallback was already registered");
+            requests.put(r.callback, r);
+            for (Request other : requests.values()) {
+                if (other != r && r.pairsWith(other)) {
+                    link = r.session.publisher ? new Link(r, other) : new Link(other, r);
+                    r.link = link;
+                    other.link = link;
+                    break;
+                }
+            }
+        }
+        if (link != null) {
+            Link l = link;
+            later(profile.ndpSetupMs + jitter(), () -> establish(l));
+        }
+        if (timeoutMs > 0) {
+            later(timeoutMs, () -> {
+                synchronized (requests) {
+                    if (r.link != null || requests.get(r.callback) != r)
+                        return;
+                    requests.remove(r.callback);
+                }
+                r.handler.post(r.callback::onUnavailable);
+            });
+        }
+    }
+
+    private void establish(Link link) {
+        LinkProxy proxy = null;
+        try {
+            if (link.responder.port > 0)
+                proxy = new LinkProxy(this, loopback, link.responder.port);
+        } catch (IOException e) {
+            System.err.println("Could not bring up the data path: " + e);
+            return;
+        }
+        synchronized (requests) {
+            if (link.torn) {
+                if (proxy != null)
+                    proxy.close();
+                return;
+            }
+            link.proxy = proxy;
+            link.responderNetwork = new Network(networkIds.getAndIncrement());
+            link.initiatorNetwork = new Network(networkIds.getAndIncrement());
+            link.up = true;
+        }
+        if (proxy != null)
+            proxies.add(proxy);
+        ndpUp.incrementAndGet();
+        // The responder learns no port; the initiator gets the one to connect to
+        deliver(link.responder, link.responderNetwork, new WifiAwareNetworkInfo(loopback, 0));
+        deliver(link.initiator, link.initiatorNetwork,
+                new WifiAwareNetworkInfo(loopback, proxy != null ? proxy.port() : 0));
+    }
+
+    private static void deliver(Request r, Network network, WifiAwareNetworkInfo info) {
+        NetworkCapabilities caps = new NetworkCapabilities(info);
+        r.handler.post(() -> {
+            r.callback.onAvailable(network);
+            r.callback.onCapabilitiesChanged(network, caps);
+        });
+    }
+
+    private void unregisterNetworkCallback(ConnectivityManager.NetworkCallback callback) {
+        Request other;
+        Network otherNetwork;
+        LinkProxy proxy;
+        boolean wasUp;
+        synchronized (requests) {
+            Request r = requests.remove(callback);
+            if (r == null)
+                throw new IllegalArgumentException("NetworkCallback was not registered");
+            Link link = r.link;
+            if (link == null)
+                return;
+            link.torn = true;
+            other = link.other(r);
+            otherNetwork = link.networkOf(other);
+            proxy = link.proxy;
+            wasUp = link.up;
+            r.link = null;
+            // The peer's request stays registered and can match again
+            other.link = null;
+        }
+        if (proxy != null) {
+            proxies.remove(proxy);
+            proxy.close();
+        }
+        if (wasUp) {
+            ndpDown.incrementAndGet();
+            other.handler.post(() -> other.callback.onLost(otherNetwork));
+        }
+    }
+}
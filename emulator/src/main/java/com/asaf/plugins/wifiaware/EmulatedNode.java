@@ -0,0 +1,116 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.wifi.aware.WifiAwareManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.getcapacitor.BridgeActivity;
+
+/**
+ * One emulated device: a main looper thread, a cache directory, a radio on the {@link Air}
+ * and the real {@link WifiAwareShim} built on top of them. Workloads call the shim from their
+ * own threads, as the plugin does from Capacitor's.
+ */
+final class EmulatedNode implements Closeable {
+
+    private static final long CALL_TIMEOUT_MS = 10_000;
+
+    final String name;
+    final Air.Radio radio;
+    final File cacheDir;
+    final Events events = new Events();
+    final WifiAwareShim shim;
+    private final HandlerThread main;
+    private final Handler handler;
+
+    EmulatedNode(Air air, String name, File root) throws Exception {
+        this.name = name;
+        this.main = new HandlerThread(name + "-main");
+        main.setDaemon(true);
+        main.start();
+        this.handler = new Handler(main.getLooper());
+        this.radio = air.radio(name, main.getLooper());
+        this.cacheDir = new File(root, name);
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+            throw new IllegalStateException("Cannot create " + cacheDir);
+
+        WifiAwareManager aware = new WifiAwareManager(radio);
+        ConnectivityManager connectivity = new ConnectivityManager(radio);
+        BridgeActivity activity = new BridgeActivity() {
+            @Override
+            public Object getSystemService(String service) {
+                if (Context.WIFI_AWARE_SERVICE.equals(service))
+                    return aware;
+                if (Context.CONNECTIVITY_SERVICE.equals(service))
+                    return connectivity;
+                return null;
+            }
+
+            @Override
+            public File getCacheDir() {
+                return cacheDir;
+            }
+        };
+        // Built on the looper thread so the shim takes it as its main looper
+        this.shim = call(() -> new WifiAwareShim(activity, events));
+    }
+
+    /** Runs on the main looper and waits for the result */
+    <T> T call(Callable<T> task) throws Exception {
+        FutureTask<T> f = new FutureTask<>(task);
+        handler.post(f);
+        try {
+            return f.get(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            throw new TimeoutException(name + ": main looper did not respond in " + CALL_TIMEOUT_MS + " ms");
+        }
+    }
+
+    /** Waits until everything already posted to the main looper has run */
+    void sync() throws Exception {
+        call(() -> null);
+    }
+
+    void attach() throws Exception {
+        shim.attach();
+        sync();
+    }
+
+    void publish(String serviceName) throws Exception {
+        shim.publish(new WifiAwarePlugin.PublishOptions(serviceName, null, false, false, true), found -> { });
+        sync();
+    }
+
+    void subscribe(String serviceName, Consumer<WifiAwareShim.PeerFound> onFound, Consumer<String> onLost)
+            throws Exception {
+        shim.subscribe(new WifiAwarePlugin.SubscribeOptions(serviceName, false, null, null), onFound, onLost);
+        sync();
+    }
+
+    @Override
+    public void close() {
+        try {
+            call(() -> {
+                shim.destroy();
+                return null;
+            });
+        } catch (Exception e) {
+            System.err.println(name + ": destroy failed: " + e);
+        }
+        radio.close();
+        main.quit();
+    }
+}
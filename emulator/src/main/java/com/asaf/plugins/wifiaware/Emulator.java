@@ -0,0 +1,232 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Runs {@link WifiAwareShim} on a plain JVM with emulated radios and reports what the
+ * workloads measured. See README.md for the options; exits with 1 when a workload fails
+ * or an {@code --expect} does not hold.
+ */
+public final class Emulator {
+
+    private Emulator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LinkProfile profile = new LinkProfile();
+        File root = Files.createTempDirectory("wifiaware-emulator").toFile();
+        Workloads w = new Workloads(profile, root);
+        List<String> scenarios = new ArrayList<>(Workloads.ALL.keySet());
+        List<String> expectations = new ArrayList<>();
+        File out = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--help") || arg.equals("-h")) {
+                usage();
+                return;
+            }
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("Missing value for " + arg);
+            String v = args[++i];
+            switch (arg) {
+                case "--scenario":
+                    scenarios = v.equals("all") ? new ArrayList<>(Workloads.ALL.keySet()) : Arrays.asList(v.split(","));
+                    for (String s : scenarios) {
+                        if (!Workloads.ALL.containsKey(s))
+                            throw new IllegalArgumentException("Unknown scenario: " + s);
+                    }
+                    break;
+                case "--link":
+                    for (String setting : v.split(",")) {
+                        int eq = setting.indexOf('=');
+                        if (eq <= 0)
+                            throw new IllegalArgumentException("--link takes name=value pairs: " + setting);
+                        profile.set(setting.substring(0, eq).trim(), setting.substring(eq + 1).trim());
+                    }
+                    break;
+                case "--peers": w.peers = positive(arg, v); break;
+                case "--engine":
+                    if (!v.equals(WifiAwareShim.ENGINE_BLOCKING) && !v.equals(WifiAwareShim.ENGINE_NIO))
+                        throw new IllegalArgumentException("--engine must be 'blocking' or 'nio'");
+                    w.engine = v;
+                    break;
+                case "--storm-messages": w.stormMessages = positive(arg, v); break;
+                case "--storm-bytes": w.stormBytes = positive(arg, v); break;
+                case "--socket-messages": w.socketMessages = positive(arg, v); break;
+                case "--socket-bytes": w.socketBytes = positive(arg, v); break;
+                case "--file-bytes": w.fileBytes = LinkProfile.parseSize(v); break;
+                case "--stripes": w.stripes = positive(arg, v); break;
+                case "--send-mode":
+                    if (!v.equals(WifiAwareShim.SEND_MODE_STREAM) && !v.equals(WifiAwareShim.SEND_MODE_NIO))
+                        throw new IllegalArgumentException("--send-mode must be 'stream' or 'nio'");
+                    w.sendMode = v;
+                    break;
+                case "--churn-cycles": w.churnCycles = positive(arg, v); break;
+                case "--churn-messages": w.churnMessages = positive(arg, v); break;
+                case "--timeout-ms": w.timeoutMs = positive(arg, v); break;
+                case "--out": out = new File(v); break;
+                case "--expect": expectations.add(v); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("peers", w.peers);
+        report.put("engine", w.engine);
+        report.put("link", profile.toMap());
+        boolean ok = true;
+        try {
+            for (String name : scenarios) {
+                System.out.println("== " + name);
+                Map<String, Object> result;
+                try {
+                    result = Workloads.ALL.get(name).run(w);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    result = new LinkedHashMap<>();
+                    result.put("error", String.valueOf(e));
+                    ok = false;
+                }
+                report.put(name, result);
+                System.out.println(summary(result));
+            }
+        } finally {
+            deleteTree(root);
+        }
+
+        for (String e : expectations) {
+            String failure = check(report, e);
+            System.out.println((failure == null ? "ok    " : "FAIL  ") + e + (failure == null ? "" : "  (" + failure + ")"));
+            ok &= failure == null;
+        }
+        String json = toJson(report, "") + "\n";
+        if (out != null)
+            Files.write(out.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        else
+            System.out.print(json);
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.out.println(String.join("\n",
+                "Options:",
+                "  --scenario storm,messages,transfers,churn|all   (default all)",
+                "  --peers N                       peers around the hub (4)",
+                "  --engine blocking|nio           socket engine of both ends (nio)",
+                "  --link name=value,...           latencyMs jitterMs loss bandwidth l2QueueLimit",
+                "                                  l2MaxMessage l2AirtimeMs discoveryMs ndpSetupMs seed",
+                "  --storm-messages N --storm-bytes N",
+                "  --socket-messages N --socket-bytes N",
+                "  --file-bytes SIZE --stripes N --send-mode stream|nio",
+                "  --churn-cycles N --churn-messages N",
+                "  --timeout-ms N                  per wait (60000)",
+                "  --out FILE                      write the JSON report there instead of stdout",
+                "  --expect PATH<=VALUE|PATH>=VALUE  e.g. storm.latencyMs.p99<=250 (repeatable)"));
+    }
+
+    private static int positive(String option, String v) {
+        int n = Integer.parseInt(v);
+        if (n <= 0)
+            throw new IllegalArgumentException(option + " must be positive");
+        return n;
+    }
+
+    // One line per scenario with whichever headline numbers it has
+    @SuppressWarnings("unchecked")
+    private static String summary(Map<String, Object> r) {
+        StringBuilder sb = new StringBuilder();
+        for (String key : new String[] { "error", "messages", "transfers", "cycles", "delivered", "completed",
+                "failed", "corrupted", "elapsedMs", "messagesPerSec", "mibPerSec", "hubSocketsLeft" }) {
+            if (r.containsKey(key))
+                sb.append(String.format("  %s=%s", key, r.get(key)));
+        }
+        for (String key : new String[] { "latencyMs", "durationMs", "rejoinMs", "ndpSetupMs" }) {
+            Map<String, Object> s = (Map<String, Object>) r.get(key);
+            if (s != null)
+                sb.append(String.format("%n  %-10s p50=%s p90=%s p99=%s max=%s", key, s.get("p50"), s.get("p90"),
+                        s.get("p99"), s.get("max")));
+        }
+        return sb.toString();
+    }
+
+    /** @return why the expectation does not hold, or null */
+    static String check(Map<String, Object> report, String expectation) {
+        int at = expectation.indexOf("<=");
+        boolean atMost = at > 0;
+        if (!atMost)
+            at = expectation.indexOf(">=");
+        if (at <= 0)
+            throw new IllegalArgumentException("--expect takes PATH<=VALUE or PATH>=VALUE: " + expectation);
+        String path = expectation.substring(0, at).trim();
+        double limit = Double.parseDouble(expectation.substring(at + 2).trim());
+        Object v = resolve(report, path.split("\\."), 0);
+        if (!(v instanceof Number))
+            return v == null ? "no value at " + path : path + " is not a number";
+        double actual = ((Number) v).doubleValue();
+        return (atMost ? actual <= limit : actual >= limit) ? null : "actual " + actual;
+    }
+
+    // Keys may contain dots themselves (gauge names), so the longest matching key wins
+    @SuppressWarnings("unchecked")
+    private static Object resolve(Object node, String[] parts, int from) {
+        if (from == parts.length)
+            return node;
+        if (!(node instanceof Map))
+            return null;
+        Map<String, Object> map = (Map<String, Object>) node;
+        for (int to = parts.length; to > from; to--) {
+            String key = String.join(".", Arrays.copyOfRange(parts, from, to));
+            if (map.containsKey(key)) {
+                Object v = resolve(map.get(key), parts, to);
+                if (v != null)
+                    return v;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    static String toJson(Object v, String indent) {
+        if (v instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) v;
+            if (map.isEmpty())
+                return "{}";
+            String inner = indent + "  ";
+            StringBuilder sb = new StringBuilder("{\n");
+            int i = 0;
+            for (Map.Entry<String, Object> e : map.entrySet()) {
+                sb.append(inner).append(LoopbackServer.jsonString(e.getKey())).append(": ")
+                        .append(toJson(e.getValue(), inner)).append(++i < map.size() ? ",\n" : "\n");
+            }
+            return sb.append(indent).append('}').toString();
+        }
+        if (v instanceof List) {
+            List<Object> list = (List<Object>) v;
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < list.size(); i++)
+                sb.append(i > 0 ? ", " : "").append(toJson(list.get(i), indent));
+            return sb.append(']').toString();
+        }
+        if (v instanceof Number || v instanceof Boolean)
+            return String.valueOf(v);
+        return v == null ? "null" : LoopbackServer.jsonString(String.valueOf(v));
+    }
+
+    private static void deleteTree(File root) throws IOException {
+        try (Stream<java.nio.file.Path> paths = Files.walk(root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import android.util.Base64;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A node's {@link WifiAwareShim.MessageSink}, standing where the plugin forwards events to JS.
+ * Workloads swap in the handlers they need; everything runs on the node's main looper.
+ */
+final class Events implements WifiAwareShim.MessageSink {
+
+    /** (peerId, payload) */
+    volatile BiConsumer<String, byte[]> onMessage = (peerId, data) -> { };
+    /** (messageId, status) */
+    volatile BiConsumer<String, String> onMessageStatus = (messageId, status) -> { };
+    /** (transferId, status) for outgoing transfers reaching a final status */
+    volatile BiConsumer<String, String> onTransferDone = (transferId, status) -> { };
+    /** (fileName, filePath) for incoming transfers */
+    volatile BiConsumer<String, String> onFileReceived = (fileName, filePath) -> { };
+    volatile Consumer<String> onSocketClosed = socketId -> { };
+
+    @Override
+    public void onMessageReceived(String peerId, String dataBase64) {
+        onMessage.accept(peerId, Base64.decode(dataBase64, Base64.DEFAULT));
+    }
+
+    @Override
+    public void onMessageStored(String peerId, String handle, int length, String prefixBase64) {
+    }
+
+    @Override
+    public void onFileTransferRequest(String peerId, String transferId, String fileName, String mimeType,
+            long fileSize) {
+    }
+
+    @Override
+    public void onFileTransferProgress(String peerId, String transferId, String fileName, long bytesTransferred,
+            long totalBytes, String direction, String status, @Nullable ProgressReporter.Rate rate) {
+        if ("outgoing".equals(direction) && !"in-progress".equals(status))
+            onTransferDone.accept(transferId, status);
+    }
+
+    @Override
+    public void onFileTransferCompleted(String peerId, String transferId, String fileName, String filePath,
+            String fileBase64) {
+        onFileReceived.accept(fileName, filePath);
+    }
+
+    @Override
+    public void onPeerConnected(String socketId, String peerId, Map<String, Object> deviceInfo) {
+    }
+
+    @Override
+    public void onPeerDisconnected(String socketId, String peerId) {
+    }
+
+    @Override
+    public void onSocketClosed(String socketId) {
+        onSocketClosed.accept(socketId);
+    }
+
+    @Override
+    public void onMessageStatus(String messageId, String peerId, String status, int attempts) {
+        onMessageStatus.accept(messageId, status);
+    }
+}
@@ -0,0 +1,91 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Radio and link conditions the {@link Air} applies. Discovery messages are delayed, serialized
+ * per radio, dropped with probability {@code loss} and refused once {@code l2QueueLimit} of a
+ * session's are outstanding, like a full firmware queue. Data paths add {@code latencyMs} each
+ * way, are capped at {@code bandwidthBytesPerSec} per direction and, because NDP retransmits at
+ * the link layer, turn {@code loss} into one extra round trip for the affected chunk.
+ */
+final class LinkProfile {
+
+    long latencyMs = 2;
+    long jitterMs = 1;
+    double loss = 0;
+    /** 0 for no cap */
+    long bandwidthBytesPerSec = 0;
+    int l2QueueLimit = 8;
+    int l2MaxMessage = 255;
+    long l2AirtimeMs = 1;
+    long discoveryMs = 20;
+    long ndpSetupMs = 50;
+    long seed = 1;
+
+    /** Applies one {@code name=value} setting, as taken on the command line */
+    void set(String name, String value) {
+        switch (name) {
+            case "latencyMs": latencyMs = nonNegative(name, Long.parseLong(value)); break;
+            case "jitterMs": jitterMs = nonNegative(name, Long.parseLong(value)); break;
+            case "loss":
+                loss = Double.parseDouble(value);
+                if (loss < 0 || loss >= 1)
+                    throw new IllegalArgumentException("loss must be in [0, 1)");
+                break;
+            case "bandwidth": bandwidthBytesPerSec = nonNegative(name, parseSize(value)); break;
+            case "l2QueueLimit": l2QueueLimit = (int) positive(name, Long.parseLong(value)); break;
+            case "l2MaxMessage":
+                l2MaxMessage = (int) positive(name, Long.parseLong(value));
+                if (l2MaxMessage <= L2Fragments.HEADER_SIZE)
+                    throw new IllegalArgumentException("l2MaxMessage must be larger than " + L2Fragments.HEADER_SIZE);
+                break;
+            case "l2AirtimeMs": l2AirtimeMs = nonNegative(name, Long.parseLong(value)); break;
+            case "discoveryMs": discoveryMs = nonNegative(name, Long.parseLong(value)); break;
+            case "ndpSetupMs": ndpSetupMs = nonNegative(name, Long.parseLong(value)); break;
+            case "seed": seed = Long.parseLong(value); break;
+            default:
+                throw new IllegalArgumentException("Unknown link setting: " + name);
+        }
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("latencyMs", latencyMs);
+        m.put("jitterMs", jitterMs);
+        m.put("loss", loss);
+        m.put("bandwidth", bandwidthBytesPerSec);
+        m.put("l2QueueLimit", l2QueueLimit);
+        m.put("l2MaxMessage", l2MaxMessage);
+        m.put("l2AirtimeMs", l2AirtimeMs);
+        m.put("discoveryMs", discoveryMs);
+        m.put("ndpSetupMs", ndpSetupMs);
+        m.put("seed", seed);
+        return m;
+    }
+
+    /** Bytes with an optional k, m or g suffix (powers of 1024) */
+    static long parseSize(String s) {
+        String v = s.trim().toLowerCase();
+        long unit = 1;
+        char last = v.isEmpty() ? ' ' : v.charAt(v.length() - 1);
+        if (last == 'k' || last == 'm' || last == 'g') {
+            unit = last == 'k' ? 1L << 10 : last == 'm' ? 1L << 20 : 1L << 30;
+            v = v.substring(0, v.length() - 1);
+        }
+        return Math.round(Double.parseDouble(v) * unit);
+    }
+
+    private static long nonNegative(String name, long v) {
+        if (v < 0)
+            throw new IllegalArgumentException(name + " must not be negative");
+        return v;
+    }
+
+    private static long positive(String name, long v) {
+        if (v <= 0)
+            throw new IllegalArgumentException(name + " must be positive");
+        return v;
+    }
+}
@@ -0,0 +1,190 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One emulated data path: listens where the initiator was told the peer is and forwards each
+ * connection to the responder's server socket. Every direction is paced to the profile's
+ * bandwidth, shared by all connections of the link, and delivered {@code latencyMs} later;
+ * a lost chunk waits one extra round trip, as a link-layer retransmission would.
+ */
+final class LinkProxy implements Closeable {
+
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final int QUEUED_CHUNKS = 64;
+
+    private final Air air;
+    private final ServerSocket server;
+    private final int targetPort;
+    private final Throttle outbound;
+    private final Throttle inbound;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    LinkProxy(Air air, InetAddress bindAddress, int targetPort) throws IOException {
+        this.air = air;
+        this.targetPort = targetPort;
+        this.outbound = new Throttle(air.profile.bandwidthBytesPerSec);
+        this.inbound = new Throttle(air.profile.bandwidthBytesPerSec);
+        this.server = new ServerSocket(0, 50, bindAddress);
+        start("link-" + port() + "-accept", this::acceptLoop);
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+        for (Socket s : sockets)
+            closeQuietly(s);
+        sockets.clear();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket initiator;
+            Socket responder;
+            try {
+                initiator = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            try {
+                // The responder's server socket is bound to the wildcard address
+                responder = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+            } catch (IOException e) {
+                closeQuietly(initiator);
+                continue;
+            }
+            try {
+                initiator.setTcpNoDelay(true);
+                responder.setTcpNoDelay(true);
+            } catch (IOException ignored) {
+            }
+            sockets.add(initiator);
+            sockets.add(responder);
+            if (closed) {
+                close();
+                return;
+            }
+            String name = "link-" + port() + "-" + initiator.getPort();
+            pipe(name + "-out", initiator, responder, outbound);
+            pipe(name + "-in", responder, initiator, inbound);
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        final long dueNanos;
+
+        Chunk(byte[] data, long dueNanos) {
+            this.data = data;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    // Reader paces and timestamps what arrives; writer holds each chunk until it is due
+    private void pipe(String name, Socket from, Socket to, Throttle throttle) {
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+        long latencyNanos = TimeUnit.MILLISECONDS.toNanos(air.profile.latencyMs);
+        start(name + "-read", () -> {
+            byte[] buf = new byte[CHUNK_BYTES];
+            long lastDue = 0;
+            try {
+                InputStream in = from.getInputStream();
+                while (true) {
+                    int n = in.read(buf);
+                    if (n > 0)
+                        throttle.acquire(n);
+                    long due = System.nanoTime() + latencyNanos + TimeUnit.MILLISECONDS.toNanos(air.jitter());
+                    if (n > 0 && air.lost())
+                        due += 2 * latencyNanos;
+                    lastDue = Math.max(lastDue, due);
+                    queue.put(new Chunk(n < 0 ? null : Arrays.copyOf(buf, n), lastDue));
+                    if (n < 0)
+                        return;
+                }
+            } catch (IOException | InterruptedException e) {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        });
+        start(name + "-write", () -> {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Chunk c = queue.take();
+                    sleepUntil(c.dueNanos);
+                    if (c.data == null) {
+                        to.shutdownOutput();
+                        return;
+                    }
+                    out.write(c.data);
+                }
+            } catch (IOException | InterruptedException e) {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        });
+    }
+
+    /** Serializes the bytes of one direction at a fixed rate */
+    private static final class Throttle {
+        private final long bytesPerSec;
+        private long nextFreeNanos;
+
+        Throttle(long bytesPerSec) {
+            this.bytesPerSec = bytesPerSec;
+        }
+
+        void acquire(int bytes) {
+            if (bytesPerSec <= 0)
+                return;
+            long done;
+            synchronized (this) {
+                long start = Math.max(System.nanoTime(), nextFreeNanos);
+                done = start + bytes * 1_000_000_000L / bytesPerSec;
+                nextFreeNanos = done;
+            }
+            sleepUntil(done);
+        }
+    }
+
+    private static void sleepUntil(long deadlineNanos) {
+        long left;
+        while ((left = deadlineNanos - System.nanoTime()) > 0)
+            LockSupport.parkNanos(left);
+    }
+
+    private static void start(String name, Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void closeQuietly(Socket s) {
+        try {
+            s.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
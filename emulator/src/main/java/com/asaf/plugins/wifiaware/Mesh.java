@@ -0,0 +1,137 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import android.util.Base64;
+
+/**
+ * A hub publishing {@link #SERVICE} and peers subscribing to it. Each peer greets the hub over
+ * discovery so that both sides know the other's peerId before a workload starts.
+ */
+final class Mesh implements Closeable {
+
+    static final String SERVICE = "emulator";
+    static final String PSK = "emulator-passphrase";
+    private static final String HELLO = "hello:";
+    private static final long HELLO_RETRY_MS = 250;
+
+    final Air air;
+    final EmulatedNode hub;
+    final List<EmulatedNode> peers = new ArrayList<>();
+    /** The hub's peerId as seen by each peer, by index */
+    final List<String> hubIds = new ArrayList<>();
+    /** Each peer's current peerId as seen by the hub, by node name */
+    final Map<String, String> peerIds = new ConcurrentHashMap<>();
+    /** Everything the hub receives other than greetings, on the hub's main looper */
+    volatile BiConsumer<String, byte[]> onData = (peerId, data) -> { };
+    private final long timeoutMs;
+
+    Mesh(LinkProfile profile, int peerCount, File root, long timeoutMs) throws Exception {
+        this.timeoutMs = timeoutMs;
+        this.air = new Air(profile);
+        this.hub = new EmulatedNode(air, "hub", root);
+        hub.events.onMessage = this::onHubMessage;
+        hub.attach();
+        hub.publish(SERVICE);
+        for (int i = 0; i < peerCount; i++) {
+            EmulatedNode peer = new EmulatedNode(air, "node" + (i + 1), root);
+            peer.attach();
+            peers.add(peer);
+            hubIds.add(null);
+        }
+        List<CompletableFuture<Void>> joined = new ArrayList<>();
+        for (int i = 0; i < peerCount; i++) {
+            int index = i;
+            joined.add(CompletableFuture.runAsync(() -> {
+                try {
+                    join(index);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+        CompletableFuture.allOf(joined.toArray(new CompletableFuture<?>[0])).get(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void onHubMessage(String peerId, byte[] data) {
+        String text = data.length > HELLO.length() && data[0] == 'h' ? new String(data, StandardCharsets.UTF_8) : "";
+        if (text.startsWith(HELLO))
+            peerIds.put(text.substring(HELLO.length()), peerId);
+        else
+            onData.accept(peerId, data);
+    }
+
+    /**
+     * Subscribes peer {@code index} (again, if it already was) and waits until the hub knows
+     * its peerId for the new session.
+     */
+    void join(int index) throws Exception {
+        EmulatedNode peer = peers.get(index);
+        CompletableFuture<String> found = new CompletableFuture<>();
+        peer.shim.stopSubscribe();
+        peerIds.remove(peer.name);
+        peer.subscribe(SERVICE, f -> found.complete(f.peerId), lost -> { });
+        String hubId = found.get(timeoutMs, TimeUnit.MILLISECONDS);
+        hubIds.set(index, hubId);
+        String hello = Base64.encodeToString((HELLO + peer.name).getBytes(StandardCharsets.UTF_8), Base64.NO_WRAP);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (!peerIds.containsKey(peer.name)) {
+            if (System.nanoTime() > deadline)
+                throw new TimeoutException(peer.name + " could not reach the hub over discovery");
+            peer.shim.sendMessage(hubId, hello);
+            long retry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HELLO_RETRY_MS);
+            while (!peerIds.containsKey(peer.name) && System.nanoTime() < retry)
+                Thread.sleep(5);
+        }
+    }
+
+    /** A data path between the hub (server) and one peer (client) */
+    static final class DataPath {
+        String hubSocketId;
+        String peerSocketId;
+        long setupNanos;
+    }
+
+    /** Brings up a data path to peer {@code index} and waits until the peer has connected */
+    DataPath connect(int index, String engine) throws Exception {
+        EmulatedNode peer = peers.get(index);
+        String peerId = peerIds.get(peer.name);
+        CompletableFuture<String> hubReady = new CompletableFuture<>();
+        CompletableFuture<String> connected = new CompletableFuture<>();
+        long start = System.nanoTime();
+        hub.shim.startSocketWithId(peerId, PSK, true, false, 1, engine,
+                info -> hubReady.complete(info.socketId), (socketId, p) -> { }, (socketId, p) -> { });
+        peer.shim.startSocketWithId(hubIds.get(index), PSK, false, false, 1, engine,
+                info -> { }, (socketId, p) -> connected.complete(socketId),
+                (socketId, p) -> connected.completeExceptionally(
+                        new IllegalStateException(peer.name + " could not connect to the hub")));
+        DataPath path = new DataPath();
+        path.peerSocketId = connected.get(timeoutMs, TimeUnit.MILLISECONDS);
+        path.setupNanos = System.nanoTime() - start;
+        path.hubSocketId = hubReady.get(timeoutMs, TimeUnit.MILLISECONDS);
+        return path;
+    }
+
+    void disconnect(int index, DataPath path) {
+        peers.get(index).shim.stopSocket(path.peerSocketId);
+        hub.shim.stopSocket(path.hubSocketId);
+    }
+
+    @Override
+    public void close() {
+        for (EmulatedNode peer : peers)
+            peer.close();
+        hub.close();
+        air.close();
+    }
+}
@@ -0,0 +1,50 @@
+package com.asaf.plugins.wifiaware;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Raw nanosecond samples, summarized as milliseconds. */
+final class Samples {
+
+    private long[] values = new long[256];
+    private int count;
+
+    synchronized void add(long nanos) {
+        if (count == values.length)
+            values = Arrays.copyOf(values, count * 2);
+        values[count++] = nanos;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    synchronized Map<String, Object> toMap() {
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long v : sorted)
+            sum += v;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("count", count);
+        m.put("mean", count > 0 ? millis(sum / count) : 0.0);
+        m.put("p50", percentile(sorted, 0.50));
+        m.put("p90", percentile(sorted, 0.90));
+        m.put("p99", percentile(sorted, 0.99));
+        m.put("max", count > 0 ? millis(sorted[count - 1]) : 0.0);
+        return m;
+    }
+
+    // Nearest-rank percentile
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+        int rank = (int) Math.ceil(p * sorted.length);
+        return millis(sorted[Math.max(0, rank - 1)]);
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+}
@@ -0,0 +1,410 @@
+package com.asaf.plugins.wifiaware;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import android.util.Base64;
+
+/**
+ * The scripted workloads. Each builds a fresh {@link Mesh}, drives the shims the way an app
+ * would, and returns its measurements; latencies come from send timestamps carried in the
+ * payload, so they span the shim on both ends, the event hop to the main looper and the link.
+ */
+final class Workloads {
+
+    final LinkProfile profile;
+    final File root;
+    int peers = 4;
+    String engine = WifiAwareShim.ENGINE_NIO;
+    long timeoutMs = 60_000;
+    int stormMessages = 200;
+    int stormBytes = 200;
+    int socketMessages = 2000;
+    int socketBytes = 1024;
+    long fileBytes = 8L << 20;
+    int stripes = 1;
+    String sendMode = WifiAwareShim.SEND_MODE_STREAM;
+    int churnCycles = 5;
+    int churnMessages = 20;
+
+    Workloads(LinkProfile profile, File root) {
+        this.profile = profile;
+        this.root = root;
+    }
+
+    interface Workload {
+        Map<String, Object> run(Workloads w) throws Exception;
+    }
+
+    static final Map<String, Workload> ALL = new LinkedHashMap<>();
+    static {
+        ALL.put("storm", Workloads::storm);
+        ALL.put("messages", Workloads::messages);
+        ALL.put("transfers", Workloads::transfers);
+        ALL.put("churn", Workloads::churn);
+    }
+
+    /** Every peer floods the hub with discovery messages, through the shim's L2 queue */
+    Map<String, Object> storm() throws Exception {
+        try (Mesh mesh = new Mesh(profile, peers, root, timeoutMs)) {
+            int total = peers * stormMessages;
+            Samples latency = new Samples();
+            AtomicInteger delivered = new AtomicInteger();
+            AtomicInteger sent = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            mesh.onData = (peerId, data) -> {
+                if (Probe.sentAt(data, latency))
+                    delivered.incrementAndGet();
+            };
+            for (EmulatedNode peer : mesh.peers)
+                peer.events.onMessageStatus = (id, status) -> ("sent".equals(status) ? sent : failed).incrementAndGet();
+
+            long start = System.nanoTime();
+            forEachPeer(i -> {
+                EmulatedNode peer = mesh.peers.get(i);
+                for (int k = 0; k < stormMessages; k++) {
+                    String b64 = Base64.encodeToString(Probe.encode(i, k, stormBytes), Base64.NO_WRAP);
+                    peer.shim.sendMessage(mesh.hubIds.get(i), b64);
+                }
+            });
+            await("storm statuses", () -> sent.get() + failed.get() >= total && delivered.get() >= sent.get());
+            long elapsed = System.nanoTime() - start;
+
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("messages", total);
+            m.put("delivered", delivered.get());
+            m.put("failed", failed.get());
+            m.put("elapsedMs", millis(elapsed));
+            m.put("messagesPerSec", perSecond(delivered.get(), elapsed));
+            m.put("latencyMs", latency.toMap());
+            m.put("air", mesh.air.stats());
+            m.put("hub", shimStats(mesh.hub));
+            return m;
+        }
+    }
+
+    /** Every peer sends socket messages to the hub over its own data path */
+    Map<String, Object> messages() throws Exception {
+        try (Mesh mesh = new Mesh(profile, peers, root, timeoutMs)) {
+            Samples setup = new Samples();
+            List<Mesh.DataPath> paths = connectAll(mesh, setup);
+            int total = peers * socketMessages;
+            Samples latency = new Samples();
+            AtomicInteger delivered = new AtomicInteger();
+            mesh.onData = (peerId, data) -> {
+                if (Probe.sentAt(data, latency))
+                    delivered.incrementAndGet();
+            };
+
+            long start = System.nanoTime();
+            forEachPeer(i -> {
+                EmulatedNode peer = mesh.peers.get(i);
+                for (int k = 0; k < socketMessages; k++) {
+                    peer.shim.sendDataToPeers(paths.get(i).peerSocketId, null, Probe.encode(i, k, socketBytes), true)
+                            .get(timeoutMs, TimeUnit.MILLISECONDS);
+                }
+            });
+            await("socket messages", () -> delivered.get() >= total);
+            long elapsed = System.nanoTime() - start;
+
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("messages", total);
+            m.put("delivered", delivered.get());
+            m.put("elapsedMs", millis(elapsed));
+            m.put("messagesPerSec", perSecond(delivered.get(), elapsed));
+            m.put("mibPerSec", mibPerSecond((long) delivered.get() * socketBytes, elapsed));
+            m.put("latencyMs", latency.toMap());
+            m.put("ndpSetupMs", setup.toMap());
+            m.put("air", mesh.air.stats());
+            m.put("hub", shimStats(mesh.hub));
+            for (int i = 0; i < peers; i++)
+                mesh.disconnect(i, paths.get(i));
+            return m;
+        }
+    }
+
+    /** Every peer sends the hub one file at the same time; received files are compared byte for byte */
+    Map<String, Object> transfers() throws Exception {
+        try (Mesh mesh = new Mesh(profile, peers, root, timeoutMs)) {
+            List<Mesh.DataPath> paths = connectAll(mesh, new Samples());
+            List<Path> sources = new ArrayList<>();
+            for (int i = 0; i < peers; i++)
+                sources.add(randomFile(new File(mesh.peers.get(i).cacheDir, "upload-" + i + ".bin").toPath(), i));
+
+            Samples durations = new Samples();
+            Map<String, String> received = new ConcurrentHashMap<>();
+            AtomicInteger failed = new AtomicInteger();
+            long start = System.nanoTime();
+            mesh.hub.events.onFileReceived = (fileName, filePath) -> {
+                durations.add(System.nanoTime() - start);
+                received.put(fileName, filePath);
+            };
+            for (EmulatedNode peer : mesh.peers) {
+                peer.events.onTransferDone = (transferId, status) -> {
+                    if (!"completed".equals(status))
+                        failed.incrementAndGet();
+                };
+            }
+            WifiAwarePlugin.SendFileOptions opts = new WifiAwarePlugin.SendFileOptions(sendMode, stripes, false,
+                    ChunkCodecs.NONE, false);
+            for (int i = 0; i < peers; i++) {
+                Path source = sources.get(i);
+                mesh.peers.get(i).shim.sendFile(mesh.hubIds.get(i), source.toString(), null,
+                        source.getFileName().toString(), "application/octet-stream", paths.get(i).peerSocketId, opts);
+            }
+            await("file transfers", () -> received.size() + failed.get() >= peers);
+            long elapsed = System.nanoTime() - start;
+
+            int corrupted = 0;
+            for (Path source : sources) {
+                String copy = received.get(source.getFileName().toString());
+                if (copy != null && Files.mismatch(source, Paths.get(copy)) != -1)
+                    corrupted++;
+            }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("transfers", peers);
+            m.put("completed", received.size());
+            m.put("failed", failed.get());
+            m.put("corrupted", corrupted);
+            m.put("fileBytes", fileBytes);
+            m.put("elapsedMs", millis(elapsed));
+            m.put("mibPerSec", mibPerSecond((long) received.size() * fileBytes, elapsed));
+            m.put("durationMs", durations.toMap());
+            m.put("air", mesh.air.stats());
+            m.put("hub", shimStats(mesh.hub));
+            m.put("countersAfterReset", countersAfterReset(mesh.hub));
+            for (int i = 0; i < peers; i++)
+                mesh.disconnect(i, paths.get(i));
+            return m;
+        }
+    }
+
+    /**
+     * Every peer repeatedly re-subscribes, greets the hub, brings up a data path, exchanges a
+     * few messages and tears it down again. Afterwards the hub should hold no sockets.
+     */
+    Map<String, Object> churn() throws Exception {
+        try (Mesh mesh = new Mesh(profile, peers, root, timeoutMs)) {
+            Samples rejoin = new Samples();
+            Samples setup = new Samples();
+            Samples latency = new Samples();
+            AtomicInteger ok = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            Map<Integer, AtomicInteger> counts = new ConcurrentHashMap<>();
+            for (int i = 0; i < peers; i++)
+                counts.put(i, new AtomicInteger());
+            mesh.onData = (peerId, data) -> {
+                if (Probe.sentAt(data, latency))
+                    counts.get(Probe.peer(data)).incrementAndGet();
+            };
+            int threadsBefore = Thread.activeCount();
+
+            long start = System.nanoTime();
+            forEachPeer(i -> {
+                EmulatedNode peer = mesh.peers.get(i);
+                for (int c = 0; c < churnCycles; c++) {
+                    try {
+                        long t = System.nanoTime();
+                        mesh.join(i);
+                        rejoin.add(System.nanoTime() - t);
+                        Mesh.DataPath path = mesh.connect(i, engine);
+                        setup.add(path.setupNanos);
+                        counts.get(i).set(0);
+                        for (int k = 0; k < churnMessages; k++) {
+                            peer.shim.sendDataToPeers(path.peerSocketId, null, Probe.encode(i, k, 64), true)
+                                    .get(timeoutMs, TimeUnit.MILLISECONDS);
+                        }
+                        await(peer.name + " cycle " + c, () -> counts.get(i).get() >= churnMessages);
+                        mesh.disconnect(i, path);
+                        ok.incrementAndGet();
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        System.err.println(peer.name + " cycle " + c + " failed: " + e);
+                    }
+                }
+            });
+            long elapsed = System.nanoTime() - start;
+            // Teardown is asynchronous on both ends
+            AtomicLong open = new AtomicLong();
+            try {
+                await("sockets to close", () -> {
+                    open.set(gauge(mesh.hub, "sockets.open") + gauge(mesh.hub, "sockets.connections"));
+                    return open.get() == 0;
+                });
+            } catch (TimeoutException ignored) {
+            }
+
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("cycles", peers * churnCycles);
+            m.put("completed", ok.get());
+            m.put("failed", failed.get());
+            m.put("elapsedMs", millis(elapsed));
+            m.put("rejoinMs", rejoin.toMap());
+            m.put("ndpSetupMs", setup.toMap());
+            m.put("latencyMs", latency.toMap());
+            m.put("hubSocketsLeft", open.get());
+            m.put("threadGrowth", Thread.activeCount() - threadsBefore);
+            m.put("air", mesh.air.stats());
+            m.put("hub", shimStats(mesh.hub));
+            return m;
+        }
+    }
+
+    // ===== Helpers =====
+
+    /** Message payloads carrying their sender, sequence number and send time */
+    static final class Probe {
+        static final byte MARK = 0x7E;
+        static final int HEADER = 17;
+
+        static byte[] encode(int peer, int seq, int size) {
+            ByteBuffer b = ByteBuffer.allocate(Math.max(HEADER, size));
+            b.put(MARK).putInt(peer).putInt(seq).putLong(System.nanoTime());
+            return b.array();
+        }
+
+        static int peer(byte[] data) {
+            return ByteBuffer.wrap(data, 1, 4).getInt();
+        }
+
+        /** Records the latency of a probe; false for anything else */
+        static boolean sentAt(byte[] data, Samples latency) {
+            if (data.length < HEADER || data[0] != MARK)
+                return false;
+            latency.add(System.nanoTime() - ByteBuffer.wrap(data, 9, 8).getLong());
+            return true;
+        }
+    }
+
+    private List<Mesh.DataPath> connectAll(Mesh mesh, Samples setup) throws Exception {
+        List<Mesh.DataPath> paths = new ArrayList<>();
+        for (int i = 0; i < peers; i++)
+            paths.add(null);
+        forEachPeer(i -> {
+            Mesh.DataPath path = mesh.connect(i, engine);
+            setup.add(path.setupNanos);
+            synchronized (paths) {
+                paths.set(i, path);
+            }
+        });
+        return paths;
+    }
+
+    private Path randomFile(Path path, int seed) throws IOException {
+        byte[] block = new byte[1 << 16];
+        Random random = new Random(seed);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            for (long written = 0; written < fileBytes; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, fileBytes - written));
+            }
+        }
+        return path;
+    }
+
+    interface PeerTask {
+        void run(int index) throws Exception;
+    }
+
+    /** Runs the task for every peer at once and rethrows the first failure */
+    private void forEachPeer(PeerTask task) throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        for (int i = 0; i < peers; i++) {
+            int index = i;
+            Thread t = new Thread(() -> {
+                try {
+                    task.run(index);
+                } catch (Exception e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }, "workload-" + i);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (!errors.isEmpty())
+            throw errors.get(0);
+    }
+
+    private void await(String what, BooleanSupplier done) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (!done.getAsBoolean()) {
+            if (System.nanoTime() > deadline)
+                throw new TimeoutException("Timed out waiting for " + what);
+            Thread.sleep(2);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> shimStats(EmulatedNode node) {
+        Map<String, Object> stats = node.shim.getStats();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("counters", stats.get("counters"));
+        m.put("gauges", stats.get("gauges"));
+        return m;
+    }
+
+    /** Resets the node's stats and counts the counters getStats still reports as non-zero */
+    @SuppressWarnings("unchecked")
+    private static int countersAfterReset(EmulatedNode node) {
+        node.shim.resetStats();
+        Map<String, Object> stats = node.shim.getStats();
+        List<Object> counters = new ArrayList<>(((Map<String, Object>) stats.get("counters")).values());
+        for (Object h : ((Map<String, Object>) stats.get("histograms")).values())
+            counters.add(((Map<String, Object>) h).get("count"));
+        for (Object socket : ((Map<String, Object>) stats.get("sockets")).values())
+            counters.addAll(((Map<String, Object>) socket).values());
+        counters.addAll(((Map<String, Object>) stats.get("compression")).values());
+        // Sizes and limits describe current state, like gauges
+        Map<String, Object> store = new LinkedHashMap<>((Map<String, Object>) stats.get("chunkStore"));
+        store.keySet().removeAll(List.of("chunks", "bytes", "maxBytes"));
+        counters.addAll(store.values());
+        Map<String, Object> registry = new LinkedHashMap<>((Map<String, Object>) stats.get("peers"));
+        registry.keySet().removeAll(List.of("size", "maxPeers"));
+        counters.addAll(registry.values());
+        int nonZero = 0;
+        for (Object v : counters) {
+            if (((Number) v).longValue() != 0)
+                nonZero++;
+        }
+        return nonZero;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long gauge(EmulatedNode node, String name) {
+        Object v = ((Map<String, Object>) node.shim.getStats().get("gauges")).get(name);
+        return v instanceof Number ? ((Number) v).longValue() : 0;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    private static double perSecond(long n, long nanos) {
+        return nanos > 0 ? Math.round(n * 1e9 / nanos * 10) / 10.0 : 0;
+    }
+
+    private static double mibPerSecond(long bytes, long nanos) {
+        return nanos > 0 ? Math.round(bytes * 1e9 / nanos / (1 << 20) * 100) / 100.0 : 0;
+    }
+}
@@ -0,0 +1,7 @@
+package com.getcapacitor;
+
+public class Bridge {
+    public void execute(Runnable runnable) {
+        runnable.run();
+    }
+}
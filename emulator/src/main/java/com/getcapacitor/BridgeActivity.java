@@ -0,0 +1,6 @@
+package com.getcapacitor;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+public class BridgeActivity extends AppCompatActivity {
+}
@@ -0,0 +1,27 @@
+package com.getcapacitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/** Compile-time stand-in for Capacitor's JSArray. */
+public class JSArray extends JSONArray {
+
+    public JSArray() {
+    }
+
+    public JSArray(Collection<?> copyFrom) {
+        super(copyFrom);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <E> List<E> toList() throws JSONException {
+        List<E> items = new ArrayList<>();
+        for (int i = 0; i < length(); i++)
+            items.add((E) opt(i));
+        return items;
+    }
+}
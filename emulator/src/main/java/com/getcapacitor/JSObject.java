@@ -0,0 +1,88 @@
+package com.getcapacitor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** Compile-time stand-in for Capacitor's JSObject. */
+public class JSObject extends JSONObject {
+
+    public JSObject() {
+    }
+
+    @Override
+    public JSObject put(String key, Object value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, int value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, long value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, boolean value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, double value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return this;
+    }
+
+    public JSObject put(String key, String value) {
+        try {
+            super.put(key, (Object) value);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return this;
+    }
+
+    public String getString(String key, String defaultValue) {
+        return optString(key, defaultValue);
+    }
+
+    public Integer getInteger(String key) {
+        return getInteger(key, null);
+    }
+
+    public Integer getInteger(String key, Integer defaultValue) {
+        Object v = opt(key);
+        return v instanceof Number ? ((Number) v).intValue() : defaultValue;
+    }
+
+    public Boolean getBoolean(String key, Boolean defaultValue) {
+        Object v = opt(key);
+        return v instanceof Boolean ? (Boolean) v : defaultValue;
+    }
+}
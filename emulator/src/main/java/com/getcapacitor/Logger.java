@@ -0,0 +1,7 @@
+package com.getcapacitor;
+
+public class Logger {
+    public static void info(String tag, String message) {
+        android.util.Log.i(tag, message);
+    }
+}
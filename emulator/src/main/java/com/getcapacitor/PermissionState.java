@@ -0,0 +1,5 @@
+package com.getcapacitor;
+
+public enum PermissionState {
+    GRANTED, DENIED, PROMPT, PROMPT_WITH_RATIONALE
+}
@@ -0,0 +1,49 @@
+package com.getcapacitor;
+
+import android.content.Context;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+/** Compile-time stand-in for Capacitor's Plugin; the emulator never loads the plugin class. */
+public class Plugin {
+
+    protected Bridge bridge;
+
+    public void load() {
+    }
+
+    protected void handleOnDestroy() {
+    }
+
+    public Bridge getBridge() {
+        return bridge;
+    }
+
+    public Context getContext() {
+        return null;
+    }
+
+    public AppCompatActivity getActivity() {
+        return null;
+    }
+
+    protected void notifyListeners(String eventName, JSObject data) {
+    }
+
+    protected void notifyListeners(String eventName, JSObject data, boolean retainUntilConsumed) {
+    }
+
+    protected boolean hasListeners(String eventName) {
+        return false;
+    }
+
+    public void removeAllListeners(PluginCall call) {
+    }
+
+    protected void requestPermissionForAlias(String alias, PluginCall call, String callbackName) {
+    }
+
+    public PermissionState getPermissionState(String alias) {
+        return PermissionState.GRANTED;
+    }
+}
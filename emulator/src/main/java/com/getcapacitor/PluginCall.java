@@ -0,0 +1,97 @@
+package com.getcapacitor;
+
+/** Compile-time stand-in for Capacitor's PluginCall; the emulator drives the shim directly. */
+public class PluginCall {
+
+    private final String methodName;
+    private final JSObject data;
+
+    public PluginCall(String methodName, JSObject data) {
+        this.methodName = methodName;
+        this.data = data;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public JSObject getData() {
+        return data;
+    }
+
+    public String getString(String name) {
+        return getString(name, null);
+    }
+
+    public String getString(String name, String defaultValue) {
+        Object v = data.opt(name);
+        return v instanceof String ? (String) v : defaultValue;
+    }
+
+    public Boolean getBoolean(String name) {
+        return getBoolean(name, null);
+    }
+
+    public Boolean getBoolean(String name, Boolean defaultValue) {
+        Object v = data.opt(name);
+        return v instanceof Boolean ? (Boolean) v : defaultValue;
+    }
+
+    public Integer getInt(String name) {
+        return getInt(name, null);
+    }
+
+    public Integer getInt(String name, Integer defaultValue) {
+        Object v = data.opt(name);
+        return v instanceof Number ? (Integer) ((Number) v).intValue() : defaultValue;
+    }
+
+    public Long getLong(String name) {
+        return getLong(name, null);
+    }
+
+    public Long getLong(String name, Long defaultValue) {
+        Object v = data.opt(name);
+        return v instanceof Number ? (Long) ((Number) v).longValue() : defaultValue;
+    }
+
+    public Double getDouble(String name) {
+        return getDouble(name, null);
+    }
+
+    public Double getDouble(String name, Double defaultValue) {
+        Object v = data.opt(name);
+        return v instanceof Number ? (Double) ((Number) v).doubleValue() : defaultValue;
+    }
+
+    public JSArray getArray(String name) {
+        Object v = data.opt(name);
+        if (!(v instanceof org.json.JSONArray))
+            return null;
+        org.json.JSONArray array = (org.json.JSONArray) v;
+        JSArray a = new JSArray();
+        for (int i = 0; i < array.length(); i++)
+            a.put(array.opt(i));
+        return a;
+    }
+
+    public JSObject getObject(String name) {
+        Object v = data.opt(name);
+        return v instanceof JSObject ? (JSObject) v : null;
+    }
+
+    public void resolve() {
+    }
+
+    public void resolve(JSObject data) {
+    }
+
+    public void reject(String msg) {
+    }
+
+    public void reject(String msg, Exception ex) {
+    }
+
+    public void setKeepAlive(Boolean keepAlive) {
+    }
+}
@@ -0,0 +1,53 @@
+package org.json;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/** Stand-in for Android's org.json.JSONArray. */
+public class JSONArray {
+
+    final List<Object> values = new ArrayList<>();
+
+    public JSONArray() {
+    }
+
+    public JSONArray(Collection<?> copyFrom) {
+        if (copyFrom != null)
+            values.addAll(copyFrom);
+    }
+
+    public JSONArray put(Object value) {
+        values.add(value);
+        return this;
+    }
+
+    public int length() {
+        return values.size();
+    }
+
+    public Object get(int index) throws JSONException {
+        if (index < 0 || index >= values.size())
+            throw new JSONException("Index " + index + " out of range [0.." + values.size() + ")");
+        Object v = values.get(index);
+        if (v == null)
+            throw new JSONException("Value at " + index + " is null.");
+        return v;
+    }
+
+    public Object opt(int index) {
+        return index >= 0 && index < values.size() ? values.get(index) : null;
+    }
+
+    public String getString(int index) throws JSONException {
+        return String.valueOf(get(index));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < values.size(); i++)
+            sb.append(i > 0 ? "," : "").append(JSONObject.valueToString(values.get(i)));
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,10 @@
+package org.json;
+
+/** Checked, as in Android's copy of org.json. */
+public class JSONException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public JSONException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,105 @@
+package org.json;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Stand-in for Android's org.json.JSONObject, keeping insertion order. */
+public class JSONObject {
+
+    final Map<String, Object> values = new LinkedHashMap<>();
+
+    public JSONObject() {
+    }
+
+    public JSONObject put(String name, Object value) throws JSONException {
+        if (name == null)
+            throw new JSONException("Names must be non-null");
+        if (value == null)
+            values.remove(name);
+        else
+            values.put(name, value);
+        return this;
+    }
+
+    public JSONObject put(String name, int value) throws JSONException {
+        return put(name, (Object) value);
+    }
+
+    public JSONObject put(String name, long value) throws JSONException {
+        return put(name, (Object) value);
+    }
+
+    public JSONObject put(String name, double value) throws JSONException {
+        return put(name, (Object) value);
+    }
+
+    public JSONObject put(String name, boolean value) throws JSONException {
+        return put(name, (Object) value);
+    }
+
+    public Object opt(String name) {
+        return values.get(name);
+    }
+
+    public Object get(String name) throws JSONException {
+        Object v = values.get(name);
+        if (v == null)
+            throw new JSONException("No value for " + name);
+        return v;
+    }
+
+    public String optString(String name, String fallback) {
+        Object v = values.get(name);
+        return v != null ? String.valueOf(v) : fallback;
+    }
+
+    public boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    public int length() {
+        return values.size();
+    }
+
+    public Iterator<String> keys() {
+        return values.keySet().iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Object> e : values.entrySet()) {
+            if (sb.length() > 1)
+                sb.append(',');
+            sb.append(quote(e.getKey())).append(':').append(valueToString(e.getValue()));
+        }
+        return sb.append('}').toString();
+    }
+
+    static String valueToString(Object v) {
+        if (v instanceof JSONObject || v instanceof JSONArray || v instanceof Number || v instanceof Boolean)
+            return String.valueOf(v);
+        return v == null ? "null" : quote(String.valueOf(v));
+    }
+
+    public static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
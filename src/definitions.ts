@@ -2,6 +2,12 @@ import type { PluginListenerHandle } from '@capacitor/core';
 
 export type Role = 'publisher' | 'subscriber';
 export type TransferType = 'file' | 'message';
+export type SendMode = 'stream' | 'nio';
+export type Compression = 'none' | 'deflate' | string;
+export type CompletionMode = 'path' | 'base64';
+export type SocketEngine = 'blocking' | 'nio';
+export type ReceivePayloads = 'inline' | 'handle';
+export type DeviceInfoFormat = 'tlv' | 'json';
 
 export interface AttachResult {
   available: boolean;       // true if Wi-Fi Aware stack is available & enabled
@@ -27,6 +33,7 @@ export interface PublishOptions {
   instantMode?: boolean;        // Android 13+ instant comm mode (30s)
   rangingEnabled?: boolean;     // Allow RTT-assisted distance
   deviceInfo?: boolean;         // Include device info in advertisement
+  deviceInfoFormat?: DeviceInfoFormat; // 'tlv' (default): compact binary; 'json' for receivers on older plugin versions
   multicastEnabled?: boolean;   // Enable multicast transmissions
 }
 
@@ -36,13 +43,92 @@ export interface SubscribeOptions {
   minDistanceMm?: number;       // requires publisher rangingEnabled
   maxDistanceMm?: number;
   requestDeviceInfo?: boolean;  // Request device info when discovering peers
+  prewarm?: PrewarmOptions;     // Start data paths to matching peers on discovery, before startSocket (Android)
+}
+
+// A later startSocket (client, same pskPassphrase and engine) to a pre-warmed peer finds its data path ready
+export interface PrewarmOptions {
+  pskPassphrase: string;        // Used for the speculative paths; startSocket must pass the same one
+  engine?: SocketEngine;        // Engine of the sockets expected to use them (default 'nio')
+  maxDistanceMm?: number;       // Only peers reported within this range (needs ranging)
+  capability?: string;          // Only peers whose deviceInfo lists this capability
+  maxPaths?: number;            // Speculative paths at once (default 1)
+  preferRecent?: boolean;       // When full, replace the path of the peer discovered longest ago (default false: skip)
+  timeoutMs?: number;           // Cancel a path no socket used after this long (default 15000)
 }
 
 export interface Message {
   peerId: string;               // plugin-issued ID for a PeerHandle (Android) or endpoint (iOS)
-  dataBase64: string;           // Message content in Base64
-  multicast?: boolean;          // If true, send to all connected peers
-  peerIds?: string[];           // Alternative to multicast: specify target peers
+  dataBase64: string;           // Message content in Base64; over ~255 bytes it is fragmented (Android, up to ~62 KB)
+  multicast?: boolean;          // If true, send to all connected peers (with socketId: all peers of that socket)
+  peerIds?: string[];           // Alternative to multicast: specify target peers, sent to concurrently
+  socketId?: string;            // Send over this socket's data path instead of a discovery message
+  flush?: boolean;              // With socketId: skip the batching window and resolve once written
+}
+
+export interface HttpServerInfo {
+  url: string;                  // e.g. http://127.0.0.1:41234
+  token: string;
+}
+
+export interface HistogramStats {
+  count: number;
+  sum?: number;                 // The remaining fields are present once count > 0
+  mean?: number;
+  max?: number;
+  p50?: number;                 // Percentiles are bucket upper bounds, capped at max
+  p90?: number;
+  p99?: number;
+  buckets?: { le: number; count: number }[];  // Non-empty buckets only
+}
+
+export interface PluginStats {
+  sinceMs: number;              // Epoch ms of the last resetStats (or plugin load)
+  counters: Record<string, number>;       // e.g. l2.transmissions, ndp.requests, sockets.bytesSent, transfers.failed
+  gauges: Record<string, number>;         // Current values, e.g. l2.queued, transfers.active, payloads.stored
+  histograms: Record<string, HistogramStats>;  // e.g. ndp.setupMs, transfers.bytesPerSecond, events.bridgeLagMicros
+  sockets: Record<string, { bytesSent: number; bytesReceived: number }>;  // Open sockets by socketId
+  compression: Record<string, number>;
+  chunkStore: Record<string, number>;
+  peers: Record<string, number>;
+}
+
+export interface ReceivedMessage {
+  peerId: string;
+  dataBase64?: string;          // receivePayloads 'inline' (default): the whole message
+  handle?: string;              // receivePayloads 'handle': fetch with readMessage or drop with releaseMessages
+  length?: number;              // With handle: payload size in bytes
+  prefixBase64?: string;        // With handle: the first payloadPrefixBytes bytes, for routing without a fetch
+}
+
+export interface EventBatch<T> {
+  events: T[];                  // In arrival order; progress and serviceFound keep only the latest per transfer/peer
+  dropped: number;              // Events discarded since the previous batch because the queue was full
+}
+
+export interface SendTargetResult {
+  peerId: string;
+  messageId?: string;           // sendMessage over discovery: matched by 'messageStatus' events
+  transferId?: string;          // sendFile: matched by 'fileTransferProgress' events
+  error?: string;               // Set when this target failed or was not sent to; other targets are unaffected
+}
+
+export interface SendMessageResult {
+  messageIds: string[];         // One per message and target (fragments share it); matched by 'messageStatus' events
+  results?: SendTargetResult[]; // With multicast or peerIds (Android): one entry per target
+}
+
+export interface SendFileResult {
+  transferId: string;           // With several targets: the first target's transfer
+  transferIds?: string[];       // With multicast or peerIds (Android): one transfer per target
+  results?: SendTargetResult[]; // With multicast or peerIds (Android): resolved once every transfer has finished
+}
+
+export interface MessageStatus {
+  messageId: string;
+  peerId: string;
+  status: 'sent' | 'failed';    // 'sent' once the firmware confirmed transmission, 'failed' after the last retry
+  attempts: number;
 }
 
 export interface FileTransferOptions {
@@ -51,8 +137,14 @@ export interface FileTransferOptions {
   fileBase64?: string;          // Alternative to filePath: file content in Base64
   fileName: string;             // File name for the recipient
   mimeType?: string;            // MIME type of the file
-  multicast?: boolean;          // If true, send to all connected peers
-  peerIds?: string[];           // Alternative to multicast: specify target peers
+  multicast?: boolean;          // If true, send to every peer connected to socketId (one unstriped transfer each)
+  peerIds?: string[];           // Alternative to multicast: specify target peers of socketId
+  socketId?: string;            // Socket (from startSocket) used for the transfer
+  sendMode?: SendMode;          // 'stream' (default) or 'nio' zero-copy transferTo (filePath only)
+  stripes?: number;             // Parallel connections to spread the file over (1-8, filePath only)
+  resumable?: boolean;          // Resending the same, unchanged filePath to the same peer after a failure continues where it stopped
+  compression?: Compression;    // Per-chunk compression, skipped for chunks that do not shrink (default 'none')
+  dedup?: boolean;              // Send a chunk manifest first; only chunks the receiver lacks are sent (filePath only)
 }
 
 export interface FileTransferProgress {
@@ -64,6 +156,9 @@ export interface FileTransferProgress {
   progress: number;             // Progress as a percentage (0-100)
   direction: 'incoming' | 'outgoing';  // Transfer direction
   status: 'in-progress' | 'completed' | 'failed' | 'cancelled';
+  bytesPerSecond?: number;      // Throughput since the previous progress event (Android)
+  smoothedBytesPerSecond?: number; // Moving average over the last few seconds
+  etaMs?: number;               // Remaining time at the smoothed rate, when known
 }
 
 export interface StartSocketOptions {
@@ -72,6 +167,8 @@ export interface StartSocketOptions {
   asServer?: boolean;           // if true, publisher creates ServerSocket (recommended)
   multicastEnabled?: boolean;   // Enable socket for multicast operations
   maxConnections?: number;      // Maximum number of simultaneous connections (default 5)
+  engine?: SocketEngine;        // 'nio' (default): one selector thread and small bounded pools for all connections;
+                                // 'blocking': a thread per connection, at most 64 (further ones are refused)
 }
 
 export interface SocketResult {
@@ -84,10 +181,44 @@ export interface SocketResult {
   connectedPeers?: string[];    // List of peer IDs connected via this socket
 }
 
+export interface ConfigureOptions {
+  receiveMemoryMapped?: boolean; // Write incoming files through memory-mapped regions (default false)
+  completionMode?: CompletionMode; // 'path' (default): fileTransferCompleted carries only filePath/transferId
+  chunkStoreBytes?: number;     // Disk budget for received dedup chunks (default 128 MiB, LRU evicted)
+  socketLingerMicros?: number;  // Wait this long to coalesce small socket messages (default 0: send at once)
+  socketBatchBytes?: number;    // Largest coalesced socket write (default 64 KiB)
+  l2MaxInFlight?: number;       // Discovery messages handed to the firmware at once, at most (default 4)
+  l2MaxAttempts?: number;       // Sends per discovery message before it is reported failed (default 4)
+  fanOutConcurrency?: number;   // Peers sent to at once by multi-peer sendMessage/sendFile over sockets (default 4)
+  eventBatchIntervalMs?: number; // > 0 delivers messageReceived, fileTransferProgress and serviceFound as
+                                 // '<event>Batch' arrays at most this often instead (default 0: off)
+  receivePayloads?: ReceivePayloads; // 'handle' keeps received messages natively instead of Base64 in the event
+  payloadPrefixBytes?: number;  // Bytes of each stored message sent along as prefixBase64 (0-256, default 16)
+  payloadStoreBytes?: number;   // Budget for stored messages, oldest evicted first (default 8 MiB)
+  payloadStoreEntries?: number; // Stored messages kept at most (default 4096)
+  progressIntervalMs?: number;  // Time between fileTransferProgress events of one transfer (default 500)
+  dataPathIdleMs?: number;      // Keep a peer's data path this long after its last socket stops, for reuse (default 10000, 0: close at once)
+  httpMaxUploadBytes?: number;  // Largest body the startHttpServer endpoint accepts, larger ones get 413 (default 1 GiB)
+  discoveryHysteresisMm?: number; // Distance change that makes serviceFound fire again for a known peer (default 500)
+  discoveryRepeatMs?: number;   // Otherwise an unchanged peer fires serviceFound at most this often (default 5000, 0: always)
+  eventBatchSize?: number;      // Deliver a batch early once this many events wait (default 64)
+  eventQueueLimit?: number;     // Waiting events per kind before the oldest are dropped (default 1024)
+}
+
+export interface TransferChunk {
+  dataBase64: string;           // Chunk content in Base64
+  bytesRead: number;            // Bytes in this chunk (0 at end of file)
+  totalBytes: number;           // Size of the received file
+  eof: boolean;                 // true when offset + bytesRead reached the end of the file
+}
+
 export interface WifiAwarePlugin {
   // Basic availability; must be called first
   attach(): Promise<AttachResult>;
 
+  // Tune native engine behaviour; only the provided fields are changed
+  configure(options: ConfigureOptions): Promise<void>;
+
   // Get device information
   getDeviceInfo(options: { peerId: string }): Promise<DeviceInfo>;
   
@@ -100,11 +231,27 @@ export interface WifiAwarePlugin {
   stopSubscribe(): Promise<void>;
 
   // Lightweight L2 messages (< ~255 bytes)
-  sendMessage(msg: Message): Promise<void>;
+  sendMessage(msg: Message): Promise<SendMessageResult>;
 
   // File transfer operations
-  sendFile(options: FileTransferOptions): Promise<string>; // Returns transferId
+  sendFile(options: FileTransferOptions): Promise<SendFileResult>;
   cancelFileTransfer(transferId: string): Promise<void>;
+  // Pull a completed incoming file in bounded chunks (length capped at 1 MB)
+  readTransferChunk(options: { transferId: string; offset: number; length: number }): Promise<TransferChunk>;
+  // Localhost-only HTTP endpoint for fetch(): GET /transfers, GET /transfers/{id} (Range supported),
+  // 409 while the file is still arriving), GET /messages/{handle}, POST /uploads?fileName= (returns filePath for sendFile),
+  // POST /send?fileName=&peerId=&socketId= (returns transferId). Pass the token as
+  // 'Authorization: Bearer <token>' or ?token=; a new token is issued on every start (Android)
+  startHttpServer(): Promise<HttpServerInfo>;
+  stopHttpServer(): Promise<void>;     // Also deletes files uploaded through the endpoint
+  // Payloads of messages received with receivePayloads 'handle'; release defaults to true
+  readMessage(options: { handle: string; release?: boolean }): Promise<{ dataBase64: string }>;
+  releaseMessages(options: { handles: string[] }): Promise<{ released: number }>;
+  releaseTransfer(options: { transferId: string; deleteFile?: boolean }): Promise<void>;
+  // Always-on counters, gauges and latency/size histograms (Android)
+  getStats(): Promise<PluginStats>;
+  resetStats(): Promise<void>;  // Zeroes counters and histograms, including the socket, compression, chunkStore and
+                                // peers counters; gauges and sizes are current values and unaffected
   
   // Open a P2P socket over Wi-Fi Aware (IPv6)
   startSocket(options: StartSocketOptions): Promise<SocketResult>;
@@ -114,9 +261,14 @@ export interface WifiAwarePlugin {
   addListener(eventName: 'stateChanged', listener: (s: AttachResult) => void): Promise<PluginListenerHandle>;
   addListener(eventName: 'serviceFound', listener: (ev: { peerId: string; serviceName: string; distanceMm?: number; serviceInfoBase64?: string; deviceInfo?: DeviceInfo }) => void): Promise<PluginListenerHandle>;
   addListener(eventName: 'serviceLost', listener: (ev: { peerId: string; serviceName: string; }) => void): Promise<PluginListenerHandle>;
-  addListener(eventName: 'messageReceived', listener: (msg: Message) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: 'messageReceived', listener: (msg: ReceivedMessage) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: 'messageStatus', listener: (status: MessageStatus) => void): Promise<PluginListenerHandle>;
   addListener(eventName: 'fileTransferRequest', listener: (req: { peerId: string; transferId: string; fileName: string; mimeType?: string; fileSize: number }) => void): Promise<PluginListenerHandle>;
   addListener(eventName: 'fileTransferProgress', listener: (progress: FileTransferProgress) => void): Promise<PluginListenerHandle>;
+  // Batched forms, fired instead of the single events while eventBatchIntervalMs > 0 (Android)
+  addListener(eventName: 'messageReceivedBatch', listener: (batch: EventBatch<ReceivedMessage>) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: 'fileTransferProgressBatch', listener: (batch: EventBatch<FileTransferProgress>) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: 'serviceFoundBatch', listener: (batch: EventBatch<{ peerId: string; serviceName: string; distanceMm?: number; serviceInfoBase64?: string; deviceInfo?: DeviceInfo }>) => void): Promise<PluginListenerHandle>;
   addListener(eventName: 'fileTransferCompleted', listener: (result: { peerId: string; transferId: string; fileName: string; filePath?: string; fileBase64?: string }) => void): Promise<PluginListenerHandle>;
   addListener(eventName: 'socketReady', listener: (res: SocketResult) => void): Promise<PluginListenerHandle>;
   addListener(eventName: 'socketClosed', listener: (data: { socketId?: string }) => void): Promise<PluginListenerHandle>;
@@ -4,7 +4,12 @@ import type {
   WifiAwarePlugin, 
   AttachResult, 
   SocketResult,
-  DeviceInfo
+  SendFileResult,
+  HttpServerInfo,
+  PluginStats,
+  SendMessageResult,
+  DeviceInfo,
+  TransferChunk
 } from './definitions';
 
 export class WifiAwareWeb extends WebPlugin implements WifiAwarePlugin {
@@ -19,6 +24,8 @@ export class WifiAwareWeb extends WebPlugin implements WifiAwarePlugin {
     }; 
   }
   
+  async configure(): Promise<void> { this.unsupported(); }
+  
   async getDeviceInfo(): Promise<DeviceInfo> {
     throw this.unavailable('Wi-Fi Aware is not available on web.');
   }
@@ -29,9 +36,9 @@ export class WifiAwareWeb extends WebPlugin implements WifiAwarePlugin {
   async subscribe(): Promise<void> { this.unsupported(); }
   async stopSubscribe(): Promise<void> { this.unsupported(); }
   
-  async sendMessage(): Promise<void> { this.unsupported(); }
+  async sendMessage(): Promise<SendMessageResult> { this.unsupported(); }
   
-  async sendFile(): Promise<string> { 
+  async sendFile(): Promise<SendFileResult> { 
     throw this.unavailable('Wi-Fi Aware is not available on web.');
   }
   
@@ -39,11 +46,43 @@ export class WifiAwareWeb extends WebPlugin implements WifiAwarePlugin {
     this.unsupported();
   }
 
+  async readTransferChunk(): Promise<TransferChunk> {
+    throw this.unavailable('Wi-Fi Aware is not available on web.');
+  }
+
+  async startHttpServer(): Promise<HttpServerInfo> {
+    throw this.unavailable('Wi-Fi Aware is not available on web.');
+  }
+
+  async stopHttpServer(): Promise<void> {
+    this.unsupported();
+  }
+
+  async readMessage(): Promise<{ dataBase64: string }> {
+    throw this.unavailable('Wi-Fi Aware is not available on web.');
+  }
+
+  async releaseMessages(): Promise<{ released: number }> {
+    throw this.unavailable('Wi-Fi Aware is not available on web.');
+  }
+
+  async releaseTransfer(): Promise<void> {
+    this.unsupported();
+  }
+
+  async getStats(): Promise<PluginStats> {
+    throw this.unavailable('Wi-Fi Aware is not available on web.');
+  }
+
+  async resetStats(): Promise<void> {
+    this.unsupported();
+  }
+
   async sendFileTransfer(): Promise<{ transferId: string }> { 
     throw this.unavailable('Wi-Fi Aware is not available on web.');
   }
   
-  async respondToFileTransfer(): Promise<void> { 
+  async respondToFileTransfer(): Promise<{ savePathIgnored?: boolean }> { 
     this.unsupported();
   }
   